@@ -115,6 +115,7 @@ public class FactorizerTest {
 //			new PollardRhoBrentMontgomery64(),
 //			new PollardRhoBrentMontgomery64_MH(),
 //			new PollardRhoBrentMontgomery64_MHInlined(),
+//			new PollardRhoBrentMontgomery128(),
 			
 			// SquFoF variants
 			// * pretty good, but never the best algorithm
@@ -133,6 +134,7 @@ public class FactorizerTest {
 //			new CFrac(true, 5, 1.5F, 0.152F, 0.253F, new TDiv_CF01(), new MatrixSolver_Gauss02(), 5),
 //			new CFrac(true, 5, 1.5F, 0.152F, 0.253F, new TDiv_CF02(), new MatrixSolver_Gauss02(), 5),
 //			new CFrac(true, 5, 1.5F, 0.152F, 0.253F, new TDiv_CF03(), new MatrixSolver_Gauss02(), 5),
+//			new PCFrac(true, 5, 1.5F, 0.152F, 0.253F, new MatrixSolver_Gauss02(), 5, 6),
 //			new CFrac63(true, 5, 1.5F, 0.152F, 0.25F, new TDiv_CF63_01(), new MatrixSolver_Gauss02(), 3),
 //			new CFrac63(true, 5, 1.5F, 0.152F, 0.25F, new TDiv_CF63_02(), new MatrixSolver_Gauss02(), 12),
 
@@ -140,7 +142,12 @@ public class FactorizerTest {
 //			new TinyEcm64(),
 //			new TinyEcm64_MH(),
 //			new TinyEcm64_MHInlined(), // best algorithm for N from 46 to 62 bit
+//			new TinyEcm128(),
 //			new EllipticCurveMethod(-1),
+//			new EllipticCurveMethod(-1, EcmVariant.MONTGOMERY_31), // 31-bit arithmetic for all N
+//			new EllipticCurveMethod(-1, EcmVariant.MONTGOMERY_64),
+//			new EllipticCurveMethod(-1, EcmVariant.EDWARDS_64),
+//			new EllipticCurveMethod(-1, EcmVariant.EDWARDS_64, 1000), // polynomial stage 2 with B2 = 1000*B1
 
 			// SIQS:
 			// small N
@@ -166,6 +173,7 @@ public class FactorizerTest {
 //			new PSIQS(0.31F, 0.37F, null, 20, new NoPowerFinder(), new MatrixSolver_BlockLanczos()),
 			new PSIQS_U(0.31F, 0.37F, null, 20, new NoPowerFinder(), new MatrixSolver_BlockLanczos()),
 //			new PSIQS_U(0.31F, 0.37F, null, 20, new NoPowerFinder(), new MatrixSolver_PGauss01(12)),
+//			new PSIQS_U(0.31F, 0.37F, null, 20, new NoPowerFinder(), new MatrixSolver_BlockWiedemann(4)),
 //			new PSIQS_U(0.31F, 0.37F, null, 20, new PowerOfSmallPrimesFinder(), new MatrixSolver_BlockLanczos()),
 //			new PSIQS_U(0.31F, 0.37F, null, 20, new AllPowerFinder(), new MatrixSolver_BlockLanczos()),
 
@@ -80,11 +80,35 @@ abstract public class AQPair {
 		return allFactors;
 	}
 
+	/**
+	 * @return the small factors of Q. No copy, must not be modified.
+	 */
+	public int[] getSmallFactors() {
+		return smallFactors;
+	}
+
+	/**
+	 * @return the exponents of the small factors of Q. No copy, must not be modified.
+	 */
+	public short[] getSmallFactorExponents() {
+		return smallFactorExponents;
+	}
+
 	/**
 	 * @return the total number of large factors of Q in this AQPair.
 	 */
 	abstract public int getNumberOfLargeQFactors();
 	
+	/**
+	 * Write the large factors of Q into the given array, each factor repeated as often as its exponent says.
+	 * This allows to collect the Q-factors of many AQPairs without creating SortedMultisets.
+	 * 
+	 * @param target array with at least getNumberOfLargeQFactors() free entries starting at pos
+	 * @param pos the first position to write to
+	 * @return the position after the last factor written
+	 */
+	abstract public int addLargeQFactors(long[] target, int pos);
+	
 	/**
 	 * hashCode() and equals() must be based on A to avoid duplicates.
 	 * Q is not required, not even in CFrac.
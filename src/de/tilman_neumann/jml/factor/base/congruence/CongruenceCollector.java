@@ -71,6 +71,7 @@ public interface CongruenceCollector {
 	int getPartialCongruenceCount();
 
 	/**
+	 * Implementations used by several threads must allow this method to be called without synchronization.
 	 * @return the factor that was found or null
 	 */
 	BigInteger getFactor();
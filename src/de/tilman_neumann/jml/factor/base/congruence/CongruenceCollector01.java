@@ -72,7 +72,7 @@ public class CongruenceCollector01 implements CongruenceCollector {
 	private MatrixSolver matrixSolver;
 	
 	// Storing a found factor in this class permits it to be retrieved by multiple threads
-	public BigInteger factor;
+	public volatile BigInteger factor;
 
 	// statistics
 	private int totalPartialCount; // standard
@@ -56,7 +56,7 @@ public class CongruenceCollector02 implements CongruenceCollector {
 	private MatrixSolver matrixSolver;
 
 	// Storing a found factor in this class permits it to be retrieved by multiple threads
-	public BigInteger factor;
+	public volatile BigInteger factor;
 
 	// statistics
 	private int perfectSmoothCount, smoothFromPartialsCount;
@@ -57,4 +57,10 @@ public class Partial_1Large extends Partial {
 	public int getNumberOfLargeQFactors() {
 		return 1;
 	}
+
+	@Override
+	public int addLargeQFactors(long[] target, int pos) {
+		target[pos++] = bigFactor;
+		return pos;
+	}
 }
@@ -65,4 +65,11 @@ public class Partial_2Large extends Partial {
 	public int getNumberOfLargeQFactors() {
 		return 2;
 	}
+
+	@Override
+	public int addLargeQFactors(long[] target, int pos) {
+		target[pos++] = bigFactor1;
+		target[pos++] = bigFactor2;
+		return pos;
+	}
 }
@@ -72,4 +72,14 @@ public class Partial_nLarge extends Partial {
 		}
 		return count;
 	}
+
+	@Override
+	public int addLargeQFactors(long[] target, int pos) {
+		for (int i=0; i<bigFactors.length; i++) {
+			for (int j=bigFactorExponents[i]; j>0; j--) {
+				target[pos++] = bigFactors[i];
+			}
+		}
+		return pos;
+	}
 }
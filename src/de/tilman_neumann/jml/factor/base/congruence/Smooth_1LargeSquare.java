@@ -53,4 +53,11 @@ public class Smooth_1LargeSquare extends Smooth_Simple {
 	public int getNumberOfLargeQFactors() {
 		return 2;
 	}
+
+	@Override
+	public int addLargeQFactors(long[] target, int pos) {
+		target[pos++] = bigFactor;
+		target[pos++] = bigFactor;
+		return pos;
+	}
 }
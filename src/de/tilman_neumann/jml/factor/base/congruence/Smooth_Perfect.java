@@ -43,4 +43,9 @@ public class Smooth_Perfect extends Smooth_Simple {
 	public int getNumberOfLargeQFactors() {
 		return 0;
 	}
+
+	@Override
+	public int addLargeQFactors(long[] target, int pos) {
+		return pos;
+	}
 }
@@ -61,4 +61,14 @@ public class Smooth_nLargeSquares extends Smooth_Simple {
 		}
 		return count;
 	}
+
+	@Override
+	public int addLargeQFactors(long[] target, int pos) {
+		for (int i=0; i<bigFactors.length; i++) {
+			for (int j=bigFactorExponents[i]; j>0; j--) {
+				target[pos++] = bigFactors[i];
+			}
+		}
+		return pos;
+	}
 }
@@ -41,6 +41,23 @@ public class BlockLanczos implements Serializable {
 	 * the next one in bit 1 of all ints, and so on.
 	 */
 	public int[] computeBlockLanczos(final int[][] matrixB, int matrixBlength) {
+		return computeBlockLanczos(new SparseMatrix(matrixB, matrixBlength));
+	}
+
+	/**
+	 * Block-Lanczos matrix solver working on a matrix in CSR format.
+	 * 
+	 * @param matrixB The matrix holding the smooth relations. Row r represents one smooth congruence,
+	 * its entries are the indices of the primes that occur in the smooth part of the relation with odd exponent.
+	 * matrixB is not changed by the Block-Lanczos algorithm.
+	 * 
+	 * @return The solution matrix matrixV. This matrix can encode 32 different potential solutions: one in bit 0 of all ints, 
+	 * the next one in bit 1 of all ints, and so on.
+	 */
+	public int[] computeBlockLanczos(final SparseMatrix matrixB) {
+	    final int matrixBlength = matrixB.getNumberOfRows();
+	    final int[] rowOffsets = matrixB.getRowOffsets();
+	    final int[] columnIndices = matrixB.getColumnIndices();
 	    int i, j, k;
 	    int oldDiagonalSSt, newDiagonalSSt;
 	    int index, indexC, mask;
@@ -79,7 +96,6 @@ public class BlockLanczos implements Serializable {
 	    int row, col;
 	    int leftCol, rightCol;
 	    int minind, min, minanswer;
-	    int[] rowMatrixB;
 
 	    newDiagonalSSt = oldDiagonalSSt = -1;
 
@@ -103,7 +119,7 @@ public class BlockLanczos implements Serializable {
 			oldDiagonalSSt = newDiagonalSSt;
 			stepNbr++;
 			// Compute matrix A * V(i)
-			MultiplyAByMatrix(matrixB, matrixV, matrixCalc3, matrixAV, matrixBlength);
+			MultiplyAByMatrix(rowOffsets, columnIndices, matrixV, matrixCalc3, matrixAV, matrixBlength);
 			// Compute matrix Vt(i) * A * V(i)
 			MatrTranspMult(matrixV, matrixAV, matrixVtAV);
 
@@ -272,12 +288,11 @@ public class BlockLanczos implements Serializable {
 	    	matrixV1[row] = matrixV2[row] = 0;
 	    }
 	    for (row = matrixBlength - 1; row >= 0; row--) {
-	    	rowMatrixB = matrixB[row];
 	    	rowMatrixXmY = matrixXmY[row];
 	    	rowMatrixV = matrixV[row];
-	    	// The vector rowMatrixB includes the indexes of the columns set to '1'.
-	    	for (index = rowMatrixB.length - 1; index >= 0; index--) {
-	    		col = rowMatrixB[index];
+	    	// The row includes the indexes of the columns set to '1'.
+	    	for (index = rowOffsets[row+1] - 1; index >= rowOffsets[row]; index--) {
+	    		col = columnIndices[index];
 		        matrixV1[col] ^= rowMatrixXmY;
 		        matrixV2[col] ^= rowMatrixV;
 	    	}
@@ -518,16 +533,16 @@ public class BlockLanczos implements Serializable {
 	/** 
 	 * Compute Bt * B * matrixV where B is the matrix that holds the factorization relations.
 	 * 
-	 * @param matrixB the matrix that holds the factorization relations
+	 * @param rowOffsets row offsets of the CSR matrix that holds the factorization relations
+	 * @param columnIndices column indices of the CSR matrix that holds the factorization relations
 	 * @param matrixV input matrix
 	 * @param TempMatr buffer
 	 * @param matrixAV result
 	 * @param matrixBlength matrix/vector size
 	 */
-	private void MultiplyAByMatrix(int[][] matrixB, int[] matrixV, int[] TempMatr, int[] matrixAV, int matrixBlength) {
+	private void MultiplyAByMatrix(int[] rowOffsets, int[] columnIndices, int[] matrixV, int[] TempMatr, int[] matrixAV, int matrixBlength) {
 	    int index;
 	    int prodMatr;
-	    int[] rowMatrixB = null;
 
 	    /* Compute TempMatr = B * matrixV */
 	    for (index = matrixBlength - 1; index >= 0; index--) {
@@ -537,10 +552,9 @@ public class BlockLanczos implements Serializable {
 	    int row = matrixBlength - 1;
 	    int congruenceColumn = -1, matrixVEntry = -1;
 	    for (; row >= 0; row--) {
-	    	rowMatrixB = matrixB[row];
-	    	for (index = rowMatrixB.length - 1; index >= 0; index--) {
+	    	for (index = rowOffsets[row+1] - 1; index >= rowOffsets[row]; index--) {
 	    		// congruenceColumn is the index of a prime occurring in the congruence with odd exponent (an equation system column/variable)
-	    		congruenceColumn = rowMatrixB[index];
+	    		congruenceColumn = columnIndices[index];
 	    		matrixVEntry = matrixV[row];
 	    		// In the following line we would get an ArrayIndexOutOfBoundsException if the equation system is under-determined
 	    		TempMatr[congruenceColumn] ^= matrixVEntry;
@@ -550,9 +564,8 @@ public class BlockLanczos implements Serializable {
 	    /* Compute ProdMatr = Bt * TempMatr */
 	    for (row = matrixBlength - 1; row >= 0; row--) {
 	    	prodMatr = 0;
-	    	rowMatrixB = matrixB[row];
-	    	for (index = rowMatrixB.length - 1; index >= 0; index--) {
-	    		congruenceColumn = rowMatrixB[index];
+	    	for (index = rowOffsets[row+1] - 1; index >= rowOffsets[row]; index--) {
+	    		congruenceColumn = columnIndices[index];
 	    		prodMatr ^= TempMatr[congruenceColumn];
 	    	}
 	    	matrixAV[row] = prodMatr;
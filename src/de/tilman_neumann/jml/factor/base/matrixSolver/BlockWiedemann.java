@@ -0,0 +1,515 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.factor.base.matrixSolver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Coppersmith's Block-Wiedemann algorithm for finding null vectors of a sparse matrix over GF(2).
+ *
+ * The matrix B holds one smooth congruence per row; we want combinations of rows that xor to zero, i.e. the kernel of B^T.
+ * To get a square matrix, B^T is padded with zeros, giving the max(#rows, #columns) x max(#rows, #columns) matrix M.
+ *
+ * The algorithm has three phases:
+ * 1. Sequence generation: For random blocks X (m=64 unit vectors) and Y = M*Z (n=64*numberOfTasks random vectors) compute
+ *    the sequence a_i = X^T * M^i * Y. Each 64-column slice of Y is processed by its own thread; the slices are completely
+ *    independent and need no synchronization.
+ * 2. Linear generator computation: Coppersmith's quadratic algorithm finds polynomials f(x) with coefficients in GF(2)^n
+ *    such that the coefficients of a(x)*f(x) vanish in a long range of degrees.
+ * 3. Kernel vector extraction: Each such f(x) gives a vector v = sum_k M^(deg(f)-k)*Z*f_k, and the last non-zero vector
+ *    of the sequence v, M*v, M^2*v, ... is a null vector of M.
+ *
+ * References:
+ * [Coppersmith 1994]: Don Coppersmith, "Solving homogeneous linear equations over GF(2) via block Wiedemann algorithm", Math. Comp. 62 (1994), 333-350.
+ * [Thomé 2002]: Emmanuel Thomé, "Subquadratic computation of vector generating polynomials and improvement of the block Wiedemann algorithm", J. Symbolic Comput. 33 (2002), 757-775.
+ *
+ * @author Tilman Neumann
+ */
+public class BlockWiedemann {
+	private static final Logger LOG = Logger.getLogger(BlockWiedemann.class);
+	private static final boolean DEBUG = false;
+
+	/** number of rows of X, fixed to one long */
+	private static final int M_BLOCK = 64;
+	/** a few extra sequence elements to make success overwhelmingly probable */
+	private static final int EXTRA_SEQUENCE_LENGTH = 8;
+	/** maximum number of multiplications by M to turn a candidate vector into a null vector */
+	private static final int MAX_KERNEL_ITERATIONS = 8;
+
+	/** number of independent sequence tasks, each of them processing 64 columns of Y */
+	private int numberOfTasks;
+
+	// matrix data: M*v is computed by scattering the CSR rows of B
+	private int numberOfRows;
+	private int matrixSize;
+	private int numberOfColumns;
+	private int[] rowOffsets;
+	private int[] columnIndices;
+
+	// random blocks
+	private int[] xIndices;
+	private long[][] matrixZ;
+
+	/** the sequence a_i = X^T * M^i * Y; a[i][r*numberOfTasks + task] holds 64 bits of row r */
+	private long[][] sequence;
+	private int sequenceLength;
+
+	/** set when the sequence generation is aborted; the sequence threads check it once per iteration */
+	private volatile boolean finishNow;
+
+	/**
+	 * Full constructor.
+	 * @param numberOfTasks number of independent sequence tasks, each one run on its own thread
+	 */
+	public BlockWiedemann(int numberOfTasks) {
+		this.numberOfTasks = numberOfTasks;
+	}
+
+	/**
+	 * Block-Wiedemann matrix solver.
+	 *
+	 * @param matrixB The matrix holding the smooth relations. Row r represents one smooth congruence,
+	 * its entries are the indices of the primes that occur in the smooth part of the relation with odd exponent.
+	 * matrixB is not changed by the Block-Wiedemann algorithm.
+	 *
+	 * @return solution matrices. Each of them has one long per row of matrixB and encodes up to 64 null vectors:
+	 * one in bit 0 of all longs, the next one in bit 1 of all longs, and so on.
+	 * If the calling thread is interrupted during the sequence generation, the computation is aborted and an empty list is returned;
+	 * the interrupt flag of the calling thread is set again in that case.
+	 */
+	public List<long[]> computeBlockWiedemann(SparseMatrix matrixB) {
+		numberOfRows = matrixB.getNumberOfRows();
+		numberOfColumns = matrixB.getNumberOfColumns();
+		rowOffsets = matrixB.getRowOffsets();
+		columnIndices = matrixB.getColumnIndices();
+		matrixSize = Math.max(numberOfRows, numberOfColumns);
+		if (numberOfColumns == 0) return new ArrayList<long[]>();
+
+		createRandomBlocks();
+		if (!computeSequence()) {
+			// an incomplete sequence does not give a null space
+			matrixZ = null;
+			sequence = null;
+			return new ArrayList<long[]>();
+		}
+		Generator generator = computeLinearGenerator();
+
+		List<long[]> solutions = new ArrayList<long[]>();
+		for (int batch=0; batch<numberOfTasks; batch++) {
+			long[] solution = computeNullVectors(generator, batch);
+			if (solution != null) solutions.add(solution);
+		}
+
+		// release memory
+		matrixZ = null;
+		sequence = null;
+		return solutions;
+	}
+
+	/**
+	 * Choose X as m distinct unit vectors, which makes X^T*W a simple lookup, and Z as dense random vectors.
+	 */
+	private void createRandomBlocks() {
+		Random rng = new Random(123456789L); // fixed seed makes the solver deterministic
+		// X^T*W only needs to see the first numberOfColumns coordinates because the image of M is confined to them
+		int xCount = Math.min(M_BLOCK, numberOfColumns);
+		xIndices = new int[xCount];
+		boolean[] taken = new boolean[numberOfColumns];
+		for (int i=0; i<xCount; i++) {
+			int index;
+			do {
+				index = rng.nextInt(numberOfColumns);
+			} while (taken[index]);
+			taken[index] = true;
+			xIndices[i] = index;
+		}
+		matrixZ = new long[numberOfTasks][matrixSize];
+		for (int task=0; task<numberOfTasks; task++) {
+			long[] Z = matrixZ[task];
+			for (int i=0; i<matrixSize; i++) {
+				Z[i] = rng.nextLong();
+			}
+		}
+	}
+
+	/**
+	 * Compute product = M*v for a block v of 64 vectors.
+	 * @param v input vectors, one long per row
+	 * @param product result buffer, one long per row
+	 */
+	private void multiplyByM(long[] v, long[] product) {
+		Arrays.fill(product, 0L);
+		for (int row = numberOfRows-1; row >= 0; row--) {
+			long vEntry = v[row];
+			if (vEntry == 0) continue;
+			for (int index = rowOffsets[row+1] - 1; index >= rowOffsets[row]; index--) {
+				product[columnIndices[index]] ^= vEntry;
+			}
+		}
+	}
+
+	/**
+	 * The sequence generation phase. Each task computes X^T * M^i * M * Z_task for all i; the tasks do not share any mutable data.
+	 * @return true if the sequence is complete, false if the calling thread has been interrupted
+	 */
+	private boolean computeSequence() {
+		// The Krylov subspaces have dimension <= rank(M) + 1 <= numberOfColumns + 1
+		int mBlock = xIndices.length;
+		int nBlock = 64 * numberOfTasks;
+		sequenceLength = (numberOfColumns + mBlock - 1) / mBlock + (numberOfColumns + nBlock - 1) / nBlock + EXTRA_SEQUENCE_LENGTH;
+		sequence = new long[sequenceLength][M_BLOCK * numberOfTasks];
+
+		finishNow = false;
+		SequenceThread[] threads = new SequenceThread[numberOfTasks];
+		for (int task=0; task<numberOfTasks; task++) {
+			threads[task] = new SequenceThread(task);
+			threads[task].setName("BW-" + task);
+			threads[task].start();
+		}
+		boolean interrupted = false;
+		for (SequenceThread t : threads) {
+			// after an interrupt, stop the remaining threads and wait until they no longer write into the sequence
+			while (t.isAlive()) {
+				try {
+					t.join();
+				} catch (InterruptedException e) {
+					if (DEBUG) LOG.debug("sequence generation has been interrupted");
+					interrupted = true;
+					finishNow = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt(); // restore the interrupt flag
+			return false;
+		}
+		return true;
+	}
+
+	private class SequenceThread extends Thread {
+		private int task;
+
+		SequenceThread(int task) {
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+			long[] W = new long[matrixSize];
+			long[] buffer = new long[matrixSize];
+			multiplyByM(matrixZ[task], W); // Y = M*Z
+			for (int i=0; i<sequenceLength; i++) {
+				if (finishNow) return;
+				// a_i = X^T * W, where W = M^i * Y; every task writes its own longs of the sequence only
+				long[] a_i = sequence[i];
+				for (int r=xIndices.length-1; r>=0; r--) {
+					a_i[r*numberOfTasks + task] = W[xIndices[r]];
+				}
+				if (i+1 < sequenceLength) {
+					multiplyByM(W, buffer);
+					long[] tmp = W;
+					W = buffer;
+					buffer = tmp;
+				}
+			}
+		}
+	}
+
+	/**
+	 * A matrix polynomial generator: Column j is the polynomial f_j(x) in GF(2)^n [x] with nominal degree delta[j],
+	 * coefficient k being stored in f[j][k*numberOfTasks] ... f[j][k*numberOfTasks + numberOfTasks-1].
+	 */
+	private static class Generator {
+		long[][] f;
+		int[] delta;
+		Integer[] columnsByDegree;
+	}
+
+	/**
+	 * Coppersmith's quadratic algorithm to compute a linear generator of the matrix sequence.
+	 *
+	 * We maintain m+n columns (f_j, delta_j) satisfying the invariant that the coefficients of e_j(x) = a(x)*f_j(x) vanish
+	 * for all degrees d with delta_j <= d < t. In each step t, Gaussian elimination on the discrepancies e_j[t], processing
+	 * columns with small nominal degree first, makes all but at most m discrepancies zero, and the remaining pivot columns
+	 * are multiplied by x. The e_j are updated alongside the f_j, so that the discrepancies never need to be recomputed.
+	 *
+	 * @return generator
+	 */
+	private Generator computeLinearGenerator() {
+		int mBlock = xIndices.length;
+		int nBlock = 64 * numberOfTasks;
+
+		// select the initial columns: n unit vectors e_j, and up to m columns x*e_j whose discrepancies a_0*e_j
+		// are linearly independent. All columns start with nominal degree t0=1.
+		final int t0 = 1;
+		ArrayList<Integer> extraColumns = new ArrayList<Integer>();
+		long[] echelon = new long[mBlock];
+		for (int j=0; j<nBlock && extraColumns.size()<mBlock; j++) {
+			long v = getSequenceColumn(0, j);
+			// reduce v by the previously selected columns; echelon[b] has lowest set bit b
+			while (v != 0) {
+				int b = Long.numberOfTrailingZeros(v);
+				if (echelon[b] == 0) {
+					echelon[b] = v;
+					extraColumns.add(j);
+					break;
+				}
+				v ^= echelon[b];
+			}
+		}
+
+		int columnCount = nBlock + extraColumns.size();
+		int fCapacity = (sequenceLength + t0 + 2) * numberOfTasks;
+		long[][] f = new long[columnCount][fCapacity];
+		long[][] e = new long[columnCount][sequenceLength];
+		int[] delta = new int[columnCount];
+		for (int j=0; j<columnCount; j++) {
+			int s = (j < nBlock) ? 0 : t0;
+			int column = (j < nBlock) ? j : extraColumns.get(j-nBlock);
+			// f_j = x^s * e_column
+			f[j][s*numberOfTasks + (column>>6)] = 1L << (column & 63);
+			// e_j(x) = a(x) * x^s * e_column
+			for (int k=s; k<sequenceLength; k++) {
+				e[j][k] = getSequenceColumn(k-s, column);
+			}
+			delta[j] = t0;
+		}
+
+		Integer[] columnsByDegree = new Integer[columnCount];
+		for (int j=0; j<columnCount; j++) columnsByDegree[j] = j;
+		int[] pivotOfRow = new int[mBlock];
+		boolean[] isPivot = new boolean[columnCount];
+		for (int t=t0; t<sequenceLength; t++) {
+			// sort columns by nominal degree; the sort is stable, so the order among columns of equal degree is kept
+			final int[] deltaCopy = delta;
+			Arrays.sort(columnsByDegree, (j1, j2) -> deltaCopy[j1] - deltaCopy[j2]);
+			Arrays.fill(pivotOfRow, -1);
+			Arrays.fill(isPivot, false);
+			for (int j : columnsByDegree) {
+				long discrepancy = e[j][t];
+				while (discrepancy != 0) {
+					int row = Long.numberOfTrailingZeros(discrepancy);
+					int p = pivotOfRow[row];
+					if (p < 0) {
+						pivotOfRow[row] = j;
+						isPivot[j] = true;
+						break;
+					}
+					// add column p to column j; this is allowed because delta[p] <= delta[j]
+					long[] fj = f[j], fp = f[p];
+					for (int i=(delta[p]+1)*numberOfTasks-1; i>=0; i--) {
+						fj[i] ^= fp[i];
+					}
+					long[] ej = e[j], ep = e[p];
+					for (int k=sequenceLength-1; k>=t; k--) {
+						ej[k] ^= ep[k];
+					}
+					discrepancy = ej[t];
+				}
+			}
+			// multiply the pivot columns by x
+			for (int j=0; j<columnCount; j++) {
+				if (!isPivot[j]) continue;
+				System.arraycopy(f[j], 0, f[j], numberOfTasks, (delta[j]+1)*numberOfTasks);
+				Arrays.fill(f[j], 0, numberOfTasks, 0L);
+				delta[j]++;
+				System.arraycopy(e[j], t, e[j], t+1, sequenceLength-1-t);
+				e[j][t] = 0;
+			}
+		}
+
+		if (DEBUG) {
+			// verify the invariant for all columns
+			for (int j=0; j<columnCount; j++) {
+				for (int d=delta[j]; d<sequenceLength; d++) {
+					long sum = 0;
+					for (int k=0; k<=delta[j] && k<=d; k++) {
+						sum ^= sequenceTimesVector(d-k, f[j], k);
+					}
+					assertEquals(0L, sum);
+				}
+			}
+		}
+
+		Generator generator = new Generator();
+		generator.f = f;
+		generator.delta = delta;
+		final int[] deltaCopy = delta;
+		Arrays.sort(columnsByDegree, (j1, j2) -> deltaCopy[j1] - deltaCopy[j2]);
+		generator.columnsByDegree = columnsByDegree;
+		if (DEBUG) LOG.debug("sequenceLength = " + sequenceLength + ", t0 = " + t0 + ", deltas = " + Arrays.toString(delta));
+		return generator;
+	}
+
+	/**
+	 * @param i sequence index
+	 * @param column column index of Y
+	 * @return column 'column' of a_i as a long with bit r representing row r
+	 */
+	private long getSequenceColumn(int i, int column) {
+		long[] a_i = sequence[i];
+		int task = column >> 6;
+		int bit = column & 63;
+		long result = 0;
+		for (int r=xIndices.length-1; r>=0; r--) {
+			result |= ((a_i[r*numberOfTasks + task] >>> bit) & 1L) << r;
+		}
+		return result;
+	}
+
+	/**
+	 * Only used for debugging.
+	 * @return a_i * f_k as a long with bit r representing row r
+	 */
+	private long sequenceTimesVector(int i, long[] f, int k) {
+		long[] a_i = sequence[i];
+		long result = 0;
+		for (int r=xIndices.length-1; r>=0; r--) {
+			long parity = 0;
+			for (int task=0; task<numberOfTasks; task++) {
+				parity ^= Long.bitCount(a_i[r*numberOfTasks + task] & f[k*numberOfTasks + task]) & 1;
+			}
+			result |= parity << r;
+		}
+		return result;
+	}
+
+	/**
+	 * Compute null vectors from 64 generator columns.
+	 *
+	 * @param generator
+	 * @param batch the index of the 64 columns with smallest nominal degree to use
+	 * @return solution matrix encoding up to 64 null vectors, or null if none was found
+	 */
+	private long[] computeNullVectors(Generator generator, int batch) {
+		int firstColumn = batch*64;
+		int columnCount = Math.min(64, generator.columnsByDegree.length - firstColumn);
+		if (columnCount <= 0) return null;
+		int[] columns = new int[columnCount];
+		int maxDelta = 0;
+		for (int b=0; b<columnCount; b++) {
+			columns[b] = generator.columnsByDegree[firstColumn + b];
+			maxDelta = Math.max(maxDelta, generator.delta[columns[b]]);
+		}
+
+		// Horner scheme: V = sum_{d=0}^{maxDelta} M^d * Z * G_d, where bit b of G_d is coefficient delta_b - d of f_b
+		long[] V = new long[matrixSize];
+		long[] buffer = new long[matrixSize];
+		long[] G = new long[64 * numberOfTasks];
+		long[][] tables = new long[8][256];
+		for (int d=maxDelta; d>=0; d--) {
+			if (d < maxDelta) {
+				multiplyByM(V, buffer);
+				long[] tmp = V;
+				V = buffer;
+				buffer = tmp;
+			}
+			Arrays.fill(G, 0L);
+			for (int b=0; b<columnCount; b++) {
+				int j = columns[b];
+				int k = generator.delta[j] - d;
+				if (k < 0) continue;
+				long[] fj = generator.f[j];
+				for (int task=0; task<numberOfTasks; task++) {
+					long coeff = fj[k*numberOfTasks + task];
+					while (coeff != 0) {
+						int c = Long.numberOfTrailingZeros(coeff);
+						G[task*64 + c] |= 1L << b;
+						coeff &= coeff-1;
+					}
+				}
+			}
+			for (int task=0; task<numberOfTasks; task++) {
+				addZTimesG(matrixZ[task], G, task*64, tables, V);
+			}
+		}
+
+		// The last non-zero vector of V, M*V, M^2*V, ... is a null vector
+		long[] solution = new long[matrixSize];
+		long done = (columnCount==64) ? 0L : -1L << columnCount;
+		for (int iteration=0; iteration<MAX_KERNEL_ITERATIONS && done != -1L; iteration++) {
+			multiplyByM(V, buffer);
+			long nonZeroV = 0, nonZeroMV = 0;
+			for (int i=matrixSize-1; i>=0; i--) {
+				nonZeroV |= V[i];
+				nonZeroMV |= buffer[i];
+			}
+			long found = nonZeroV & ~nonZeroMV & ~done;
+			if (found != 0) {
+				for (int i=matrixSize-1; i>=0; i--) {
+					solution[i] |= V[i] & found;
+				}
+			}
+			done |= found | ~nonZeroV;
+			long[] tmp = V;
+			V = buffer;
+			buffer = tmp;
+		}
+
+		// coordinates beyond the rows of B belong to the zero padding of M
+		long nonZero = 0;
+		for (int i=numberOfRows-1; i>=0; i--) {
+			nonZero |= solution[i];
+		}
+		if (DEBUG) {
+			multiplyByM(solution, buffer);
+			for (int i=matrixSize-1; i>=0; i--) {
+				assertEquals(0L, buffer[i]);
+			}
+			LOG.debug("batch " + batch + " found " + Long.bitCount(nonZero) + " null vectors");
+		}
+		if (nonZero == 0) return null;
+		return matrixSize > numberOfRows ? Arrays.copyOf(solution, numberOfRows) : solution;
+	}
+
+	/**
+	 * Compute V += Z*G for the 64 columns of Z and G[offset]...G[offset+63], using 8-bit lookup tables.
+	 * @param Z random block, one long per row
+	 * @param G 64 longs, G[offset+c] holding the batch bits to add for column c of Z
+	 * @param offset
+	 * @param tables buffer
+	 * @param V vector block to update
+	 */
+	private void addZTimesG(long[] Z, long[] G, int offset, long[][] tables, long[] V) {
+		boolean isZero = true;
+		for (int c=0; c<64; c++) {
+			if (G[offset + c] != 0) {
+				isZero = false;
+				break;
+			}
+		}
+		if (isZero) return;
+		
+		for (int byteIndex=0; byteIndex<8; byteIndex++) {
+			long[] table = tables[byteIndex];
+			table[0] = 0;
+			for (int value=1; value<256; value++) {
+				int lowBit = Integer.numberOfTrailingZeros(value);
+				table[value] = table[value & (value-1)] ^ G[offset + (byteIndex<<3) + lowBit];
+			}
+		}
+		for (int i=matrixSize-1; i>=0; i--) {
+			long z = Z[i];
+			V[i] ^= tables[0][(int)(z & 0xFF)] ^ tables[1][(int)((z>>>8) & 0xFF)] ^ tables[2][(int)((z>>>16) & 0xFF)] ^ tables[3][(int)((z>>>24) & 0xFF)]
+				  ^ tables[4][(int)((z>>>32) & 0xFF)] ^ tables[5][(int)((z>>>40) & 0xFF)] ^ tables[6][(int)((z>>>48) & 0xFF)] ^ tables[7][(int)(z>>>56)];
+		}
+	}
+}
@@ -0,0 +1,294 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.factor.base.matrixSolver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import de.tilman_neumann.jml.factor.FactorException;
+import de.tilman_neumann.jml.factor.TestNumberNature;
+import de.tilman_neumann.jml.factor.TestsetGenerator;
+import de.tilman_neumann.jml.factor.base.congruence.Smooth;
+import de.tilman_neumann.jml.factor.psiqs.PSIQS_U;
+import de.tilman_neumann.jml.factor.siqs.powers.NoPowerFinder;
+import de.tilman_neumann.util.ConfigUtil;
+
+/**
+ * Correctness and performance comparison of the Block-Lanczos and Block-Wiedemann solvers on recorded matrices.
+ * The null vectors found by both solvers are checked against the null space dimension computed by Gaussian elimination.
+ *
+ * If the matrix directory contains files "matrix-*.bin", these are used; otherwise matrices are recorded by factoring
+ * test numbers with PSIQS and stored in the matrix directory for later runs.
+ *
+ * @author Tilman Neumann
+ */
+public class BlockWiedemannTest {
+	private static final Logger LOG = Logger.getLogger(BlockWiedemannTest.class);
+
+	/** directory for the recorded matrices */
+	private static final String MATRIX_DIR = "matrices";
+	/** bit sizes of the numbers whose matrices are recorded */
+	private static final int[] BITS = new int[] {200, 220, 240, 260};
+	/** number of threads used for sieving and for the parallel sequence generation of Block-Wiedemann */
+	private static final int THREADS = 4;
+	/** each solver is run REPEATS times on each matrix */
+	private static final int REPEATS = 3;
+
+	/**
+	 * A Block-Lanczos solver that records the matrices it gets before solving them.
+	 */
+	private static class RecordingSolver extends MatrixSolver_BlockLanczos {
+		List<SparseMatrix> matrices = new ArrayList<SparseMatrix>();
+
+		@Override
+		protected void solve(List<Smooth> congruences, Map<Integer, Integer> factors_2_columnIndices) throws FactorException {
+			matrices.add(SparseMatrix.create(congruences, factors_2_columnIndices));
+			super.solve(congruences, factors_2_columnIndices);
+		}
+	}
+
+	private static List<SparseMatrix> recordMatrices(File dir) throws IOException {
+		dir.mkdirs();
+		List<SparseMatrix> matrices = new ArrayList<SparseMatrix>();
+		for (int bits : BITS) {
+			RecordingSolver recorder = new RecordingSolver();
+			PSIQS_U psiqs = new PSIQS_U(0.31F, 0.37F, null, THREADS, new NoPowerFinder(), recorder);
+			BigInteger N = TestsetGenerator.generate(1, bits, TestNumberNature.MODERATE_SEMIPRIMES)[0];
+			LOG.info("Factor N = " + N + " (" + bits + " bit) to record its matrix...");
+			psiqs.findSingleFactor(N);
+			SparseMatrix matrix = recorder.matrices.get(0);
+			File file = new File(dir, "matrix-" + bits + ".bin");
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+				matrix.writeTo(out);
+			}
+			matrices.add(matrix);
+		}
+		return matrices;
+	}
+
+	private static List<SparseMatrix> loadMatrices(File dir) throws IOException {
+		List<SparseMatrix> matrices = new ArrayList<SparseMatrix>();
+		File[] files = dir.listFiles((d, name) -> name.startsWith("matrix-") && name.endsWith(".bin"));
+		if (files == null) return matrices;
+		for (File file : files) {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+				matrices.add(SparseMatrix.readFrom(in));
+			}
+		}
+		return matrices;
+	}
+
+	/**
+	 * Count the distinct non-trivial null vectors encoded in the given solution matrix, given as bit columns.
+	 * @param matrix
+	 * @param solution one long per row, every bit position encodes one candidate
+	 * @param bitCount number of bit positions in use
+	 * @return number of true null vectors
+	 */
+	private static int countNullVectors(SparseMatrix matrix, long[] solution, int bitCount) {
+		int[] rowOffsets = matrix.getRowOffsets();
+		int[] columnIndices = matrix.getColumnIndices();
+		long[] product = new long[matrix.getNumberOfColumns()];
+		long nonZero = 0;
+		for (int row=matrix.getNumberOfRows()-1; row>=0; row--) {
+			long entry = solution[row];
+			nonZero |= entry;
+			for (int index = rowOffsets[row]; index < rowOffsets[row+1]; index++) {
+				product[columnIndices[index]] ^= entry;
+			}
+		}
+		long notNull = 0;
+		for (long p : product) {
+			notNull |= p;
+		}
+		long nullVectors = nonZero & ~notNull;
+		if (bitCount < 64) nullVectors &= (1L<<bitCount) - 1;
+		return Long.bitCount(nullVectors);
+	}
+
+	/**
+	 * Compute the dimension of the null space of the given matrix by Gaussian elimination, as in MatrixSolver_Gauss02.
+	 * Each row either becomes the pivot of some column or is reduced to a null vector, so the number of null vectors
+	 * found is #rows - rank.
+	 * @param matrix
+	 * @return null space dimension
+	 */
+	private static int nullSpaceDimension(SparseMatrix matrix) {
+		PackedMatrix packedMatrix = new PackedMatrix(matrix);
+		int[] pivotRowsForColumns = new int[matrix.getNumberOfColumns()];
+		Arrays.fill(pivotRowsForColumns, -1);
+		int nullVectorCount = 0;
+		for (int row=0; row<matrix.getNumberOfRows(); row++) {
+			int columnIndex = packedMatrix.getBiggestColumnIndex(row);
+			while (columnIndex >= 0) {
+				int pivot = pivotRowsForColumns[columnIndex];
+				if (pivot < 0) {
+					pivotRowsForColumns[columnIndex] = row;
+					break;
+				}
+				packedMatrix.addXor(row, pivot);
+				columnIndex = packedMatrix.getBiggestColumnIndex(row);
+			}
+			if (columnIndex < 0) nullVectorCount++;
+		}
+		return nullVectorCount;
+	}
+
+	/**
+	 * Check the candidate vectors encoded in the given solution matrices against the matrix.
+	 * @param matrix
+	 * @param solutions solution matrices, one long per row, every bit position encodes one candidate
+	 * @param bitCount number of bit positions in use
+	 * @return {number of candidates that are no null vectors, dimension of the span of the true null vectors}
+	 */
+	private static int[] checkNullVectors(SparseMatrix matrix, List<long[]> solutions, int bitCount) {
+		int numberOfRows = matrix.getNumberOfRows();
+		int[] rowOffsets = matrix.getRowOffsets();
+		int[] columnIndices = matrix.getColumnIndices();
+		int wrongCount = 0;
+		// the reduced basis of the span, indexed by the highest row index set
+		long[][] basis = new long[numberOfRows][];
+		int dimension = 0;
+		for (long[] solution : solutions) {
+			long[] product = new long[matrix.getNumberOfColumns()];
+			long nonZero = 0;
+			for (int row=0; row<numberOfRows; row++) {
+				long entry = solution[row];
+				nonZero |= entry;
+				for (int index = rowOffsets[row]; index < rowOffsets[row+1]; index++) {
+					product[columnIndices[index]] ^= entry;
+				}
+			}
+			long notNull = 0;
+			for (long p : product) {
+				notNull |= p;
+			}
+			if (bitCount < 64) nonZero &= (1L<<bitCount) - 1;
+			wrongCount += Long.bitCount(nonZero & notNull);
+			long nullVectors = nonZero & ~notNull;
+			while (nullVectors != 0) {
+				int bit = Long.numberOfTrailingZeros(nullVectors);
+				nullVectors &= nullVectors-1;
+				long[] vector = new long[(numberOfRows+63)>>6];
+				for (int row=0; row<numberOfRows; row++) {
+					if ((solution[row] & (1L<<bit)) != 0) vector[row>>6] |= 1L << row;
+				}
+				// reduce the vector by the basis; if something remains, it extends the span
+				for (int word=vector.length-1; word>=0; word--) {
+					while (vector[word] != 0) {
+						int highestRow = (word<<6) + 63 - Long.numberOfLeadingZeros(vector[word]);
+						long[] basisVector = basis[highestRow];
+						if (basisVector == null) {
+							basis[highestRow] = vector;
+							dimension++;
+							word = -1; // done
+							break;
+						}
+						for (int i=word; i>=0; i--) {
+							vector[i] ^= basisVector[i];
+						}
+					}
+				}
+			}
+		}
+		return new int[] {wrongCount, dimension};
+	}
+
+	/**
+	 * Compare the null vectors found by Block-Lanczos and Block-Wiedemann with the null space computed by Gaussian elimination.
+	 * @param matrices
+	 */
+	private static void testNullSpaces(List<SparseMatrix> matrices) {
+		BlockLanczos blockLanczos = new BlockLanczos();
+		BlockWiedemann blockWiedemann = new BlockWiedemann(THREADS);
+		for (SparseMatrix matrix : matrices) {
+			int nullSpaceDimension = nullSpaceDimension(matrix);
+
+			int[] matrixV = blockLanczos.computeBlockLanczos(matrix);
+			long[] matrixVAsLongs = new long[matrixV.length];
+			for (int row=0; row<matrixV.length; row++) {
+				matrixVAsLongs[row] = matrixV[row] & 0xFFFFFFFFL;
+			}
+			List<long[]> blSolutions = new ArrayList<long[]>();
+			blSolutions.add(matrixVAsLongs);
+			int[] blResult = checkNullVectors(matrix, blSolutions, 32);
+
+			List<long[]> bwSolutions = blockWiedemann.computeBlockWiedemann(matrix);
+			int[] bwResult = checkNullVectors(matrix, bwSolutions, 64);
+
+			LOG.info("Test " + matrix + ": Gauss null space dimension = " + nullSpaceDimension);
+			LOG.info("    Block-Lanczos null vectors span dimension " + blResult[1] + ", " + blResult[0] + " candidates are no null vectors");
+			LOG.info("    Block-Wiedemann(" + THREADS + ") null vectors span dimension " + bwResult[1] + ", " + bwResult[0] + " candidates are no null vectors");
+			// Block-Wiedemann only returns verified null vectors, and they must be enough to find a factor
+			if (bwResult[0] > 0) LOG.error("Block-Wiedemann returned " + bwResult[0] + " vectors that are not in the null space");
+			if (bwResult[1] > nullSpaceDimension) LOG.error("Block-Wiedemann null vectors span a bigger space than the null space?");
+			if (bwResult[1] < Math.min(nullSpaceDimension, 32)) LOG.error("Block-Wiedemann found only " + bwResult[1] + " independent null vectors");
+		}
+	}
+
+	private static void testPerformance(List<SparseMatrix> matrices) {
+		BlockLanczos blockLanczos = new BlockLanczos();
+		BlockWiedemann blockWiedemann = new BlockWiedemann(THREADS);
+		for (SparseMatrix matrix : matrices) {
+			LOG.info("Test " + matrix + ":");
+			long blDuration = 0, bwDuration = 0;
+			int blNullVectors = 0, bwNullVectors = 0;
+			for (int i=0; i<REPEATS; i++) {
+				long t0 = System.currentTimeMillis();
+				int[] matrixV = blockLanczos.computeBlockLanczos(matrix);
+				long t1 = System.currentTimeMillis();
+				List<long[]> solutions = blockWiedemann.computeBlockWiedemann(matrix);
+				long t2 = System.currentTimeMillis();
+				blDuration += t1-t0;
+				bwDuration += t2-t1;
+
+				long[] matrixVAsLongs = new long[matrixV.length];
+				for (int row=0; row<matrixV.length; row++) {
+					matrixVAsLongs[row] = matrixV[row] & 0xFFFFFFFFL;
+				}
+				blNullVectors = countNullVectors(matrix, matrixVAsLongs, 32);
+				bwNullVectors = 0;
+				for (long[] solution : solutions) {
+					bwNullVectors += countNullVectors(matrix, solution, 64);
+				}
+			}
+			LOG.info("    Block-Lanczos found " + blNullVectors + " null vectors in " + (blDuration/REPEATS) + "ms");
+			LOG.info("    Block-Wiedemann(" + THREADS + ") found " + bwNullVectors + " null vectors in " + (bwDuration/REPEATS) + "ms");
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		ConfigUtil.initProject();
+		File dir = new File(args.length > 0 ? args[0] : MATRIX_DIR);
+		List<SparseMatrix> matrices = loadMatrices(dir);
+		if (matrices.isEmpty()) {
+			matrices = recordMatrices(dir);
+		}
+		testNullSpaces(matrices);
+		testPerformance(matrices);
+	}
+}
@@ -13,6 +13,7 @@
  */
 package de.tilman_neumann.jml.factor.base.matrixSolver;
 
+import java.util.List;
 import java.util.Set;
 
 import de.tilman_neumann.jml.factor.FactorException;
@@ -38,4 +39,17 @@ public interface FactorTest {
 	 * @throws FactorException
 	 */
 	void testForFactor(Set<AQPair> aqPairs) throws FactorException;
+
+	/**
+	 * Test a batch of square congruences, e.g. all null vectors found by one matrix solver run.
+	 * The default implementation tests them one after another; implementations may test them in parallel.
+	 *
+	 * @param aqPairSets
+	 * @throws FactorException if one of the square congruences gave a factor of N
+	 */
+	default void testForFactors(List<Set<AQPair>> aqPairSets) throws FactorException {
+		for (Set<AQPair> aqPairs : aqPairSets) {
+			testForFactor(aqPairs);
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,301 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.factor.base.matrixSolver;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import de.tilman_neumann.jml.factor.FactorException;
+import de.tilman_neumann.jml.factor.base.congruence.AQPair;
+
+import static de.tilman_neumann.jml.base.BigIntConstants.*;
+import static org.junit.Assert.*;
+
+/**
+ * A factor test that counts the Q-factor exponents in an int[] indexed by the prime base instead of a SortedMultiset,
+ * and composes the products of A and sqrt(Q) with balanced product trees.
+ * 
+ * Equally sized operands let BigInteger use Karatsuba and Toom-Cook multiplication, whereas a linear product
+ * (mod N) does one full-size multiplication and one division per factor.
+ * 
+ * A batch of null vectors is tested in parallel by several threads; the first factor found stops all threads.
+ * 
+ * @author Tilman Neumann
+ */
+public class FactorTest02 implements FactorTest {
+	private static final Logger LOG = Logger.getLogger(FactorTest02.class);
+	private static final boolean DEBUG = false;
+
+	/** product tree nodes are reduced (mod N) when they get bigger than this multiple of the bit length of N */
+	private static final int REDUCTION_MULTIPLIER = 16;
+	
+	private BigInteger N;
+	private int[] primeBase;
+	private int primeBaseSize;
+	private int numberOfThreads;
+	private int maxUnreducedBits;
+
+	/**
+	 * Full constructor.
+	 * @param N
+	 * @param primeBase the prime base in ascending order; Q-factors not contained in it are supported, too
+	 * @param primeBaseSize
+	 * @param numberOfThreads number of threads used to test a batch of null vectors
+	 */
+	public FactorTest02(BigInteger N, int[] primeBase, int primeBaseSize, int numberOfThreads) {
+		this.N = N;
+		this.primeBase = primeBase;
+		this.primeBaseSize = primeBaseSize;
+		this.numberOfThreads = numberOfThreads;
+		this.maxUnreducedBits = N.bitLength() * REDUCTION_MULTIPLIER;
+	}
+	
+	@Override
+	public String getName() {
+		return "FactorTest02(" + N + ", " + numberOfThreads + ")";
+	}
+
+	/**
+	 * The state of one batch test, a simple ticket system to distribute the null vectors of the batch among the threads.
+	 * Each call of testForFactors() has its own instance, so concurrent calls do not interfere.
+	 */
+	private class BatchTest {
+		private List<Set<AQPair>> batch;
+		private int nextIndex;
+		private volatile FactorException factorFound; // needed to pass the exception back from the threads
+
+		BatchTest(List<Set<AQPair>> batch) {
+			this.batch = batch;
+		}
+
+		private synchronized Set<AQPair> getNextNullVector() {
+			return nextIndex < batch.size() ? batch.get(nextIndex++) : null;
+		}
+
+		/**
+		 * Test null vectors of the batch until the batch is exhausted or a factor has been found.
+		 */
+		void testNullVectors() {
+			while (factorFound == null) {
+				Set<AQPair> aqPairs = getNextNullVector();
+				if (aqPairs == null) return;
+				try {
+					testForFactor(aqPairs);
+				} catch (FactorException e) {
+					// trap the exception so that the helper threads are compatible with Thread.run()
+					factorFound = e;
+				}
+			}
+		}
+	}
+
+	private static class TestThread extends Thread {
+		private BatchTest batchTest;
+
+		TestThread(BatchTest batchTest) {
+			this.batchTest = batchTest;
+		}
+
+		@Override
+		public void run() {
+			batchTest.testNullVectors();
+		}
+	}
+
+	/**
+	 * Test a batch of square congruences in parallel. This method is thread-safe.
+	 * 
+	 * The calling thread is one of the numberOfThreads test threads. In PSIQS the caller is a sieve thread holding the congruence
+	 * collector, and the other sieve threads pause when they try to add congruences to it.
+	 * @param aqPairSets
+	 * @throws FactorException if one of the square congruences gave a factor of N
+	 */
+	@Override
+	public void testForFactors(List<Set<AQPair>> aqPairSets) throws FactorException {
+		int threadCount = Math.min(numberOfThreads, aqPairSets.size());
+		if (threadCount < 2) {
+			for (Set<AQPair> aqPairs : aqPairSets) {
+				testForFactor(aqPairs);
+			}
+			return;
+		}
+		
+		BatchTest batchTest = new BatchTest(aqPairSets);
+		TestThread[] threads = new TestThread[threadCount-1];
+		for (int i=0; i<threadCount-1; i++) {
+			threads[i] = new TestThread(batchTest);
+			threads[i].setName("FT-"+i);
+			threads[i].start();
+		}
+		batchTest.testNullVectors();
+		for (TestThread t : threads) {
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				LOG.debug(e, e);
+			}
+		}
+		if (batchTest.factorFound != null) {
+			throw batchTest.factorFound; // pass on the exception found by the threads
+		}
+	}
+	
+	/**
+	 * Test if a square congruence A^2 == Q (mod kN) gives a factor of N.
+	 * This method is thread-safe.
+	 *
+	 * @param aqPairs
+	 * @throws FactorException
+	 */
+	@Override
+	public void testForFactor(Set<AQPair> aqPairs) throws FactorException {
+		// Count the exponents of the Q-factors. Factors not contained in the prime base, in particular the large factors,
+		// are collected in a long[] with repetitions; the sign -1 is skipped because we want the positive sqrt(Q).
+		int[] exponents = new int[primeBaseSize];
+		int otherFactorCount = 0;
+		for (AQPair aqPair : aqPairs) {
+			otherFactorCount += aqPair.getNumberOfLargeQFactors();
+		}
+		long[] otherFactors = new long[otherFactorCount + 16];
+		int otherPos = 0;
+		for (AQPair aqPair : aqPairs) {
+			int[] smallFactors = aqPair.getSmallFactors();
+			short[] smallFactorExponents = aqPair.getSmallFactorExponents();
+			for (int i=0; i<smallFactors.length; i++) {
+				int factor = smallFactors[i];
+				if (factor == -1) continue;
+				int index = Arrays.binarySearch(primeBase, 0, primeBaseSize, factor);
+				if (index >= 0) {
+					exponents[index] += smallFactorExponents[i];
+				} else {
+					int exp = smallFactorExponents[i];
+					if (otherPos + exp > otherFactors.length) {
+						otherFactors = Arrays.copyOf(otherFactors, Math.max(2*otherFactors.length, otherPos + exp));
+					}
+					for (int j=0; j<exp; j++) {
+						otherFactors[otherPos++] = factor;
+					}
+				}
+			}
+			if (otherPos + aqPair.getNumberOfLargeQFactors() > otherFactors.length) {
+				otherFactors = Arrays.copyOf(otherFactors, 2*otherFactors.length + aqPair.getNumberOfLargeQFactors());
+			}
+			otherPos = aqPair.addLargeQFactors(otherFactors, otherPos);
+		}
+		
+		// Collect the leaves of the sqrt(Q) product tree. BlockLanczos returns non-square "solutions", too,
+		// so we test on the fly if Q is really a square. Several prime powers are packed into each leaf while they fit into a long.
+		ArrayList<BigInteger> qLeaves = new ArrayList<>();
+		long leaf = 1;
+		for (int i=0; i<primeBaseSize; i++) {
+			int exp = exponents[i];
+			if (exp == 0) continue;
+			if ((exp&1) == 1) {
+				// non-square "solution" -> early exit
+				if (DEBUG) LOG.debug("factor = " + primeBase[i] + ", exp = " + exp);
+				return;
+			}
+			leaf = addToLeaf(qLeaves, leaf, primeBase[i], exp>>1);
+		}
+		Arrays.sort(otherFactors, 0, otherPos);
+		for (int i=0; i<otherPos; ) {
+			long factor = otherFactors[i];
+			int runEnd = i+1;
+			while (runEnd < otherPos && otherFactors[runEnd] == factor) runEnd++;
+			int exp = runEnd - i;
+			if ((exp&1) == 1) {
+				// non-square "solution" -> early exit
+				if (DEBUG) LOG.debug("factor = " + factor + ", exp = " + exp);
+				return;
+			}
+			leaf = addToLeaf(qLeaves, leaf, factor, exp>>1);
+			i = runEnd;
+		}
+		if (leaf > 1) qLeaves.add(BigInteger.valueOf(leaf));
+		
+		// compose the products of all A and of sqrt(Q) (mod N)
+		BigInteger totalQSqrt = qLeaves.isEmpty() ? I_1 : product(qLeaves.toArray(new BigInteger[qLeaves.size()]), 0, qLeaves.size()).mod(N);
+		BigInteger[] aLeaves = new BigInteger[aqPairs.size()];
+		int aCount = 0;
+		for (AQPair aqPair : aqPairs) {
+			aLeaves[aCount++] = aqPair.getA();
+		}
+		BigInteger AProd = aCount == 0 ? I_1 : product(aLeaves, 0, aCount).mod(N);
+		
+		if (DEBUG) {
+			LOG.debug("N = " + N + ": testForFactor(): A=" + AProd + ", sqrt(Q)=" + totalQSqrt);
+			// verify congruence A^2 == Q (mod N)
+			BigInteger totalQ = totalQSqrt.multiply(totalQSqrt);
+			BigInteger div[] = AProd.pow(2).subtract(totalQ).divideAndRemainder(N);
+			assertEquals(I_0, div[1]);
+		}
+
+		// test A-sqrt(Q)
+		BigInteger minusGcd = AProd.subtract(totalQSqrt).gcd(N);
+		if (DEBUG) LOG.debug("minusGcd = " + minusGcd);
+		if (minusGcd.compareTo(I_1)>0 && minusGcd.compareTo(N)<0) throw new FactorException(minusGcd); // factor!
+		// test A+sqrt(Q)
+		BigInteger plusGcd = AProd.add(totalQSqrt).gcd(N);
+		if (DEBUG) LOG.debug("plusGcd = " + plusGcd);
+		if (plusGcd.compareTo(I_1)>0 && plusGcd.compareTo(N)<0) throw new FactorException(plusGcd); // factor!
+		// no factor exception -> no success
+	}
+	
+	/**
+	 * Multiply factor^exp into the current leaf; full leaves are added to the leaves list.
+	 * @param leaves
+	 * @param leaf the current leaf
+	 * @param factor
+	 * @param exp
+	 * @return the new current leaf
+	 */
+	private long addToLeaf(List<BigInteger> leaves, long leaf, long factor, int exp) {
+		long maxLeaf = Long.MAX_VALUE / factor;
+		for (int j=0; j<exp; j++) {
+			if (leaf > maxLeaf) {
+				leaves.add(BigInteger.valueOf(leaf));
+				leaf = 1;
+			}
+			leaf *= factor;
+		}
+		return leaf;
+	}
+	
+	/**
+	 * Compute the product of factors[from] ... factors[to-1] with a balanced product tree.
+	 * Nodes exceeding maxUnreducedBits are reduced (mod N), so the result is correct only modulo N.
+	 * 
+	 * @param factors
+	 * @param from
+	 * @param to
+	 * @return product (mod N)
+	 */
+	private BigInteger product(BigInteger[] factors, int from, int to) {
+		int count = to - from;
+		if (count == 1) return factors[from];
+		BigInteger result;
+		if (count == 2) {
+			result = factors[from].multiply(factors[from+1]);
+		} else {
+			int mid = (from + to) >>> 1;
+			result = product(factors, from, mid).multiply(product(factors, mid, to));
+		}
+		return result.bitLength() > maxUnreducedBits ? result.mod(N) : result;
+	}
+}
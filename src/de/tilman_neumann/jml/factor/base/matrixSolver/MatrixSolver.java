@@ -17,6 +17,7 @@ import static de.tilman_neumann.jml.factor.base.GlobalFactoringOptions.ANALYZE;
 
 import java.math.BigInteger;
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
@@ -66,6 +67,17 @@ abstract public class MatrixSolver {
 		factorTest.testForFactor(aqPairs);
 		// no factor exception -> drop improper square congruence
 	}
+
+	/**
+	 * Test a batch of null vectors found in one solver run. This allows the factor test to process them in parallel.
+	 * @param aqPairSets
+	 * @throws FactorException
+	 */
+	public void processNullVectors(List<Set<AQPair>> aqPairSets) throws FactorException {
+		if (ANALYZE) testedNullVectorCount += aqPairSets.size();
+		factorTest.testForFactors(aqPairSets);
+		// no factor exception -> drop improper square congruences
+	}
 	
 	/**
 	 * @return the number of solver runs needed (so far). Is not populated (i.e. 0) if ANALYZE_SOLVER_RUNS==false.
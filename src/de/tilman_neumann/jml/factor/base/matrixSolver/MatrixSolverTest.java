@@ -0,0 +1,110 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.factor.base.matrixSolver;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import de.tilman_neumann.jml.factor.FactorException;
+import de.tilman_neumann.jml.factor.TestNumberNature;
+import de.tilman_neumann.jml.factor.TestsetGenerator;
+import de.tilman_neumann.jml.factor.base.congruence.AQPair;
+import de.tilman_neumann.jml.factor.base.congruence.Smooth;
+import de.tilman_neumann.jml.factor.siqs.SIQS;
+import de.tilman_neumann.jml.factor.siqs.poly.SIQSPolyGenerator;
+import de.tilman_neumann.jml.factor.siqs.powers.NoPowerFinder;
+import de.tilman_neumann.jml.factor.siqs.sieve.Sieve03h;
+import de.tilman_neumann.jml.factor.siqs.tdiv.TDiv_QS_2LP;
+import de.tilman_neumann.util.ConfigUtil;
+
+/**
+ * Performance comparison of the single-threaded Gaussian solvers on congruence equation systems recorded from SIQS runs.
+ *
+ * The solvers get a factor test that only counts the null vectors, so every solver processes the complete equation system.
+ *
+ * @author Tilman Neumann
+ */
+public class MatrixSolverTest {
+	private static final Logger LOG = Logger.getLogger(MatrixSolverTest.class);
+
+	/** bit sizes of the numbers whose equation systems are recorded */
+	private static final int[] BITS = new int[] {120, 140, 160, 180, 200};
+	/** each solver is run REPEATS times on each equation system */
+	private static final int REPEATS = 5;
+
+	/**
+	 * A Gaussian solver that records the first equation system it gets before solving it.
+	 */
+	private static class RecordingSolver extends MatrixSolver_Gauss02 {
+		List<Smooth> congruences;
+
+		@Override
+		public void solve(Collection<? extends Smooth> congruences) throws FactorException {
+			if (this.congruences == null) this.congruences = new ArrayList<Smooth>(congruences);
+			super.solve(congruences);
+		}
+	}
+
+	/**
+	 * A factor test that never finds a factor but counts the null vectors it gets.
+	 */
+	private static class CountingFactorTest implements FactorTest {
+		int nullVectorCount;
+
+		@Override
+		public String getName() {
+			return "CountingFactorTest";
+		}
+
+		@Override
+		public void testForFactor(Set<AQPair> aqPairs) {
+			nullVectorCount++;
+		}
+	}
+
+	private static void testPerformance(BigInteger N, List<Smooth> congruences, MatrixSolver[] solvers) throws FactorException {
+		LOG.info("Test equation system of " + N.bitLength() + " bit N with " + congruences.size() + " congruences:");
+		for (MatrixSolver solver : solvers) {
+			CountingFactorTest factorTest = new CountingFactorTest();
+			solver.initialize(N, factorTest);
+			long t0 = System.currentTimeMillis();
+			for (int i=0; i<REPEATS; i++) {
+				solver.solve(congruences);
+			}
+			long duration = System.currentTimeMillis() - t0;
+			solver.cleanUp();
+			LOG.info("    " + solver.getName() + " found " + (factorTest.nullVectorCount/REPEATS) + " null vectors in " + (duration/REPEATS) + "ms");
+		}
+	}
+
+	public static void main(String[] args) throws FactorException {
+		ConfigUtil.initProject();
+		for (int bits : BITS) {
+			BigInteger N = TestsetGenerator.generate(1, bits, TestNumberNature.MODERATE_SEMIPRIMES)[0];
+			RecordingSolver recorder = new RecordingSolver();
+			SIQS siqs = new SIQS(0.31F, 0.37F, null, new NoPowerFinder(), new SIQSPolyGenerator(), new Sieve03h(), new TDiv_QS_2LP(false), 10, recorder);
+			siqs.findSingleFactor(N);
+
+			MatrixSolver[] solvers = new MatrixSolver[] {new MatrixSolver_Gauss02(), new MatrixSolver_Gauss03()};
+			// warm up the JIT, then measure
+			testPerformance(N, recorder.congruences, solvers);
+			testPerformance(N, recorder.congruences, solvers);
+		}
+	}
+}
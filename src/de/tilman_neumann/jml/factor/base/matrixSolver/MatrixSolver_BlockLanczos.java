@@ -15,9 +15,11 @@ package de.tilman_neumann.jml.factor.base.matrixSolver;
 
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import de.tilman_neumann.jml.factor.FactorException;
 import de.tilman_neumann.jml.factor.base.congruence.AQPair;
@@ -42,53 +44,43 @@ public class MatrixSolver_BlockLanczos extends MatrixSolverBase03 {
 	
 	@Override
 	protected void solve(List<Smooth> congruences, Map<Integer, Integer> factors_2_columnIndices) throws FactorException {
-		// create the matrix:
+		// create the matrix in CSR format:
 		// * the rows are in the same order as in the congruences list
-		// * we fill a row with the column indices where the congruence has a factor with odd exponent
-		int matrixBlength = congruences.size();
-		int[][] matrixB = new int[matrixBlength][];
-		int i=0;
-		for (Smooth congruence : congruences) {
-			// row entry = set of column indices where the congruence has a factor with odd exponent
-			Integer[] oddExpFactors = congruence.getMatrixElements();
-			int[] matrixRow = new int[oddExpFactors.length];
-			int j=0;
-			for (Integer oddExpFactor : oddExpFactors) {
-				// columnIndex should not be bigger than the number of congruences
-				int columnIndex = factors_2_columnIndices.get(oddExpFactor);
-				if (DEBUG) assertTrue(columnIndex <= matrixBlength);
-				matrixRow[j++] = columnIndex;
-			}
-			matrixB[i++] = matrixRow;
-		}
-		//LOG.debug("constructed matrix with " + matrixBlength + " rows and " + factors_2_columnIndices.size() + " columns");
+		// * a row holds the column indices where the congruence has a factor with odd exponent
+		SparseMatrix matrixB = SparseMatrix.create(congruences, factors_2_columnIndices);
+		int matrixBlength = matrixB.getNumberOfRows();
+		// column indices should not be bigger than the number of congruences
+		if (DEBUG) assertTrue(matrixB.getNumberOfColumns() <= matrixBlength);
+		//LOG.debug("constructed matrix with " + matrixBlength + " rows and " + matrixB.getNumberOfColumns() + " columns");
 		
 		// invoke Alperns Block Lanczos solver
-		int[] matrixV = blockLanczosSolver.computeBlockLanczos(matrixB, matrixBlength);
+		int[] matrixV = blockLanczosSolver.computeBlockLanczos(matrixB);
 		//LOG.debug("BlockLanzcos returned matrixV = " + Arrays.toString(matrixV));
 		
 		// See Siqs.LinearAlgebraPhase() for how to interprete matrixV:
 		// There can be up to 32 potential solutions encoded in matrixV!
 		// One in bit 0 of all ints, the next in bit 1 of all ints, and so on.
+		List<Set<AQPair>> nullVectors = new ArrayList<Set<AQPair>>();
   		for (int mask = 1; mask != 0; mask *= 2) {
   			HashSet<AQPair> totalAQPairs = new HashSet<AQPair>(); // Set required for the "xor"-operation below
   			for (int row = matrixBlength - 1; row >= 0; row--) {
   				if ((matrixV[row] & mask) != 0) {
   					// the current row belongs to the solution encoded in matrixV by the bit addressed by mask.
   					// the row indices are the same as in my congruences list.
-  					Smooth congruence = congruences.get(row);
-  					//LOG.info("mask=" + mask + ": add congruence " + congruence);
+  					//LOG.info("mask=" + mask + ": add congruence " + congruences.get(row));
 					// add the new AQ-pairs via "xor"
-					congruence.addMyAQPairsViaXor(totalAQPairs);
+					matrixB.addAQPairsViaXor(row, totalAQPairs);
   				}
   			}
   			
   			if (!totalAQPairs.isEmpty()) {
   				// Sometimes the BlockLanczos() method returns non-null-vectors (having q-factors with odd exponent),
   				// but it did not seem beneficial to test the exponents before calling processNullVector(.)
-	  			// So just "return" the AQ-pairs of the null vector:
-	  			processNullVector(totalAQPairs);
+	  			// So just collect the AQ-pairs of the null vector:
+	  			nullVectors.add(totalAQPairs);
   			}
   		}
+		// test all null vectors at once
+		processNullVectors(nullVectors);
 	}
 }
@@ -0,0 +1,81 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.factor.base.matrixSolver;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.tilman_neumann.jml.factor.FactorException;
+import de.tilman_neumann.jml.factor.base.congruence.AQPair;
+import de.tilman_neumann.jml.factor.base.congruence.Smooth;
+
+/**
+ * An adapter for the Block-Wiedemann solver.
+ * 
+ * The sequence generation phase is split into independent parallel tasks, each processing 64 columns of the random block Y.
+ * 
+ * @author Tilman Neumann
+ */
+public class MatrixSolver_BlockWiedemann extends MatrixSolverBase03 {
+
+	private BlockWiedemann blockWiedemannSolver;
+	
+	private int numberOfTasks;
+	
+	/**
+	 * Full constructor.
+	 * @param numberOfTasks number of parallel sequence generation tasks
+	 */
+	public MatrixSolver_BlockWiedemann(int numberOfTasks) {
+		this.numberOfTasks = numberOfTasks;
+		this.blockWiedemannSolver = new BlockWiedemann(numberOfTasks);
+	}
+	
+	@Override
+	public String getName() {
+		return "BWSolver(" + numberOfTasks + ")";
+	}
+	
+	@Override
+	protected void solve(List<Smooth> congruences, Map<Integer, Integer> factors_2_columnIndices) throws FactorException {
+		// create the matrix in CSR format; the rows are in the same order as in the congruences list
+		SparseMatrix matrixB = SparseMatrix.create(congruences, factors_2_columnIndices);
+		int matrixBlength = matrixB.getNumberOfRows();
+		
+		// invoke the Block-Wiedemann solver
+		List<long[]> solutions = blockWiedemannSolver.computeBlockWiedemann(matrixB);
+		
+		// Each solution matrix encodes up to 64 null vectors, one in bit 0 of all longs, the next in bit 1 of all longs, and so on.
+		List<Set<AQPair>> nullVectors = new ArrayList<Set<AQPair>>();
+		for (long[] matrixV : solutions) {
+			for (long mask = 1; mask != 0; mask <<= 1) {
+				HashSet<AQPair> totalAQPairs = new HashSet<AQPair>(); // Set required for the "xor"-operation below
+				for (int row = matrixBlength - 1; row >= 0; row--) {
+					if ((matrixV[row] & mask) != 0) {
+						// add the new AQ-pairs via "xor"
+						matrixB.addAQPairsViaXor(row, totalAQPairs);
+					}
+				}
+				if (!totalAQPairs.isEmpty()) {
+					nullVectors.add(totalAQPairs);
+				}
+			}
+		}
+		// test all null vectors at once
+		processNullVectors(nullVectors);
+	}
+}
@@ -14,7 +14,6 @@
 package de.tilman_neumann.jml.factor.base.matrixSolver;
 
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -41,57 +40,54 @@ public class MatrixSolver_Gauss01 extends MatrixSolverBase01 {
 	@Override
 	protected void solve(List<Smooth> congruences, Map<Integer, Integer> factors_2_columnIndices) throws FactorException {
 		// create matrix
-		List<MatrixRow> rows = RichMatrixFactory.createMatrix(congruences, factors_2_columnIndices);
+		SparseMatrix sparseMatrix = SparseMatrix.create(congruences, factors_2_columnIndices);
+		PackedMatrix matrix = new PackedMatrix(sparseMatrix);
+		// the indices of the rows that have not been used as pivot yet
+		int numberOfRows = matrix.getNumberOfRows();
+		int[] rows = new int[numberOfRows];
+		for (int i=0; i<numberOfRows; i++) rows[i] = i;
 		// solve
-		while (rows.size()>0) {
+		while (numberOfRows>0) {
 			// Find pivot column index and row:
 			// Note that sorting the rows is not good for performance,
 			// because the insort operation is more expensive then iterating over all rows.
-			Iterator<MatrixRow> rowIter = rows.iterator();
 			// Initialize pivot row with first element, which is ensured to exist
-			MatrixRow pivotRow = rowIter.next();
-			int pivotColumnIndex = pivotRow.getBiggestColumnIndex();
+			int pivotPos = 0;
+			int pivotColumnIndex = matrix.getBiggestColumnIndex(rows[0]);
 			// Now check if there is a row having a bigger column
-			while (rowIter.hasNext()) {
-				MatrixRow row = rowIter.next();
-				//LOG.debug("row = " + row);
-				int biggestColumnIndex = row.getBiggestColumnIndex();
+			for (int i=1; i<numberOfRows; i++) {
+				int biggestColumnIndex = matrix.getBiggestColumnIndex(rows[i]);
 				if (biggestColumnIndex > pivotColumnIndex) {
 					// Found a new pivot candidate
-					pivotRow = row;
+					pivotPos = i;
 					pivotColumnIndex = biggestColumnIndex;
 				}
 			}
 			// Now we have selected a pivotColumnIndex and a row having it.
 			// -> remove the pivot row from the list and do one Gaussian elimination step
-			rows.remove(pivotRow);
-			rowIter = rows.iterator();
-			//LOG.debug("solve(): 2: " + rows.size() + " rows");
-			while (rowIter.hasNext()) {
-				MatrixRow row = rowIter.next();
-				//LOG.debug("solve(): 3: current row " + row);
-				if (row.getBiggestColumnIndex() == pivotColumnIndex) {
-					//LOG.debug("solve(): 4: current row has pivotColumnIndex");
+			int pivotRow = rows[pivotPos];
+			int remainingRows = 0;
+			for (int i=0; i<numberOfRows; i++) {
+				if (i == pivotPos) continue;
+				int row = rows[i];
+				if (matrix.getBiggestColumnIndex(row) == pivotColumnIndex) {
 					// Add the pivot row to the current row in Z_2 ("xor"):
-					// We can modify the current row object because its old state is not required anymore,
+					// We can modify the current row because its old state is not required anymore,
 					// and because working on it does not affect the original congruences.
-					row.addXor(pivotRow); // This operation should be fast!
-					if (row.isNullVector()) {
-						//LOG.debug("solve(): 5: Found null-vector: " + row);
+					matrix.addXor(row, pivotRow); // This operation should be fast!
+					if (matrix.isNullVector(row)) {
 						// Found null vector -> recover the set of AQ-pairs from its row index history
 						HashSet<AQPair> totalAQPairs = new HashSet<AQPair>(); // Set required for the "xor"-operation below
-						for (int rowIndex : row.getRowIndexHistoryAsList()) {
-							Smooth congruence = congruences.get(rowIndex);
-							// add the new AQ-pairs via "xor"
-							congruence.addMyAQPairsViaXor(totalAQPairs);
-						}
+						matrix.addAQPairsViaXor(row, sparseMatrix, totalAQPairs);
 						// "return" the AQ-pairs of the null vector
 						processNullVector(totalAQPairs);
 						// no factor exception -> drop improper null vector
-						rowIter.remove(); 
+						continue;
 					} // else: current row is not a null-vector -> just keep it
 				} // else: current row does not have the pivotColumnIndex -> just keep it
+				rows[remainingRows++] = row;
 			}
+			numberOfRows = remainingRows;
 		}
 	}
 }
@@ -13,6 +13,7 @@
  */
 package de.tilman_neumann.jml.factor.base.matrixSolver;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -42,42 +43,40 @@ public class MatrixSolver_Gauss03 extends MatrixSolverBase03 {
 	@Override
 	protected void solve(List<Smooth> congruences, Map<Integer, Integer> factors_2_columnIndices) throws FactorException {
 		// create matrix
-		List<MatrixRow> rows = RichMatrixFactory.createMatrix(congruences, factors_2_columnIndices);
+		SparseMatrix sparseMatrix = SparseMatrix.create(congruences, factors_2_columnIndices);
+		PackedMatrix matrix = new PackedMatrix(sparseMatrix);
 		// solve
-		MatrixRow[] pivotRowsForColumns = new MatrixRow[factors_2_columnIndices.size()]; // storage for the pivot rows as they are found
-		for (MatrixRow row : rows) {
-			int columnIndex = row.getBiggestColumnIndex();
+		int numberOfColumns = matrix.getNumberOfColumns();
+		int[] pivotRowsForColumns = new int[numberOfColumns]; // storage for the pivot rows as they are found
+		Arrays.fill(pivotRowsForColumns, -1);
+		for (int rowIndex=0; rowIndex<matrix.getNumberOfRows(); rowIndex++) {
+			int row = rowIndex;
+			int columnIndex = matrix.getBiggestColumnIndex(row);
 			while (columnIndex >= 0) {
-				MatrixRow pivot = pivotRowsForColumns[columnIndex];
-				if (pivot == null) {
+				int pivot = pivotRowsForColumns[columnIndex];
+				if (pivot < 0) {
 					pivotRowsForColumns[columnIndex] = row;
 					break;
 				}
-				if (row.getColumnCount()<pivot.getColumnCount()) {
+				if (matrix.getColumnCount(row)<matrix.getColumnCount(pivot)) {
 					// switch pivots
-					MatrixRow t = pivot;
+					int t = pivot;
 					pivot = row;
 					pivotRowsForColumns[columnIndex] = row;
 					row = t;
 				}
-				
 				// solution operations taken directly from MatrixSolver_Gauss01 ++
-				row.addXor(pivot); // This operation should be fast!
-				if (row.isNullVector()) {
-					//LOG.debug("solve(): 5: Found null-vector: " + row);
+				matrix.addXor(row, pivot); // This operation should be fast!
+				if (matrix.isNullVector(row)) {
 					// Found null vector -> recover the set of AQ-pairs from its row index history
 					HashSet<AQPair> totalAQPairs = new HashSet<AQPair>(); // Set required for the "xor"-operation below
-					for (int rowIndex : row.getRowIndexHistoryAsList()) {
-						Smooth congruence = congruences.get(rowIndex);
-						// add the new AQ-pairs via "xor"
-						congruence.addMyAQPairsViaXor(totalAQPairs);
-					}
+					matrix.addAQPairsViaXor(row, sparseMatrix, totalAQPairs);
 					// "return" the AQ-pairs of the null vector
 					processNullVector(totalAQPairs);
 					break;
 				} else {
 					// else: current row is not a null-vector, keep trying to reduce
-					columnIndex = row.getBiggestColumnIndex();
+					columnIndex = matrix.getBiggestColumnIndex(row);
 				}
 			}	
 		}
@@ -13,6 +13,7 @@
  */
 package de.tilman_neumann.jml.factor.base.matrixSolver;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -46,9 +47,9 @@ public class MatrixSolver_PGauss01 extends MatrixSolverBase03 {
 	}
 		
 	// the threads need access to these
-	List<Smooth> congruences;  // input list of congruences, needed when a null vector is found
-	List<MatrixRow> rows;      // input list of rows, needed when a null vector is found
-	private MatrixRow[] pivotRowsForColumns; // storage for the pivot rows as they are found
+	SparseMatrix sparseMatrix; // input matrix in CSR format, linking rows to congruences, needed when a null vector is found
+	PackedMatrix matrix;       // the rows that are reduced
+	private int[] pivotRowsForColumns; // storage for the pivot rows as they are found
 	private ReentrantLock[] locks;  // for guarding writing to pivotRowsForColumns
 
 	private volatile FactorException factorFound;  // needed to pass the exception back from the threads
@@ -67,31 +68,31 @@ public class MatrixSolver_PGauss01 extends MatrixSolverBase03 {
 	private class PivotThread extends Thread {
 		
 		public void process(int rowIndex) throws FactorException {
-			MatrixRow row = rows.get(rowIndex);
-			int columnIndex = row.getBiggestColumnIndex();
-			MatrixRow possibleSolution = null;
+			int row = rowIndex;
+			int columnIndex = matrix.getBiggestColumnIndex(row);
+			int possibleSolution = -1;
 			while (columnIndex >= 0) {
 				int lockColumn = columnIndex;
-				MatrixRow pivot;
+				int pivot;
 				locks[lockColumn].lock();
 				try {
 					pivot = pivotRowsForColumns[columnIndex];
-					if (pivot == null) {
+					if (pivot < 0) {
 						pivotRowsForColumns[columnIndex] = row;
 						return;
 					}
-					if (row.getColumnCount()<pivot.getColumnCount()) {
+					if (matrix.getColumnCount(row)<matrix.getColumnCount(pivot)) {
 						// switch pivots
-						MatrixRow t = pivot;
+						int t = pivot;
 						pivot = row;
 						pivotRowsForColumns[columnIndex] = row;
 						row = t;
 					}			
 				
 					// solution operations taken directly from original MatrixSolver_Gauss01 ++
-					row.addXor(pivot); // This operation should be fast!
-					if (!row.isNullVector()) {
-						columnIndex = row.getBiggestColumnIndex();
+					matrix.addXor(row, pivot); // This operation should be fast!
+					if (!matrix.isNullVector(row)) {
+						columnIndex = matrix.getBiggestColumnIndex(row);
 					} else {
 						possibleSolution = row;
 						break;
@@ -101,15 +102,10 @@ public class MatrixSolver_PGauss01 extends MatrixSolverBase03 {
 				}
 			}
 			
-			if (possibleSolution != null) {
-				//LOG.debug("solve(): 5: Found null-vector: " + row);
+			if (possibleSolution >= 0) {
 				// Found null vector -> recover the set of AQ-pairs from its row index history
 				HashSet<AQPair> totalAQPairs = new HashSet<AQPair>(); // Set required for the "xor"-operation below
-				for (int rowIndex2 : possibleSolution.getRowIndexHistoryAsList()) {
-					Smooth congruence = congruences.get(rowIndex2);
-					// add the new AQ-pairs via "xor"
-					congruence.addMyAQPairsViaXor(totalAQPairs);
-				}
+				matrix.addAQPairsViaXor(possibleSolution, sparseMatrix, totalAQPairs);
 				// "return" the AQ-pairs of the null vector
 				processNullVector(totalAQPairs);
 			}
@@ -119,7 +115,7 @@ public class MatrixSolver_PGauss01 extends MatrixSolverBase03 {
 		public void run() {
 			while (factorFound == null) {
 				int rowNum = getNextRow();
-				if (rowNum>=rows.size()) {
+				if (rowNum>=matrix.getNumberOfRows()) {
 					return;
 				}
 				try {
@@ -136,11 +132,12 @@ public class MatrixSolver_PGauss01 extends MatrixSolverBase03 {
 	protected void solve(List<Smooth> congruences, Map<Integer, Integer> factors_2_columnIndices) throws FactorException {
 		
 		//set the global structures
-		this.congruences = congruences;
-		this.rows = RichMatrixFactory.createMatrix(congruences, factors_2_columnIndices);
+		this.sparseMatrix = SparseMatrix.create(congruences, factors_2_columnIndices);
+		this.matrix = new PackedMatrix(sparseMatrix);
 		
-		int numColumn = factors_2_columnIndices.size();
-		pivotRowsForColumns = new MatrixRow[numColumn];
+		int numColumn = sparseMatrix.getNumberOfColumns();
+		pivotRowsForColumns = new int[numColumn];
+		Arrays.fill(pivotRowsForColumns, -1);
 		
 		locks = new ReentrantLock[numColumn];
 		for (int i=0; i<numColumn; i++) {
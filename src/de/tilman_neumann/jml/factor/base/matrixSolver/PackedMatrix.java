@@ -0,0 +1,167 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.factor.base.matrixSolver;
+
+import java.util.Set;
+
+import de.tilman_neumann.jml.factor.base.congruence.AQPair;
+
+/**
+ * A dense binary matrix for the Gaussian solvers, built directly from a CSR matrix.
+ *
+ * All rows are stored in one long[]. Each row consists of columnWords longs holding the column bits,
+ * followed by historyWords longs holding the row index history, i.e. the indices of the original rows that have been
+ * combined into the row via xor. Rows are addressed by their index, so the elimination allocates no objects.
+ *
+ * Rows may be modified concurrently by different threads as long as each row is accessed by one thread at a time.
+ *
+ * @author Tilman Neumann
+ */
+public class PackedMatrix {
+
+	private final int numberOfRows;
+	private final int numberOfColumns;
+	private final int columnWords;
+	private final int historyWords;
+	private final int rowWords;
+	private final long[] data;
+	/** the biggest column index set to 1 per row, or -1 if the row is a null vector */
+	private final int[] biggestColumnIndices;
+	/** the number of column bits set per row */
+	private final int[] columnCounts;
+	/** per row, the index of the highest history word that may be non-zero */
+	private final int[] biggestHistoryWords;
+
+	/**
+	 * Create the packed matrix from its CSR representation.
+	 * Row r gets the columns of CSR row r and the initial row index history {r}.
+	 * @param sparseMatrix
+	 */
+	public PackedMatrix(SparseMatrix sparseMatrix) {
+		numberOfRows = sparseMatrix.getNumberOfRows();
+		numberOfColumns = sparseMatrix.getNumberOfColumns();
+		columnWords = (numberOfColumns+63)>>6;
+		historyWords = (numberOfRows+63)>>6;
+		rowWords = columnWords + historyWords;
+		long size = (long) numberOfRows * rowWords;
+		if (size > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("Matrix with " + numberOfRows + " rows and " + numberOfColumns + " columns is too big for a packed representation");
+		data = new long[(int) size];
+		biggestColumnIndices = new int[numberOfRows];
+		columnCounts = new int[numberOfRows];
+		biggestHistoryWords = new int[numberOfRows];
+
+		int[] rowOffsets = sparseMatrix.getRowOffsets();
+		int[] columnIndices = sparseMatrix.getColumnIndices();
+		for (int row=0; row<numberOfRows; row++) {
+			int rowStart = row * rowWords;
+			int biggestColumnIndex = -1;
+			for (int pos=rowOffsets[row]; pos<rowOffsets[row+1]; pos++) {
+				int columnIndex = columnIndices[pos];
+				data[rowStart + (columnIndex>>6)] |= 1L << columnIndex;
+				if (columnIndex > biggestColumnIndex) biggestColumnIndex = columnIndex;
+			}
+			biggestColumnIndices[row] = biggestColumnIndex;
+			columnCounts[row] = rowOffsets[row+1] - rowOffsets[row]; // the odd exponent factors of a congruence are distinct
+			data[rowStart + columnWords + (row>>6)] = 1L << row;
+			biggestHistoryWords[row] = row>>6;
+		}
+	}
+
+	public int getNumberOfRows() {
+		return numberOfRows;
+	}
+
+	public int getNumberOfColumns() {
+		return numberOfColumns;
+	}
+
+	/**
+	 * @param row
+	 * @return the highest index of a column set to 1 in the given row, or -1 if the row is a null vector
+	 */
+	public int getBiggestColumnIndex(int row) {
+		return biggestColumnIndices[row];
+	}
+
+	/**
+	 * @param row
+	 * @return the number of columns set to 1 in the given row
+	 */
+	public int getColumnCount(int row) {
+		return columnCounts[row];
+	}
+
+	/**
+	 * @param row
+	 * @return true if the given row has no column set to 1
+	 */
+	public boolean isNullVector(int row) {
+		return biggestColumnIndices[row] < 0;
+	}
+
+	/**
+	 * Combine row and other in Z_2, modifying row. The operation in Z_2 is equivalent to "xor".
+	 * @param row
+	 * @param other
+	 */
+	public void addXor(int row, int other) {
+		final int rowStart = row * rowWords;
+		final int otherStart = other * rowWords;
+		// columns: words above the biggest column index of both rows are zero
+		final int maxColumnWord = Math.max(biggestColumnIndices[row], biggestColumnIndices[other]) >> 6;
+		int biggestColumnIndex = -1;
+		int columnCount = 0;
+		for (int i=0; i<=maxColumnWord; i++) {
+			long word = data[rowStart+i] ^ data[otherStart+i]; // xor of 64 bits at once
+			data[rowStart+i] = word;
+			if (word != 0) {
+				columnCount += Long.bitCount(word);
+				biggestColumnIndex = (i<<6) + 63 - Long.numberOfLeadingZeros(word);
+			}
+		}
+		biggestColumnIndices[row] = biggestColumnIndex;
+		columnCounts[row] = columnCount;
+		// row index history
+		final int maxHistoryWord = Math.max(biggestHistoryWords[row], biggestHistoryWords[other]);
+		final int rowHistoryStart = rowStart + columnWords;
+		final int otherHistoryStart = otherStart + columnWords;
+		for (int i=0; i<=maxHistoryWord; i++) {
+			data[rowHistoryStart+i] ^= data[otherHistoryStart+i];
+		}
+		biggestHistoryWords[row] = maxHistoryWord;
+	}
+
+	/**
+	 * Add the AQ-pairs of all original rows in the row index history of the given row to the target set via xor.
+	 * @param row
+	 * @param sparseMatrix the CSR matrix this matrix has been created from
+	 * @param targetSet
+	 */
+	public void addAQPairsViaXor(int row, SparseMatrix sparseMatrix, Set<AQPair> targetSet) {
+		final int historyStart = row * rowWords + columnWords;
+		for (int i=biggestHistoryWords[row]; i>=0; i--) {
+			long word = data[historyStart+i];
+			while (word != 0) {
+				int bit = Long.numberOfTrailingZeros(word);
+				sparseMatrix.addAQPairsViaXor((i<<6) + bit, targetSet);
+				word &= word-1; // clear lowest set bit
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "PackedMatrix(" + numberOfRows + " rows, " + numberOfColumns + " columns)";
+	}
+}
@@ -33,36 +33,30 @@ public class RichMatrixFactory {
 	 * @return
 	 */
 	public static List<MatrixRow> createMatrix(List<Smooth> congruences, Map<Integer, Integer> factors_2_columnIndices) {
-		ArrayList<MatrixRow> matrixRows = new ArrayList<MatrixRow>(congruences.size()); // ArrayList is faster than LinkedList, even with many remove() operations
-		int rowIndex = 0;
-		int numberOfRows = congruences.size();
-		for (Smooth congruence : congruences) {
+		return createMatrix(SparseMatrix.create(congruences, factors_2_columnIndices));
+	}
+
+	/**
+	 * Create the matrix from its CSR representation.
+	 * The row index history of each row refers to the row indices of the CSR matrix.
+	 * @param sparseMatrix
+	 * @return
+	 */
+	public static List<MatrixRow> createMatrix(SparseMatrix sparseMatrix) {
+		int numberOfRows = sparseMatrix.getNumberOfRows();
+		ArrayList<MatrixRow> matrixRows = new ArrayList<MatrixRow>(numberOfRows); // ArrayList is faster than LinkedList, even with many remove() operations
+		for (int rowIndex=0; rowIndex<numberOfRows; rowIndex++) {
 			// row entries = set of column indices where the congruence has a factor with odd exponent
-			IndexSet columnIndicesFromOddExpFactors = createColumnIndexSetFromCongruence(congruence, factors_2_columnIndices);
+			IndexSet columnIndicesFromOddExpFactors = sparseMatrix.createColumnIndexSet(rowIndex);
 			// initial row history = the current row index
-			IndexSet rowIndexHistory = createRowIndexHistory(numberOfRows, rowIndex++);
+			IndexSet rowIndexHistory = createRowIndexHistory(numberOfRows, rowIndex);
 			MatrixRow matrixRow = new MatrixRow(columnIndicesFromOddExpFactors, rowIndexHistory);
 			matrixRows.add(matrixRow);
 		}
-		//LOG.debug("constructed matrix with " + matrixRows.size() + " rows and " + factors_2_columnIndices.size() + " columns");
+		//LOG.debug("constructed matrix with " + matrixRows.size() + " rows and " + sparseMatrix.getNumberOfColumns() + " columns");
 		return matrixRows;
 	}
 
-	/**
-	 * Create the set of matrix column indices from the factors that the congruence has with odd exponent.
-	 * @param congruence
-	 * @param factors_2_columnIndices
-	 * @return set of column indices
-	 */
-	private static IndexSet createColumnIndexSetFromCongruence(Smooth congruence, Map<Integer, Integer> factors_2_columnIndices) {
-		Integer[] oddExpFactors = congruence.getMatrixElements();
-		IndexSet columnIndexBitset = new IndexSet(factors_2_columnIndices.size());
-		for (Integer oddExpFactor : oddExpFactors) {
-			columnIndexBitset.add(factors_2_columnIndices.get(oddExpFactor));
-		}
-		return columnIndexBitset;
-	}
-	
 	/**
 	 * Create inital row index history (populated at the beginning only with the given rowIndex).
 	 * @param numberOfRows
@@ -0,0 +1,208 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.factor.base.matrixSolver;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.tilman_neumann.jml.factor.base.congruence.AQPair;
+import de.tilman_neumann.jml.factor.base.congruence.Smooth;
+
+/**
+ * A binary matrix in compressed sparse row (CSR) format.
+ *
+ * The column indices of all rows are stored in one contiguous int[], and rowOffsets[r] points to the first entry of row r;
+ * row r has the entries columnIndices[rowOffsets[r]] ... columnIndices[rowOffsets[r+1]-1].
+ * If the matrix has been created from smooth congruences, each row keeps a link to the congruence it stems from.
+ *
+ * @author Tilman Neumann
+ */
+public class SparseMatrix {
+
+	private int numberOfRows;
+	private int numberOfColumns;
+	private int[] rowOffsets;
+	private int[] columnIndices;
+	/** the smooth congruences the rows stem from; null if the matrix was not created from congruences */
+	private Smooth[] smooths;
+
+	/**
+	 * Full constructor. (no copy)
+	 * @param numberOfRows
+	 * @param numberOfColumns
+	 * @param rowOffsets array of size numberOfRows+1
+	 * @param columnIndices the column indices of all rows
+	 * @param smooths the congruences the rows stem from, may be null
+	 */
+	public SparseMatrix(int numberOfRows, int numberOfColumns, int[] rowOffsets, int[] columnIndices, Smooth[] smooths) {
+		this.numberOfRows = numberOfRows;
+		this.numberOfColumns = numberOfColumns;
+		this.rowOffsets = rowOffsets;
+		this.columnIndices = columnIndices;
+		this.smooths = smooths;
+	}
+
+	/**
+	 * Create a CSR matrix from an array of rows, each one holding the indices of its columns set to 1.
+	 * @param rows
+	 * @param numberOfRows
+	 */
+	public SparseMatrix(int[][] rows, int numberOfRows) {
+		this.numberOfRows = numberOfRows;
+		this.rowOffsets = new int[numberOfRows+1];
+		int entryCount = 0;
+		for (int row=0; row<numberOfRows; row++) {
+			entryCount += rows[row].length;
+		}
+		this.columnIndices = new int[entryCount];
+		int pos = 0, maxColumnIndex = -1;
+		for (int row=0; row<numberOfRows; row++) {
+			rowOffsets[row] = pos;
+			for (int columnIndex : rows[row]) {
+				columnIndices[pos++] = columnIndex;
+				if (columnIndex > maxColumnIndex) maxColumnIndex = columnIndex;
+			}
+		}
+		rowOffsets[numberOfRows] = pos;
+		this.numberOfColumns = maxColumnIndex+1;
+	}
+
+	/**
+	 * Create the matrix from the pre-processed congruences in linear time.
+	 * The rows are in the same order as in the congruences list.
+	 *
+	 * @param congruences
+	 * @param factors_2_columnIndices map from factors to matrix column indices
+	 * @return CSR matrix
+	 */
+	public static SparseMatrix create(List<Smooth> congruences, Map<Integer, Integer> factors_2_columnIndices) {
+		int numberOfRows = congruences.size();
+		Smooth[] smooths = new Smooth[numberOfRows];
+		int entryCount = 0;
+		int row = 0;
+		for (Smooth congruence : congruences) {
+			smooths[row++] = congruence;
+			entryCount += congruence.getMatrixElements().length;
+		}
+		int[] rowOffsets = new int[numberOfRows+1];
+		int[] columnIndices = new int[entryCount];
+		int pos = 0;
+		for (row=0; row<numberOfRows; row++) {
+			rowOffsets[row] = pos;
+			// row entries = column indices where the congruence has a factor with odd exponent
+			for (Integer oddExpFactor : smooths[row].getMatrixElements()) {
+				columnIndices[pos++] = factors_2_columnIndices.get(oddExpFactor);
+			}
+		}
+		rowOffsets[numberOfRows] = pos;
+		return new SparseMatrix(numberOfRows, factors_2_columnIndices.size(), rowOffsets, columnIndices, smooths);
+	}
+
+	public int getNumberOfRows() {
+		return numberOfRows;
+	}
+
+	public int getNumberOfColumns() {
+		return numberOfColumns;
+	}
+
+	/**
+	 * @return the number of entries set to 1
+	 */
+	public int getNumberOfEntries() {
+		return rowOffsets[numberOfRows];
+	}
+
+	/**
+	 * @return the row offsets, an array of size numberOfRows+1. No copy.
+	 */
+	public int[] getRowOffsets() {
+		return rowOffsets;
+	}
+
+	/**
+	 * @return the column indices of all rows. No copy.
+	 */
+	public int[] getColumnIndices() {
+		return columnIndices;
+	}
+
+	/**
+	 * Add the AQ-pairs of the congruence the given row stems from to the target set via xor.
+	 * @param row
+	 * @param targetSet
+	 */
+	public void addAQPairsViaXor(int row, Set<AQPair> targetSet) {
+		smooths[row].addMyAQPairsViaXor(targetSet);
+	}
+
+	/**
+	 * Create the bit set of column indices of the given row.
+	 * @param row
+	 * @return set of column indices
+	 */
+	public IndexSet createColumnIndexSet(int row) {
+		IndexSet columnIndexBitset = new IndexSet(numberOfColumns);
+		for (int pos=rowOffsets[row]; pos<rowOffsets[row+1]; pos++) {
+			columnIndexBitset.add(columnIndices[pos]);
+		}
+		return columnIndexBitset;
+	}
+
+	/**
+	 * Write the matrix structure to a stream. The links to the smooth congruences are not written.
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(numberOfRows);
+		out.writeInt(numberOfColumns);
+		for (int row=0; row<=numberOfRows; row++) {
+			out.writeInt(rowOffsets[row]);
+		}
+		int entryCount = rowOffsets[numberOfRows];
+		for (int pos=0; pos<entryCount; pos++) {
+			out.writeInt(columnIndices[pos]);
+		}
+	}
+
+	/**
+	 * Read a matrix structure written by writeTo().
+	 * @param in
+	 * @return matrix, not linked to congruences
+	 * @throws IOException
+	 */
+	public static SparseMatrix readFrom(DataInputStream in) throws IOException {
+		int numberOfRows = in.readInt();
+		int numberOfColumns = in.readInt();
+		int[] rowOffsets = new int[numberOfRows+1];
+		for (int row=0; row<=numberOfRows; row++) {
+			rowOffsets[row] = in.readInt();
+		}
+		int[] columnIndices = new int[rowOffsets[numberOfRows]];
+		for (int pos=0; pos<columnIndices.length; pos++) {
+			columnIndices[pos] = in.readInt();
+		}
+		return new SparseMatrix(numberOfRows, numberOfColumns, rowOffsets, columnIndices, null);
+	}
+
+	@Override
+	public String toString() {
+		return "SparseMatrix(" + numberOfRows + " rows, " + numberOfColumns + " columns, " + getNumberOfEntries() + " entries)";
+	}
+}
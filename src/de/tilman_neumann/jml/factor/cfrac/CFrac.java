@@ -273,7 +273,7 @@ public class CFrac extends FactorAlgorithm {
 			P_i = b_i.multiply(Q_i).subtract(P_im1);
 			Q_ip1 = Q_im1.add(b_i.multiply(P_im1.subtract(P_i)));
 			// carry along A_i % N from continuant recurrence
-			A_i = addModN(mulModN(b_i, A_im1), A_im2);
+			A_i = addModN(mulModN(b_i, A_im1, N), A_im2, N);
 			
 			// stop when continuant period is complete
 			if (b_i.equals(two_floor_sqrt_kN)) return null;
@@ -301,9 +301,10 @@ public class CFrac extends FactorAlgorithm {
 	 * Addition modulo N, with <code>a, b < N</code>.
 	 * @param a
 	 * @param b
+	 * @param N modulus
 	 * @return (a+b) mod N
 	 */
-	private BigInteger addModN(BigInteger a, BigInteger b) {
+	static BigInteger addModN(BigInteger a, BigInteger b, BigInteger N) {
 		BigInteger sum = a.add(b);
 		return sum.compareTo(N)<0 ? sum : sum.subtract(N);
 	}
@@ -312,9 +313,10 @@ public class CFrac extends FactorAlgorithm {
 	 * Multiplication (m*a) modulo N, with m often small and <code>a < N</code>.
 	 * @param m
 	 * @param a
+	 * @param N modulus
 	 * @return (m*a) mod N
 	 */
-	private BigInteger mulModN(BigInteger m, BigInteger a) {
+	static BigInteger mulModN(BigInteger m, BigInteger a, BigInteger N) {
 		if (m.bitLength()<3) { // 0, 1, 10, 11
 			switch (m.intValue()) {
 			case 0: return I_0;
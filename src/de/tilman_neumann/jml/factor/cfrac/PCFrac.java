@@ -0,0 +1,346 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.factor.cfrac;
+
+import static de.tilman_neumann.jml.base.BigIntConstants.*;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+import de.tilman_neumann.jml.factor.FactorAlgorithm;
+import de.tilman_neumann.jml.factor.base.PrimeBaseGenerator;
+import de.tilman_neumann.jml.factor.base.congruence.AQPair;
+import de.tilman_neumann.jml.factor.base.congruence.CongruenceCollector;
+import de.tilman_neumann.jml.factor.base.congruence.CongruenceCollector01;
+import de.tilman_neumann.jml.factor.base.matrixSolver.FactorTest;
+import de.tilman_neumann.jml.factor.base.matrixSolver.FactorTest01;
+import de.tilman_neumann.jml.factor.base.matrixSolver.MatrixSolver;
+import de.tilman_neumann.jml.factor.base.matrixSolver.MatrixSolver_Gauss02;
+import de.tilman_neumann.jml.factor.cfrac.tdiv.TDiv_CF;
+import de.tilman_neumann.jml.factor.cfrac.tdiv.TDiv_CF02;
+import de.tilman_neumann.jml.roots.SqrtExact;
+import de.tilman_neumann.jml.roots.SqrtInt;
+import de.tilman_neumann.util.ConfigUtil;
+import de.tilman_neumann.util.TimeUtil;
+
+/**
+ * Multi-threaded CFrac.
+ *
+ * Each thread expands sqrt(kN) for another Knuth-Schroeppel multiplier k. Since the A_i are computed modulo N,
+ * all congruences A_i^2 == Q (mod N) are valid for N, no matter which k they come from. So all threads feed their AQ-pairs
+ * into a single congruence collector; the matrix is built over the union of the reduced prime bases of the multipliers used.
+ * When the expansion of a thread is finished (complete period or maximum number of iterations), the thread continues
+ * with the next multiplier that has not been used yet.
+ *
+ * @author Tilman Neumann
+ */
+public class PCFrac extends FactorAlgorithm {
+	private static final Logger LOG = Logger.getLogger(PCFrac.class);
+	private static final boolean DEBUG = false;
+
+	// parameters
+	private boolean use_all_i;
+	private int stopRoot;
+	private float stopMult;
+	private float C;
+	private float smoothBoundExponent;
+	private int ks_adjust;
+	private int numberOfThreads;
+
+	// input
+	private BigInteger N;
+	private long maxI;
+	private double smoothBound;
+
+	// multipliers
+	private KnuthSchroeppel_CFrac ks = new KnuthSchroeppel_CFrac();
+	/** the multipliers not used so far; access synchronized on the congruence collector */
+	private Iterator<Integer> kIter;
+
+	// prime base
+	private int primeBaseSize;
+	/** The union of all reduced prime bases; access synchronized on the congruence collector */
+	private HashSet<Integer> combinedPrimesSet;
+
+	/** collects the congruences of all threads; all accesses are synchronized on it */
+	private CongruenceCollector congruenceCollector;
+	/** The solver used for smooth congruence equation systems. */
+	private MatrixSolver matrixSolver;
+
+	/** a factor found by the congruence collector or by a square Q; access synchronized on the congruence collector */
+	private BigInteger factor;
+	/** the number of threads that have not finished yet; access synchronized on the congruence collector */
+	private int activeThreadCount;
+
+	/**
+	 * Full constructor.
+	 * @param use_all_i
+	 * @param stopRoot order of the root to compute the maximum number of iterations
+	 * @param stopMult multiplier to compute the maximum number of iterations
+	 * @param C multiplier for prime base size
+	 * @param smoothBoundExponent
+	 * @param matrixSolver matrix solver for the smooth congruence equation system
+	 * @param ks_adjust
+	 * @param numberOfThreads
+	 */
+	public PCFrac(boolean use_all_i, int stopRoot, float stopMult, float C, float smoothBoundExponent,
+				  MatrixSolver matrixSolver, int ks_adjust, int numberOfThreads) {
+
+		this.use_all_i = use_all_i;
+		this.stopRoot = stopRoot;
+		this.stopMult = stopMult;
+		this.C = C;
+		this.smoothBoundExponent = smoothBoundExponent;
+		this.congruenceCollector = new CongruenceCollector01();
+		this.matrixSolver = matrixSolver;
+		this.ks_adjust = ks_adjust;
+		this.numberOfThreads = numberOfThreads;
+	}
+
+	@Override
+	public String getName() {
+		return "PCFrac(all_i=" + use_all_i + ", ks_adjust=" + ks_adjust + ", stop=(" + stopRoot + ", " + stopMult + "), C=" + C + ", maxSuSmoothExp=" + smoothBoundExponent + ", " + numberOfThreads + " threads)";
+	}
+
+	@Override
+	public BigInteger findSingleFactor(BigInteger N) {
+		long startTime = System.currentTimeMillis();
+		this.N = N;
+
+		// compute prime base size like CFrac
+		double N_dbl = N.doubleValue();
+		double lnN = Math.log(N_dbl);
+		double lnlnN = Math.log(lnN);
+		double lnNPow = 0.666667; // heuristics for CFrac
+		this.primeBaseSize = 25 + (int) (Math.exp(Math.pow(lnN, lnNPow) * Math.pow(lnlnN, 1-lnNPow) * C));
+		if (DEBUG) LOG.debug("N = " + N + ": primeBaseSize = " + primeBaseSize);
+		this.smoothBound = Math.pow(N_dbl, smoothBoundExponent);
+		this.maxI = (long) (stopMult*Math.pow(N_dbl, 1.0/stopRoot));
+
+		// initialize the shared sub-algorithms
+		FactorTest factorTest = new FactorTest01(N);
+		matrixSolver.initialize(N, factorTest);
+		congruenceCollector.initialize(N, primeBaseSize, matrixSolver, factorTest);
+		combinedPrimesSet = new HashSet<Integer>();
+		factor = null;
+
+		TreeMap<Double, Integer> kMap = ks.computeMultiplier(N, ks_adjust);
+		kIter = kMap.values().iterator();
+
+		// start threads
+		WorkerThread[] threads = new WorkerThread[numberOfThreads];
+		synchronized (congruenceCollector) {
+			activeThreadCount = numberOfThreads;
+			for (int threadIndex=0; threadIndex<numberOfThreads; threadIndex++) {
+				threads[threadIndex] = new WorkerThread(threadIndex);
+				threads[threadIndex].start();
+			}
+
+			// Wait until a factor has been found or all multipliers have been processed
+			while (factor == null && activeThreadCount > 0) {
+				try {
+					congruenceCollector.wait(); // is woken up by notify() when a factor was found or a thread finished
+				} catch (InterruptedException ie) {
+					// ignore
+				}
+			}
+		}
+
+		// stop all threads. They check the flag outside of any locks, like PSIQS threads.
+		for (WorkerThread t : threads) {
+			t.setFinishNow();
+		}
+		for (WorkerThread t : threads) {
+			while (t.isAlive()) {
+				try {
+					t.join();
+				} catch (InterruptedException e) {
+					if (DEBUG) LOG.debug("thread " + t.getName() + " interrupted main thread");
+				}
+			}
+		}
+		matrixSolver.cleanUp();
+		congruenceCollector.cleanUp();
+
+		if (factor == null) return I_1; // fail, too few Knuth-Schroeppel multipliers
+		if (DEBUG) LOG.debug("Found factor " + factor + " of N=" + N + " in " + TimeUtil.timeStr(System.currentTimeMillis()-startTime));
+		return factor;
+	}
+
+	/**
+	 * Set a factor found by some thread and notify the control thread. Must be called synchronized on the congruence collector.
+	 * @param factor
+	 */
+	private void setFactor(BigInteger factor) {
+		if (this.factor == null) this.factor = factor;
+		congruenceCollector.notify();
+	}
+
+	private class WorkerThread extends Thread {
+		private final TDiv_CF auxFactorizer = new TDiv_CF02();
+		private final PrimeBaseGenerator primeBaseBuilder = new PrimeBaseGenerator();
+		private final int[] primesArray = new int[primeBaseSize];
+		private volatile boolean finishNow = false;
+
+		private BigInteger kN, floor_sqrt_kN;
+
+		WorkerThread(int threadIndex) {
+			super("CF-" + threadIndex);
+		}
+
+		@Override
+		public void run() {
+			auxFactorizer.initialize(N, smoothBound);
+			while (!finishNow) {
+				// get the next multiplier
+				int k;
+				synchronized (congruenceCollector) {
+					if (factor != null || !kIter.hasNext()) break;
+					k = kIter.next();
+				}
+				if (DEBUG) LOG.debug(getName() + ": k = " + k);
+				kN = BigInteger.valueOf(k).multiply(N);
+				BigInteger[] iSqrt = SqrtInt.iSqrt(kN);
+				floor_sqrt_kN = iSqrt[0];
+				if (floor_sqrt_kN.equals(iSqrt[1])) {
+					BigInteger gcd = N.gcd(floor_sqrt_kN);
+					if (gcd.compareTo(I_1)>0 && gcd.compareTo(N)<0) {
+						synchronized (congruenceCollector) {
+							setFactor(gcd);
+						}
+						break;
+					}
+					continue;
+				}
+
+				// Create the reduced prime base for kN and add it to the combined prime base
+				primeBaseBuilder.computeReducedPrimeBase(kN, primeBaseSize, primesArray);
+				synchronized (congruenceCollector) {
+					for (int i=0; i<primeBaseSize; i++) combinedPrimesSet.add(primesArray[i]);
+					congruenceCollector.setPrimeBaseSize(combinedPrimesSet.size());
+				}
+				auxFactorizer.initialize(kN, primeBaseSize, primesArray);
+
+				expand();
+			}
+
+			synchronized (congruenceCollector) {
+				activeThreadCount--;
+				congruenceCollector.notify();
+			}
+		}
+
+		/**
+		 * The CFrac loop for the current multiplier, see CFrac.test().
+		 */
+		private void expand() {
+			// initialization for first iteration step
+			long i = 0;
+			BigInteger A_im2 = null;
+			BigInteger A_im1 = I_1;
+			BigInteger A_i = floor_sqrt_kN;
+			BigInteger P_im1 = I_1;
+			BigInteger P_i = floor_sqrt_kN;
+			BigInteger Q_i = I_1;
+			BigInteger Q_ip1 = kN.subtract(P_i.multiply(P_i));
+
+			BigInteger two_floor_sqrt_kN = floor_sqrt_kN.shiftLeft(1);
+			while (!finishNow) {
+				BigInteger Q_ip1_sqrt = null;
+				if (i%2==1) {
+					Q_ip1_sqrt = SqrtExact.exactSqrt(Q_ip1);
+					if (Q_ip1_sqrt!=null) {
+						// Q_i+1 is square -> test gcd
+						BigInteger gcd = N.gcd(A_i.subtract(Q_ip1_sqrt));
+						if (gcd.compareTo(I_1)>0 && gcd.compareTo(N)<0) {
+							synchronized (congruenceCollector) {
+								setFactor(gcd);
+							}
+							return;
+						}
+					}
+				}
+				if (Q_ip1_sqrt==null && (use_all_i || i%2==1)) {
+					BigInteger Q_test = i%2==1 ? Q_ip1 : Q_ip1.negate(); // make Q congruent A^2
+					AQPair aqPair = auxFactorizer.test(A_i, Q_test);
+					if (aqPair!=null) {
+						// the Q was sufficiently smooth
+						synchronized (congruenceCollector) {
+							if (factor != null) return;
+							congruenceCollector.collectAndProcessAQPair(aqPair);
+							BigInteger ccFactor = congruenceCollector.getFactor();
+							if (ccFactor != null) {
+								setFactor(ccFactor);
+								return;
+							}
+						}
+					}
+				}
+
+				// exit loop ?
+				if (++i==maxI) return;
+
+				// keep values from last round
+				A_im2 = A_im1;
+				A_im1 = A_i;
+				P_im1 = P_i;
+				BigInteger Q_im1 = Q_i;
+				Q_i = Q_ip1;
+				// Compute next values
+				BigInteger b_i = floor_sqrt_kN.add(P_im1).divide(Q_i);
+				P_i = b_i.multiply(Q_i).subtract(P_im1);
+				Q_ip1 = Q_im1.add(b_i.multiply(P_im1.subtract(P_i)));
+				// carry along A_i % N from continuant recurrence
+				A_i = CFrac.addModN(CFrac.mulModN(b_i, A_im1, N), A_im2, N);
+
+				// stop when continuant period is complete
+				if (b_i.equals(two_floor_sqrt_kN)) return;
+			}
+		}
+
+		void setFinishNow() {
+			finishNow = true;
+		}
+	}
+
+	/**
+	 * Compare CFrac and PCFrac on random semiprimes.
+	 * @param args ignored
+	 */
+	public static void main(String[] args) {
+		ConfigUtil.initProject();
+		SecureRandom rng = new SecureRandom();
+		int threads = Runtime.getRuntime().availableProcessors();
+		FactorAlgorithm[] algorithms = new FactorAlgorithm[] {
+			new CFrac(true, 5, 1.5F, 0.152F, 0.253F, new TDiv_CF02(), new MatrixSolver_Gauss02(), 5),
+			new PCFrac(true, 5, 1.5F, 0.152F, 0.253F, new MatrixSolver_Gauss02(), 5, threads),
+		};
+		for (int bits = 100; bits <= 140; bits += 20) {
+			BigInteger p = BigInteger.probablePrime(bits/2, rng);
+			BigInteger q = BigInteger.probablePrime(bits - bits/2, rng);
+			BigInteger N = p.multiply(q);
+			for (FactorAlgorithm algorithm : algorithms) {
+				long t0 = System.currentTimeMillis();
+				BigInteger factor = algorithm.findSingleFactor(N);
+				long t1 = System.currentTimeMillis();
+				LOG.info(algorithm.getName() + ": Found factor " + factor + " of N = " + N + " (" + bits + " bit) in " + (t1-t0) + "ms");
+			}
+		}
+	}
+}
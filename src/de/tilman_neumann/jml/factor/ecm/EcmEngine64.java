@@ -0,0 +1,1055 @@
+/*
+ * Elliptic Curve Method (ECM) Prime Factorization
+ *
+ * Written by Dario Alejandro Alpern (Buenos Aires - Argentina)
+ * Based in Yuji Kida's implementation for UBASIC interpreter.
+ * Some code "borrowed" from Paul Zimmermann's ECM4C.
+ * Modified for the Symja project by Axel Kramer.
+ * Further refactorings by Tilman Neumann.
+ *
+ * Big thanks to Dario Alpern for his permission to use this piece of software under the GPL3 license.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.factor.ecm;
+
+import java.math.BigInteger;
+
+import org.apache.log4j.Logger;
+
+import de.tilman_neumann.jml.factor.FactorException;
+
+import static de.tilman_neumann.jml.base.BigIntConstants.*;
+
+/**
+ * Stage 1 and stage 2 of EllipticCurveMethod on Montgomery curves, computed with the 62-bit limb arithmetic from MontgomeryMult64.
+ *
+ * The algorithms are the same as in EllipticCurveMethod: prac() chains for the stage 1 primes and the improved standard continuation
+ * in stage 2, both with a second pass that checks each gcd separately if the accumulated gcd was a multiple of N.
+ * Only the arithmetic is different, and modular inverses are computed with BigInteger.
+ *
+ * Alternatively, stage 1 can be computed on an Edwards curve x^2 + y^2 = 1 + d*x^2*y^2 in extended coordinates [HWCD],
+ * following a precomputed NAF chain of the stage 1 multiplier. The result is then mapped to the birationally equivalent
+ * Montgomery curve for stage 2. Edwards curves with a=1 need one multiplication more per addition than those with a=-1,
+ * but only they can have the rational torsion group Z/12 [BBLP].
+ *
+ * Instead of the standard continuation, stage 2 can be computed with polynomial arithmetic [Mo]: The x-coordinates of the baby steps jQ
+ * are the roots of a polynomial F, which is evaluated at the x-coordinates of all giant steps iDQ with a remainder tree.
+ * This allows much bigger B2 in the same time.
+ *
+ * @see [HWCD] Huseyin Hisil, Kenneth Koon-Ho Wong, Gary Carter, Ed Dawson: "Twisted Edwards Curves Revisited", ASIACRYPT 2008
+ * @see [Mo] Peter L. Montgomery: "An FFT extension of the Elliptic Curve Method of factorization", PhD thesis, UCLA 1992
+ * @see [BBLP] Daniel J. Bernstein, Peter Birkner, Tanja Lange, Christiane Peters: "ECM using Edwards curves", Mathematics of Computation 82 (2013)
+ *
+ * @author Tilman Neumann
+ */
+public class EcmEngine64 {
+	private static final Logger LOG = Logger.getLogger(EcmEngine64.class);
+	private static final boolean DEBUG = false;
+
+	private static final double v[] = {
+			1.61803398875, 1.72360679775, 1.618347119656, 1.617914406529, 1.612429949509,
+			1.632839806089, 1.620181980807, 1.580178728295, 1.617214616534, 1.38196601125
+	};
+
+	private static final int ADD = 6; // number of multiplications in an addition
+	private static final int DUP = 5; //number of multiplications in a duplicate
+
+	private final BigInteger N;
+	private final MontgomeryMult64 mont;
+
+	/** polynomial arithmetic for stage 2, or null if the standard continuation is used */
+	private final PolynomialStage2 polynomialStage2;
+
+	/** 1 in Montgomery form */
+	private final long[] one;
+
+	// curve parameters and points
+	private final long[] bZi;
+	private final long[] X, Z, Xaux, Zaux;
+	private final long[] GcdAccumulated;
+
+	// auxiliary variables
+	private final long[] W1, W2, W3, W4;
+	private final long[] TX, TZ, UX, UZ, WX, WZ, DX, DZ;
+	private final long[] Aux1, Aux2, Aux3, M;
+	private final long[] dupU, dupV, dupW;
+	private final long[] addT, addU, addV, addW;
+	private final long[] pracXB, pracZB, pracXC, pracZC;
+	private final long[][] root = new long[480][];
+
+	// Edwards curve parameter d and the accumulated point in extended coordinates
+	private final long[] ed;
+	private final long[] EX, EY, EZ, ET;
+	// precomputed odd multiples P, 3P, 5P, ... in extended coordinates, and X+Y, Y-X, d*T used by additions
+	private final long[][] tableX, tableY, tableZ, tableT;
+	private final long[][] tableXpY, tableYmX, tableDT;
+	// auxiliary variables for Edwards arithmetic
+	private final long[] eA, eB, eC, eD, eE, eF, eG, eH;
+
+	private final byte[] sieve = new byte[23100];
+	private final byte[] sieve2310 = new byte[2310];
+	private final int[] sieveidx = new int[480];
+
+	/**
+	 * Constructor for an engine using the standard continuation in stage 2.
+	 * @param N odd number to factor
+	 */
+	public EcmEngine64(BigInteger N) {
+		this(N, false);
+	}
+
+	/**
+	 * Full constructor.
+	 * @param N odd number to factor
+	 * @param usePolynomialStage2 if true then stage 2 is computed with polynomial arithmetic, otherwise with the standard continuation
+	 */
+	public EcmEngine64(BigInteger N, boolean usePolynomialStage2) {
+		this.N = N;
+		this.mont = new MontgomeryMult64(N);
+		this.polynomialStage2 = usePolynomialStage2 ? new PolynomialStage2(N) : null;
+		this.one = mont.createOne();
+		bZi = mont.create();
+		X = mont.create();
+		Z = mont.create();
+		Xaux = mont.create();
+		Zaux = mont.create();
+		GcdAccumulated = mont.create();
+		W1 = mont.create();
+		W2 = mont.create();
+		W3 = mont.create();
+		W4 = mont.create();
+		TX = mont.create();
+		TZ = mont.create();
+		UX = mont.create();
+		UZ = mont.create();
+		WX = mont.create();
+		WZ = mont.create();
+		DX = mont.create();
+		DZ = mont.create();
+		Aux1 = mont.create();
+		Aux2 = mont.create();
+		Aux3 = mont.create();
+		M = mont.create();
+		dupU = mont.create();
+		dupV = mont.create();
+		dupW = mont.create();
+		addT = mont.create();
+		addU = mont.create();
+		addV = mont.create();
+		addW = mont.create();
+		pracXB = mont.create();
+		pracZB = mont.create();
+		pracXC = mont.create();
+		pracZC = mont.create();
+		for (int i=0; i<480; i++) {
+			root[i] = mont.create();
+		}
+		ed = mont.create();
+		EX = mont.create();
+		EY = mont.create();
+		EZ = mont.create();
+		ET = mont.create();
+		final int tableSize = EdwardsStage1Chain.TABLE_SIZE;
+		tableX = new long[tableSize][];
+		tableY = new long[tableSize][];
+		tableZ = new long[tableSize][];
+		tableT = new long[tableSize][];
+		tableXpY = new long[tableSize][];
+		tableYmX = new long[tableSize][];
+		tableDT = new long[tableSize][];
+		for (int i=0; i<tableSize; i++) {
+			tableX[i] = mont.create();
+			tableY[i] = mont.create();
+			tableZ[i] = mont.create();
+			tableT[i] = mont.create();
+			tableXpY[i] = mont.create();
+			tableYmX[i] = mont.create();
+			tableDT[i] = mont.create();
+		}
+		eA = mont.create();
+		eB = mont.create();
+		eC = mont.create();
+		eD = mont.create();
+		eE = mont.create();
+		eF = mont.create();
+		eG = mont.create();
+		eH = mont.create();
+	}
+
+	/**
+	 * Run stage 1 and stage 2 on the curve with Zimmermann's parameter b = (a+2)/4 and start point (x0:z0).
+	 *
+	 * @param x0 x-coordinate of the start point (mod N), not in Montgomery form
+	 * @param z0 z-coordinate of the start point (mod N), not in Montgomery form
+	 * @param b Zimmermann's b = (a+2)/4 (mod N), not in Montgomery form
+	 * @param L1 stage 1 bound
+	 * @param L2 stage 2 bound
+	 * @return a proper factor of N, or null if none was found
+	 */
+	public BigInteger runCurve(BigInteger x0, BigInteger z0, BigInteger b, long L1, long L2) {
+		long[] x = mont.toMontgomery(x0);
+		long[] z = mont.toMontgomery(z0);
+		mont.copy(x, X);
+		mont.copy(z, Z);
+		mont.copy(mont.toMontgomery(b), bZi);
+		try {
+			BigInteger factor = stage1(L1);
+			if (factor != null) return factor;
+			return polynomialStage2 != null ? stage2Polynomial(L1, L2) : stage2(L1, L2);
+		} catch (FactorException fe) {
+			// found a factor in a modular inversion
+			return fe.getFactor();
+		}
+	}
+
+	/**
+	 * Run stage 1 on the Edwards curve x^2 + y^2 = 1 + d*x^2*y^2 with start point (x0, y0),
+	 * and stage 2 on the equivalent Montgomery curve.
+	 *
+	 * @param x0 x-coordinate of the start point (mod N)
+	 * @param y0 y-coordinate of the start point (mod N)
+	 * @param d the curve parameter (mod N), such that (x0, y0) is on the curve
+	 * @param L1 stage 1 bound
+	 * @param L2 stage 2 bound
+	 * @return a proper factor of N, or null if none was found
+	 */
+	public BigInteger runEdwardsCurve(BigInteger x0, BigInteger y0, BigInteger d, long L1, long L2) {
+		mont.copy(mont.toMontgomery(x0), EX);
+		mont.copy(mont.toMontgomery(y0), EY);
+		mont.copy(one, EZ);
+		mont.mul(EX, EY, ET);
+		mont.copy(mont.toMontgomery(d), ed);
+		try {
+			edwardsStage1(L1);
+			BigInteger factor = properGcd(EX);
+			if (factor != null) return factor;
+			if (mont.isZero(EX)) return null; // the point has smooth order modulo all prime factors of N; stage 2 can not help
+
+			// Map (x, y) to the Montgomery curve By^2 = x^3 + Ax^2 + x with A = 2(a+d)/(a-d), B = 4/(a-d):
+			// u = (1+y)/(1-y) and Zimmermann's b = (A+2)/4 = a/(a-d) = 1/(1-d)
+			mont.add(EZ, EY, X);
+			mont.sub(EZ, EY, Z);
+			mont.modInverse(mont.toMontgomery(I_1.subtract(d)), bZi);
+			return polynomialStage2 != null ? stage2Polynomial(L1, L2) : stage2(L1, L2);
+		} catch (FactorException fe) {
+			// found a factor in a modular inversion
+			return fe.getFactor();
+		}
+	}
+
+	/**
+	 * Compute s*P for the stage 1 multiplier s of L1, where P is the point stored in (EX:EY:EZ:ET).
+	 * @param L1 stage 1 bound
+	 */
+	private void edwardsStage1(long L1) {
+		EdwardsStage1Chain chain = EdwardsStage1Chain.get(L1);
+		final int tableSize = EdwardsStage1Chain.TABLE_SIZE;
+
+		// precompute P, 3P, 5P, ...
+		mont.copy(EX, tableX[0]);
+		mont.copy(EY, tableY[0]);
+		mont.copy(EZ, tableZ[0]);
+		mont.copy(ET, tableT[0]);
+		toCached(0);
+		if (tableSize > 1) {
+			// store 2P in the last table entry for a moment
+			final int last = tableSize-1;
+			edwardsDouble(EX, EY, EZ, tableX[last], tableY[last], tableZ[last], tableT[last]);
+			toCached(last);
+			for (int i=1; i<tableSize; i++) {
+				edwardsAdd(tableX[i-1], tableY[i-1], tableZ[i-1], tableT[i-1], last, false, tableX[i], tableY[i], tableZ[i], tableT[i]);
+				toCached(i);
+			}
+		}
+
+		// run through the chain
+		int index = (chain.firstDigit-1) >> 1;
+		mont.copy(tableX[index], EX);
+		mont.copy(tableY[index], EY);
+		mont.copy(tableZ[index], EZ);
+		mont.copy(tableT[index], ET);
+		for (int step : chain.steps) {
+			int doublings = step >>> 5;
+			int digit = (step & 31) - 16;
+			for (int i=1; i<doublings; i++) {
+				edwardsDouble(EX, EY, EZ, EX, EY, EZ, null); // T is only needed before an addition
+			}
+			if (digit == 0) {
+				edwardsDouble(EX, EY, EZ, EX, EY, EZ, null);
+			} else {
+				edwardsDouble(EX, EY, EZ, EX, EY, EZ, ET);
+				if (digit > 0) {
+					edwardsAdd(EX, EY, EZ, ET, (digit-1) >> 1, false, EX, EY, EZ, ET);
+				} else {
+					edwardsAdd(EX, EY, EZ, ET, (-digit-1) >> 1, true, EX, EY, EZ, ET);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Store X+Y, Y-X and d*T of table point i.
+	 * @param i
+	 */
+	private void toCached(int i) {
+		mont.add(tableX[i], tableY[i], tableXpY[i]);
+		mont.sub(tableY[i], tableX[i], tableYmX[i]);
+		mont.mul(tableT[i], ed, tableDT[i]);
+	}
+
+	/**
+	 * Doubling on an Edwards curve with a=1 in extended coordinates, "dbl-2008-hwcd": 4M + 4S, or 3M + 4S without T3.
+	 * The output may be identical to the input.
+	 *
+	 * @param X1
+	 * @param Y1
+	 * @param Z1
+	 * @param X3
+	 * @param Y3
+	 * @param Z3
+	 * @param T3 may be null if T3 is not required
+	 */
+	private void edwardsDouble(long[] X1, long[] Y1, long[] Z1, long[] X3, long[] Y3, long[] Z3, long[] T3) {
+		mont.sqr(X1, eA); // A = X1^2
+		mont.sqr(Y1, eB); // B = Y1^2
+		mont.sqr(Z1, eC);
+		mont.add(eC, eC, eC); // C = 2*Z1^2
+		mont.add(X1, Y1, eE);
+		mont.sqr(eE, eE);
+		mont.sub(eE, eA, eE);
+		mont.sub(eE, eB, eE); // E = (X1+Y1)^2 - A - B
+		mont.add(eA, eB, eG); // G = D + B with D = a*A = A
+		mont.sub(eG, eC, eF); // F = G - C
+		mont.sub(eA, eB, eH); // H = D - B
+		mont.mul(eE, eF, X3);
+		mont.mul(eG, eH, Y3);
+		if (T3 != null) mont.mul(eE, eH, T3);
+		mont.mul(eF, eG, Z3);
+	}
+
+	/**
+	 * Addition of the table point i (or its negative) on an Edwards curve with a=1 in extended coordinates,
+	 * "add-2008-hwcd" with precomputed X2+Y2, Y2-X2 and d*T2: 9M.
+	 * The formula is unified, so it is correct for doublings, too.
+	 * The output may be identical to the input.
+	 *
+	 * @param X1
+	 * @param Y1
+	 * @param Z1
+	 * @param T1
+	 * @param i table index of the second point
+	 * @param negate if true then the negative of the table point is added
+	 * @param X3
+	 * @param Y3
+	 * @param Z3
+	 * @param T3
+	 */
+	private void edwardsAdd(long[] X1, long[] Y1, long[] Z1, long[] T1, int i, boolean negate, long[] X3, long[] Y3, long[] Z3, long[] T3) {
+		// -(X:Y:Z:T) = (-X:Y:Z:-T), so negation changes the signs of A and C and replaces X2+Y2 by Y2-X2
+		mont.mul(X1, tableX[i], eA); // A = X1*X2
+		mont.mul(Y1, tableY[i], eB); // B = Y1*Y2
+		mont.mul(T1, tableDT[i], eC); // C = T1*d*T2
+		mont.mul(Z1, tableZ[i], eD); // D = Z1*Z2
+		mont.add(X1, Y1, eE);
+		mont.mul(eE, negate ? tableYmX[i] : tableXpY[i], eE);
+		if (negate) {
+			mont.add(eE, eA, eE);
+			mont.sub(eE, eB, eE); // E = (X1+Y1)*(X2+Y2) - A - B
+			mont.add(eD, eC, eF); // F = D - C
+			mont.sub(eD, eC, eG); // G = D + C
+			mont.add(eB, eA, eH); // H = B - a*A
+		} else {
+			mont.sub(eE, eA, eE);
+			mont.sub(eE, eB, eE);
+			mont.sub(eD, eC, eF);
+			mont.add(eD, eC, eG);
+			mont.sub(eB, eA, eH);
+		}
+		mont.mul(eE, eF, X3);
+		mont.mul(eG, eH, Y3);
+		mont.mul(eE, eH, T3);
+		mont.mul(eF, eG, Z3);
+	}
+
+	/**
+	 * @param a
+	 * @return gcd(a, N) if it is a proper factor of N, otherwise null
+	 */
+	private BigInteger properGcd(long[] a) {
+		BigInteger gcd = mont.gcd(a);
+		return (gcd.equals(I_1) || gcd.equals(N)) ? null : gcd;
+	}
+
+	private BigInteger stage1(long L1) {
+		long LS = (long) Math.ceil(Math.sqrt(L1));
+		mont.copy(X, Xaux);
+		mont.copy(Z, Zaux);
+		mont.copy(one, GcdAccumulated);
+		BigInteger factor;
+		for (int Pass = 0; Pass < 2; Pass++) {
+			/* For powers of 2 */
+			for (int I = 1; I <= L1; I <<= 1) {
+				duplicate(X, Z, X, Z);
+			}
+			for (int I = 3; I <= L1; I *= 3) {
+				duplicate(W1, W2, X, Z);
+				add3(X, Z, X, Z, W1, W2, X, Z);
+			}
+
+			if (Pass == 0) {
+				mont.mul(GcdAccumulated, Z, GcdAccumulated);
+			} else {
+				if ((factor = properGcd(Z)) != null) return factor;
+			}
+
+			/* for powers of odd primes */
+			long P;
+			int indexM = 1;
+			do {
+				P = EllipticCurveMethod.SmallPrime[indexM++];
+				for (long IP = P; IP <= L1; IP *= P) {
+					prac((int) P, X, Z, W1, W2, W3, W4);
+				}
+				if (Pass == 0) {
+					mont.mul(GcdAccumulated, Z, GcdAccumulated);
+				} else {
+					if ((factor = properGcd(Z)) != null) return factor;
+				}
+			} while (P <= LS);
+			P += 2;
+
+			/* Initialize sieve2310[n]: 1 if gcd(P+2n,2310) > 1, 0 otherwise */
+			int u = (int) P;
+			for (int i = 0; i < 2310; i++) {
+				sieve2310[i] = (u % 3 == 0 || u % 5 == 0 || u % 7 == 0 || u % 11 == 0 ? (byte) 1 : (byte) 0);
+				u += 2;
+			}
+			do {
+				/* Generate sieve */
+				EllipticCurveMethod.GenerateSieve((int) P, sieve, sieve2310, EllipticCurveMethod.SmallPrime);
+
+				/* Walk through sieve */
+				for (int i = 0; i < 23100; i++) {
+					if (sieve[i] != 0)
+						continue; /* Do not process composites */
+					if (P + 2 * i > L1)
+						break;
+					prac((int) (P + 2 * i), X, Z, W1, W2, W3, W4);
+					if (Pass == 0) {
+						mont.mul(GcdAccumulated, Z, GcdAccumulated);
+					} else {
+						if ((factor = properGcd(Z)) != null) return factor;
+					}
+				}
+				P += 46200;
+			} while (P < L1);
+			if (Pass == 0) {
+				if (mont.isZero(GcdAccumulated)) { // If GcdAccumulated is...
+					mont.copy(Xaux, X);
+					mont.copy(Zaux, Z);
+					continue; // ... a multiple of N, continue.
+				}
+				return properGcd(GcdAccumulated);
+			}
+		} /* end for Pass */
+		return null;
+	}
+
+	private BigInteger stage2(long L1, long L2) throws FactorException {
+		int j = 0;
+		for (int u = 1; u < 2310; u += 2) {
+			if (u % 3 == 0 || u % 5 == 0 || u % 7 == 0 || u % 11 == 0) {
+				sieve2310[u / 2] = (byte) 1;
+			} else {
+				sieve2310[(sieveidx[j++] = u / 2)] = (byte) 0;
+			}
+		}
+		System.arraycopy(sieve2310, 0, sieve2310, 1155, 1155);
+		mont.copy(X, Xaux);
+		mont.copy(Z, Zaux); // (X:Z) -> Q (output from step 1)
+		BigInteger factor;
+
+		for (int Pass = 0; Pass < 2; Pass++) {
+			int J = 0;
+			mont.copy(one, GcdAccumulated);
+			mont.copy(X, UX);
+			mont.copy(Z, UZ); // (UX:UZ) -> Q
+			mont.modInverse(Z, Aux1);
+			mont.mul(Aux1, X, root[0]); // root[0] <- X/Z (Q)
+			mont.add(X, Z, Aux1);
+			mont.sqr(Aux1, W1);
+			mont.sub(X, Z, Aux1);
+			mont.sqr(Aux1, W2);
+			mont.mul(W1, W2, TX);
+			mont.sub(W1, W2, Aux1);
+			mont.mul(Aux1, bZi, Aux2);
+			mont.add(Aux2, W2, Aux3);
+			mont.mul(Aux1, Aux3, TZ); // (TX:TZ) -> 2Q
+			mont.sub(X, Z, Aux1);
+			mont.add(TX, TZ, Aux2);
+			mont.mul(Aux1, Aux2, W1);
+			mont.add(X, Z, Aux1);
+			mont.sub(TX, TZ, Aux2);
+			mont.mul(Aux1, Aux2, W2);
+			mont.add(W1, W2, Aux1);
+			mont.sqr(Aux1, Aux2);
+			mont.mul(Aux2, UZ, X);
+			mont.sub(W1, W2, Aux1);
+			mont.sqr(Aux1, Aux2);
+			mont.mul(Aux2, UX, Z); // (X:Z) -> 3Q
+			for (int I = 5; I < 2310; I += 2) {
+				mont.copy(X, WX);
+				mont.copy(Z, WZ);
+				mont.sub(X, Z, Aux1);
+				mont.add(TX, TZ, Aux2);
+				mont.mul(Aux1, Aux2, W1);
+				mont.add(X, Z, Aux1);
+				mont.sub(TX, TZ, Aux2);
+				mont.mul(Aux1, Aux2, W2);
+				mont.add(W1, W2, Aux1);
+				mont.sqr(Aux1, Aux2);
+				mont.mul(Aux2, UZ, X);
+				mont.sub(W1, W2, Aux1);
+				mont.sqr(Aux1, Aux2);
+				mont.mul(Aux2, UX, Z); // (X:Z) -> 5Q, 7Q, ...
+				if (Pass == 0) {
+					mont.mul(GcdAccumulated, Aux1, GcdAccumulated);
+				} else {
+					if ((factor = properGcd(Aux1)) != null) return factor;
+				}
+				if (I == 1155) {
+					mont.copy(X, DX);
+					mont.copy(Z, DZ); // (DX:DZ) -> 1155Q
+				}
+				if (I % 3 != 0 && I % 5 != 0 && I % 7 != 0 && I % 11 != 0) {
+					J++;
+					mont.modInverse(Z, Aux1);
+					mont.mul(Aux1, X, root[J]); // root[J] <- X/Z
+				}
+				mont.copy(WX, UX);
+				mont.copy(WZ, UZ); // (UX:UZ) <- Previous (X:Z)
+			} /* end for I */
+			mont.add(DX, DZ, Aux1);
+			mont.sqr(Aux1, W1);
+			mont.sub(DX, DZ, Aux1);
+			mont.sqr(Aux1, W2);
+			mont.mul(W1, W2, X);
+			mont.sub(W1, W2, Aux1);
+			mont.mul(Aux1, bZi, Aux2);
+			mont.add(Aux2, W2, Aux3);
+			mont.mul(Aux1, Aux3, Z);
+			mont.copy(X, UX);
+			mont.copy(Z, UZ); // (UX:UZ) -> 2310Q
+			mont.add(X, Z, Aux1);
+			mont.sqr(Aux1, W1);
+			mont.sub(X, Z, Aux1);
+			mont.sqr(Aux1, W2);
+			mont.mul(W1, W2, TX);
+			mont.sub(W1, W2, Aux1);
+			mont.mul(Aux1, bZi, Aux2);
+			mont.add(Aux2, W2, Aux3);
+			mont.mul(Aux1, Aux3, TZ); // (TX:TZ) -> 2*2310Q
+			mont.sub(X, Z, Aux1);
+			mont.add(TX, TZ, Aux2);
+			mont.mul(Aux1, Aux2, W1);
+			mont.add(X, Z, Aux1);
+			mont.sub(TX, TZ, Aux2);
+			mont.mul(Aux1, Aux2, W2);
+			mont.add(W1, W2, Aux1);
+			mont.sqr(Aux1, Aux2);
+			mont.mul(Aux2, UZ, X);
+			mont.sub(W1, W2, Aux1);
+			mont.sqr(Aux1, Aux2);
+			mont.mul(Aux2, UX, Z); // (X:Z) -> 3*2310Q
+			int Qaux = (int) (L1 / 4620);
+			int maxIndexM = (int) (L2 / 4620);
+			for (int indexM = 0; indexM <= maxIndexM; indexM++) {
+				if (indexM >= Qaux) { // If inside step 2 range...
+					if (indexM == 0) {
+						mont.modInverse(UZ, Aux3);
+						mont.mul(UX, Aux3, Aux1); // Aux1 <- X/Z (2310Q)
+					} else {
+						mont.modInverse(Z, Aux3);
+						mont.mul(X, Aux3, Aux1); // Aux1 <- X/Z (3,5,* 2310Q)
+					}
+
+					/* Generate sieve */
+					if (indexM % 10 == 0 || indexM == Qaux) {
+						EllipticCurveMethod.GenerateSieve(indexM / 10 * 46200 + 1, sieve, sieve2310, EllipticCurveMethod.SmallPrime);
+					}
+					/* Walk through sieve */
+					J = 1155 + (indexM % 10) * 2310;
+					for (int i = 0; i < 480; i++) {
+						j = sieveidx[i]; // 0 < J < 1155
+						if (sieve[J + j] != 0 && sieve[J - 1 - j] != 0) {
+							continue; // Do not process if both are composite numbers.
+						}
+						mont.sub(Aux1, root[i], M);
+						mont.mul(GcdAccumulated, M, GcdAccumulated);
+					}
+					if (Pass != 0) {
+						if ((factor = properGcd(GcdAccumulated)) != null) return factor;
+					}
+				}
+				if (indexM != 0) { // Update (X:Z)
+					mont.copy(X, WX);
+					mont.copy(Z, WZ);
+					mont.sub(X, Z, Aux1);
+					mont.add(TX, TZ, Aux2);
+					mont.mul(Aux1, Aux2, W1);
+					mont.add(X, Z, Aux1);
+					mont.sub(TX, TZ, Aux2);
+					mont.mul(Aux1, Aux2, W2);
+					mont.add(W1, W2, Aux1);
+					mont.sqr(Aux1, Aux2);
+					mont.mul(Aux2, UZ, X);
+					mont.sub(W1, W2, Aux1);
+					mont.sqr(Aux1, Aux2);
+					mont.mul(Aux2, UX, Z);
+					mont.copy(WX, UX);
+					mont.copy(WZ, UZ);
+				}
+			} // end for Q
+			if (Pass == 0) {
+				if (mont.isZero(GcdAccumulated)) { // If GcdAccumulated is...
+					mont.copy(Xaux, X);
+					mont.copy(Zaux, Z);
+					continue; // ... a multiple of N, continue.
+				}
+				return properGcd(GcdAccumulated);
+			}
+		} /* end for Pass */
+		return null;
+	}
+
+	/**
+	 * Polynomial stage 2 for the point (X:Z), covering all primes in (L1, L2].
+	 *
+	 * A prime q = i*D +- j, with 0 < j < D/2 and gcd(j, D) = 1, divides the order of Q modulo p if and only if
+	 * x(iDQ) = x(jQ) (mod p). Thus p divides prod_i F(x(iDQ)), where F(X) = prod_j (X - x(jQ)).
+	 * D = 2310*m is chosen such that the number of giant steps is about the degree of F.
+	 * x-coordinates are used in Montgomery form, which only multiplies the result by a unit.
+	 *
+	 * @param L1 stage 1 bound
+	 * @param L2 stage 2 bound
+	 * @return factor or null
+	 * @throws FactorException if a factor was found in a modular inversion
+	 */
+	private BigInteger stage2Polynomial(long L1, long L2) throws FactorException {
+		int m = 1;
+		while (2*m*m <= (L2 - L1) / (2310L*240)) m <<= 1;
+		final int D = 2310*m;
+		final long firstGiant = Math.max(1, L1 / D);
+		final long lastGiant = (L2 + D/2) / D;
+
+		// baby steps: x(jQ) for odd j < D/2 with gcd(j, D) = 1
+		int babyCount = 0;
+		for (int j = 1; j < D/2; j += 2) {
+			if (j%3 != 0 && j%5 != 0 && j%7 != 0 && j%11 != 0) babyCount++;
+		}
+		long[][] pointsX = new long[babyCount][];
+		long[][] pointsZ = new long[babyCount][];
+		for (int i=0; i<babyCount; i++) {
+			pointsX[i] = mont.create();
+			pointsZ[i] = mont.create();
+		}
+		long[] prevX = mont.create(), prevZ = mont.create();
+		long[] curX = mont.create(), curZ = mont.create();
+		long[] nextX = mont.create(), nextZ = mont.create();
+		long[] stepX = mont.create(), stepZ = mont.create();
+		long[] tmp;
+		duplicate(stepX, stepZ, X, Z); // 2Q
+		mont.copy(X, prevX); // x(-Q) = x(Q)
+		mont.copy(Z, prevZ);
+		mont.copy(X, curX);
+		mont.copy(Z, curZ);
+		int count = 0;
+		for (int j = 1; j < D/2; j += 2) {
+			if (j%3 != 0 && j%5 != 0 && j%7 != 0 && j%11 != 0) {
+				mont.copy(curX, pointsX[count]);
+				mont.copy(curZ, pointsZ[count]);
+				count++;
+			}
+			add3(nextX, nextZ, curX, curZ, stepX, stepZ, prevX, prevZ); // (j+2)Q = jQ + 2Q with difference (j-2)Q
+			tmp = prevX; prevX = curX; curX = nextX; nextX = tmp;
+			tmp = prevZ; prevZ = curZ; curZ = nextZ; nextZ = tmp;
+		}
+		BigInteger[] babyRoots = toAffine(pointsX, pointsZ, babyCount);
+		if (babyRoots == null) return null;
+		BigInteger[] F = polynomialStage2.fromRoots(babyRoots);
+
+		// giant steps: x(iDQ) for firstGiant <= i <= lastGiant, evaluated in batches of at most babyCount points
+		ladder(X, Z, D, stepX, stepZ); // DQ
+		ladder(stepX, stepZ, firstGiant, prevX, prevZ);
+		ladder(stepX, stepZ, firstGiant+1, curX, curZ);
+		BigInteger accumulated = I_1;
+		long i = firstGiant;
+		while (i <= lastGiant) {
+			count = 0;
+			for ( ; count < babyCount && i <= lastGiant; count++, i++) {
+				mont.copy(prevX, pointsX[count]);
+				mont.copy(prevZ, pointsZ[count]);
+				add3(nextX, nextZ, curX, curZ, stepX, stepZ, prevX, prevZ); // (i+2)DQ = (i+1)DQ + DQ with difference iDQ
+				tmp = prevX; prevX = curX; curX = nextX; nextX = tmp;
+				tmp = prevZ; prevZ = curZ; curZ = nextZ; nextZ = tmp;
+			}
+			BigInteger[] giantRoots = toAffine(pointsX, pointsZ, count);
+			if (giantRoots == null) return null;
+			accumulated = accumulated.multiply(polynomialStage2.evaluateProduct(F, giantRoots)).mod(N);
+			BigInteger gcd = accumulated.gcd(N);
+			if (!gcd.equals(I_1)) return gcd.equals(N) ? backtrack(F, babyRoots, giantRoots) : gcd;
+		}
+		return null;
+	}
+
+	/**
+	 * Redo the last batch of the polynomial stage 2 after its accumulated gcd became N, which happens if all prime factors of N
+	 * were found in that batch. The previous batches had gcd 1, so it suffices to check the single values F(x_i) of the batch,
+	 * and if one of them is 0 (mod N), the single differences x_i - x(jQ).
+	 *
+	 * @param F the baby step polynomial
+	 * @param babyRoots the roots of F
+	 * @param giantRoots the giant step x-coordinates of the last batch
+	 * @return factor or null
+	 */
+	private BigInteger backtrack(BigInteger[] F, BigInteger[] babyRoots, BigInteger[] giantRoots) {
+		if (DEBUG) LOG.debug("gcd = N in polynomial stage 2 -> backtrack");
+		BigInteger[] values = polynomialStage2.evaluate(F, giantRoots);
+		for (int i=0; i<giantRoots.length; i++) {
+			BigInteger gcd = values[i].gcd(N);
+			if (gcd.equals(I_1)) continue;
+			if (!gcd.equals(N)) return gcd;
+			for (BigInteger babyRoot : babyRoots) {
+				gcd = giantRoots[i].subtract(babyRoot).gcd(N);
+				if (!gcd.equals(I_1)) {
+					if (!gcd.equals(N)) return gcd;
+					break; // x_i = x(jQ) (mod N), all prime factors of N have been found in the same step
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Compute (x:z) = k*(x0:z0) with the Montgomery ladder.
+	 * @param x0
+	 * @param z0
+	 * @param k multiplier >= 1
+	 * @param x result, must be different from x0
+	 * @param z result, must be different from z0
+	 */
+	private void ladder(long[] x0, long[] z0, long k, long[] x, long[] z) {
+		// (x:z) = R0 = j*P, (WX:WZ) = R1 = (j+1)*P for the leading bits j of k
+		mont.copy(x0, x);
+		mont.copy(z0, z);
+		duplicate(WX, WZ, x0, z0);
+		for (int bit = 62 - Long.numberOfLeadingZeros(k); bit >= 0; bit--) {
+			if (((k >>> bit) & 1) != 0) {
+				add3(x, z, x, z, WX, WZ, x0, z0);
+				duplicate(WX, WZ, WX, WZ);
+			} else {
+				add3(WX, WZ, WX, WZ, x, z, x0, z0);
+				duplicate(x, z, x, z);
+			}
+		}
+	}
+
+	/**
+	 * Compute the affine x-coordinates x/z of count points with a single modular inversion.
+	 * @param xs
+	 * @param zs
+	 * @param count
+	 * @return affine x-coordinates in Montgomery form, or null if some z is 0 (mod N)
+	 * @throws FactorException if some z is not invertible and gcd(z, N) is a proper factor of N
+	 */
+	private BigInteger[] toAffine(long[][] xs, long[][] zs, int count) throws FactorException {
+		long[][] prefix = new long[count][];
+		prefix[0] = zs[0].clone();
+		for (int i=1; i<count; i++) {
+			prefix[i] = mont.create();
+			mont.mul(prefix[i-1], zs[i], prefix[i]);
+		}
+		if (mont.isZero(prefix[count-1])) {
+			BigInteger factor = null;
+			for (int i=0; i<count && factor == null; i++) {
+				factor = properGcd(zs[i]);
+			}
+			if (factor != null) throw new FactorException(factor);
+			return null;
+		}
+		long[] inv = mont.create();
+		mont.modInverse(prefix[count-1], inv); // inverse of z_0 * ... * z_(count-1)
+		BigInteger[] result = new BigInteger[count];
+		long[] zInv = Aux1;
+		for (int i=count-1; i>0; i--) {
+			mont.mul(inv, prefix[i-1], zInv);
+			mont.mul(inv, zs[i], inv);
+			mont.mul(xs[i], zInv, Aux2);
+			result[i] = mont.toBigInteger(Aux2);
+		}
+		mont.mul(xs[0], inv, Aux2);
+		result[0] = mont.toBigInteger(Aux2);
+		return result;
+	}
+
+	// Start of code "borrowed" from Paul Zimmermann's ECM4C
+
+	/**
+	 * Computes nP from P=(x:z) and puts the result in (x:z). Assumes n>2.
+	 *
+	 * @param n the scalar to multiply P with.
+	 * @param x
+	 * @param z
+	 * @param xT
+	 * @param zT
+	 * @param xT2
+	 * @param zT2
+	 */
+	private void prac(int n, long[] x, long[] z, long[] xT, long[] zT, long[] xT2, long[] zT2) {
+		int d, e, r, i;
+		long[] t;
+		long[] xA = x, zA = z;
+		long[] xB = pracXB, zB = pracZB;
+		long[] xC = pracXC, zC = pracZC;
+
+		/* chooses the best value of v */
+		r = lucas_cost(n, v[0]);
+		i = 0;
+		for (d = 1; d < 10; d++) {
+			e = lucas_cost(n, v[d]);
+			if (e < r) {
+				r = e;
+				i = d;
+			}
+		}
+		d = n;
+		r = (int) (d / v[i] + 0.5);
+		/* first iteration always begins by Condition 3, then a swap */
+		d = n - r;
+		e = 2 * r - n;
+		mont.copy(xA, xB); // B = A
+		mont.copy(zA, zB);
+		mont.copy(xA, xC); // C = A
+		mont.copy(zA, zC);
+		duplicate(xA, zA, xA, zA); /* A=2*A */
+		while (d != e) {
+			if (d < e) {
+				r = d;
+				d = e;
+				e = r;
+				t = xA;
+				xA = xB;
+				xB = t;
+				t = zA;
+				zA = zB;
+				zB = t;
+			}
+			/* do the first line of Table 4 whose condition qualifies */
+			if (4 * d <= 5 * e && ((d + e) % 3) == 0) { /* condition 1 */
+				r = (2 * d - e) / 3;
+				e = (2 * e - d) / 3;
+				d = r;
+				add3(xT, zT, xA, zA, xB, zB, xC, zC); /* T = f(A,B,C) */
+				add3(xT2, zT2, xT, zT, xA, zA, xB, zB); /* T2 = f(T,A,B) */
+				add3(xB, zB, xB, zB, xT, zT, xA, zA); /* B = f(B,T,A) */
+				t = xA;
+				xA = xT2;
+				xT2 = t;
+				t = zA;
+				zA = zT2;
+				zT2 = t; /* swap A and T2 */
+			} else if (4 * d <= 5 * e && (d - e) % 6 == 0) { /* condition 2 */
+				d = (d - e) / 2;
+				add3(xB, zB, xA, zA, xB, zB, xC, zC); /* B = f(A,B,C) */
+				duplicate(xA, zA, xA, zA); /* A = 2*A */
+			} else if (d <= (4 * e)) { /* condition 3 */
+				d -= e;
+				add3(xT, zT, xB, zB, xA, zA, xC, zC); /* T = f(B,A,C) */
+				t = xB;
+				xB = xT;
+				xT = xC;
+				xC = t;
+				t = zB;
+				zB = zT;
+				zT = zC;
+				zC = t; /* circular permutation (B,T,C) */
+			} else if ((d + e) % 2 == 0) { /* condition 4 */
+				d = (d - e) / 2;
+				add3(xB, zB, xB, zB, xA, zA, xC, zC); /* B = f(B,A,C) */
+				duplicate(xA, zA, xA, zA); /* A = 2*A */
+			} else if (d % 2 == 0) { /* condition 5 */
+				d /= 2;
+				add3(xC, zC, xC, zC, xA, zA, xB, zB); /* C = f(C,A,B) */
+				duplicate(xA, zA, xA, zA); /* A = 2*A */
+			} else if (d % 3 == 0) { /* condition 6 */
+				d = d / 3 - e;
+				duplicate(xT, zT, xA, zA); /* T1 = 2*A */
+				add3(xT2, zT2, xA, zA, xB, zB, xC, zC); /* T2 = f(A,B,C) */
+				add3(xA, zA, xT, zT, xA, zA, xA, zA); /* A = f(T1,A,A) */
+				add3(xT, zT, xT, zT, xT2, zT2, xC, zC); /* T1 = f(T1,T2,C) */
+				t = xC;
+				xC = xB;
+				xB = xT;
+				xT = t;
+				t = zC;
+				zC = zB;
+				zB = zT;
+				zT = t; /* circular permutation (C,B,T) */
+			} else if ((d + e) % 3 == 0) { /* condition 7 */
+				d = (d - 2 * e) / 3;
+				add3(xT, zT, xA, zA, xB, zB, xC, zC); /* T1 = f(A,B,C) */
+				add3(xB, zB, xT, zT, xA, zA, xB, zB); /* B = f(T1,A,B) */
+				duplicate(xT, zT, xA, zA);
+				add3(xA, zA, xA, zA, xT, zT, xA, zA); /* A = 3*A */
+			} else if ((d - e) % 3 == 0) { /* condition 8 */
+				d = (d - e) / 3;
+				add3(xT, zT, xA, zA, xB, zB, xC, zC); /* T1 = f(A,B,C) */
+				add3(xC, zC, xC, zC, xA, zA, xB, zB); /* C = f(A,C,B) */
+				t = xB;
+				xB = xT;
+				xT = t;
+				t = zB;
+				zB = zT;
+				zT = t; /* swap B and T */
+				duplicate(xT, zT, xA, zA);
+				add3(xA, zA, xA, zA, xT, zT, xA, zA); /* A = 3*A */
+			} else if (e % 2 == 0) { /* condition 9 */
+				e /= 2;
+				add3(xC, zC, xC, zC, xB, zB, xA, zA); /* C = f(C,B,A) */
+				duplicate(xB, zB, xB, zB); /* B = 2*B */
+			}
+		}
+		add3(x, z, xA, zA, xB, zB, xC, zC);
+	}
+
+	/**
+	 * Returns the number of modular multiplications in the computation of nP.
+	 *
+	 * @param n the scalar to multiply a point with
+	 * @param v weight
+	 * @return number of modular multiplications
+	 */
+	private static int lucas_cost(int n, double v) {
+		int c, d, e, r;
+
+		d = n;
+		r = (int) (d / v + 0.5);
+		if (r >= n) return (ADD * n);
+
+		d = n - r;
+		e = 2 * r - n;
+		c = DUP + ADD; /* initial duplicate and final addition */
+		while (d != e) {
+			if (d < e) {
+				r = d;
+				d = e;
+				e = r;
+			}
+			if (4 * d <= 5 * e && ((d + e) % 3) == 0) { /* condition 1 */
+				r = (2 * d - e) / 3;
+				e = (2 * e - d) / 3;
+				d = r;
+				c += 3 * ADD; /* 3 additions */
+			} else if (4 * d <= 5 * e && (d - e) % 6 == 0) { /* condition 2 */
+				d = (d - e) / 2;
+				c += ADD + DUP; /* one addition, one duplicate */
+			} else if (d <= (4 * e)) { /* condition 3 */
+				d -= e;
+				c += ADD; /* one addition */
+			} else if ((d + e) % 2 == 0) { /* condition 4 */
+				d = (d - e) / 2;
+				c += ADD + DUP; /* one addition, one duplicate */
+			} else if (d % 2 == 0) { /* condition 5 */
+				d /= 2;
+				c += ADD + DUP; /* one addition, one duplicate */
+			} else if (d % 3 == 0) { /* condition 6 */
+				d = d / 3 - e;
+				c += 3 * ADD + DUP; /* three additions, one duplicate */
+			} else if ((d + e) % 3 == 0) { /* condition 7 */
+				d = (d - 2 * e) / 3;
+				c += 3 * ADD + DUP; /* three additions, one duplicate */
+			} else if ((d - e) % 3 == 0) { /* condition 8 */
+				d = (d - e) / 3;
+				c += 3 * ADD + DUP; /* three additions, one duplicate */
+			} else if (e % 2 == 0) { /* condition 9 */
+				e /= 2;
+				c += ADD + DUP; /* one addition, one duplicate */
+			}
+		}
+		return (c);
+	}
+
+	/**
+	 * Computes 2P=(x2:z2) from P=(x1:z1), with 2 squarings, 3 multiplications and 4 add/sub.
+	 *
+	 * @param x2
+	 * @param z2
+	 * @param x1
+	 * @param z1
+	 */
+	private void duplicate(long[] x2, long[] z2, long[] x1, long[] z1) {
+		long[] u = dupU;
+		long[] v = dupV;
+		long[] w = dupW;
+		mont.add(x1, z1, w); // w = x1+z1
+		mont.sqr(w, u); // u = (x1+z1)^2
+		mont.sub(x1, z1, w); // w = x1-z1
+		mont.sqr(w, v); // v = (x1-z1)^2
+		mont.mul(u, v, x2); // x2 = u*v = (x1^2 - z1^2)^2
+		mont.sub(u, v, w); // w = u-v = 4*x1*z1
+		mont.mul(bZi, w, u);
+		mont.add(u, v, u); // u = (v+b*w)
+		mont.mul(w, u, z2); // z2 = (w*u)
+	}
+
+	/**
+	 * Adds Q=(x2:z2) and R=(x1:z1) and puts the result in (x3:z3), using 2 squarings, 4 multiplications and 6 add/sub.
+	 * One assumes that Q-R=P or R-Q=P where P=(x:z).
+	 * (x3,z3) may be identical to (x2,z2) and to (x,z).
+	 *
+	 * @param x3
+	 * @param z3
+	 * @param x2
+	 * @param z2
+	 * @param x1
+	 * @param z1
+	 * @param x
+	 * @param z
+	 */
+	private void add3(long[] x3, long[] z3, long[] x2, long[] z2, long[] x1, long[] z1, long[] x, long[] z) {
+		long[] t = addT;
+		long[] u = addU;
+		long[] v = addV;
+		long[] w = addW;
+		mont.sub(x2, z2, v); // v = x2-z2
+		mont.add(x1, z1, w); // w = x1+z1
+		mont.mul(v, w, u); // u = (x2-z2)*(x1+z1)
+		mont.add(x2, z2, w); // w = x2+z2
+		mont.sub(x1, z1, t); // t = x1-z1
+		mont.mul(t, w, v); // v = (x2+z2)*(x1-z1)
+		mont.add(u, v, t); // t = 2*(x1*x2-z1*z2)
+		mont.sqr(t, w); // w = 4*(x1*x2-z1*z2)^2
+		mont.sub(u, v, t); // t = 2*(x2*z1-x1*z2)
+		mont.sqr(t, v); // v = 4*(x2*z1-x1*z2)^2
+		if (x == x3) {
+			mont.copy(x, u);
+			mont.copy(w, t);
+			mont.mul(z, t, w);
+			mont.mul(v, u, z3);
+			mont.copy(w, x3);
+		} else {
+			mont.mul(w, z, x3); // x3 = 4*z*(x1*x2-z1*z2)^2
+			mont.mul(x, v, z3); // z3 = 4*x*(x2*z1-x1*z2)^2
+		}
+	}
+
+	// End of code "borrowed" from Paul Zimmermann's ECM4C
+}
@@ -0,0 +1,37 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.factor.ecm;
+
+/**
+ * The curve arithmetic used by EllipticCurveMethod.
+ * @author Tilman Neumann
+ */
+public enum EcmVariant {
+	/**
+	 * Montgomery curves, stage 1 with prac() chains, with the original 31-bit arithmetic.
+	 */
+	MONTGOMERY_31,
+	
+	/**
+	 * Montgomery curves, stage 1 with prac() chains, with the 62-bit limbs of MontgomeryMult64 (EcmEngine64).
+	 * This is the default for N with at least 300 bit.
+	 */
+	MONTGOMERY_64,
+	
+	/**
+	 * Stage 1 on Edwards curves with torsion group Z/12 following a precomputed NAF chain, stage 2 on the equivalent Montgomery curve,
+	 * with the 62-bit limbs of MontgomeryMult64 (EcmEngine64).
+	 */
+	EDWARDS_64
+}
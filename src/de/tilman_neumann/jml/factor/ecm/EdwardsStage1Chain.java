@@ -0,0 +1,193 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.factor.ecm;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import de.tilman_neumann.jml.primes.exact.SegmentedSieve;
+import de.tilman_neumann.jml.primes.exact.SieveCallback;
+
+/**
+ * The stage 1 multiplier s = product of all maximal prime powers p^e <= B1, recoded as a width-w NAF (non-adjacent form).
+ *
+ * The recoding is stored as a sequence of steps "double n times, then add the odd multiple d*P", with |d| < 2^(w-1),
+ * so that stage 1 can run through it without any chain search. Chains are expensive to compute for big B1;
+ * they are immutable and cached per B1, so all curves and all ECM instances share them.
+ *
+ * @author Tilman Neumann
+ */
+final class EdwardsStage1Chain {
+	private static final Logger LOG = Logger.getLogger(EdwardsStage1Chain.class);
+	private static final boolean DEBUG = false;
+
+	/** the NAF window width */
+	static final int WINDOW = 5;
+	/** the number of precomputed odd multiples P, 3P, ..., (2^(WINDOW-1)-1)P */
+	static final int TABLE_SIZE = 1 << (WINDOW-2);
+
+	private static final HashMap<Long, EdwardsStage1Chain> cache = new HashMap<>();
+
+	/** the most significant digit, positive and odd */
+	final int firstDigit;
+	/** the following steps: (number of doublings << 5) | (digit + 16), where digit is odd or zero */
+	final int[] steps;
+	/** bit length of s */
+	final int bitLength;
+
+	/**
+	 * Get the chain for the given stage 1 bound, computing it on the first request.
+	 * @param B1 stage 1 bound
+	 * @return chain
+	 */
+	static synchronized EdwardsStage1Chain get(long B1) {
+		EdwardsStage1Chain chain = cache.get(B1);
+		if (chain == null) {
+			long t0 = System.currentTimeMillis();
+			chain = new EdwardsStage1Chain(computeStage1Multiplier(B1));
+			cache.put(B1, chain);
+			if (DEBUG) LOG.debug("Computed chain for B1 = " + B1 + ": " + chain.bitLength + " bits, " + chain.steps.length + " additions in " + (System.currentTimeMillis()-t0) + "ms");
+		}
+		return chain;
+	}
+
+	/**
+	 * @param B1
+	 * @return the product of all maximal prime powers p^e <= B1
+	 */
+	static BigInteger computeStage1Multiplier(long B1) {
+		PrimePowerCollector collector = new PrimePowerCollector(B1);
+		new SegmentedSieve(collector).sieve(B1);
+		collector.flush();
+		return product(collector.factors, 0, collector.factors.size());
+	}
+
+	/**
+	 * Collects the maximal prime powers p^e <= B1, multiplied together as long as they fit into a long.
+	 */
+	private static class PrimePowerCollector implements SieveCallback {
+		private final long B1;
+		private final List<BigInteger> factors = new ArrayList<>();
+		private long product = 1;
+
+		PrimePowerCollector(long B1) {
+			this.B1 = B1;
+		}
+
+		@Override
+		public void processPrime(long p) {
+			if (p > B1) return;
+			long q = p;
+			while (q <= B1/p) q *= p;
+			if (product > Long.MAX_VALUE / q) flush();
+			product *= q;
+		}
+
+		void flush() {
+			if (product > 1) factors.add(BigInteger.valueOf(product));
+			product = 1;
+		}
+	}
+
+	/**
+	 * Balanced product tree, much faster than a sequential product for many factors.
+	 */
+	private static BigInteger product(List<BigInteger> factors, int start, int end) {
+		if (end - start == 1) return factors.get(start);
+		if (end - start == 0) return BigInteger.ONE;
+		int mid = (start + end) >>> 1;
+		return product(factors, start, mid).multiply(product(factors, mid, end));
+	}
+
+	/**
+	 * Compute the width-w NAF of s and pack it into steps.
+	 * @param s
+	 */
+	private EdwardsStage1Chain(BigInteger s) {
+		bitLength = s.bitLength();
+		// little-endian words of s
+		byte[] bytes = s.toByteArray(); // big-endian
+		long[] words = new long[(bytes.length + 7) >> 3];
+		for (int j=0; j<bytes.length; j++) {
+			int pos = bytes.length - 1 - j; // byte position from the least significant end
+			words[pos >> 3] |= (bytes[j] & 0xFFL) << ((pos & 7) << 3);
+		}
+		final int windowMask = (1 << WINDOW) - 1;
+		final int half = 1 << (WINDOW-1);
+		// digits by position, least significant first
+		byte[] digits = new byte[bitLength + WINDOW + 1];
+		int carry = 0;
+		int i = 0;
+		while (i < bitLength || carry != 0) {
+			int bit = getBit(words, i) + carry;
+			if ((bit & 1) == 0) {
+				carry = bit >> 1;
+				i++;
+				continue;
+			}
+			// the remaining number k = (s >> i) + carry is odd: choose d == k (mod 2^w) with |d| < 2^(w-1)
+			int low = (int) (getBits(words, i, WINDOW) + carry);
+			int d = low & windowMask;
+			if (d >= half) d -= 1 << WINDOW;
+			digits[i] = (byte) d;
+			carry = (low - d) >> WINDOW; // 0 or 1
+			i += WINDOW;
+		}
+		int top = digits.length - 1;
+		while (digits[top] == 0) top--;
+		firstDigit = digits[top];
+
+		// pack
+		int count = 0;
+		for (int j=top-1; j>=0; j--) {
+			if (digits[j] != 0) count++;
+		}
+		if (digits[0] == 0) count++; // trailing doublings
+		steps = new int[count];
+		int pos = 0, doublings = 0;
+		for (int j=top-1; j>=0; j--) {
+			doublings++;
+			if (digits[j] != 0) {
+				steps[pos++] = (doublings << 5) | (digits[j] + 16);
+				doublings = 0;
+			}
+		}
+		if (doublings > 0) steps[pos++] = (doublings << 5) | 16;
+
+		if (DEBUG) {
+			BigInteger check = BigInteger.valueOf(firstDigit);
+			for (int step : steps) {
+				check = check.shiftLeft(step >>> 5).add(BigInteger.valueOf((step & 31) - 16));
+			}
+			if (!check.equals(s)) LOG.error("chain check failed");
+		}
+	}
+
+	private static int getBit(long[] words, int i) {
+		int w = i >> 6;
+		return w < words.length ? (int) ((words[w] >>> (i & 63)) & 1) : 0;
+	}
+
+	private static long getBits(long[] words, int i, int count) {
+		long result = 0;
+		for (int j=count-1; j>=0; j--) {
+			result = (result << 1) | getBit(words, i+j);
+		}
+		return result;
+	}
+}
@@ -26,9 +26,10 @@ import java.util.SortedMap;
 import org.apache.log4j.Logger;
 
 import de.tilman_neumann.jml.factor.FactorAlgorithm;
+import de.tilman_neumann.jml.factor.FactorException;
 import de.tilman_neumann.jml.factor.base.FactorArguments;
 import de.tilman_neumann.jml.factor.base.FactorResult;
-import de.tilman_neumann.jml.factor.tdiv.TDiv;
+import de.tilman_neumann.jml.factor.tdiv.TDivMultiPrime;
 import de.tilman_neumann.jml.powers.PurePowerTest;
 import de.tilman_neumann.jml.primes.exact.AutoExpandingPrimesArray;
 import de.tilman_neumann.jml.primes.probable.PrPTest;
@@ -44,6 +45,7 @@ import static org.junit.Assert.*;
  *
  * @see [Le] <a href="https://en.wikipedia.org/wiki/Lenstra_elliptic_curve_factorization"> Wikipedia: Lenstra elliptic curve factorization </a>
  * @see [CP] Richard Crandall, Carl Pomerance: "Prime Numbers: A Computational Perspective", Second Edition, chapter 7.4
+ * @see [Mo87] Peter L. Montgomery: "Speeding the Pollard and Elliptic Curve Methods of Factorization", Mathematics of Computation 48 (1987)
  */
 public class EllipticCurveMethod extends FactorAlgorithm {
 	private static final Logger LOG = Logger.getLogger(EllipticCurveMethod.class);
@@ -62,7 +64,7 @@ public class EllipticCurveMethod extends FactorAlgorithm {
 	private static final int BigNbr1[] = new int[NLen];
 	
 	/** Primes < 5000 */
-	private static final int SmallPrime[] = new int[670]; // p_669 = 4999;
+	static final int SmallPrime[] = new int[670]; // p_669 = 4999;
 
 	private static final double v[] = {
 			1.61803398875, 1.72360679775, 1.618347119656, 1.617914406529, 1.612429949509,
@@ -74,7 +76,7 @@ public class EllipticCurveMethod extends FactorAlgorithm {
 
 	private static final PrPTest prp = new PrPTest();
 	private static final PurePowerTest powerTest = new PurePowerTest();
-	private static final TDiv tdiv = new TDiv().setTestLimit(131072);
+	private final TDivMultiPrime tdiv = new TDivMultiPrime().setTestLimit(131072);
 
 	/** input N as a BigNbr */
 	private final int TestNbr[] = new int[NLen];
@@ -88,6 +90,19 @@ public class EllipticCurveMethod extends FactorAlgorithm {
 	/** Elliptic curve counter */
 	private int EC;
 	
+	/**
+	 * ECM runs the 62-bit limb arithmetic of EcmEngine64 for N of at least this size if no variant was requested.
+	 * On Montgomery curves it is on par with the 31-bit arithmetic below 300 bit, and 10% faster at 300 bit, 22% at 400 bit,
+	 * 42% at 512 bit and 56% at 768 bit.
+	 */
+	private static final int MONTGOMERY_64_MIN_BITS = 300;
+	
+	/** the curve arithmetic, or null to choose it by the size of N */
+	private final EcmVariant variant;
+	
+	/** if > 0 then stage 2 is done with polynomial arithmetic up to B2 = stage2Multiplier * B1 */
+	private final int stage2Multiplier;
+	
 	private MontgomeryMult montgomery;
 
 	// big numbers used in gcd calculation
@@ -151,17 +166,46 @@ public class EllipticCurveMethod extends FactorAlgorithm {
 	}
 
 	/**
-	 * Full constructor.
+	 * Constructor for ECM on Montgomery curves, with the faster arithmetic for the size of N.
 	 * @param maxCurves the maximum number of curves to run.
 	 * -1 means no limit, 0 automatic computation of the parameter, positive values are applied directly.
 	 */
 	public EllipticCurveMethod(int maxCurves) {
+		this(maxCurves, null);
+	}
+	
+	/**
+	 * Constructor for ECM with the standard stage 2 continuation.
+	 * @param maxCurves the maximum number of curves to run.
+	 * -1 means no limit, 0 automatic computation of the parameter, positive values are applied directly.
+	 * @param variant the curve arithmetic, or null to choose it by the size of N
+	 */
+	public EllipticCurveMethod(int maxCurves, EcmVariant variant) {
+		this(maxCurves, variant, 0);
+	}
+	
+	/**
+	 * Full constructor.
+	 * @param maxCurves the maximum number of curves to run.
+	 * -1 means no limit, 0 automatic computation of the parameter, positive values are applied directly.
+	 * @param variant the curve arithmetic, or null to choose it by the size of N
+	 * @param stage2Multiplier 0 for the standard continuation with B2 = 100 * B1; a positive value selects the polynomial stage 2
+	 * with B2 = stage2Multiplier * B1, which is only supported by the 64-bit variants.
+	 * The polynomial stage 2 is slower per curve but needs fewer curves. With B2 = 250 * B1 it needed 20-40% less time for 40..44 bit factors
+	 * of 200 bit N, but more time for smaller and for 48 bit factors, so the standard continuation remains the default.
+	 */
+	public EllipticCurveMethod(int maxCurves, EcmVariant variant, int stage2Multiplier) {
+		if (stage2Multiplier < 0 || (stage2Multiplier > 0 && variant == EcmVariant.MONTGOMERY_31)) {
+			throw new IllegalArgumentException("stage2Multiplier = " + stage2Multiplier + " is not supported for variant " + variant);
+		}
 		this.maxCurves = maxCurves;
+		this.variant = variant;
+		this.stage2Multiplier = stage2Multiplier;
 	}
 	
 	@Override
 	public String getName() {
-		return "ECM(maxCurves = " + maxCurves + ")";
+		return "ECM(maxCurves = " + maxCurves + (variant != null ? ", " + variant : "") + (stage2Multiplier > 0 ? ", B2 = " + stage2Multiplier + "*B1" : "") + ")";
 	}
 	
 	@Override
@@ -318,6 +362,19 @@ public class EllipticCurveMethod extends FactorAlgorithm {
 		MultBigNbrModN(MontgomeryMultR1, MontgomeryMultR1, MontgomeryMultR2, dN);
 		montgomery.mul(MontgomeryMultR2, MontgomeryMultR2, MontgomeryMultAfterInv);
 		AddBigNbrModN(MontgomeryMultR1, MontgomeryMultR1, MontgomeryMultR2);
+		
+		// The 64-bit engine gets the curve parameters as plain residues, so we need the inverse of the 31-bit Montgomery R
+		EcmEngine64 engine64 = null;
+		BigInteger R31Inv = null;
+		EcmVariant variant = this.variant;
+		if (variant == null) {
+			// the polynomial stage 2 needs the 64-bit engine
+			variant = (stage2Multiplier > 0 || N.bitLength() >= MONTGOMERY_64_MIN_BITS) ? EcmVariant.MONTGOMERY_64 : EcmVariant.MONTGOMERY_31;
+		}
+		if (variant != EcmVariant.MONTGOMERY_31 && N.testBit(0)) {
+			engine64 = new EcmEngine64(N, stage2Multiplier > 0);
+			R31Inv = I_1.shiftLeft(31*NumberLength).modInverse(N);
+		}
 
 		// Modular curve loop:
 		while (maxCurvesForN==-1 || EC < maxCurvesForN) { // maxCurvesForN==-1 means "run until a factor is found"
@@ -331,9 +388,46 @@ public class EllipticCurveMethod extends FactorAlgorithm {
 			else if (EC < 2000) L1 = 1000000; 
 			else L1 = 11000000;
 
-			long L2 = 100 * L1; // step 2 prime bound
+			long L2 = (stage2Multiplier > 0 ? stage2Multiplier : 100) * L1; // step 2 prime bound
 			long LS = (long) Math.ceil(Math.sqrt(L1));
 
+			if (variant == EcmVariant.EDWARDS_64 && engine64 != null) {
+				// Edwards curves with the rational torsion group Z/12, from Montgomery's family of Z/12 curves [Mo87]: For a point (u, v)
+				// on the curve v^2 = u^3 - 12u of rank 1, let t = v/(2u) and s = (u^2+12)/(4u). Then the Edwards curve x^2 + y^2 = 1 + d*x^2*y^2
+				// with d = -(t^2+1)^3 (t^2-3) / (16t^2) has a point of order 3 besides the point (1, 0) of order 4 that all Edwards curves have,
+				// and it contains the point x0 = 4ts / ((t^2+1)(t^2+3)), y0 = (3-t^2) / (t^2 (t^2+1)) of infinite order.
+				// Curve number EC uses (u, v) = (EC+1) * (-2, 4).
+				try {
+					BigInteger[] uv = multiplyZ12BasePoint(EC + 1, N);
+					if (uv == null) continue; // the multiple is the neutral element modulo N
+					BigInteger uInv = modInverseOrFactor(uv[0], N);
+					if (uInv == null) continue;
+					BigInteger inv2 = N.add(I_1).shiftRight(1);
+					BigInteger inv4 = inv2.multiply(inv2).mod(N);
+					BigInteger t = uv[1].multiply(uInv).multiply(inv2).mod(N);
+					BigInteger s = uv[0].multiply(uv[0]).add(I_12).multiply(uInv).multiply(inv4).mod(N);
+					BigInteger t2 = t.multiply(t).mod(N);
+					BigInteger t2p1 = t2.add(I_1);
+					BigInteger t2p3 = t2.add(I_3);
+					// common denominator t^2 (t^2+1)(t^2+3)
+					BigInteger denInv = modInverseOrFactor(t2.multiply(t2p1).multiply(t2p3), N);
+					if (denInv == null) continue;
+					BigInteger x0 = I_4.multiply(t).multiply(t2).multiply(s).multiply(denInv).mod(N);
+					BigInteger y0 = I_3.subtract(t2).multiply(t2p3).multiply(denInv).mod(N);
+					BigInteger t2p1Pow2 = t2p1.multiply(t2p1).mod(N);
+					BigInteger d = t2p1Pow2.multiply(t2p1Pow2).multiply(I_3.subtract(t2)).multiply(t2p3).multiply(denInv).mod(N).multiply(inv4).multiply(inv4).mod(N);
+					if (DEBUG) {
+						BigInteger x02 = x0.multiply(x0), y02 = y0.multiply(y0);
+						assertEquals(x02.add(y02).mod(N), I_1.add(d.multiply(x02).multiply(y02)).mod(N));
+					}
+					BigInteger factor = engine64.runEdwardsCurve(x0, y0, d, L1, L2);
+					if (factor != null) return factor;
+				} catch (FactorException fe) {
+					return fe.getFactor();
+				}
+				continue; // next curve
+			}
+
 			// [Le] Pick a random elliptic curve over Z_N, with equation of the form y^2 = x^3 + ax + b (mod N) together with a
 			// non-trivial point P(x0, y0) on it. This can be done by first picking random x0, y0, a ∈ Z_N, and then setting
 			// b = y0^2 − x0^3 − a*x0 (mod N) to assure the point is on the curve.
@@ -372,6 +466,15 @@ public class EllipticCurveMethod extends FactorAlgorithm {
 			MultBigNbrModN(Aux3, MontgomeryMultR1, Aux2, dN);
 			montgomery.mul(Aux1, Aux2, bZi); // Zimmermann's b = (a+2)/4 mod N (fixed from now on)
 			
+			if (engine64 != null) {
+				BigInteger x0 = BigIntToBigNbr(X).multiply(R31Inv).mod(N);
+				BigInteger z0 = BigIntToBigNbr(Z).multiply(R31Inv).mod(N);
+				BigInteger b = BigIntToBigNbr(bZi).multiply(R31Inv).mod(N);
+				BigInteger factor = engine64.runCurve(x0, z0, b, L1, L2);
+				if (factor != null) return factor;
+				continue; // next curve
+			}
+			
 			/**************/
 			/* First step */
 			/**************/
@@ -647,7 +750,7 @@ public class EllipticCurveMethod extends FactorAlgorithm {
 		return I_1; // no factor found
 	}
 	
-	private static void GenerateSieve(int initial, byte[] sieve, byte[] sieve2310, int[] SmallPrime) {
+	static void GenerateSieve(int initial, byte[] sieve, byte[] sieve2310, int[] SmallPrime) {
 		int i, j, Q;
 		for (i = 0; i < 23100; i += 2310) {
 			System.arraycopy(sieve2310, 0, sieve, i, 2310);
@@ -1021,6 +1124,51 @@ public class EllipticCurveMethod extends FactorAlgorithm {
 	    }
 	}
 
+	/**
+	 * Compute k*(-2, 4) on the elliptic curve v^2 = u^3 - 12u modulo N, in affine coordinates.
+	 * @param k multiplier &gt;= 2
+	 * @param N
+	 * @return {u, v}, or null if the neutral element occurred modulo N
+	 * @throws FactorException if a modular inversion revealed a proper factor of N
+	 */
+	private static BigInteger[] multiplyZ12BasePoint(int k, BigInteger N) throws FactorException {
+		final BigInteger u1 = N.subtract(I_2);
+		final BigInteger v1 = I_4;
+		BigInteger u = u1, v = v1;
+		for (int i = 30 - Integer.numberOfLeadingZeros(k); i >= 0; i--) {
+			// doubling
+			BigInteger inv = modInverseOrFactor(v.shiftLeft(1), N);
+			if (inv == null) return null;
+			BigInteger lambda = u.multiply(u).multiply(I_3).subtract(I_12).multiply(inv).mod(N);
+			BigInteger u3 = lambda.multiply(lambda).subtract(u.shiftLeft(1)).mod(N);
+			v = lambda.multiply(u.subtract(u3)).subtract(v).mod(N);
+			u = u3;
+			if ((k & (1<<i)) != 0) {
+				// addition of (-2, 4)
+				inv = modInverseOrFactor(u.subtract(u1), N);
+				if (inv == null) return null;
+				lambda = v.subtract(v1).multiply(inv).mod(N);
+				u3 = lambda.multiply(lambda).subtract(u).subtract(u1).mod(N);
+				v = lambda.multiply(u.subtract(u3)).subtract(v).mod(N);
+				u = u3;
+			}
+		}
+		return new BigInteger[] {u, v};
+	}
+
+	/**
+	 * @param a
+	 * @param N
+	 * @return 1/a (mod N), or null if a == 0 (mod N)
+	 * @throws FactorException if gcd(a, N) is a proper factor of N
+	 */
+	private static BigInteger modInverseOrFactor(BigInteger a, BigInteger N) throws FactorException {
+		BigInteger gcd = a.gcd(N);
+		if (gcd.equals(I_1)) return a.modInverse(N);
+		if (gcd.equals(N)) return null;
+		throw new FactorException(gcd);
+	}
+
 	static int computeNumberLength(int bitLength) {
 		// The original computation was (bitLength + 30)/31;
 		// added one bit for the sign and another to avoid overflows in additions
@@ -0,0 +1,254 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.factor.ecm;
+
+import java.math.BigInteger;
+
+import org.apache.log4j.Logger;
+
+import de.tilman_neumann.jml.base.Uint128;
+
+import static de.tilman_neumann.jml.base.BigIntConstants.*;
+import static org.junit.Assert.*;
+
+/**
+ * Two-word Montgomery arithmetic for odd moduli N < 2^126, with reducer R = 2^128.
+ *
+ * Numbers are stored in long[2] arrays {low, high} of full 64-bit words. All loops
+ * are unrolled and the word products are computed like in Uint128.mul64_MH(), so no objects are created in the arithmetic.
+ * The bound N < 2^126 guarantees that the intermediate results of the CIOS multiplication fit into three words
+ * and that arguments in [0, 2N) give results in [0, 2N) before the final correction.
+ *
+ * All arguments must be reduced, i.e. in [0, N). Result arrays may be identical to argument arrays.
+ *
+ * @author Tilman Neumann
+ */
+public class MontgomeryMult128 {
+	@SuppressWarnings("unused")
+	private static final Logger LOG = Logger.getLogger(MontgomeryMult128.class);
+	private static final boolean DEBUG = false;
+
+	/** the maximum bit length of supported moduli */
+	public static final int MAX_BITS_SUPPORTED = 126;
+
+	/** the modulus as BigInteger */
+	private final BigInteger N_big;
+	/** low and high word of the modulus */
+	private final long N0, N1;
+	/** -1/N mod 2^64 */
+	private final long minusNInv;
+
+	/**
+	 * Full constructor.
+	 * @param N odd modulus < 2^126
+	 */
+	public MontgomeryMult128(BigInteger N) {
+		if (!N.testBit(0)) throw new IllegalArgumentException("Montgomery multiplication requires an odd modulus, but N = " + N);
+		if (N.bitLength() > MAX_BITS_SUPPORTED) throw new IllegalArgumentException("N = " + N + " has " + N.bitLength() + " bits, but MontgomeryMult128 supports at most " + MAX_BITS_SUPPORTED + " bits");
+		this.N_big = N;
+		this.N0 = N.longValue();
+		this.N1 = N.shiftRight(64).longValue();
+
+		// Newton iteration for 1/N0 mod 2^64; each step doubles the number of correct bits
+		long x = N0; // correct mod 2^3 because N0 is odd
+		for (int i=0; i<5; i++) {
+			x *= 2 - N0 * x;
+		}
+		this.minusNInv = -x;
+	}
+
+	/**
+	 * @return a new number with value zero
+	 */
+	public long[] create() {
+		return new long[2];
+	}
+
+	/**
+	 * Convert a number into Montgomery form.
+	 * @param x arbitrary integer
+	 * @return x*R mod N
+	 */
+	public long[] toMontgomery(BigInteger x) {
+		BigInteger xR = x.shiftLeft(128).mod(N_big);
+		return new long[] {xR.longValue(), xR.shiftRight(64).longValue()};
+	}
+
+	/**
+	 * Convert a number from Montgomery form.
+	 * @param a
+	 * @return a/R mod N
+	 */
+	public BigInteger fromMontgomery(long[] a) {
+		long[] result = new long[2];
+		mul(a, new long[] {1, 0}, result);
+		return toBigInteger(result);
+	}
+
+	/**
+	 * Montgomery multiplication r = a*b/R mod N (CIOS with both loops unrolled).
+	 * @param a
+	 * @param b
+	 * @param r result, may be identical to a or b
+	 */
+	public void mul(long[] a, long[] b, long[] r) {
+		final long a0 = a[0], a1 = a[1], b0 = b[0], b1 = b[1];
+		// The high words a1, b1, N1 are < 2^62, so the signed Math.multiplyHigh() only needs a correction for the other factor.
+		// For two low words, the unsigned high product is multiplyHigh(x, y) + ((x>>63) & y) + ((y>>63) & x).
+
+		// t = a * b0
+		long t0 = a0 * b0;
+		long hi = Math.multiplyHigh(a0, b0) + ((a0>>63) & b0) + ((b0>>63) & a0);
+		long p = a1 * b0;
+		long t1 = p + hi;
+		long t2 = Math.multiplyHigh(a1, b0) + ((b0>>63) & a1) + ((t1+Long.MIN_VALUE < p+Long.MIN_VALUE) ? 1 : 0);
+
+		// t = (t + m*N) / 2^64
+		long m = t0 * minusNInv;
+		long c = Math.multiplyHigh(m, N0) + ((m>>63) & N0) + ((N0>>63) & m) + (t0 != 0 ? 1 : 0); // the low word of t0 + m*N0 is 0
+		p = m * N1;
+		hi = Math.multiplyHigh(m, N1) + ((m>>63) & N1);
+		long s = t1 + p;
+		if (s+Long.MIN_VALUE < p+Long.MIN_VALUE) hi++;
+		t0 = s + c;
+		if (t0+Long.MIN_VALUE < c+Long.MIN_VALUE) hi++;
+		t1 = t2 + hi;
+
+		// t += a * b1
+		p = a0 * b1;
+		hi = Math.multiplyHigh(a0, b1) + ((a0>>63) & b1);
+		t0 += p;
+		if (t0+Long.MIN_VALUE < p+Long.MIN_VALUE) hi++; // hi < 2^62 before, so no overflow
+		s = t1 + hi;
+		long carry = (s+Long.MIN_VALUE < hi+Long.MIN_VALUE) ? 1 : 0;
+		p = a1 * b1;
+		t1 = s + p;
+		if (t1+Long.MIN_VALUE < p+Long.MIN_VALUE) carry++;
+		t2 = Math.multiplyHigh(a1, b1) + carry;
+
+		// t = (t + m*N) / 2^64
+		m = t0 * minusNInv;
+		c = Math.multiplyHigh(m, N0) + ((m>>63) & N0) + ((N0>>63) & m) + (t0 != 0 ? 1 : 0);
+		p = m * N1;
+		hi = Math.multiplyHigh(m, N1) + ((m>>63) & N1);
+		s = t1 + p;
+		if (s+Long.MIN_VALUE < p+Long.MIN_VALUE) hi++;
+		t0 = s + c;
+		if (t0+Long.MIN_VALUE < c+Long.MIN_VALUE) hi++;
+		t1 = t2 + hi;
+
+		// now t < 2N; subtract N if t >= N
+		subtractNIfNotNegative(t0, t1, r);
+
+		if (DEBUG) {
+			BigInteger expected = toBigInteger(a).multiply(toBigInteger(b)).multiply(I_1.shiftLeft(128).modInverse(N_big)).mod(N_big);
+			assertEquals(expected, toBigInteger(r));
+		}
+	}
+
+	/**
+	 * Branch-free r = (t >= N) ? t-N : t, for 0 <= t < 2N.
+	 */
+	private void subtractNIfNotNegative(long t0, long t1, long[] r) {
+		final long d0 = t0 - N0;
+		final long d1 = t1 - N1 - ((t0+Long.MIN_VALUE < N0+Long.MIN_VALUE) ? 1 : 0);
+		final long keep = d1 >> 63; // all bits set if t-N < 0
+		r[0] = d0 ^ ((d0 ^ t0) & keep);
+		r[1] = d1 ^ ((d1 ^ t1) & keep);
+	}
+
+	/**
+	 * Montgomery squaring r = a^2/R mod N.
+	 * @param a
+	 * @param r result, may be identical to a
+	 */
+	public void sqr(long[] a, long[] r) {
+		mul(a, a, r);
+	}
+
+	/**
+	 * Modular addition r = a + b mod N.
+	 * @param a
+	 * @param b
+	 * @param r result, may be identical to a or b
+	 */
+	public void add(long[] a, long[] b, long[] r) {
+		// a+b < 2N < 2^127, so there is no overflow of the high word
+		final long a0 = a[0];
+		final long s0 = a0 + b[0];
+		final long s1 = a[1] + b[1] + ((s0+Long.MIN_VALUE < a0+Long.MIN_VALUE) ? 1 : 0);
+		subtractNIfNotNegative(s0, s1, r);
+	}
+
+	/**
+	 * Modular subtraction r = a - b mod N.
+	 * @param a
+	 * @param b
+	 * @param r result, may be identical to a or b
+	 */
+	public void sub(long[] a, long[] b, long[] r) {
+		final long a0 = a[0], b0 = b[0];
+		long d0 = a0 - b0;
+		long d1 = a[1] - b[1] - ((a0+Long.MIN_VALUE < b0+Long.MIN_VALUE) ? 1 : 0);
+		// add N if a-b was negative
+		final long add = d1 >> 63;
+		final long s0 = d0 + (N0 & add);
+		r[0] = s0;
+		r[1] = d1 + (N1 & add) + ((s0+Long.MIN_VALUE < d0+Long.MIN_VALUE) ? 1 : 0);
+	}
+
+	/**
+	 * @param a
+	 * @return true if a == 0
+	 */
+	public boolean isZero(long[] a) {
+		return a[0] == 0 && a[1] == 0;
+	}
+
+	/**
+	 * Copy a to r.
+	 * @param a
+	 * @param r
+	 */
+	public void copy(long[] a, long[] r) {
+		r[0] = a[0];
+		r[1] = a[1];
+	}
+
+	/**
+	 * @param a
+	 * @return gcd(a, N); if a is in Montgomery form, this is the same as the gcd of the represented number and N
+	 */
+	public BigInteger gcd(long[] a) {
+		return toBigInteger(a).gcd(N_big);
+	}
+
+	/**
+	 * Convert a number into an Uint128. No Montgomery conversion is done.
+	 * @param a
+	 * @return Uint128
+	 */
+	public Uint128 toUint128(long[] a) {
+		return new Uint128(a[1], a[0]);
+	}
+
+	/**
+	 * Convert a number into a non-negative BigInteger. No Montgomery conversion is done.
+	 * @param a
+	 * @return BigInteger
+	 */
+	public BigInteger toBigInteger(long[] a) {
+		return toUint128(a).toBigInteger();
+	}
+}
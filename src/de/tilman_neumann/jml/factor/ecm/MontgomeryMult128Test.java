@@ -0,0 +1,102 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.factor.ecm;
+
+import static de.tilman_neumann.jml.base.BigIntConstants.*;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+import org.apache.log4j.Logger;
+
+import de.tilman_neumann.util.ConfigUtil;
+
+/**
+ * Tests correctness of MontgomeryMult128 against BigInteger arithmetic.
+ *
+ * @author Tilman Neumann
+ */
+public class MontgomeryMult128Test {
+	private static final Logger LOG = Logger.getLogger(MontgomeryMult128Test.class);
+
+	private static final int N_COUNT = 1000;
+	private static final int OP_COUNT = 100;
+
+	private static final SecureRandom RNG = new SecureRandom();
+
+	private static void testCorrectness(int bits) {
+		int failures = 0;
+		int opCount = 0;
+		for (int i=0; i<N_COUNT; i++) {
+			BigInteger N = new BigInteger(bits, RNG).setBit(bits-1).setBit(0);
+			// the extreme moduli of the given size
+			if (i == 0) N = I_1.shiftLeft(bits).subtract(I_1);
+			if (i == 1) N = I_1.shiftLeft(bits-1).add(I_1);
+			MontgomeryMult128 mont = new MontgomeryMult128(N);
+			long[] r = mont.create();
+			for (int j=0; j<OP_COUNT; j++) {
+				BigInteger a, b;
+				if (j == 0) {
+					a = N.subtract(I_1); b = N.subtract(I_1);
+				} else if (j == 1) {
+					a = I_0; b = N.subtract(I_1);
+				} else if (j == 2) {
+					a = I_1.shiftLeft(64).mod(N); b = I_1.shiftLeft(64).subtract(I_1).mod(N); // word boundary
+				} else {
+					a = new BigInteger(bits, RNG).mod(N);
+					b = new BigInteger(bits, RNG).mod(N);
+				}
+				long[] aM = mont.toMontgomery(a);
+				long[] bM = mont.toMontgomery(b);
+
+				mont.mul(aM, bM, r);
+				if (!mont.fromMontgomery(r).equals(a.multiply(b).mod(N))) failures++;
+				mont.sqr(aM, r);
+				if (!mont.fromMontgomery(r).equals(a.multiply(a).mod(N))) failures++;
+				mont.add(aM, bM, r);
+				if (!mont.fromMontgomery(r).equals(a.add(b).mod(N))) failures++;
+				mont.sub(aM, bM, r);
+				if (!mont.fromMontgomery(r).equals(a.subtract(b).mod(N))) failures++;
+				// results must be reduced so that they can be used as arguments again
+				if (mont.toBigInteger(r).compareTo(N) >= 0) failures++;
+				// in-place operation
+				mont.mul(aM, bM, aM);
+				if (!mont.fromMontgomery(aM).equals(a.multiply(b).mod(N))) failures++;
+				opCount += 6;
+			}
+		}
+		LOG.info(bits + " bit: " + failures + " failures in " + opCount + " operations");
+	}
+
+	/**
+	 * Test.
+	 * @param args ignored
+	 */
+	public static void main(String[] args) {
+		ConfigUtil.initProject();
+		for (int bits = 65; bits <= MontgomeryMult128.MAX_BITS_SUPPORTED; bits++) {
+			testCorrectness(bits);
+		}
+		// bigger moduli must be rejected
+		for (int bits = MontgomeryMult128.MAX_BITS_SUPPORTED + 1; bits <= 128; bits++) {
+			BigInteger N = new BigInteger(bits, RNG).setBit(bits-1).setBit(0);
+			try {
+				new MontgomeryMult128(N);
+				LOG.error(bits + " bit: N = " + N + " has not been rejected");
+			} catch (IllegalArgumentException e) {
+				LOG.info(bits + " bit: N has been rejected as expected");
+			}
+		}
+	}
+}
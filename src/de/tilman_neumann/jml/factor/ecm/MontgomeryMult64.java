@@ -0,0 +1,380 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.factor.ecm;
+
+import java.math.BigInteger;
+
+import org.apache.log4j.Logger;
+
+import de.tilman_neumann.jml.factor.FactorException;
+
+import static de.tilman_neumann.jml.base.BigIntConstants.*;
+import static org.junit.Assert.*;
+
+/**
+ * Modular arithmetic for odd multiple-precision moduli N, with numbers stored as little-endian long[] of 62-bit limbs.
+ *
+ * Multiplication is done in Montgomery form with the "coarsely integrated operand scanning" (CIOS) method [Koc],
+ * using Math.multiplyHigh() for the high parts of the limb products. Limbs of 62 bit leave two bits of headroom in each 64-bit word:
+ * The limb products are non-negative, so no unsigned correction of multiplyHigh() is needed, and a limb plus the low part of a product
+ * plus a carry never overflows, so carries are taken from the top bits instead of being detected by comparisons.
+ * For N with more than 100 bit this is faster than the 31-bit arithmetic of MontgomeryMult, although 62n bits may need one limb more than 64n bits.
+ *
+ * All arguments must be reduced, i.e. in [0, N). Result arrays may be identical to argument arrays.
+ * Instances are not thread-safe because they keep scratch arrays.
+ *
+ * @see [Koc] Cetin Kaya Koc, Tolga Acar, Burton S. Kaliski Jr.: "Analyzing and Comparing Montgomery Multiplication Algorithms", IEEE Micro 16(3), 1996
+ *
+ * @author Tilman Neumann
+ */
+public class MontgomeryMult64 {
+	@SuppressWarnings("unused")
+	private static final Logger LOG = Logger.getLogger(MontgomeryMult64.class);
+	private static final boolean DEBUG = false;
+
+	/** the number of bits per limb */
+	private static final int LIMB_BITS = 62;
+	private static final long LIMB_MASK = (1L<<LIMB_BITS) - 1;
+
+	/** the modulus as BigInteger */
+	private final BigInteger N_big;
+	/** the modulus in 62-bit limbs */
+	private final long[] N;
+	/** the number of limbs */
+	private final int n;
+	/** -1/N mod 2^62 */
+	private final long minusNInv;
+	/** R^2 mod N, where R = 2^(62n) */
+	private final BigInteger R2;
+
+	/** scratch array for multiplication, n+1 limbs */
+	private final long[] t;
+
+	/**
+	 * Full constructor.
+	 * @param N odd modulus
+	 */
+	public MontgomeryMult64(BigInteger N) {
+		if (!N.testBit(0)) throw new IllegalArgumentException("Montgomery multiplication requires an odd modulus, but N = " + N);
+		this.N_big = N;
+		this.n = (N.bitLength() + LIMB_BITS - 1) / LIMB_BITS;
+		this.N = toLimbs(N, n);
+
+		// Newton iteration for 1/N[0] mod 2^64; each step doubles the number of correct bits
+		long N0 = this.N[0];
+		long x = N0; // correct mod 2^3 because N0 is odd
+		for (int i=0; i<5; i++) {
+			x *= 2 - N0 * x;
+		}
+		this.minusNInv = -x & LIMB_MASK;
+
+		this.R2 = I_1.shiftLeft(2*LIMB_BITS*n).mod(N);
+		this.t = new long[n+1];
+	}
+
+	/**
+	 * @return the number of limbs of numbers mod N
+	 */
+	public int getNumberOfLimbs() {
+		return n;
+	}
+
+	/**
+	 * @return a new number with value zero
+	 */
+	public long[] create() {
+		return new long[n];
+	}
+
+	/**
+	 * @return a new array holding 1 in Montgomery form
+	 */
+	public long[] createOne() {
+		return toMontgomery(I_1);
+	}
+
+	/**
+	 * Convert a number into Montgomery form.
+	 * @param x arbitrary integer
+	 * @return x*R mod N in 62-bit limbs
+	 */
+	public long[] toMontgomery(BigInteger x) {
+		return toLimbs(x.shiftLeft(LIMB_BITS*n).mod(N_big), n);
+	}
+
+	/**
+	 * Convert a number from Montgomery form.
+	 * @param a
+	 * @return a/R mod N
+	 */
+	public BigInteger fromMontgomery(long[] a) {
+		long[] one = new long[n];
+		one[0] = 1;
+		long[] result = new long[n];
+		mul(a, one, result);
+		return toBigInteger(result);
+	}
+
+	/**
+	 * Compute the modular inverse of a number in Montgomery form.
+	 * @param a a*R mod N
+	 * @param result receives (1/a)*R mod N
+	 * @throws FactorException if a is not invertible mod N and gcd(a, N) is a proper factor of N
+	 */
+	public void modInverse(long[] a, long[] result) throws FactorException {
+		BigInteger aR = toBigInteger(a);
+		BigInteger aRInv;
+		try {
+			aRInv = aR.modInverse(N_big); // = (1/a) * (1/R)
+		} catch (ArithmeticException e) {
+			BigInteger gcd = aR.gcd(N_big);
+			if (gcd.compareTo(I_1) > 0 && gcd.compareTo(N_big) < 0) throw new FactorException(gcd);
+			// a == 0 (mod N): there is no inverse; return 0 like the 31-bit implementation does
+			for (int i=0; i<n; i++) result[i] = 0;
+			return;
+		}
+		toLimbs(aRInv.multiply(R2).mod(N_big), result);
+	}
+
+	/**
+	 * Montgomery multiplication r = a*b/R mod N (CIOS).
+	 * @param a
+	 * @param b
+	 * @param r result, may be identical to a or b
+	 */
+	public void mul(long[] a, long[] b, long[] r) {
+		final int n = this.n;
+		final long[] N = this.N;
+		final long[] t = this.t;
+		for (int j=0; j<=n; j++) t[j] = 0;
+
+		for (int i=0; i<n; i++) {
+			// t += a[i] * b; the limbs of t stay below 2^62, the carry below 2^62 + 2
+			final long ai = a[i];
+			long C = 0;
+			for (int j=0; j<n; j++) {
+				final long bj = b[j];
+				final long lo = ai * bj;
+				final long hi = Math.multiplyHigh(ai, bj);
+				final long s = t[j] + (lo & LIMB_MASK) + C;
+				t[j] = s & LIMB_MASK;
+				C = ((hi << 2) | (lo >>> LIMB_BITS)) + (s >>> LIMB_BITS);
+			}
+			t[n] += C;
+
+			// t = (t + m*N) / 2^62, where m is chosen such that the lowest limb becomes zero
+			final long m = (t[0] * minusNInv) & LIMB_MASK;
+			long lo = m * N[0];
+			long hi = Math.multiplyHigh(m, N[0]);
+			long s = t[0] + (lo & LIMB_MASK);
+			C = ((hi << 2) | (lo >>> LIMB_BITS)) + (s >>> LIMB_BITS);
+			for (int j=1; j<n; j++) {
+				final long Nj = N[j];
+				lo = m * Nj;
+				hi = Math.multiplyHigh(m, Nj);
+				s = t[j] + (lo & LIMB_MASK) + C;
+				t[j-1] = s & LIMB_MASK;
+				C = ((hi << 2) | (lo >>> LIMB_BITS)) + (s >>> LIMB_BITS);
+			}
+			s = t[n] + C;
+			t[n-1] = s & LIMB_MASK;
+			t[n] = s >>> LIMB_BITS;
+		}
+		// now t < 2N
+		reduceOnce(t, r);
+		if (DEBUG) assertEquals(toBigInteger(a).multiply(toBigInteger(b)).multiply(I_1.shiftLeft(LIMB_BITS*n).modInverse(N_big)).mod(N_big), toBigInteger(r));
+	}
+
+	/**
+	 * Montgomery squaring r = a*a/R mod N.
+	 * 
+	 * A separate squaring that computes the cross products only once needs an extra pass for doubling them and
+	 * a carry propagation in the reduction, which costs more than it saves for the small limb counts used in ECM.
+	 * 
+	 * @param a
+	 * @param r result, may be identical to a
+	 */
+	public void sqr(long[] a, long[] r) {
+		mul(a, a, r);
+	}
+
+	/**
+	 * Copy the (n+1)-limb number t < 2N to r, subtracting N if it is >= N.
+	 * @param t
+	 * @param r
+	 */
+	private void reduceOnce(long[] t, long[] r) {
+		final int n = this.n;
+		boolean subtract = t[n] != 0;
+		if (!subtract) {
+			// compare t with N, starting from the most significant limb
+			subtract = true; // if equal
+			for (int j=n-1; j>=0; j--) {
+				if (t[j] != N[j]) {
+					subtract = t[j] > N[j];
+					break;
+				}
+			}
+		}
+		if (subtract) {
+			long borrow = 0;
+			for (int j=0; j<n; j++) {
+				final long d = t[j] - N[j] - borrow;
+				r[j] = d & LIMB_MASK;
+				borrow = d >>> 63;
+			}
+		} else {
+			System.arraycopy(t, 0, r, 0, n);
+		}
+	}
+
+	/**
+	 * Modular addition r = a + b mod N.
+	 * @param a
+	 * @param b
+	 * @param r result, may be identical to a or b
+	 */
+	public void add(long[] a, long[] b, long[] r) {
+		final int n = this.n;
+		long carry = 0;
+		for (int j=0; j<n; j++) {
+			final long s = a[j] + b[j] + carry;
+			r[j] = s & LIMB_MASK;
+			carry = s >>> LIMB_BITS;
+		}
+		// now a+b = carry*R + r; subtract N if a+b >= N
+		boolean subtract = carry != 0;
+		if (!subtract) {
+			subtract = true;
+			for (int j=n-1; j>=0; j--) {
+				if (r[j] != N[j]) {
+					subtract = r[j] > N[j];
+					break;
+				}
+			}
+		}
+		if (subtract) {
+			long borrow = 0;
+			for (int j=0; j<n; j++) {
+				final long d = r[j] - N[j] - borrow;
+				r[j] = d & LIMB_MASK;
+				borrow = d >>> 63;
+			}
+		}
+	}
+
+	/**
+	 * Modular subtraction r = a - b mod N.
+	 * @param a
+	 * @param b
+	 * @param r result, may be identical to a or b
+	 */
+	public void sub(long[] a, long[] b, long[] r) {
+		final int n = this.n;
+		long borrow = 0;
+		for (int j=0; j<n; j++) {
+			final long d = a[j] - b[j] - borrow;
+			r[j] = d & LIMB_MASK;
+			borrow = d >>> 63;
+		}
+		if (borrow != 0) {
+			// a-b was negative -> add N
+			long carry = 0;
+			for (int j=0; j<n; j++) {
+				final long s = r[j] + N[j] + carry;
+				r[j] = s & LIMB_MASK;
+				carry = s >>> LIMB_BITS;
+			}
+		}
+	}
+
+	/**
+	 * @param a
+	 * @return true if a == 0
+	 */
+	public boolean isZero(long[] a) {
+		for (int j=0; j<n; j++) {
+			if (a[j] != 0) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Copy a to r.
+	 * @param a
+	 * @param r
+	 */
+	public void copy(long[] a, long[] r) {
+		System.arraycopy(a, 0, r, 0, n);
+	}
+
+	/**
+	 * @param a
+	 * @return gcd(a, N); if a is in Montgomery form, this is the same as the gcd of the represented number and N
+	 */
+	public BigInteger gcd(long[] a) {
+		return toBigInteger(a).gcd(N_big);
+	}
+
+	/**
+	 * Convert limbs into a non-negative BigInteger. No Montgomery conversion is done.
+	 * @param a
+	 * @return BigInteger
+	 */
+	public BigInteger toBigInteger(long[] a) {
+		final int byteCount = (LIMB_BITS*n + 7) >> 3;
+		byte[] bytes = new byte[byteCount + 1]; // leading zero byte for the sign
+		// collect the limb bits in a 64-bit buffer and emit full bytes from its low end
+		long buffer = 0;
+		int bufferBits = 0;
+		int pos = byteCount;
+		for (int j=0; j<n; j++) {
+			long limb = a[j];
+			// first fill the buffer up to 64 bits, then flush bytes and add the remaining limb bits
+			int take = Math.min(LIMB_BITS, 64 - bufferBits);
+			buffer |= limb << bufferBits;
+			limb >>>= take;
+			int rest = LIMB_BITS - take;
+			bufferBits += take;
+			while (bufferBits >= 8) {
+				bytes[pos--] = (byte) buffer;
+				buffer >>>= 8;
+				bufferBits -= 8;
+			}
+			if (rest > 0) {
+				buffer |= limb << bufferBits;
+				bufferBits += rest;
+				while (bufferBits >= 8) {
+					bytes[pos--] = (byte) buffer;
+					buffer >>>= 8;
+					bufferBits -= 8;
+				}
+			}
+		}
+		if (bufferBits > 0) bytes[pos] = (byte) buffer;
+		return new BigInteger(bytes);
+	}
+
+	private static long[] toLimbs(BigInteger x, int n) {
+		long[] result = new long[n];
+		toLimbs(x, result);
+		return result;
+	}
+
+	private static void toLimbs(BigInteger x, long[] result) {
+		for (int j=0; j<result.length; j++) {
+			result[j] = x.shiftRight(LIMB_BITS*j).longValue() & LIMB_MASK;
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.factor.ecm;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+import org.apache.log4j.Logger;
+
+import de.tilman_neumann.util.ConfigUtil;
+
+/**
+ * Tests correctness of MontgomeryMult64 and its performance compared to the 31-bit MontgomeryMult and BigInteger arithmetic.
+ * 
+ * @author Tilman Neumann
+ */
+public class MontgomeryMult64Test {
+	private static final Logger LOG = Logger.getLogger(MontgomeryMult64Test.class);
+
+	private static final int N_COUNT = 1000;
+	private static final int OP_COUNT = 100;
+
+	private static final SecureRandom RNG = new SecureRandom();
+
+	private static void testCorrectness(int bits) {
+		int failures = 0;
+		for (int i=0; i<N_COUNT; i++) {
+			BigInteger N = new BigInteger(bits, RNG).setBit(bits-1).setBit(0);
+			MontgomeryMult64 mont = new MontgomeryMult64(N);
+			long[] r = mont.create();
+			for (int j=0; j<OP_COUNT; j++) {
+				BigInteger a = new BigInteger(bits, RNG).mod(N);
+				BigInteger b = new BigInteger(bits, RNG).mod(N);
+				long[] aM = mont.toMontgomery(a);
+				long[] bM = mont.toMontgomery(b);
+				
+				mont.mul(aM, bM, r);
+				if (!mont.fromMontgomery(r).equals(a.multiply(b).mod(N))) failures++;
+				mont.sqr(aM, r);
+				if (!mont.fromMontgomery(r).equals(a.multiply(a).mod(N))) failures++;
+				mont.add(aM, bM, r);
+				if (!mont.fromMontgomery(r).equals(a.add(b).mod(N))) failures++;
+				mont.sub(aM, bM, r);
+				if (!mont.fromMontgomery(r).equals(a.subtract(b).mod(N))) failures++;
+			}
+		}
+		LOG.info(bits + " bit: " + failures + " failures in " + (4*N_COUNT*OP_COUNT) + " operations");
+	}
+
+	private static void testPerformance(int bits) {
+		BigInteger N = new BigInteger(bits, RNG).setBit(bits-1).setBit(0);
+		MontgomeryMult64 mont = new MontgomeryMult64(N);
+		long[] a = mont.toMontgomery(new BigInteger(bits, RNG).mod(N));
+		long[] b = mont.toMontgomery(new BigInteger(bits, RNG).mod(N));
+		long[] r = mont.create();
+		// the 31-bit arithmetic used by EllipticCurveMethod
+		int numberLength = EllipticCurveMethod.computeNumberLength(bits);
+		int[] N31 = toInts31(N, numberLength);
+		MontgomeryMult mont31 = new MontgomeryMult(N31, numberLength);
+		int[] a31 = toInts31(new BigInteger(bits, RNG).mod(N), numberLength);
+		int[] b31 = toInts31(new BigInteger(bits, RNG).mod(N), numberLength);
+		int[] r31 = new int[EllipticCurveMethod.NLen];
+		BigInteger aBig = new BigInteger(bits, RNG).mod(N);
+		BigInteger bBig = new BigInteger(bits, RNG).mod(N);
+		int count = 10000000 / mont.getNumberOfLimbs();
+		long t0 = System.currentTimeMillis();
+		for (int i=0; i<count; i++) {
+			mont.mul(a, b, r);
+			mont.mul(r, b, a);
+		}
+		long t1 = System.currentTimeMillis();
+		for (int i=0; i<count; i++) {
+			mont31.mul(a31, b31, r31);
+			mont31.mul(r31, b31, a31);
+		}
+		long t2 = System.currentTimeMillis();
+		for (int i=0; i<count; i++) {
+			aBig = aBig.multiply(bBig).mod(N);
+		}
+		long t3 = System.currentTimeMillis();
+		LOG.info(bits + " bit: " + (2*count) + " mul took " + (t1-t0) + "ms, " + (2*count) + " 31-bit mul took " + (t2-t1) + "ms, " + count + " BigInteger multiply+mod took " + (t3-t2) + "ms");
+	}
+
+	private static int[] toInts31(BigInteger x, int numberLength) {
+		int[] result = new int[EllipticCurveMethod.NLen];
+		for (int j=0; j<numberLength; j++) {
+			result[j] = x.shiftRight(31*j).intValue() & 0x7FFFFFFF;
+		}
+		return result;
+	}
+
+	/**
+	 * Test.
+	 * @param args ignored
+	 */
+	public static void main(String[] args) {
+		ConfigUtil.initProject();
+		// limb boundaries are at multiples of 62 bit
+		for (int bits = 62; bits <= 1024; bits += 62) {
+			testCorrectness(bits);
+			testCorrectness(bits+1);
+		}
+		for (int bits : new int[] {100, 128, 160, 200, 256, 320, 400, 512, 1024}) {
+			testPerformance(bits);
+		}
+	}
+}
@@ -0,0 +1,283 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.factor.ecm;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import static de.tilman_neumann.jml.base.BigIntConstants.*;
+
+/**
+ * Polynomial arithmetic mod N for the polynomial ECM stage 2:
+ * Build F(X) = prod_j (X - r_j) from the baby step x-coordinates r_j with a product tree,
+ * then compute prod_i F(x_i) for a batch of giant step x-coordinates x_i by multipoint evaluation with a remainder tree.
+ *
+ * Polynomials are arrays of coefficients in [0, N), lowest degree first. Multiplications use Kronecker substitution,
+ * so they profit from the sub-quadratic multiplication of BigInteger; divisions by the monic tree nodes use
+ * Newton iteration for the inverses of the reversed divisors.
+ *
+ * @see [Mo] Peter L. Montgomery: "An FFT extension of the Elliptic Curve Method of factorization", PhD thesis, UCLA 1992
+ *
+ * @author Tilman Neumann
+ */
+class PolynomialStage2 {
+	/** below this degree, divisions are done by schoolbook division */
+	private static final int NEWTON_DIVISION_THRESHOLD = 32;
+
+	private final BigInteger N;
+	private final int NBits;
+
+	PolynomialStage2(BigInteger N) {
+		this.N = N;
+		this.NBits = N.bitLength();
+	}
+
+	/**
+	 * @param roots
+	 * @return the monic polynomial prod_j (X - roots[j]) mod N
+	 */
+	BigInteger[] fromRoots(BigInteger[] roots) {
+		return productTree(roots)[0][0];
+	}
+
+	/**
+	 * Compute prod_i F(points[i]) mod N.
+	 * @param F a monic polynomial with deg(F) >= points.length
+	 * @param points
+	 * @return product of the values of F at all points
+	 */
+	BigInteger evaluateProduct(BigInteger[] F, BigInteger[] points) {
+		BigInteger[][][] tree = productTree(points);
+		BigInteger[] R = mod(F, tree[0][0]);
+		return remainderTreeProduct(R, tree, 0, 0);
+	}
+
+	/**
+	 * Compute the values of F at all points.
+	 * @param F a monic polynomial with deg(F) >= points.length
+	 * @param points
+	 * @return F(points[i]) mod N for all i
+	 */
+	BigInteger[] evaluate(BigInteger[] F, BigInteger[] points) {
+		BigInteger[][][] tree = productTree(points);
+		BigInteger[] R = mod(F, tree[0][0]);
+		BigInteger[] values = new BigInteger[points.length];
+		remainderTreeValues(R, tree, 0, 0, values);
+		return values;
+	}
+
+	/**
+	 * Compute the values of R at the roots of tree[level][index], by recursively reducing R mod the children.
+	 * The leaves of the subtree are stored in values, starting at the index of the leftmost leaf.
+	 */
+	private void remainderTreeValues(BigInteger[] R, BigInteger[][][] tree, int level, int index, BigInteger[] values) {
+		BigInteger[] node = tree[level][index];
+		if (node.length == 2) {
+			// node = X - x, and deg(R) < 1. A node carried over unchanged keeps its index left-shifted down to the leaves.
+			values[index << (tree.length-1-level)] = R.length > 0 ? R[0] : I_0;
+			return;
+		}
+		BigInteger[][] children = tree[level+1];
+		int leftIndex = index<<1;
+		remainderTreeValues(mod(R, children[leftIndex]), tree, level+1, leftIndex, values);
+		if (leftIndex+1 == children.length || children[leftIndex+1] == null) {
+			return; // odd node count: the node was carried over unchanged
+		}
+		remainderTreeValues(mod(R, children[leftIndex+1]), tree, level+1, leftIndex+1, values);
+	}
+
+	/**
+	 * Compute the product of the values of R at the roots of tree[level][index], by recursively reducing R mod the children.
+	 */
+	private BigInteger remainderTreeProduct(BigInteger[] R, BigInteger[][][] tree, int level, int index) {
+		BigInteger[] node = tree[level][index];
+		if (node.length == 2) {
+			// node = X - x, and deg(R) < 1
+			return R.length > 0 ? R[0] : I_0;
+		}
+		BigInteger[][] children = tree[level+1];
+		int leftIndex = index<<1;
+		BigInteger left = remainderTreeProduct(mod(R, children[leftIndex]), tree, level+1, leftIndex);
+		if (leftIndex+1 == children.length || children[leftIndex+1] == null) {
+			return left; // odd node count: the node was carried over unchanged
+		}
+		BigInteger right = remainderTreeProduct(mod(R, children[leftIndex+1]), tree, level+1, leftIndex+1);
+		return left.multiply(right).mod(N);
+	}
+
+	/**
+	 * Build the product tree of the (X - roots[i]).
+	 * @param roots
+	 * @return tree[level][index], where tree[0][0] is the product of all, and tree[depth-1] are the linear factors.
+	 * Level l+1 has twice as many entries as level l; missing children of the last node are null.
+	 */
+	private BigInteger[][][] productTree(BigInteger[] roots) {
+		int n = roots.length;
+		int depth = 1;
+		while ((1<<(depth-1)) < n) depth++;
+		BigInteger[][][] tree = new BigInteger[depth][][];
+		// leaves
+		BigInteger[][] level = new BigInteger[1<<(depth-1)][];
+		for (int i=0; i<n; i++) {
+			level[i] = new BigInteger[] {roots[i].signum() == 0 ? I_0 : N.subtract(roots[i]), I_1};
+		}
+		tree[depth-1] = level;
+		for (int l=depth-2; l>=0; l--) {
+			BigInteger[][] children = tree[l+1];
+			BigInteger[][] parents = new BigInteger[1<<l][];
+			for (int i=0; i<parents.length; i++) {
+				BigInteger[] left = children[2*i];
+				BigInteger[] right = children[2*i+1];
+				if (left == null) break;
+				parents[i] = (right == null) ? left : multiply(left, right);
+			}
+			tree[l] = parents;
+		}
+		return tree;
+	}
+
+	/**
+	 * Polynomial multiplication mod N via Kronecker substitution.
+	 * @param a
+	 * @param b
+	 * @return a*b mod N
+	 */
+	BigInteger[] multiply(BigInteger[] a, BigInteger[] b) {
+		int la = a.length, lb = b.length;
+		if (la == 0 || lb == 0) return new BigInteger[0];
+		// slot width in bytes, big enough to hold the sum of min(la, lb) products of numbers < N
+		int slotBits = 2*NBits + 32 - Integer.numberOfLeadingZeros(Math.min(la, lb)) + 1;
+		int slotBytes = (slotBits + 7) >> 3;
+		BigInteger product = pack(a, slotBytes).multiply(pack(b, slotBytes));
+		return unpack(product, la + lb - 1, slotBytes);
+	}
+
+	private BigInteger pack(BigInteger[] a, int slotBytes) {
+		int len = a.length;
+		byte[] bytes = new byte[len * slotBytes + 1]; // leading zero byte for the sign
+		for (int i=0; i<len; i++) {
+			byte[] c = a[i].toByteArray();
+			int cLen = c.length;
+			int cStart = 0;
+			if (c[0] == 0) { // sign byte
+				cStart = 1;
+				cLen--;
+			}
+			// slot i ends at byte position bytes.length - 1 - i*slotBytes
+			int end = bytes.length - i*slotBytes;
+			System.arraycopy(c, cStart, bytes, end - cLen, cLen);
+		}
+		return new BigInteger(bytes);
+	}
+
+	private BigInteger[] unpack(BigInteger x, int count, int slotBytes) {
+		byte[] bytes = x.toByteArray();
+		BigInteger[] result = new BigInteger[count];
+		byte[] slot = new byte[slotBytes + 1]; // leading zero byte for the sign
+		for (int i=0; i<count; i++) {
+			int end = bytes.length - i*slotBytes;
+			int start = Math.max(0, end - slotBytes);
+			if (end <= 0) {
+				result[i] = I_0;
+				continue;
+			}
+			Arrays.fill(slot, (byte) 0);
+			System.arraycopy(bytes, start, slot, slot.length - (end - start), end - start);
+			result[i] = new BigInteger(slot).mod(N);
+		}
+		return result;
+	}
+
+	/**
+	 * @param A
+	 * @param B monic
+	 * @return A mod B
+	 */
+	BigInteger[] mod(BigInteger[] A, BigInteger[] B) {
+		int degA = A.length - 1;
+		int degB = B.length - 1;
+		if (degA < degB) return A;
+		if (degB < NEWTON_DIVISION_THRESHOLD) return schoolbookMod(A, B);
+
+		// quotient q = rev(rev(A) * rev(B)^-1 mod X^(degA-degB+1))
+		int qLen = degA - degB + 1;
+		BigInteger[] revA = new BigInteger[qLen];
+		for (int i=0; i<qLen; i++) revA[i] = A[degA - i];
+		BigInteger[] revB = new BigInteger[Math.min(qLen, B.length)];
+		for (int i=0; i<revB.length; i++) revB[i] = B[degB - i];
+		BigInteger[] qRev = truncate(multiply(revA, inverse(revB, qLen)), qLen);
+		BigInteger[] q = new BigInteger[qLen];
+		for (int i=0; i<qLen; i++) q[i] = qRev[qLen - 1 - i];
+
+		// r = A - q*B, only the low degB coefficients are non-zero
+		BigInteger[] qB = multiply(q, B);
+		BigInteger[] r = new BigInteger[degB];
+		for (int i=0; i<degB; i++) {
+			r[i] = A[i].subtract(qB[i]);
+			if (r[i].signum() < 0) r[i] = r[i].add(N);
+		}
+		return r;
+	}
+
+	/**
+	 * @param f power series with f[0] = 1
+	 * @param k precision
+	 * @return f^-1 mod X^k
+	 */
+	private BigInteger[] inverse(BigInteger[] f, int k) {
+		BigInteger[] g = new BigInteger[] {I_1};
+		int m = 1;
+		while (m < k) {
+			int m2 = Math.min(2*m, k);
+			// g <- g*(2 - f*g) mod X^m2
+			BigInteger[] e = truncate(multiply(truncate(f, m2), g), m2);
+			for (int i=0; i<e.length; i++) {
+				e[i] = e[i].signum() == 0 ? I_0 : N.subtract(e[i]);
+			}
+			e[0] = e[0].add(I_2).mod(N);
+			g = truncate(multiply(g, e), m2);
+			m = m2;
+		}
+		return g;
+	}
+
+	private static BigInteger[] truncate(BigInteger[] a, int len) {
+		if (a.length <= len) return a;
+		BigInteger[] result = new BigInteger[len];
+		System.arraycopy(a, 0, result, 0, len);
+		return result;
+	}
+
+	/**
+	 * Schoolbook division for small divisors.
+	 * @param A
+	 * @param B monic
+	 * @return A mod B
+	 */
+	private BigInteger[] schoolbookMod(BigInteger[] A, BigInteger[] B) {
+		int degB = B.length - 1;
+		BigInteger[] r = A.clone();
+		for (int i=r.length-1; i>=degB; i--) {
+			BigInteger c = r[i];
+			if (c.signum() == 0) continue;
+			// r -= c * X^(i-degB) * B
+			int shift = i - degB;
+			for (int j=0; j<degB; j++) {
+				r[shift + j] = r[shift + j].subtract(c.multiply(B[j])).mod(N);
+			}
+			r[i] = I_0;
+		}
+		return truncate(r, degB);
+	}
+}
@@ -0,0 +1,351 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.factor.ecm;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.HashMap;
+
+import org.apache.log4j.Logger;
+
+import de.tilman_neumann.jml.base.Rng;
+import de.tilman_neumann.jml.factor.FactorAlgorithm;
+import de.tilman_neumann.util.ConfigUtil;
+
+import static de.tilman_neumann.jml.base.BigIntConstants.*;
+
+/**
+ * A small ECM for numbers N < 2^126, in the spirit of TinyEcm64 but with two-word Montgomery arithmetic from MontgomeryMult128.
+ * It is meant for cofactors between 63 and 126 bit, where TinyEcm64 does not work and the BigInteger-based implementations are slow.
+ *
+ * Curves are Suyama curves in Montgomery form. Stage 1 runs a Montgomery ladder through the product of all prime powers <= B1;
+ * stage 2 is the standard continuation up to B2 = 50*B1 with baby steps j < D/2, gcd(j, D) = 1, for D = 210,
+ * accumulating the cross products (X_m - X_j)(Z_m + Z_j) - X_m Z_m + X_j Z_j.
+ *
+ * Like TinyEcm64, findSingleFactor() runs curves until a factor is found, so it must not be fed with primes.
+ * findSmallFactor() is meant for the large prime variations of the quadratic sieve: It only looks for factors <= 31 bit
+ * and gives up after a fixed number of curves.
+ *
+ * @author Tilman Neumann
+ */
+public class TinyEcm128 extends FactorAlgorithm {
+	private static final Logger LOG = Logger.getLogger(TinyEcm128.class);
+	private static final boolean DEBUG = false;
+
+	/** stage 2 giant step width */
+	private static final int D = 210;
+	/** baby steps j < D/2 with gcd(j, D) = 1 */
+	private static final int[] BABY_STEPS;
+
+	static {
+		int count = 0;
+		int[] tmp = new int[D/2];
+		for (int j=1; j<D/2; j+=2) {
+			if (j%3 != 0 && j%5 != 0 && j%7 != 0) tmp[count++] = j;
+		}
+		BABY_STEPS = new int[count];
+		System.arraycopy(tmp, 0, BABY_STEPS, 0, count);
+	}
+
+	/** B1 for factors <= 31 bit */
+	private static final int SMALL_FACTOR_B1 = 125;
+	/** the number of curves after which findSmallFactor() gives up */
+	private static final int SMALL_FACTOR_MAX_CURVES = 20;
+
+	/** stage 1 multipliers by B1 */
+	private static final HashMap<Integer, BigInteger> stage1Multipliers = new HashMap<>();
+
+	private final Rng rng = new Rng();
+
+	private MontgomeryMult128 mm;
+	/** (A+2)/4 in Montgomery form */
+	private long[] s;
+
+	// scratch variables of the curve operations
+	private final long[] sum = new long[2], diff = new long[2], sum2 = new long[2], diff2 = new long[2];
+	private final long[] u = new long[2], v = new long[2], w = new long[2];
+
+	@Override
+	public String getName() {
+		return "TinyEcm128";
+	}
+
+	@Override
+	public BigInteger findSingleFactor(BigInteger N) {
+		int NBits = N.bitLength();
+		if (NBits > MontgomeryMult128.MAX_BITS_SUPPORTED) throw new IllegalArgumentException("N=" + N + " has " + NBits + " bit, but TinyEcm128 only supports arguments <= " + MontgomeryMult128.MAX_BITS_SUPPORTED + " bit.");
+		if (!N.testBit(0)) return I_2;
+
+		// B1 for factors of about NBits/2 bits
+		int B1;
+		if (NBits <= 64) {
+			B1 = 125;
+		} else if (NBits <= 72) {
+			B1 = 165;
+		} else if (NBits <= 80) {
+			B1 = 205;
+		} else if (NBits <= 88) {
+			B1 = 300;
+		} else if (NBits <= 96) {
+			B1 = 450;
+		} else if (NBits <= 104) {
+			B1 = 700;
+		} else if (NBits <= 112) {
+			B1 = 1000;
+		} else {
+			B1 = 1500;
+		}
+		return findFactor(N, B1, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Try to find a factor <= 31 bit of N. B1 is tuned for such factors, and the search gives up after a fixed number of curves,
+	 * so that N being the product of bigger factors does not cost much.
+	 * 
+	 * @param N odd composite N < 2^126
+	 * @return a factor of N, or null if none was found; the factor may be bigger than 31 bit, too
+	 */
+	public BigInteger findSmallFactor(BigInteger N) {
+		int NBits = N.bitLength();
+		if (NBits > MontgomeryMult128.MAX_BITS_SUPPORTED) throw new IllegalArgumentException("N=" + N + " has " + NBits + " bit, but TinyEcm128 only supports arguments <= " + MontgomeryMult128.MAX_BITS_SUPPORTED + " bit.");
+		if (!N.testBit(0)) return I_2;
+		return findFactor(N, SMALL_FACTOR_B1, SMALL_FACTOR_MAX_CURVES);
+	}
+
+	/**
+	 * Run curves with the given B1 and B2 = 50*B1.
+	 * @param N odd N < 2^126
+	 * @param B1
+	 * @param maxCurves the maximum number of curves to run
+	 * @return a factor of N, or null if none was found with maxCurves curves
+	 */
+	private BigInteger findFactor(BigInteger N, int B1, int maxCurves) {
+		int B2 = 50 * B1;
+		if (DEBUG) LOG.debug("N=" + N + " (" + N.bitLength() + " bits): B1=" + B1 + ", B2=" + B2 + ", maxCurves=" + maxCurves);
+
+		mm = new MontgomeryMult128(N);
+		BigInteger stage1Multiplier = getStage1Multiplier(B1);
+		for (int curve = 1; curve <= maxCurves; curve++) {
+			long[] X = mm.create(), Z = mm.create();
+			BigInteger factor = buildCurve(N, X, Z);
+			if (factor != null) return factor;
+
+			stage1(X, Z, stage1Multiplier);
+			factor = mm.gcd(Z);
+			if (factor.compareTo(I_1) > 0 && factor.compareTo(N) < 0) {
+				if (DEBUG) LOG.debug("Found factor " + factor + " in stage 1 of curve " + curve);
+				return factor;
+			}
+
+			long[] acc = stage2(X, Z, B1, B2);
+			factor = mm.gcd(acc);
+			if (factor.compareTo(I_1) > 0 && factor.compareTo(N) < 0) {
+				if (DEBUG) LOG.debug("Found factor " + factor + " in stage 2 of curve " + curve);
+				return factor;
+			}
+		}
+		return null;
+	}
+
+	private static synchronized BigInteger getStage1Multiplier(int B1) {
+		BigInteger multiplier = stage1Multipliers.get(B1);
+		if (multiplier == null) {
+			multiplier = EdwardsStage1Chain.computeStage1Multiplier(B1);
+			stage1Multipliers.put(B1, multiplier);
+		}
+		return multiplier;
+	}
+
+	/**
+	 * Set up a random Suyama curve: sigma random, u = sigma^2-5, v = 4*sigma, x0 = u^3, z0 = v^3,
+	 * (A+2)/4 = (v-u)^3 * (3u+v) / (16*u^3*v).
+	 * The setup uses BigInteger arithmetic, its cost is negligible compared to stage 1.
+	 *
+	 * @param N
+	 * @param X receives the start point x-coordinate in Montgomery form
+	 * @param Z receives the start point z-coordinate in Montgomery form
+	 * @return a factor of N if one was found during the setup, otherwise null
+	 */
+	private BigInteger buildCurve(BigInteger N, long[] X, long[] Z) {
+		while (true) {
+			BigInteger sigma = BigInteger.valueOf(rng.nextInt(6, Integer.MAX_VALUE));
+			BigInteger uBig = sigma.multiply(sigma).subtract(I_5).mod(N);
+			BigInteger vBig = sigma.shiftLeft(2).mod(N);
+			BigInteger x0 = uBig.pow(3).mod(N);
+			BigInteger z0 = vBig.pow(3).mod(N);
+			BigInteger numerator = vBig.subtract(uBig).pow(3).multiply(uBig.multiply(I_3).add(vBig)).mod(N);
+			BigInteger denominator = x0.multiply(vBig).shiftLeft(4).mod(N);
+			BigInteger gcd = denominator.gcd(N);
+			if (gcd.equals(I_1)) {
+				BigInteger a24 = numerator.multiply(denominator.modInverse(N)).mod(N);
+				s = mm.toMontgomery(a24);
+				mm.copy(mm.toMontgomery(x0), X);
+				mm.copy(mm.toMontgomery(z0), Z);
+				return null;
+			}
+			if (gcd.compareTo(N) < 0) return gcd;
+			// else the denominator is 0 (mod N) -> try another sigma
+		}
+	}
+
+	/**
+	 * Differential addition (Xout : Zout) = P1 + P2, where P1 - P2 = (Xin : Zin).
+	 * The output arrays may be identical to the arrays of P1 or P2, but not to those of the difference.
+	 */
+	private void add(long[] X1, long[] Z1, long[] X2, long[] Z2, long[] Xin, long[] Zin, long[] Xout, long[] Zout) {
+		mm.sub(X1, Z1, diff);
+		mm.add(X1, Z1, sum);
+		mm.sub(X2, Z2, diff2);
+		mm.add(X2, Z2, sum2);
+		mm.mul(diff, sum2, u);		// U
+		mm.mul(sum, diff2, v);		// V
+		mm.add(u, v, w);
+		mm.sub(u, v, v);
+		mm.sqr(w, w);				// (U + V)^2
+		mm.sqr(v, v);				// (U - V)^2
+		mm.mul(w, Zin, Xout);		// Z * (U + V)^2
+		mm.mul(v, Xin, Zout);		// X * (U - V)^2
+	}
+
+	/**
+	 * Doubling (Xout : Zout) = 2 * (X : Z). The output arrays may be identical to the input arrays.
+	 */
+	private void dup(long[] X, long[] Z, long[] Xout, long[] Zout) {
+		mm.sub(X, Z, diff);
+		mm.add(X, Z, sum);
+		mm.sqr(diff, u);			// U=(x1 - z1)^2
+		mm.sqr(sum, v);				// V=(x1 + z1)^2
+		mm.mul(u, v, Xout);			// x=U*V
+		mm.sub(v, u, w);			// w = V-U
+		mm.mul(w, s, v);			// (A+2)/4 * w
+		mm.add(v, u, v);			// (A+2)/4 * w + U
+		mm.mul(v, w, Zout);			// Z = w*((A+2)/4 * w + U)
+	}
+
+	/**
+	 * Montgomery ladder: (X : Z) = k * (X : Z).
+	 * @param X
+	 * @param Z
+	 * @param k multiplier >= 1
+	 */
+	private void ladder(long[] X, long[] Z, BigInteger k) {
+		long[] X0 = X.clone(), Z0 = Z.clone();
+		long[] X1 = mm.create(), Z1 = mm.create();
+		dup(X, Z, X1, Z1);
+		for (int i = k.bitLength()-2; i >= 0; i--) {
+			if (k.testBit(i)) {
+				add(X0, Z0, X1, Z1, X, Z, X0, Z0);
+				dup(X1, Z1, X1, Z1);
+			} else {
+				add(X1, Z1, X0, Z0, X, Z, X1, Z1);
+				dup(X0, Z0, X0, Z0);
+			}
+		}
+		mm.copy(X0, X);
+		mm.copy(Z0, Z);
+	}
+
+	private void stage1(long[] X, long[] Z, BigInteger stage1Multiplier) {
+		ladder(X, Z, stage1Multiplier);
+	}
+
+	/**
+	 * Standard continuation.
+	 * @return the accumulated product of all cross products
+	 */
+	private long[] stage2(long[] X, long[] Z, int B1, int B2) {
+		// baby steps: the odd multiples jQ for j <= D/2, from jQ = (j-2)Q + 2Q with difference (j-4)Q
+		int babyCount = BABY_STEPS.length;
+		long[][] XB = new long[babyCount][], ZB = new long[babyCount][], XZB = new long[babyCount][];
+		long[] X2 = mm.create(), Z2 = mm.create();
+		dup(X, Z, X2, Z2);
+		long[] Xprev = X, Zprev = Z; // (j-4)Q
+		long[] Xj = X, Zj = Z; // (j-2)Q
+		int b = 0;
+		for (int j = 1; j <= D/2; j += 2) {
+			if (j > 1) {
+				long[] Xnew = mm.create(), Znew = mm.create();
+				// for j=3 the difference is Q, too
+				add(Xj, Zj, X2, Z2, Xprev, Zprev, Xnew, Znew);
+				Xprev = Xj; Zprev = Zj;
+				Xj = Xnew; Zj = Znew;
+			}
+			if (b < babyCount && BABY_STEPS[b] == j) {
+				XB[b] = Xj;
+				ZB[b] = Zj;
+				XZB[b] = mm.create();
+				mm.mul(Xj, Zj, XZB[b]);
+				b++;
+			}
+		}
+		// now (Xj : Zj) = (D/2)Q
+		long[] XD = mm.create(), ZD = mm.create();
+		dup(Xj, Zj, XD, ZD);
+
+		// giant steps mDQ for m = m0, m0+1, ...
+		int m0 = Math.max(1, (B1 + D/2) / D);
+		long[] Xm = XD.clone(), Zm = ZD.clone();
+		ladder(Xm, Zm, BigInteger.valueOf(m0));
+		long[] Xm1 = XD.clone(), Zm1 = ZD.clone();
+		ladder(Xm1, Zm1, BigInteger.valueOf(m0+1));
+		long[] acc = mm.toMontgomery(I_1);
+		long[] XZm = mm.create(), t1 = mm.create(), t2 = mm.create();
+		long[] Xnext = mm.create(), Znext = mm.create();
+		int mMax = (B2 + D/2) / D;
+		for (int m = m0; m <= mMax; m++) {
+			mm.mul(Xm, Zm, XZm);
+			for (int i=0; i<babyCount; i++) {
+				// (X_m - X_j)(Z_m + Z_j) - X_m Z_m + X_j Z_j = X_m Z_j - X_j Z_m
+				mm.sub(Xm, XB[i], t1);
+				mm.add(Zm, ZB[i], t2);
+				mm.mul(t1, t2, t1);
+				mm.add(t1, XZB[i], t1);
+				mm.sub(t1, XZm, t1);
+				mm.mul(acc, t1, acc);
+			}
+			// next giant step: (m+2)DQ = (m+1)DQ + DQ with difference mDQ
+			add(Xm1, Zm1, XD, ZD, Xm, Zm, Xnext, Znext);
+			long[] tmp = Xm; Xm = Xm1; Xm1 = Xnext; Xnext = tmp;
+			tmp = Zm; Zm = Zm1; Zm1 = Znext; Znext = tmp;
+		}
+		return acc;
+	}
+
+	/**
+	 * Test.
+	 * @param args ignored
+	 */
+	public static void main(String[] args) {
+		ConfigUtil.initProject();
+		SecureRandom rng = new SecureRandom();
+		TinyEcm128 tinyEcm = new TinyEcm128();
+		int count = 100;
+		for (int bits = 64; bits <= 126; bits += 8) {
+			BigInteger[] N = new BigInteger[count];
+			for (int i=0; i<count; i++) {
+				BigInteger p = BigInteger.probablePrime(bits/2, rng);
+				BigInteger q = BigInteger.probablePrime(bits - bits/2, rng);
+				N[i] = p.multiply(q);
+			}
+			long t0 = System.currentTimeMillis();
+			int failures = 0;
+			for (int i=0; i<count; i++) {
+				BigInteger factor = tinyEcm.findSingleFactor(N[i]);
+				if (factor.compareTo(I_1) <= 0 || factor.compareTo(N[i]) >= 0 || N[i].mod(factor).signum() != 0) failures++;
+			}
+			long t1 = System.currentTimeMillis();
+			LOG.info(bits + " bit: Factored " + count + " semiprimes with " + failures + " failures in " + (t1-t0) + "ms");
+		}
+	}
+}
@@ -68,9 +68,27 @@ public class Hart_Fast2Mult extends FactorAlgorithm {
 	/** This constant is used for fast rounding of double values to long. */
 	private static final double ROUND_UP_DOUBLE = 0.9999999665;
 
+	/**
+	 * The sqrt(k) tables are immutable and need about 32 MB, so they are shared by all instances.
+	 * The holder class is initialized by the JVM on first access, which makes the tables lazy and safely published.
+	 */
+	private static class SqrtTables {
+		static final double[] SQRT1 = new double[I_MAX];
+		static final double[] SQRT2 = new double[I_MAX];
+		static {
+			// Precompute all required sqrt(k) for i < I_MAX
+			for (int i=1; i<I_MAX; i++) {
+				SQRT1[i] = Math.sqrt(i*K_MULT1);
+				if ((i*K_MULT2) % K_MULT1 != 0) {
+					SQRT2[i] = Math.sqrt(i*K_MULT2);
+				}
+			}
+		}
+	}
+
 	private final boolean doTDivFirst;
-	private final double[] sqrt1;
-	private final double[] sqrt2;
+	private final double[] sqrt1 = SqrtTables.SQRT1;
+	private final double[] sqrt2 = SqrtTables.SQRT2;
 	private final TDiv63Inverse tdiv = new TDiv63Inverse(I_MAX);
 	private final Gcd63 gcdEngine = new Gcd63();
 
@@ -83,15 +101,6 @@ public class Hart_Fast2Mult extends FactorAlgorithm {
 	 */
 	public Hart_Fast2Mult(boolean doTDivFirst) {
 		this.doTDivFirst = doTDivFirst;
-		// Precompute all required sqrt(k) for i < I_MAX
-		sqrt1 = new double[I_MAX];
-		sqrt2 = new double[I_MAX];
-		for (int i=1; i<I_MAX; i++) {
-			sqrt1[i] = Math.sqrt(i*K_MULT1);
-			if ((i*K_MULT2) % K_MULT1 != 0) {
-				sqrt2[i] = Math.sqrt(i*K_MULT2);
-			}
-		}
 	}
 
 	@Override
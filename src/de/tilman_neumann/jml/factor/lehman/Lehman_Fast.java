@@ -49,8 +49,25 @@ public class Lehman_Fast extends FactorAlgorithm {
 	private long N;
 	private long fourN;
 	private double sqrt4N;
+	/**
+	 * Immutable sqrt tables shared by all instances, built by the JVM on first access of the holder class.
+	 */
+	private static class SqrtTables {
+		// Precompute sqrts for all possible k. 2^21 entries are enough for N~2^63.
+		private static final int K_MAX = 1<<21;
+		static final double[] SQRT = new double[K_MAX + 1];
+		static final double[] SQRT_INV = new double[K_MAX + 1];
+		static {
+			for (int i = 1; i < SQRT.length; i++) {
+				final double sqrtI = Math.sqrt(i);
+				SQRT[i] = sqrtI;
+				SQRT_INV[i] = 1.0/sqrtI;
+			}
+		}
+	}
+
 	private boolean doTDivFirst;
-	private double[] sqrt, sqrtInv;
+	private final double[] sqrt = SqrtTables.SQRT, sqrtInv = SqrtTables.SQRT_INV;
 	private final Gcd63 gcdEngine = new Gcd63();
 	private final TDiv63Inverse tdiv = new TDiv63Inverse(1<<21);
 
@@ -61,15 +78,6 @@ public class Lehman_Fast extends FactorAlgorithm {
 	 */
 	public Lehman_Fast(boolean doTDivFirst) {
 		this.doTDivFirst = doTDivFirst;
-		// Precompute sqrts for all possible k. 2^21 entries are enough for N~2^63.
-		final int kMax = 1<<21;
-		sqrt = new double[kMax + 1];
-		sqrtInv = new double[kMax + 1];
-		for (int i = 1; i < sqrt.length; i++) {
-			final double sqrtI = Math.sqrt(i);
-			sqrt[i] = sqrtI;
-			sqrtInv[i] = 1.0/sqrtI;
-		}
 	}
 
 	@Override
@@ -0,0 +1,139 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.factor.pollardRho;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+import org.apache.log4j.Logger;
+
+import de.tilman_neumann.jml.base.Rng;
+import de.tilman_neumann.jml.factor.FactorAlgorithm;
+import de.tilman_neumann.jml.factor.ecm.MontgomeryMult128;
+import de.tilman_neumann.util.ConfigUtil;
+
+import static de.tilman_neumann.jml.base.BigIntConstants.*;
+
+/**
+ * Brents's improvement of Pollard's Rho algorithm using two-word Montgomery multiplication,
+ * for N < 2^126 that are too big for PollardRhoBrentMontgomery64.
+ * 
+ * Like in PollardRhoBrentMontgomery64, the iteration x -> x*(x+1) in Montgomery form needs no conversions to/from Montgomery form.
+ * 
+ * @see [Richard P. Brent: An improved Monte Carlo Factorization Algorithm, 1980]
+ * 
+ * @author Tilman Neumann
+ */
+public class PollardRhoBrentMontgomery128 extends FactorAlgorithm {
+	private static final Logger LOG = Logger.getLogger(PollardRhoBrentMontgomery128.class);
+
+	private static final Rng RNG = new Rng();
+
+	private MontgomeryMult128 mm;
+
+	@Override
+	public String getName() {
+		return "PollardRhoBrentMontgomery128";
+	}
+	
+	@Override
+	public BigInteger findSingleFactor(BigInteger N) {
+		if (N.bitLength() > MontgomeryMult128.MAX_BITS_SUPPORTED) throw new IllegalArgumentException("N=" + N + " has " + N.bitLength() + " bit, but PollardRhoBrentMontgomery128 only supports arguments <= " + MontgomeryMult128.MAX_BITS_SUPPORTED + " bit.");
+		if (!N.testBit(0)) return I_2;
+		// N==9 would require to check if the gcd is 1 < gcd < N before returning it as a factor
+		if (N.equals(I_9)) return I_3;
+
+		mm = new MontgomeryMult128(N);
+		BigInteger G;
+		long[] x = mm.create(), ys = mm.create(), q = mm.create(), diff = mm.create();
+		final long[] one = mm.toMontgomery(I_1);
+
+		// number of iterations before gcd tests.
+		// Brent: "The probability of the algorithm failing because q_i=0 increases, so it is best not to choose m too large"
+		final int m = 2*N.bitLength();
+
+		do {
+			// start with random y from [0, N)
+			long[] y = mm.toMontgomery(new BigInteger(N.bitLength(), RNG));
+			int r = 1;
+			mm.copy(one, q);
+			do {
+				mm.copy(y, x);
+				for (int i=r; i>0; i--) {
+					iterate(y, one, diff);
+				}
+				int k = 0;
+				do {
+					mm.copy(y, ys);
+					final int iMax = Math.min(m, r-k);
+					for (int i=iMax; i>0; i--) {
+						iterate(y, one, diff);
+						mm.sub(x, y, diff);
+						mm.mul(diff, q, q);
+					}
+					G = mm.gcd(q);
+					// if q==0 then G==N -> the loop will be left and restarted with new y
+					k += m;
+				} while (k<r && G.equals(I_1));
+				r <<= 1;
+			} while (G.equals(I_1));
+			if (G.equals(N)) {
+				do {
+					iterate(ys, one, diff);
+					mm.sub(x, ys, diff);
+					G = mm.gcd(diff);
+				} while (G.equals(I_1));
+			}
+		} while (G.equals(N));
+		return G;
+	}
+
+	/**
+	 * y = y*(y+1) in Montgomery form.
+	 * @param y
+	 * @param one 1 in Montgomery form
+	 * @param tmp a scratch array
+	 */
+	private void iterate(long[] y, long[] one, long[] tmp) {
+		mm.add(y, one, tmp);
+		mm.mul(y, tmp, y);
+	}
+
+	/**
+	 * Test.
+	 * @param args ignored
+	 */
+	public static void main(String[] args) {
+		ConfigUtil.initProject();
+		SecureRandom rng = new SecureRandom();
+		PollardRhoBrentMontgomery128 rho = new PollardRhoBrentMontgomery128();
+		int count = 100;
+		for (int bits = 64; bits <= 80; bits += 8) {
+			BigInteger[] N = new BigInteger[count];
+			for (int i=0; i<count; i++) {
+				BigInteger p = BigInteger.probablePrime(bits/2, rng);
+				BigInteger q = BigInteger.probablePrime(bits - bits/2, rng);
+				N[i] = p.multiply(q);
+			}
+			long t0 = System.currentTimeMillis();
+			int failures = 0;
+			for (int i=0; i<count; i++) {
+				BigInteger factor = rho.findSingleFactor(N[i]);
+				if (factor.compareTo(I_1) <= 0 || factor.compareTo(N[i]) >= 0 || N[i].mod(factor).signum() != 0) failures++;
+			}
+			long t1 = System.currentTimeMillis();
+			LOG.info(bits + " bit: Factored " + count + " semiprimes with " + failures + " failures in " + (t1-t0) + "ms");
+		}
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.factor.pollardRho;
+
+import java.math.BigInteger;
+
+import org.apache.log4j.Logger;
+
+import de.tilman_neumann.jml.base.Rng;
+import de.tilman_neumann.jml.factor.FactorAlgorithm;
+import de.tilman_neumann.jml.factor.ecm.MontgomeryMult64;
+import de.tilman_neumann.util.ConfigUtil;
+
+import static de.tilman_neumann.jml.base.BigIntConstants.*;
+
+/**
+ * Brent's variant of Pollard's Rho algorithm for BigInteger N, running several independent walks in parallel.
+ *
+ * Each walk uses its own polynomial x -> x^2 + c and its own random start value, so the walks find
+ * cycles independently and the expected time to find a factor drops with the number of threads.
+ * The arithmetic is done in Montgomery form with the 62-bit limbs of MontgomeryMult64, so no BigIntegers
+ * are created inside the iteration. The differences |x-y| are multiplied up over a window of m steps
+ * before one gcd is computed.
+ *
+ * The first walk that finds a proper factor publishes it; all other walks see it at their next gcd and stop.
+ *
+ * @see [Richard P. Brent: An improved Monte Carlo Factorization Algorithm, 1980]
+ *
+ * @author Tilman Neumann
+ */
+public class PollardRhoBrentParallel extends FactorAlgorithm {
+	private static final Logger LOG = Logger.getLogger(PollardRhoBrentParallel.class);
+	private static final boolean DEBUG = false;
+
+	private static final Rng RNG = new Rng();
+
+	private final int numberOfThreads;
+
+	/** the factor found by one of the walks, or null */
+	private volatile BigInteger factor;
+
+	/**
+	 * Full constructor.
+	 * @param numberOfThreads the number of walks run in parallel
+	 */
+	public PollardRhoBrentParallel(int numberOfThreads) {
+		this.numberOfThreads = numberOfThreads;
+	}
+
+	@Override
+	public String getName() {
+		return "PollardRhoBrentParallel(" + numberOfThreads + ")";
+	}
+
+	@Override
+	public BigInteger findSingleFactor(BigInteger N) {
+		if (!N.testBit(0)) return I_2;
+		// N==9 would require to check if the gcd is 1 < gcd < N before returning it as a factor
+		if (N.equals(I_9)) return I_3;
+
+		factor = null;
+		WalkThread[] threads = new WalkThread[numberOfThreads];
+		for (int i=0; i<numberOfThreads; i++) {
+			threads[i] = new WalkThread(N, i);
+			threads[i].start();
+		}
+
+		// Wait until a factor has been found. A factor may be found before the control thread waits!
+		synchronized (this) {
+			while (factor == null) {
+				try {
+					wait(); // is woken up by notify() when a factor was found
+				} catch (InterruptedException ie) {
+					// ignore
+				}
+			}
+		}
+
+		// the other walks stop at their next gcd
+		for (WalkThread t : threads) {
+			while (t.isAlive()) {
+				try {
+					t.join();
+				} catch (InterruptedException e) {
+					if (DEBUG) LOG.debug("thread " + t.getName() + " interrupted main thread");
+				}
+			}
+		}
+		return factor;
+	}
+
+	private synchronized void setFactor(BigInteger G) {
+		if (factor == null) {
+			factor = G;
+			notify();
+		}
+	}
+
+	private class WalkThread extends Thread {
+		private final BigInteger N;
+		private final MontgomeryMult64 mm;
+
+		WalkThread(BigInteger N, int walkIndex) {
+			super("Rho-" + walkIndex);
+			this.N = N;
+			// MontgomeryMult64 keeps scratch arrays, so every walk needs its own instance
+			this.mm = new MontgomeryMult64(N);
+		}
+
+		@Override
+		public void run() {
+			final int NBits = N.bitLength();
+			long[] x = mm.create(), y = mm.create(), ys = mm.create(), q = mm.create(), diff = mm.create();
+			final long[] one = mm.createOne();
+
+			// number of iterations before gcd tests.
+			// Brent: "The probability of the algorithm failing because q_i=0 increases, so it is best not to choose m too large"
+			final int m = 2*NBits;
+
+			BigInteger G;
+			do {
+				// random polynomial x^2 + c and start value y from [0, N); c = 0 and c = -2 are bad choices
+				BigInteger c_big;
+				do {
+					c_big = new BigInteger(NBits, RNG).mod(N);
+				} while (c_big.signum()==0 || c_big.add(I_2).equals(N));
+				final long[] c = mm.toMontgomery(c_big);
+				y = mm.toMontgomery(new BigInteger(NBits, RNG));
+
+				int r = 1;
+				mm.copy(one, q);
+				do {
+					mm.copy(y, x);
+					for (int i=r; i>0; i--) {
+						iterate(y, c);
+					}
+					int k = 0;
+					do {
+						if (factor != null) return; // another walk has been successful
+						mm.copy(y, ys);
+						final int iMax = Math.min(m, r-k);
+						for (int i=iMax; i>0; i--) {
+							iterate(y, c);
+							mm.sub(x, y, diff);
+							mm.mul(diff, q, q);
+						}
+						G = mm.gcd(q);
+						// if q==0 then G==N -> the loop will be left and restarted with new y, c
+						k += m;
+					} while (k<r && G.equals(I_1));
+					r <<= 1;
+				} while (G.equals(I_1));
+				if (G.equals(N)) {
+					// backtrack from the last stored y to find the step where the gcd became non-trivial
+					do {
+						iterate(ys, c);
+						mm.sub(x, ys, diff);
+						G = mm.gcd(diff);
+					} while (G.equals(I_1));
+				}
+			} while (G.equals(N));
+
+			if (DEBUG) LOG.debug(getName() + " found factor " + G + " of N = " + N);
+			setFactor(G);
+		}
+
+		/**
+		 * y = y^2 + c in Montgomery form.
+		 * @param y
+		 * @param c
+		 */
+		private void iterate(long[] y, long[] c) {
+			mm.sqr(y, y);
+			mm.add(y, c, y);
+		}
+	}
+
+	/**
+	 * Test.
+	 * @param args ignored
+	 */
+	public static void main(String[] args) {
+		ConfigUtil.initProject();
+		BigInteger[] testNumbers = new BigInteger[] {
+			new BigInteger("5679148659138759837165981543"), // = 450469808245315337 * 466932157 * 3^3
+			new BigInteger("18446744073709551617"), // F6 = 274177 * 67280421310721
+			new BigInteger("54924524576914518357355679148659138759837165981543"), // = 1557629117554716582307318666440656471 * 35261619058033
+			new BigInteger("8225267468394993133669189614204532935183709603155231863020477010700542265332938919716662623"), // 10 primes of ~31 bit
+		};
+		FactorAlgorithm[] algorithms = new FactorAlgorithm[] {
+			new PollardRhoBrent(),
+			new PollardRhoBrentParallel(1),
+			new PollardRhoBrentParallel(Runtime.getRuntime().availableProcessors()),
+		};
+		for (BigInteger N : testNumbers) {
+			for (FactorAlgorithm algorithm : algorithms) {
+				long t0 = System.currentTimeMillis();
+				BigInteger factor = algorithm.findSingleFactor(N);
+				long t1 = System.currentTimeMillis();
+				LOG.info(algorithm.getName() + " found factor " + factor + " of N = " + N + " in " + (t1-t0) + "ms");
+			}
+		}
+	}
+}
@@ -27,7 +27,7 @@ import de.tilman_neumann.jml.factor.base.PrimeBaseGenerator;
 import de.tilman_neumann.jml.factor.base.congruence.CongruenceCollector;
 import de.tilman_neumann.jml.factor.base.congruence.CongruenceCollectorReport;
 import de.tilman_neumann.jml.factor.base.matrixSolver.FactorTest;
-import de.tilman_neumann.jml.factor.base.matrixSolver.FactorTest01;
+import de.tilman_neumann.jml.factor.base.matrixSolver.FactorTest02;
 import de.tilman_neumann.jml.factor.base.matrixSolver.MatrixSolver;
 import de.tilman_neumann.jml.factor.siqs.KnuthSchroeppel;
 import de.tilman_neumann.jml.factor.siqs.ModularSqrtsEngine;
@@ -226,7 +226,7 @@ abstract public class PSIQSBase extends FactorAlgorithm {
 
 		// initialize sub-algorithms for new N
 		apg.initialize(k, N, kN, d, primeBaseSize, primesArray, tArray, adjustedSieveArraySize); // must be done before polyGenerator initialization where qCount is required
-		FactorTest factorTest = new FactorTest01(N);
+		FactorTest factorTest = new FactorTest02(N, primesArray, primeBaseSize, numberOfThreads);
 		matrixSolver.initialize(N, factorTest);
 		congruenceCollector.initialize(N, primeBaseSize, matrixSolver, factorTest);
 
@@ -81,6 +81,10 @@ abstract public class PSIQSThreadBase extends Thread {
 	
 	public void run() {
 		while (!finishNow) {
+			// The factor is volatile, so we can check it without taking the congruence collector,
+			// which is held by the thread running the matrix solver.
+			if (congruenceCollector.getFactor() != null) break;
+			
 			// create new polynomial Q(x)
 			polyGenerator.nextPolynomial();
 			
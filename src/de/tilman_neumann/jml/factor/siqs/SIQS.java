@@ -34,7 +34,7 @@ import de.tilman_neumann.jml.factor.base.congruence.CongruenceCollector01;
 import de.tilman_neumann.jml.factor.base.congruence.CongruenceCollectorReport;
 import de.tilman_neumann.jml.factor.base.congruence.Smooth;
 import de.tilman_neumann.jml.factor.base.matrixSolver.FactorTest;
-import de.tilman_neumann.jml.factor.base.matrixSolver.FactorTest01;
+import de.tilman_neumann.jml.factor.base.matrixSolver.FactorTest02;
 import de.tilman_neumann.jml.factor.base.matrixSolver.MatrixSolver;
 import de.tilman_neumann.jml.factor.base.matrixSolver.MatrixSolver_BlockLanczos;
 import de.tilman_neumann.jml.factor.siqs.data.BaseArrays;
@@ -239,7 +239,7 @@ public class SIQS extends FactorAlgorithm {
 
 		// initialize sub-algorithms for new N
 		apg.initialize(k, N, kN, d, primeBaseSize, primesArray, tArray, adjustedSieveArraySize); // must be done before polyGenerator initialization where qCount is required
-		FactorTest factorTest = new FactorTest01(N);
+		FactorTest factorTest = new FactorTest02(N, primesArray, primeBaseSize, 1);
 		matrixSolver.initialize(N, factorTest);
 		congruenceCollector.initialize(N, primeBaseSize, matrixSolver, factorTest);
 
@@ -33,6 +33,7 @@ import de.tilman_neumann.jml.factor.base.congruence.Partial_1Large;
 import de.tilman_neumann.jml.factor.base.congruence.Partial_2Large;
 import de.tilman_neumann.jml.factor.base.congruence.Smooth_1LargeSquare;
 import de.tilman_neumann.jml.factor.base.congruence.Smooth_Perfect;
+import de.tilman_neumann.jml.factor.ecm.TinyEcm128;
 import de.tilman_neumann.jml.factor.ecm.TinyEcm64_MHInlined;
 import de.tilman_neumann.jml.factor.hart.Hart_Fast2Mult;
 import de.tilman_neumann.jml.factor.siqs.SIQS_Small;
@@ -92,6 +93,7 @@ public class TDiv_QS_2LP implements TDiv_QS {
 	
 	private Hart_Fast2Mult hart = new Hart_Fast2Mult(false);
 	private TinyEcm64_MHInlined tinyEcm = new TinyEcm64_MHInlined();
+	private TinyEcm128 tinyEcm128 = new TinyEcm128();
 	// Nested SIQS is required for quite large N only, > 350 bit ?
 	private SIQS_Small qsInternal;
 	
@@ -359,6 +361,10 @@ public class TDiv_QS_2LP implements TDiv_QS {
 		} else if (QRestBits<63) {
 			if (DEBUG) LOG.debug("test(): pMax^2 = " + pMaxSquare + ", QRest = " + QRest + " (" + QRestBits + " bits) not prime -> use tinyEcm");
 			factor1 = tinyEcm.findSingleFactor(QRest);
+		} else if (QRestBits<127) {
+			if (DEBUG) LOG.debug("test(): pMax^2 = " + pMaxSquare + ", QRest = " + QRest + " (" + QRestBits + " bits) not prime -> use tinyEcm128");
+			factor1 = tinyEcm128.findSmallFactor(QRest);
+			if (factor1 == null) return null; // no factor <= 31 bit found
 		} else {
 			if (DEBUG) LOG.debug("test(): pMax^2 = " + pMaxSquare + ", QRest = " + QRest + " (" + QRestBits + " bits) not prime -> use qsInternal");
 			factor1 = qsInternal.findSingleFactor(QRest);
@@ -50,20 +50,31 @@ public class SquFoF31Preload extends FactorAlgorithm {
 	// gcd engine
 	private Gcd63 gcdEngine = new Gcd63();
 	
-	private long[][] baseSequences = new long[BASE_MULTIPLIERS.length][];
-	
-	public SquFoF31Preload() {
-		for (int i=0; i<BASE_MULTIPLIERS.length; i++) {
-			int baseMultiplier = BASE_MULTIPLIERS[i];
-			SquarefreeSequence63 kSequence = new SquarefreeSequence63(baseMultiplier);
-			kSequence.reset();
-			long[] baseSequence = baseSequences[i] = new long[1000];
-			for (int j=0; j<1000; j++) {
-				baseSequence[j] = kSequence.next();
+	/**
+	 * The preloaded base sequences are immutable and shared by all instances.
+	 * The holder class is initialized by the JVM on first access.
+	 */
+	private static class BaseSequences {
+		static final long[][] SEQUENCES = new long[BASE_MULTIPLIERS.length][];
+		static {
+			for (int i=0; i<BASE_MULTIPLIERS.length; i++) {
+				int baseMultiplier = BASE_MULTIPLIERS[i];
+				SquarefreeSequence63 kSequence = new SquarefreeSequence63(baseMultiplier);
+				kSequence.reset();
+				long[] baseSequence = SEQUENCES[i] = new long[1000];
+				for (int j=0; j<1000; j++) {
+					baseSequence[j] = kSequence.next();
+				}
+				if (DEBUG) LOG.debug("kSequence[" + i + "] = " + Arrays.toString(SEQUENCES[i]));
 			}
-			if (DEBUG) LOG.debug("kSequence[" + i + "] = " + Arrays.toString(baseSequences[i]));
 		}
 	}
+
+	private final long[][] baseSequences = BaseSequences.SEQUENCES;
+	
+	public SquFoF31Preload() {
+		// nothing to do, the shared base sequences are built when the first instance is created
+	}
 	
 	@Override
 	public String getName() {
@@ -0,0 +1,471 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.factor.tdiv;
+
+import static de.tilman_neumann.jml.base.BigIntConstants.*;
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.SortedMap;
+
+import org.apache.log4j.Logger;
+
+import de.tilman_neumann.jml.factor.FactorAlgorithm;
+import de.tilman_neumann.jml.factor.base.FactorArguments;
+import de.tilman_neumann.jml.factor.base.FactorResult;
+import de.tilman_neumann.jml.primes.bounds.PrimeCountUpperBounds;
+import de.tilman_neumann.jml.primes.exact.CollectingCallback;
+import de.tilman_neumann.jml.primes.exact.SegmentedSieve;
+import de.tilman_neumann.jml.primes.exact.SegmentedSieve30;
+import de.tilman_neumann.jml.primes.exact.SieveCallback;
+import de.tilman_neumann.util.ConfigUtil;
+import de.tilman_neumann.util.SortedMultiset;
+import de.tilman_neumann.util.SortedMultiset_BottomUp;
+
+/**
+ * Trial division for large arguments, testing many primes with a single multi-precision remainder.
+ *
+ * The odd primes are collected in groups whose product P fits into 62 bits. For each group we compute the remainder
+ * r = N mod d, where d = P*2^s is P normalized to 64 bits, with a single pass over the 64-bit words of N.
+ * Each step of that pass divides a two-word number by d using the precomputed reciprocal of d, i.e. two multiplications
+ * and no division, following [Möller, Granlund: "Improved division by invariant integers", 2011].
+ * Then the primes p of the group are tested on r using only long arithmetic:
+ * With the precomputed inverse pinv = 1/p mod 2^64, q = r*pinv mod 2^64 equals r/p if p divides r;
+ * otherwise q*p exceeds 2^64. So p | r if and only if the high word of q*p is zero.
+ *
+ * Groups of primes up to 2^20 are precomputed once and shared by all instances. Primes above that bound
+ * are streamed from a range sieve starting above that bound, so that high test limits do not need big prime tables.
+ * The range sieve is kept by the instance, so its sieving primes are computed only once.
+ *
+ * @author Tilman Neumann
+ */
+public class TDivMultiPrime extends FactorAlgorithm {
+	private static final Logger LOG = Logger.getLogger(TDivMultiPrime.class);
+	private static final boolean DEBUG = false;
+
+	/** primes up to this bound are kept in shared precomputed groups; bigger primes are streamed from a segmented sieve */
+	private static final int CACHE_LIMIT = 1<<20;
+
+	/** bound for the products of prime groups */
+	private static final long MAX_PRODUCT = 1L<<62;
+
+	/**
+	 * The precomputed prime groups, built by the JVM on first access of the holder class.
+	 * The primes of group g are PRIMES[GROUP_START[g]] ... PRIMES[GROUP_START[g+1]-1].
+	 */
+	private static class PrimeGroups {
+		static final int[] PRIMES;
+		static final long[] INVERSES;
+		static final int[] GROUP_START;
+		/** the normalized group products d = P*2^s */
+		static final long[] DIVISORS;
+		/** the reciprocals of the normalized group products */
+		static final long[] RECIPROCALS;
+		static {
+			CollectingCallback callback = new CollectingCallback((int) PrimeCountUpperBounds.combinedUpperBound(CACHE_LIMIT));
+			new SegmentedSieve(callback).sieve(CACHE_LIMIT);
+			// skip p=2, powers of 2 are removed separately
+			final int primeCount = callback.count - 1;
+			PRIMES = new int[primeCount];
+			System.arraycopy(callback.array, 1, PRIMES, 0, primeCount);
+			INVERSES = new long[primeCount];
+			int[] groupStart = new int[primeCount+1];
+			long[] products = new long[primeCount];
+			int groupCount = 0;
+			long product = 1;
+			for (int i=0; i<primeCount; i++) {
+				final int p = PRIMES[i];
+				INVERSES[i] = inverse(p);
+				if (i==0 || product > (MAX_PRODUCT-1) / p) {
+					// start a new group
+					if (i>0) products[groupCount-1] = product;
+					groupStart[groupCount++] = i;
+					product = 1;
+				}
+				product *= p;
+			}
+			products[groupCount-1] = product;
+			groupStart[groupCount] = primeCount;
+
+			GROUP_START = new int[groupCount+1];
+			System.arraycopy(groupStart, 0, GROUP_START, 0, groupCount+1);
+			DIVISORS = new long[groupCount];
+			RECIPROCALS = new long[groupCount];
+			for (int g=0; g<groupCount; g++) {
+				DIVISORS[g] = products[g] << Long.numberOfLeadingZeros(products[g]);
+				RECIPROCALS[g] = reciprocal(DIVISORS[g]);
+			}
+		}
+	}
+
+	/**
+	 * Collects streamed primes into groups and tests them as soon as a group is full.
+	 * Stops the range sieve as soon as the factorization is finished.
+	 */
+	private class StreamingCallback implements SieveCallback {
+		private final int[] primes = new int[64];
+		private final long[] inverses = new long[64];
+		private int count = 0;
+		private long product = 1;
+
+		@Override
+		public void processPrime(long prime) {
+			final int p = (int) prime;
+			if (product > (MAX_PRODUCT-1) / p) {
+				flush();
+				if (finished) {
+					rangeSieve.stop();
+					return;
+				}
+			}
+			primes[count] = p;
+			inverses[count++] = inverse(p);
+			product *= p;
+		}
+
+		/**
+		 * Test the primes collected so far.
+		 */
+		void flush() {
+			if (count > 0 && !finished) {
+				final long d = product << Long.numberOfLeadingZeros(product);
+				testGroup(primes, inverses, 0, count, d, reciprocal(d));
+			}
+			count = 0;
+			product = 1;
+		}
+	}
+
+	private int pLimit = Integer.MAX_VALUE;
+
+	private final StreamingCallback streamingCallback = new StreamingCallback();
+	private final SegmentedSieve30 rangeSieve = new SegmentedSieve30(streamingCallback);
+
+	// the state of the current factorization
+	private BigInteger N;
+	/** the 64-bit words of N, least significant first */
+	private long[] NWords = new long[16];
+	private int NWordCount;
+	private int Nexp;
+	private SortedMap<BigInteger, Integer> primeFactors;
+	/** if true then we only want to find one factor */
+	private boolean findSingleFactor;
+	/** the first factor found in findSingleFactor mode */
+	private int firstFactor;
+	/** true if N has been factored completely, or a factor was found in findSingleFactor mode */
+	private boolean finished;
+	/** the smallest prime that has not been tested yet */
+	private long smallestPossibleFactor;
+
+	@Override
+	public String getName() {
+		return "TDivMultiPrime";
+	}
+
+	/**
+	 * Set the upper limit of primes to be tested.
+	 * @param pLimit upper limit of primes to be tested
+	 * @return this
+	 */
+	public TDivMultiPrime setTestLimit(int pLimit) {
+		this.pLimit = pLimit;
+		return this;
+	}
+
+	@Override
+	public void factor(BigInteger N, SortedMultiset<BigInteger> primeFactors) {
+		FactorArguments args = new FactorArguments(N, 1);
+		SortedMultiset<BigInteger> untestedFactors = new SortedMultiset_BottomUp<BigInteger>();
+		FactorResult result = new FactorResult(primeFactors, untestedFactors, null, 2); // tdiv does not add to compositeFactors
+		searchFactors(args, result);
+		if (!untestedFactors.isEmpty()) {
+			if (DEBUG) {
+				// untestedFactors can only have 1 element, the unfactored rest of N
+				assertEquals(1, untestedFactors.size());
+			}
+			// add the unfactored rest to primeFactors. This means the factorization failed if the rest is composite,
+			// but this algorithm can't do anything better.
+			primeFactors.addAll(untestedFactors);
+		}
+	}
+
+	/**
+	 * Tries to find small factors of a positive, possibly large argument N by doing trial division
+	 * by all primes p &lt;= pLimit.
+	 *
+	 * @param args
+	 * @param result a pre-initialized data structure to add results to
+	 */
+	@Override
+	public void searchFactors(FactorArguments args, FactorResult result) {
+		N = args.N;
+		Nexp = args.exp;
+		primeFactors = result.primeFactors;
+		findSingleFactor = false;
+
+		// Remove multiples of 2:
+		int lsb = N.getLowestSetBit();
+		if (lsb > 0) {
+			primeFactors.put(I_2, lsb*Nexp);
+			N = N.shiftRight(lsb);
+		}
+
+		if (N.equals(I_1)) return;
+
+		run();
+
+		result.smallestPossibleFactor = smallestPossibleFactor; // may be helpful in following factor algorithms
+		if (N.compareTo(I_1) > 0) {
+			if (finished) {
+				// the remaining N is prime
+				addToMap(N, Nexp, primeFactors);
+			} else {
+				result.untestedFactors.add(N, Nexp); // we do not know if the remaining N is prime or composite
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @return the smallest prime factor p &lt;= pLimit of N, or 1 if there is none
+	 */
+	@Override
+	public BigInteger findSingleFactor(BigInteger N) {
+		if (N.signum()<0) N = N.negate(); // sign does not matter
+		if (N.bitLength()<3) return I_1; // N<4 is not composite
+		if (!N.testBit(0)) return I_2; // N even
+
+		this.N = N;
+		findSingleFactor = true;
+		firstFactor = 1;
+		run();
+		return BigInteger.valueOf(firstFactor);
+	}
+
+	/**
+	 * Test all odd primes p &lt;= pLimit, first those from the precomputed groups, then the streamed ones.
+	 */
+	private void run() {
+		finished = false;
+		setNWords();
+		final int[] primes = PrimeGroups.PRIMES;
+		final int[] groupStart = PrimeGroups.GROUP_START;
+		final long[] divisors = PrimeGroups.DIVISORS;
+		final long[] reciprocals = PrimeGroups.RECIPROCALS;
+		final int groupCount = divisors.length;
+		for (int g=0; g<groupCount; g++) {
+			final int start = groupStart[g];
+			if (primes[start] > pLimit) {
+				smallestPossibleFactor = primes[start];
+				return;
+			}
+			final int end = groupStart[g+1];
+			testGroup(primes, PrimeGroups.INVERSES, start, end, divisors[g], reciprocals[g]);
+			if (finished) return;
+		}
+		if (pLimit <= CACHE_LIMIT) {
+			smallestPossibleFactor = CACHE_LIMIT + 1;
+			return;
+		}
+
+		rangeSieve.sieve(CACHE_LIMIT + 1, pLimit);
+		streamingCallback.flush();
+		if (!finished) smallestPossibleFactor = pLimit + 1L;
+	}
+
+	/**
+	 * Test the primes primes[start] ... primes[end-1].
+	 * Primes bigger than pLimit are not tested; then finished is not set, but smallestPossibleFactor is.
+	 *
+	 * @param primes
+	 * @param inverses the inverses of the primes modulo 2^64
+	 * @param start
+	 * @param end
+	 * @param d the product of the primes, shifted left so that its highest bit is set
+	 * @param v the reciprocal of d
+	 */
+	private void testGroup(int[] primes, long[] inverses, int start, int end, long d, long v) {
+		final long r = mod(d, v); // unsigned, but all primes of the group divide d, so r is as good as N mod P
+		for (int i=start; i<end; i++) {
+			final int p = primes[i];
+			if (p > pLimit) {
+				smallestPossibleFactor = p;
+				return;
+			}
+			if (Math.multiplyHigh(r * inverses[i], p) != 0) continue; // p does not divide N
+
+			// p divides N at least once
+			if (findSingleFactor) {
+				firstFactor = p;
+				finished = true;
+				return;
+			}
+			BigInteger p_big = BigInteger.valueOf(p);
+			BigInteger[] div = N.divideAndRemainder(p_big);
+			do {
+				addToMap(p_big, Nexp, primeFactors);
+				N = div[0];
+				div = N.divideAndRemainder(p_big);
+			} while (div[1].equals(I_0));
+			setNWords();
+
+			// The other primes of the group do not divide the old N iff they do not divide the new N, so r remains valid.
+			// Check if we are done.
+			if (N.bitLength() < 63) {
+				long p_square = p * (long)p;
+				if (p_square > N.longValue()) {
+					// the remaining N is 1 or prime
+					smallestPossibleFactor = p;
+					finished = true;
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Split N into 64-bit words.
+	 */
+	private void setNWords() {
+		final byte[] bytes = N.toByteArray(); // big-endian, maybe with a leading zero byte
+		final int byteCount = bytes.length;
+		NWordCount = (byteCount + 7) >> 3;
+		if (NWords.length < NWordCount) NWords = new long[NWordCount];
+		for (int i=0; i<NWordCount; i++) {
+			long word = 0;
+			final int lastByte = byteCount - 1 - (i<<3);
+			final int firstByte = Math.max(0, lastByte - 7);
+			for (int j=firstByte; j<=lastByte; j++) {
+				word = (word << 8) | (bytes[j] & 0xFF);
+			}
+			NWords[i] = word;
+		}
+	}
+
+	/**
+	 * Compute N mod d, where d has its highest bit set, processing the words of N from the most significant one
+	 * with the two-by-one division of [Möller, Granlund], Algorithm 4. All numbers are unsigned.
+	 *
+	 * @param d normalized divisor
+	 * @param v reciprocal of d
+	 * @return N mod d
+	 */
+	private long mod(long d, long v) {
+		long r = 0;
+		for (int i=NWordCount-1; i>=0; i--) {
+			final long u0 = NWords[i];
+			// (q1, q0) = v*r + (r+1, u0)
+			final long p0 = v * r;
+			long q1 = Math.multiplyHigh(v, r) + ((v>>63) & r) + ((r>>63) & v);
+			final long q0 = p0 + u0;
+			q1 += r + 1 + ((q0+Long.MIN_VALUE < p0+Long.MIN_VALUE) ? 1 : 0);
+			r = u0 - q1 * d;
+			if (r+Long.MIN_VALUE > q0+Long.MIN_VALUE) r += d;
+			if (r+Long.MIN_VALUE >= d+Long.MIN_VALUE) r -= d;
+		}
+		return r;
+	}
+
+	/**
+	 * Compute the reciprocal of d by a two-word by one-word division with 32-bit digits,
+	 * following divlu() from [Warren: "Hacker's Delight", 2nd ed., 2013, chapter 9.4].
+	 * @param d normalized divisor
+	 * @return floor((2^128-1)/d) - 2^64 = floor(((2^64-1-d)*2^64 + 2^64-1) / d)
+	 */
+	private static long reciprocal(long d) {
+		final long b = 1L<<32;
+		final long dn1 = d >>> 32, dn0 = d & 0xFFFFFFFFL;
+		final long u1 = ~d; // 2^64-1-d < d
+		final long un1 = 0xFFFFFFFFL, un0 = 0xFFFFFFFFL; // the digits of the low word 2^64-1
+
+		long q1 = Long.divideUnsigned(u1, dn1);
+		long rhat = u1 - q1*dn1;
+		while (q1 >= b || Long.compareUnsigned(q1*dn0, b*rhat + un1) > 0) {
+			q1--;
+			rhat += dn1;
+			if (rhat >= b) break;
+		}
+		final long un21 = u1*b + un1 - q1*d;
+
+		long q0 = Long.divideUnsigned(un21, dn1);
+		rhat = un21 - q0*dn1;
+		while (q0 >= b || Long.compareUnsigned(q0*dn0, b*rhat + un0) > 0) {
+			q0--;
+			rhat += dn1;
+			if (rhat >= b) break;
+		}
+		return q1*b + q0;
+	}
+
+	/**
+	 * @param p odd
+	 * @return 1/p mod 2^64
+	 */
+	private static long inverse(long p) {
+		// Newton iteration; each step doubles the number of correct bits
+		long x = p; // correct mod 2^3 because p is odd
+		for (int i=0; i<5; i++) {
+			x *= 2 - p * x;
+		}
+		return x;
+	}
+
+	private void addToMap(BigInteger N, int exp, SortedMap<BigInteger, Integer> map) {
+		Integer oldExp = map.get(N);
+		// replaces old entry if oldExp!=null
+		map.put(N, (oldExp == null) ? exp : oldExp+exp);
+	}
+
+	/**
+	 * Compare performance and results with TDiv.
+	 * @param args ignored
+	 */
+	public static void main(String[] args) {
+		ConfigUtil.initProject();
+		SecureRandom rng = new SecureRandom();
+		final int count = 100;
+		for (int pLimit : new int[] {1<<17, 1<<20, 1<<22}) {
+			for (int bits = 100; bits <= 1000; bits *= 10) {
+				BigInteger[] testNumbers = new BigInteger[count];
+				for (int i=0; i<count; i++) {
+					testNumbers[i] = new BigInteger(bits, rng);
+				}
+				TDiv tdiv = new TDiv().setTestLimit(pLimit);
+				TDivMultiPrime tdivMP = new TDivMultiPrime().setTestLimit(pLimit);
+				SortedMultiset<BigInteger>[] expected = factorAll(tdiv, testNumbers);
+				long t0 = System.currentTimeMillis();
+				factorAll(tdiv, testNumbers);
+				long t1 = System.currentTimeMillis();
+				SortedMultiset<BigInteger>[] results = factorAll(tdivMP, testNumbers);
+				long t2 = System.currentTimeMillis();
+				for (int i=0; i<count; i++) {
+					if (!expected[i].equals(results[i])) LOG.error("N = " + testNumbers[i] + ": TDiv found " + expected[i] + ", but TDivMultiPrime found " + results[i]);
+				}
+				LOG.info("pLimit = " + pLimit + ", " + bits + " bit: TDiv took " + (t1-t0) + "ms, TDivMultiPrime took " + (t2-t1) + "ms");
+			}
+		}
+	}
+
+	private static SortedMultiset<BigInteger>[] factorAll(FactorAlgorithm algorithm, BigInteger[] testNumbers) {
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		SortedMultiset<BigInteger>[] results = new SortedMultiset[testNumbers.length];
+		for (int i=0; i<testNumbers.length; i++) {
+			results[i] = new SortedMultiset_BottomUp<BigInteger>();
+			algorithm.factor(testNumbers[i], results[i]);
+		}
+		return results;
+	}
+}
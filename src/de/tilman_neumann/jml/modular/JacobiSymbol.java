@@ -324,6 +324,54 @@ public class JacobiSymbol {
 		return (m==1) ? t : 0;
 	}
 
+	/**
+	 * Jacobi symbol for long arguments.
+	 * @param a
+	 * @param m odd, positive
+	 * @return Jacobi(a|m)
+	 */
+	public int jacobiSymbol/*_v03*/(long a, long m) {
+        if (a == 0) return 0;
+
+       // make a positive
+		int t=1;
+		long mMod8;
+        if (a < 0) {
+            a = -a;
+            mMod8 = m & 7;
+            if (mMod8==3 || mMod8==7) t = -t;
+        }
+
+		a %= m;
+		
+		// reduction loop
+        int lsb;
+        long tmp;
+		boolean hasOddPowerOf2;
+		while(a != 0) {
+			// make a odd
+			lsb = Long.numberOfTrailingZeros(a);
+			hasOddPowerOf2 = (lsb&1)==1; // e.g. lsb==1 -> a has one 2
+			if (lsb > 1) {
+				// powers of 4 do not change t -> remove them in one go
+				a >>= (hasOddPowerOf2 ? lsb-1 : lsb);
+			}
+			if (hasOddPowerOf2) {
+				a >>= 1;
+				mMod8 = m & 7;
+				if (mMod8==3 || mMod8==5) t = -t; // m == 3, 5 (mod 8) -> negate t
+			}
+			// now both a and m are odd (m was odd from the start!)
+			// swap variables
+			tmp = a; a = m; m = tmp;
+			// quadratic reciprocity
+			if (((a&3)==3) && ((m&3) == 3)) t = -t; // a == m == 3 (mod 4)
+			// reduce a
+			a %= m;
+		}
+		return (m==1) ? t : 0;
+	}
+
     /**
      * The Kronecker symbol K(a|m) generalizes the Jacobi symbol J(a|m) for arbitrary natural numbers m.
      * 
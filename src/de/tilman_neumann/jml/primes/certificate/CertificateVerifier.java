@@ -0,0 +1,192 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.primes.certificate;
+
+import static de.tilman_neumann.jml.base.BigIntConstants.*;
+
+import java.math.BigInteger;
+import java.util.HashSet;
+
+import org.apache.log4j.Logger;
+
+import de.tilman_neumann.jml.modular.JacobiSymbol;
+import de.tilman_neumann.jml.primes.probable.MillerRabinTest64_Batch;
+import de.tilman_neumann.jml.roots.SqrtExact;
+
+/**
+ * Verifies primality certificates. The verifier does not trust any derived data of a certificate:
+ * It checks that the claimed prime factors divide N-1 resp. N+1, recomputes the factored part F and the conditions of the underlying theorem,
+ * and recursively verifies the certificates of all prime factors.
+ *
+ * The verifier is independent of the prover and much faster; it only needs modular powers resp. Lucas sequences.
+ *
+ * @author Tilman Neumann
+ */
+public class CertificateVerifier {
+	private static final Logger LOG = Logger.getLogger(CertificateVerifier.class);
+	private static final boolean DEBUG = false;
+
+	private final MillerRabinTest64_Batch smallPrimeTest = new MillerRabinTest64_Batch();
+	private final JacobiSymbol jacobiEngine = new JacobiSymbol();
+
+	/**
+	 * Verify a certificate.
+	 * @param certificate
+	 * @return true if the certificate proves that certificate.getN() is prime
+	 */
+	public boolean verify(PrimalityCertificate certificate) {
+		return verify(certificate, new HashSet<BigInteger>());
+	}
+
+	/**
+	 * Verify a certificate.
+	 * @param certificate
+	 * @param verified the primes whose certificates have already been verified, to avoid verifying shared certificates twice
+	 * @return true if the certificate proves that certificate.getN() is prime
+	 */
+	private boolean verify(PrimalityCertificate certificate, HashSet<BigInteger> verified) {
+		final BigInteger N = certificate.getN();
+		if (N == null) return false;
+		if (verified.contains(N)) return true;
+		boolean result;
+		if (certificate instanceof SmallPrimeCertificate) {
+			result = N.signum() > 0 && N.bitLength() <= SmallPrimeCertificate.MAX_BITS && smallPrimeTest.isPrime(N.longValue());
+		} else if (certificate instanceof NMinus1Certificate) {
+			result = verifyNMinus1((NMinus1Certificate) certificate, verified);
+		} else if (certificate instanceof NPlus1Certificate) {
+			result = verifyNPlus1((NPlus1Certificate) certificate, verified);
+		} else {
+			result = false;
+		}
+		if (DEBUG) LOG.debug("verified " + certificate + ": " + result);
+		if (result) verified.add(N);
+		return result;
+	}
+
+	/**
+	 * Check the factored part of N-1 or N+1 and verify the certificates of its prime factors.
+	 * @param certificate
+	 * @param M N-1 or N+1
+	 * @param verified
+	 * @return true if all prime factors of F have valid certificates and F divides M
+	 */
+	private boolean verifyFactors(FactorizationCertificate certificate, BigInteger M, HashSet<BigInteger> verified) {
+		final BigInteger N = certificate.getN();
+		// the prime factors must be distinct, ascending, and their powers must divide M
+		BigInteger previous = I_1;
+		for (int i=0; i<certificate.getFactorCount(); i++) {
+			final BigInteger q = certificate.getFactor(i);
+			final int exponent = certificate.getExponent(i);
+			if (q.compareTo(previous) <= 0 || exponent < 1 || exponent > M.bitLength()) return false;
+			if (M.mod(q.pow(exponent)).signum() != 0) return false;
+			final PrimalityCertificate qCertificate = certificate.getFactorCertificate(i);
+			if (!q.equals(qCertificate.getN()) || q.compareTo(N) >= 0) return false;
+			if (!verify(qCertificate, verified)) return false;
+			previous = q;
+		}
+		return true;
+	}
+
+	private boolean verifyNMinus1(NMinus1Certificate certificate, HashSet<BigInteger> verified) {
+		final BigInteger N = certificate.getN();
+		if (!certificate.hasConsistentArrays() || N.compareTo(I_3) < 0 || !N.testBit(0)) return false;
+		final BigInteger NMinus1 = N.subtract(I_1);
+		if (!verifyFactors(certificate, NMinus1, verified)) return false;
+
+		// Pocklington conditions
+		for (int i=0; i<certificate.getFactorCount(); i++) {
+			final BigInteger q = certificate.getFactor(i);
+			final BigInteger a = BigInteger.valueOf(certificate.getBase(i));
+			if (a.compareTo(I_2) < 0 || a.compareTo(NMinus1) >= 0) return false;
+			final BigInteger x = a.modPow(NMinus1.divide(q), N); // a^((N-1)/q)
+			if (!x.subtract(I_1).gcd(N).equals(I_1)) return false;
+			if (!x.modPow(q, N).equals(I_1)) return false; // a^(N-1) == 1
+		}
+
+		// now all prime factors of N are 1 (mod F)
+		final BigInteger F = certificate.getFactoredPart();
+		if (F.multiply(F).compareTo(N) > 0) return true; // Pocklington
+		if (F.multiply(F).multiply(F).compareTo(N) < 0) return false;
+		// Brillhart, Lehmer, Selfridge: N^(1/3) <= F <= N^(1/2). Write N = c2*F^2 + c1*F + 1
+		final BigInteger[] c2c1 = NMinus1.divide(F).divideAndRemainder(F);
+		final BigInteger c2 = c2c1[0];
+		final BigInteger c1 = c2c1[1];
+		final BigInteger discriminant = c1.multiply(c1).subtract(c2.shiftLeft(2));
+		return discriminant.signum() < 0 || SqrtExact.exactSqrt(discriminant) == null;
+	}
+
+	private boolean verifyNPlus1(NPlus1Certificate certificate, HashSet<BigInteger> verified) {
+		final BigInteger N = certificate.getN();
+		if (!certificate.hasConsistentArrays() || N.compareTo(I_3) < 0 || !N.testBit(0)) return false;
+		final BigInteger NPlus1 = N.add(I_1);
+		if (!verifyFactors(certificate, NPlus1, verified)) return false;
+
+		// F > sqrt(N) + 1 <=> (F-1)^2 > N
+		final BigInteger FMinus1 = certificate.getFactoredPart().subtract(I_1);
+		if (FMinus1.multiply(FMinus1).compareTo(N) <= 0) return false;
+
+		final int D = certificate.getD();
+		if (jacobiEngine.jacobiSymbol(BigInteger.valueOf(D), N) != -1) return false;
+		for (int i=0; i<certificate.getFactorCount(); i++) {
+			final int P = certificate.getP(i);
+			// Q = (P^2 - D)/4 must be an integer coprime to N
+			final long PSquareMinusD = (long)P*P - D;
+			if ((PSquareMinusD & 3) != 0) return false;
+			final BigInteger Q = BigInteger.valueOf(PSquareMinusD >> 2);
+			if (!Q.multiply(BigInteger.valueOf(D)).gcd(N).equals(I_1)) return false;
+			if (lucasU(NPlus1, P, D, N).signum() != 0) return false;
+			final BigInteger U = lucasU(NPlus1.divide(certificate.getFactor(i)), P, D, N);
+			if (!U.gcd(N).equals(I_1)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Compute the Lucas sequence element U_k (mod N) for parameters P and Q = (P^2 - D)/4,
+	 * using U_2k = U_k*V_k, V_2k = (V_k^2 + D*U_k^2)/2, U_(2k+1) = (P*U_2k + V_2k)/2, V_(2k+1) = (D*U_2k + P*V_2k)/2.
+	 *
+	 * @param k positive index
+	 * @param P
+	 * @param D discriminant P^2 - 4Q
+	 * @param N odd modulus
+	 * @return U_k mod N
+	 */
+	static BigInteger lucasU(BigInteger k, int P, int D, BigInteger N) {
+		final BigInteger bigP = BigInteger.valueOf(P);
+		final BigInteger bigD = BigInteger.valueOf(D);
+		BigInteger U = I_1;
+		BigInteger V = bigP.mod(N);
+		for (int i = k.bitLength()-2; i >= 0; i--) {
+			final BigInteger U2 = U.multiply(V).mod(N);
+			final BigInteger V2 = half(V.multiply(V).add(bigD.multiply(U.multiply(U))).mod(N), N);
+			if (k.testBit(i)) {
+				U = half(bigP.multiply(U2).add(V2).mod(N), N);
+				V = half(bigD.multiply(U2).add(bigP.multiply(V2)).mod(N), N);
+			} else {
+				U = U2;
+				V = V2;
+			}
+		}
+		return U;
+	}
+
+	/**
+	 * @param x in [0, N)
+	 * @param N odd
+	 * @return x/2 mod N
+	 */
+	private static BigInteger half(BigInteger x, BigInteger N) {
+		return x.testBit(0) ? x.add(N).shiftRight(1) : x.shiftRight(1);
+	}
+}
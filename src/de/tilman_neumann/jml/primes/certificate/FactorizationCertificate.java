@@ -0,0 +1,116 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.primes.certificate;
+
+import static de.tilman_neumann.jml.base.BigIntConstants.*;
+
+import java.math.BigInteger;
+
+/**
+ * Base class of certificates based on a partial factorization of N-1 or N+1.
+ * The certificate contains the factored part F = q_1^e_1 * ... * q_k^e_k, together with certificates for the primes q_i.
+ *
+ * @author Tilman Neumann
+ */
+public abstract class FactorizationCertificate extends PrimalityCertificate {
+	private static final long serialVersionUID = 2617412546829581542L;
+
+	/** the distinct prime factors q_i of F, ascending */
+	private final BigInteger[] factors;
+	/** the exponents e_i */
+	private final int[] exponents;
+	/** the certificates for the q_i */
+	private final PrimalityCertificate[] factorCertificates;
+
+	/**
+	 * Constructor.
+	 * @param N the number proven to be prime
+	 * @param factors the distinct prime factors of F, ascending
+	 * @param exponents the exponents of the prime factors of F
+	 * @param factorCertificates the certificates for the prime factors of F
+	 */
+	FactorizationCertificate(BigInteger N, BigInteger[] factors, int[] exponents, PrimalityCertificate[] factorCertificates) {
+		super(N);
+		this.factors = factors;
+		this.exponents = exponents;
+		this.factorCertificates = factorCertificates;
+	}
+
+	/**
+	 * @return the number of distinct prime factors of F
+	 */
+	public int getFactorCount() {
+		return factors.length;
+	}
+
+	/**
+	 * @param i
+	 * @return the i.th prime factor q_i of F
+	 */
+	public BigInteger getFactor(int i) {
+		return factors[i];
+	}
+
+	/**
+	 * @param i
+	 * @return the exponent e_i of q_i
+	 */
+	public int getExponent(int i) {
+		return exponents[i];
+	}
+
+	/**
+	 * @param i
+	 * @return the certificate for q_i
+	 */
+	public PrimalityCertificate getFactorCertificate(int i) {
+		return factorCertificates[i];
+	}
+
+	/**
+	 * @return the factored part F of N-1 or N+1
+	 */
+	public BigInteger getFactoredPart() {
+		BigInteger F = I_1;
+		for (int i=0; i<factors.length; i++) {
+			F = F.multiply(factors[i].pow(exponents[i]));
+		}
+		return F;
+	}
+
+	/**
+	 * @return true if the arrays of the certificate have consistent sizes and no null entries
+	 */
+	boolean hasConsistentArrays() {
+		if (factors == null || exponents == null || factorCertificates == null) return false;
+		if (exponents.length != factors.length || factorCertificates.length != factors.length) return false;
+		for (int i=0; i<factors.length; i++) {
+			if (factors[i] == null || factorCertificates[i] == null) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return string representation of F
+	 */
+	String factoredPartToString() {
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<factors.length; i++) {
+			if (i > 0) sb.append(" * ");
+			sb.append(factors[i]);
+			if (exponents[i] > 1) sb.append('^').append(exponents[i]);
+		}
+		return sb.toString();
+	}
+}
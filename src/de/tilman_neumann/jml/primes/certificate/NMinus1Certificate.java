@@ -0,0 +1,64 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.primes.certificate;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Certificate based on a partial factorization N-1 = F*R, the Pocklington theorem and its refinement by Brillhart, Lehmer and Selfridge:
+ * If for each prime q|F there is a base a with a^(N-1) == 1 (mod N) and gcd(a^((N-1)/q) - 1, N) = 1, then all prime factors of N are 1 (mod F).
+ * N is prime if F &gt; sqrt(N), or if F &gt;= N^(1/3) and N = c2*F^2 + c1*F + 1 written in base F has c1^2 - 4*c2 not a square.
+ *
+ * @see [Crandall, Pomerance: Prime Numbers - A Computational Perspective, Theorems 4.1.5 and 4.1.6]
+ *
+ * @author Tilman Neumann
+ */
+public class NMinus1Certificate extends FactorizationCertificate {
+	private static final long serialVersionUID = -7542398510937426178L;
+
+	/** the base a_i for each prime factor q_i */
+	private final int[] bases;
+
+	/**
+	 * Full constructor.
+	 * @param N the number proven to be prime
+	 * @param factors the distinct prime factors of F, ascending
+	 * @param exponents the exponents of the prime factors of F
+	 * @param factorCertificates the certificates for the prime factors of F
+	 * @param bases the base for each prime factor
+	 */
+	public NMinus1Certificate(BigInteger N, BigInteger[] factors, int[] exponents, PrimalityCertificate[] factorCertificates, int[] bases) {
+		super(N, factors, exponents, factorCertificates);
+		this.bases = bases;
+	}
+
+	/**
+	 * @param i
+	 * @return the base for the i.th prime factor
+	 */
+	public int getBase(int i) {
+		return bases[i];
+	}
+
+	@Override
+	boolean hasConsistentArrays() {
+		return super.hasConsistentArrays() && bases != null && bases.length == getFactorCount();
+	}
+
+	@Override
+	public String toString() {
+		return "N-1 certificate for " + getN() + ": F = " + factoredPartToString() + ", bases = " + Arrays.toString(bases);
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.primes.certificate;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Certificate based on a partial factorization N+1 = F*R with F &gt; sqrt(N) + 1 and Morrison's theorem:
+ * Let D be a discriminant with Jacobi(D|N) = -1. If for each prime q|F there is a Lucas sequence U with parameters P, Q = (P^2 - D)/4,
+ * gcd(N, 2*Q*D) = 1, U_(N+1) == 0 (mod N) and gcd(U_((N+1)/q), N) = 1, then N is prime.
+ *
+ * All Lucas sequences use the same discriminant D, only P varies.
+ *
+ * @see [Crandall, Pomerance: Prime Numbers - A Computational Perspective, Theorem 4.2.3]
+ *
+ * @author Tilman Neumann
+ */
+public class NPlus1Certificate extends FactorizationCertificate {
+	private static final long serialVersionUID = 5219603541768734931L;
+
+	/** the discriminant */
+	private final int D;
+	/** the Lucas parameter P_i for each prime factor q_i */
+	private final int[] P;
+
+	/**
+	 * Full constructor.
+	 * @param N the number proven to be prime
+	 * @param factors the distinct prime factors of F, ascending
+	 * @param exponents the exponents of the prime factors of F
+	 * @param factorCertificates the certificates for the prime factors of F
+	 * @param D the discriminant
+	 * @param P the Lucas parameter P for each prime factor
+	 */
+	public NPlus1Certificate(BigInteger N, BigInteger[] factors, int[] exponents, PrimalityCertificate[] factorCertificates, int D, int[] P) {
+		super(N, factors, exponents, factorCertificates);
+		this.D = D;
+		this.P = P;
+	}
+
+	/**
+	 * @return the discriminant D
+	 */
+	public int getD() {
+		return D;
+	}
+
+	/**
+	 * @param i
+	 * @return the Lucas parameter P for the i.th prime factor
+	 */
+	public int getP(int i) {
+		return P[i];
+	}
+
+	@Override
+	boolean hasConsistentArrays() {
+		return super.hasConsistentArrays() && P != null && P.length == getFactorCount();
+	}
+
+	@Override
+	public String toString() {
+		return "N+1 certificate for " + getN() + ": F = " + factoredPartToString() + ", D = " + D + ", P = " + Arrays.toString(P);
+	}
+}
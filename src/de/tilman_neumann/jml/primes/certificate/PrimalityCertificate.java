@@ -0,0 +1,46 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.primes.certificate;
+
+import java.io.Serializable;
+import java.math.BigInteger;
+
+/**
+ * Base class of primality certificates. A certificate holds all data needed by CertificateVerifier to prove that N is prime
+ * in much less time than it took to find the certificate.
+ *
+ * Certificates are immutable and serializable. Certificates for prime factors may be shared by several certificates.
+ *
+ * @author Tilman Neumann
+ */
+public abstract class PrimalityCertificate implements Serializable {
+	private static final long serialVersionUID = -3316597294526937519L;
+
+	private final BigInteger N;
+
+	/**
+	 * Constructor.
+	 * @param N the number proven to be prime
+	 */
+	PrimalityCertificate(BigInteger N) {
+		this.N = N;
+	}
+
+	/**
+	 * @return the number proven to be prime
+	 */
+	public BigInteger getN() {
+		return N;
+	}
+}
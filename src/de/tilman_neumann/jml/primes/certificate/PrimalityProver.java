@@ -0,0 +1,382 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.primes.certificate;
+
+import static de.tilman_neumann.jml.base.BigIntConstants.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import de.tilman_neumann.jml.factor.CombinedFactorAlgorithm;
+import de.tilman_neumann.jml.factor.FactorAlgorithm;
+import de.tilman_neumann.jml.factor.base.FactorArguments;
+import de.tilman_neumann.jml.factor.base.FactorResult;
+import de.tilman_neumann.jml.factor.ecm.EllipticCurveMethod;
+import de.tilman_neumann.jml.modular.JacobiSymbol;
+import de.tilman_neumann.jml.primes.exact.AutoExpandingPrimesArray;
+import de.tilman_neumann.jml.primes.probable.BPSWTest;
+import de.tilman_neumann.jml.primes.probable.MillerRabinTest64_Batch;
+import de.tilman_neumann.jml.roots.SqrtExact;
+import de.tilman_neumann.util.ConfigUtil;
+import de.tilman_neumann.util.SortedMultiset;
+import de.tilman_neumann.util.SortedMultiset_BottomUp;
+
+/**
+ * Creates primality certificates that can be checked by CertificateVerifier.
+ *
+ * Primes &lt; 2^63 get a SmallPrimeCertificate. For larger N, N-1 is partially factored by trial division, followed by
+ * CombinedFactorAlgorithm for cofactors of moderate size or a limited number of ECM curves for bigger ones, and an N-1 certificate is created if the factored part F satisfies F &gt;= N^(1/3).
+ * Otherwise N+1 is tried, requiring F &gt; sqrt(N) + 1. The prime factors of F are proven recursively.
+ * If both fail because big cofactors could not be factored far enough, N-1 and N+1 are tried again with more ECM curves.
+ *
+ * The proof is not guaranteed to succeed for big N: If N-1 and N+1 can not be factored far enough even then,
+ * prove() returns null although N is prime.
+ *
+ * All certificates created are cached by the prime they prove, so that a prime factor appearing in many numbers is proven only once,
+ * and certificates of such primes are shared. Primes that could not be proven at any effort level are remembered as well,
+ * so that later calls return null at once instead of repeating the factoring work; clearCache() allows a new attempt.
+ *
+ * Instances are not thread-safe.
+ *
+ * @author Tilman Neumann
+ */
+public class PrimalityProver {
+	private static final Logger LOG = Logger.getLogger(PrimalityProver.class);
+	private static final boolean DEBUG = false;
+
+	/** N-1 and N+1 are trial divided by the primes below this bound */
+	private static final int TDIV_LIMIT = 1<<16;
+	/** composite cofactors remaining after trial division are only factored if they have at most that many bits */
+	private static final int MAX_COFACTOR_BITS = 160;
+	/** the number of ECM curves run on bigger composite cofactors, per effort level */
+	private static final int[] ECM_MAX_CURVES = new int[] {30, 300};
+	/** the maximum base resp. Lucas parameter P tried */
+	private static final int MAX_WITNESS = 1000;
+
+	private final int[] smallPrimes;
+	private final BPSWTest bpsw = new BPSWTest();
+	private final MillerRabinTest64_Batch smallPrimeTest = new MillerRabinTest64_Batch();
+	private final JacobiSymbol jacobiEngine = new JacobiSymbol();
+	private final FactorAlgorithm factorizer;
+	/** the ECM instance of each effort level */
+	private final EllipticCurveMethod[] ecm = new EllipticCurveMethod[ECM_MAX_CURVES.length];
+
+	private final HashMap<BigInteger, PrimalityCertificate> cache = new HashMap<>();
+	/** the probable primes for which no proof was found at any effort level */
+	private final HashSet<BigInteger> unprovable = new HashSet<>();
+
+	/**
+	 * Full constructor.
+	 * @param numberOfThreads the number of threads used to factor N-1 resp. N+1
+	 */
+	public PrimalityProver(int numberOfThreads) {
+		AutoExpandingPrimesArray primesArray = AutoExpandingPrimesArray.get().ensureLimit(TDIV_LIMIT);
+		final int primeCount = primesArray.getInsertPosition(TDIV_LIMIT - 1);
+		smallPrimes = new int[primeCount];
+		for (int i=0; i<primeCount; i++) {
+			smallPrimes[i] = primesArray.getPrime(i);
+		}
+		factorizer = new CombinedFactorAlgorithm(numberOfThreads);
+		for (int effort=0; effort<ECM_MAX_CURVES.length; effort++) {
+			ecm[effort] = new EllipticCurveMethod(ECM_MAX_CURVES[effort]);
+		}
+	}
+
+	/**
+	 * Create a primality certificate for N.
+	 *
+	 * <strong>A null result does not mean that N is composite.</strong> For N &gt;= 2^63 a proof requires that N-1 or N+1 can be
+	 * factored far enough; if that fails at all effort levels, null is returned for a prime N, too.
+	 * Callers needing to distinguish both cases should check N with a probable prime test like BPSWTest.
+	 * Such failures are remembered until clearCache() is called.
+	 *
+	 * @param N
+	 * @return certificate, or null if N is composite or no proof could be found
+	 */
+	public PrimalityCertificate prove(BigInteger N) {
+		PrimalityCertificate certificate = cache.get(N);
+		if (certificate != null) return certificate;
+		if (N.compareTo(I_2) < 0 || unprovable.contains(N)) return null;
+
+		if (N.bitLength() <= SmallPrimeCertificate.MAX_BITS) {
+			if (!smallPrimeTest.isPrime(N.longValue())) return null;
+			certificate = new SmallPrimeCertificate(N);
+		} else {
+			if (!bpsw.isProbablePrime(N)) return null;
+			for (int effort=0; effort<ECM_MAX_CURVES.length && certificate == null; effort++) {
+				certificate = proveNMinus1(N, effort);
+				if (certificate == null) certificate = proveNPlus1(N, effort);
+			}
+			if (certificate == null) {
+				if (DEBUG) LOG.debug("Could not prove " + N + " to be prime");
+				unprovable.add(N);
+				return null;
+			}
+		}
+		if (DEBUG) LOG.debug("Created " + certificate);
+		cache.put(N, certificate);
+		return certificate;
+	}
+
+	/**
+	 * @return the number of cached certificates
+	 */
+	public int getCacheSize() {
+		return cache.size();
+	}
+
+	/**
+	 * Remove all cached certificates, and forget the primes that could not be proven, so that they are tried again.
+	 */
+	public void clearCache() {
+		cache.clear();
+		unprovable.clear();
+	}
+
+	private NMinus1Certificate proveNMinus1(BigInteger N, int effort) {
+		final BigInteger NMinus1 = N.subtract(I_1);
+		final SortedMultiset<BigInteger> factors = findFactors(NMinus1, N, false, effort);
+		if (factors == null) return null;
+
+		final int factorCount = factors.keySet().size();
+		final BigInteger[] q = new BigInteger[factorCount];
+		final int[] exponents = new int[factorCount];
+		final PrimalityCertificate[] factorCertificates = new PrimalityCertificate[factorCount];
+		final int[] bases = new int[factorCount];
+		BigInteger F = I_1;
+		int i = 0;
+		for (Map.Entry<BigInteger, Integer> entry : factors.entrySet()) {
+			q[i] = entry.getKey();
+			exponents[i] = entry.getValue();
+			F = F.multiply(q[i].pow(exponents[i]));
+			factorCertificates[i] = prove(q[i]);
+			if (factorCertificates[i] == null) return null;
+			bases[i] = findBase(N, NMinus1.divide(q[i]), q[i]);
+			if (bases[i] < 0) return null;
+			i++;
+		}
+		if (F.multiply(F).compareTo(N) <= 0) {
+			// Brillhart, Lehmer, Selfridge: for prime N, c1^2 - 4*c2 is not a square
+			final BigInteger[] c2c1 = NMinus1.divide(F).divideAndRemainder(F);
+			final BigInteger discriminant = c2c1[1].multiply(c2c1[1]).subtract(c2c1[0].shiftLeft(2));
+			if (discriminant.signum() >= 0 && SqrtExact.exactSqrt(discriminant) != null) return null;
+		}
+		return new NMinus1Certificate(N, q, exponents, factorCertificates, bases);
+	}
+
+	/**
+	 * Find a base a with a^(N-1) == 1 (mod N) and gcd(a^((N-1)/q) - 1, N) = 1.
+	 * @param N
+	 * @param exponent (N-1)/q
+	 * @param q
+	 * @return base, or -1 if N has been found composite or no base has been found
+	 */
+	private int findBase(BigInteger N, BigInteger exponent, BigInteger q) {
+		for (int a=2; a<MAX_WITNESS; a++) {
+			final BigInteger x = BigInteger.valueOf(a).modPow(exponent, N);
+			if (x.equals(I_1)) continue;
+			if (!x.subtract(I_1).gcd(N).equals(I_1)) return -1;
+			if (!x.modPow(q, N).equals(I_1)) return -1;
+			return a;
+		}
+		return -1;
+	}
+
+	private NPlus1Certificate proveNPlus1(BigInteger N, int effort) {
+		final BigInteger NPlus1 = N.add(I_1);
+		final SortedMultiset<BigInteger> factors = findFactors(NPlus1, N, true, effort);
+		if (factors == null) return null;
+
+		// Selfridge's discriminants 5, -7, 9, -11, ... are all 1 (mod 4), so Q = (P^2 - D)/4 is an integer for odd P
+		int D = 5;
+		while (true) {
+			final int jacobi = jacobiEngine.jacobiSymbol(BigInteger.valueOf(D), N);
+			if (jacobi == -1) break;
+			if (jacobi == 0 || Math.abs(D) > MAX_WITNESS) return null;
+			D = D>0 ? -D-2 : -D+2;
+		}
+
+		final int factorCount = factors.keySet().size();
+		final BigInteger[] q = new BigInteger[factorCount];
+		final int[] exponents = new int[factorCount];
+		final PrimalityCertificate[] factorCertificates = new PrimalityCertificate[factorCount];
+		final int[] P = new int[factorCount];
+		int i = 0;
+		for (Map.Entry<BigInteger, Integer> entry : factors.entrySet()) {
+			q[i] = entry.getKey();
+			exponents[i] = entry.getValue();
+			factorCertificates[i] = prove(q[i]);
+			if (factorCertificates[i] == null) return null;
+			P[i] = findLucasParameter(N, NPlus1, q[i], D);
+			if (P[i] < 0) return null;
+			i++;
+		}
+		return new NPlus1Certificate(N, q, exponents, factorCertificates, D, P);
+	}
+
+	/**
+	 * Find a Lucas parameter P such that Q = (P^2 - D)/4 is coprime to N, U_(N+1) == 0 (mod N) and gcd(U_((N+1)/q), N) = 1.
+	 * @param N
+	 * @param NPlus1
+	 * @param q
+	 * @param D discriminant with Jacobi(D|N) = -1
+	 * @return P, or -1 if N has been found composite or no suitable P has been found
+	 */
+	private int findLucasParameter(BigInteger N, BigInteger NPlus1, BigInteger q, int D) {
+		final BigInteger bigD = BigInteger.valueOf(D);
+		for (int P=1; P<MAX_WITNESS; P+=2) {
+			final BigInteger Q = BigInteger.valueOf(((long)P*P - D) >> 2);
+			if (Q.signum() == 0 || !Q.multiply(bigD).gcd(N).equals(I_1)) continue;
+			if (CertificateVerifier.lucasU(NPlus1, P, D, N).signum() != 0) return -1;
+			final BigInteger gcd = CertificateVerifier.lucasU(NPlus1.divide(q), P, D, N).gcd(N);
+			if (gcd.equals(I_1)) return P;
+			if (!gcd.equals(N)) return -1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Partially factor M = N-1 or M = N+1 and select prime factors such that their product F is big enough for a proof.
+	 *
+	 * Higher effort levels only run more ECM curves on a big cofactor. If no ECM is needed, the result would be the same
+	 * as for effort 0, so then null is returned at once.
+	 *
+	 * @param M
+	 * @param N
+	 * @param nPlus1 true if M = N+1
+	 * @param effort the effort level, an index into ECM_MAX_CURVES
+	 * @return the selected prime factors of M with their multiplicities in M, or null if the factored part is not big enough
+	 */
+	private SortedMultiset<BigInteger> findFactors(BigInteger M, BigInteger N, boolean nPlus1, int effort) {
+		final SortedMultiset<BigInteger> allFactors = new SortedMultiset_BottomUp<>();
+		// trial division
+		final int lsb = M.getLowestSetBit();
+		allFactors.add(I_2, lsb);
+		BigInteger C = M.shiftRight(lsb);
+		for (int i=1; i<smallPrimes.length && C.bitLength() > 31; i++) {
+			final BigInteger p = BigInteger.valueOf(smallPrimes[i]);
+			BigInteger[] qr = C.divideAndRemainder(p);
+			while (qr[1].signum() == 0) {
+				allFactors.add(p);
+				C = qr[0];
+				qr = C.divideAndRemainder(p);
+			}
+		}
+		if (effort > 0) {
+			// only a big composite cofactor that is needed for the proof gets more ECM curves
+			if (C.bitLength() <= MAX_COFACTOR_BITS || isSufficient(M.divide(C), N, nPlus1) || bpsw.isProbablePrime(C)) return null;
+		}
+		if (!C.equals(I_1)) {
+			if (bpsw.isProbablePrime(C)) {
+				allFactors.add(C);
+			} else if (!isSufficient(M.divide(C), N, nPlus1)) {
+				// the cofactor is needed
+				if (C.bitLength() <= MAX_COFACTOR_BITS) {
+					if (DEBUG) LOG.debug("Factor cofactor " + C + " (" + C.bitLength() + " bits)");
+					factorizer.factor(C, allFactors);
+				} else {
+					// look for some not too big factors using ECM
+					final FactorResult result = new FactorResult(allFactors, new SortedMultiset_BottomUp<BigInteger>(), new SortedMultiset_BottomUp<BigInteger>(), TDIV_LIMIT);
+					if (DEBUG) LOG.debug("Run " + ECM_MAX_CURVES[effort] + " ECM curves on cofactor " + C + " (" + C.bitLength() + " bits)");
+					ecm[effort].searchFactors(new FactorArguments(C, 1), result);
+					for (Map.Entry<BigInteger, Integer> entry : result.compositeFactors.entrySet()) {
+						if (entry.getKey().bitLength() <= MAX_COFACTOR_BITS) {
+							final SortedMultiset<BigInteger> compositeFactors = factorizer.factor(entry.getKey());
+							for (Map.Entry<BigInteger, Integer> factor : compositeFactors.entrySet()) {
+								allFactors.add(factor.getKey(), factor.getValue() * entry.getValue());
+							}
+						}
+					}
+				}
+			}
+		}
+
+		// select the smallest prime factors until F is big enough
+		final SortedMultiset<BigInteger> factors = new SortedMultiset_BottomUp<>();
+		BigInteger F = I_1;
+		for (Map.Entry<BigInteger, Integer> entry : allFactors.entrySet()) {
+			factors.add(entry.getKey(), entry.getValue());
+			F = F.multiply(entry.getKey().pow(entry.getValue()));
+			if (isSufficient(F, N, nPlus1)) return factors;
+		}
+		return null;
+	}
+
+	/**
+	 * @param F
+	 * @param N
+	 * @param nPlus1
+	 * @return true if F is big enough for a N+1 resp. N-1 proof
+	 */
+	private static boolean isSufficient(BigInteger F, BigInteger N, boolean nPlus1) {
+		if (nPlus1) {
+			final BigInteger FMinus1 = F.subtract(I_1);
+			return FMinus1.multiply(FMinus1).compareTo(N) > 0;
+		}
+		return F.multiply(F).multiply(F).compareTo(N) >= 0;
+	}
+
+	/**
+	 * Prove random primes, verify the certificates after a serialization round trip, and show the effect of the cache.
+	 * @param args ignored
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static void main(String[] args) throws IOException, ClassNotFoundException {
+		ConfigUtil.initProject();
+		SecureRandom rng = new SecureRandom();
+		PrimalityProver prover = new PrimalityProver(1);
+		CertificateVerifier verifier = new CertificateVerifier();
+		for (int bits = 64; bits <= 256; bits <<= 1) {
+			final int count = 10;
+			int provenCount = 0, verifiedCount = 0;
+			long proveMillis = 0, verifyMillis = 0;
+			for (int i=0; i<count; i++) {
+				BigInteger N = BigInteger.probablePrime(bits, rng);
+				long t0 = System.currentTimeMillis();
+				PrimalityCertificate certificate = prover.prove(N);
+				long t1 = System.currentTimeMillis();
+				proveMillis += t1 - t0;
+				if (certificate == null) {
+					LOG.warn("Could not prove N = " + N);
+					continue;
+				}
+				provenCount++;
+				// serialization round trip
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+					out.writeObject(certificate);
+				}
+				PrimalityCertificate copy;
+				try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+					copy = (PrimalityCertificate) in.readObject();
+				}
+				long t2 = System.currentTimeMillis();
+				if (verifier.verify(copy)) verifiedCount++;
+				verifyMillis += System.currentTimeMillis() - t2;
+			}
+			LOG.info(bits + " bit: Proved " + provenCount + " of " + count + " primes in " + proveMillis + "ms, verified " + verifiedCount + " certificates in " + verifyMillis + "ms; cache size = " + prover.getCacheSize());
+		}
+	}
+}
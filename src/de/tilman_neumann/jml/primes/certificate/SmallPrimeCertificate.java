@@ -0,0 +1,42 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.primes.certificate;
+
+import java.math.BigInteger;
+
+/**
+ * Certificate for a prime N &lt; 2^63. Such N are proven to be prime by a deterministic Miller-Rabin test,
+ * so the certificate needs no further data.
+ *
+ * @author Tilman Neumann
+ */
+public class SmallPrimeCertificate extends PrimalityCertificate {
+	private static final long serialVersionUID = 4871165318512032604L;
+
+	/** the maximum bit length of N */
+	public static final int MAX_BITS = 63;
+
+	/**
+	 * Constructor.
+	 * @param N prime &lt; 2^63
+	 */
+	public SmallPrimeCertificate(BigInteger N) {
+		super(N);
+	}
+
+	@Override
+	public String toString() {
+		return "small prime " + getN();
+	}
+}
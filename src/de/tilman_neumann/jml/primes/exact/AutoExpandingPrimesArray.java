@@ -13,6 +13,8 @@
  */
 package de.tilman_neumann.jml.primes.exact;
 
+import java.util.Arrays;
+
 import org.apache.log4j.Logger;
 
 import de.tilman_neumann.jml.BinarySearch;
@@ -24,16 +26,33 @@ import de.tilman_neumann.jml.primes.bounds.PrimeCountUpperBounds;
  * 
  * Singleton implementation to avoid spending too much memory on the primes in different instances.
  * 
+ * The array grows geometrically, and each expansion only sieves the range above the primes found before.
+ * Readers never block: The primes are kept in an array that is completely filled before it is published
+ * through a volatile field, so every thread sees either the old or the new array, but never a partially filled one.
+ * Only expansions are synchronized.
+ * 
+ * If a PrimeTableFile has been set, primes up to its limit are read from the table instead of being sieved.
+ * 
  * @author Tilman Neumann
  */
 public class AutoExpandingPrimesArray implements SieveCallback {
 	private static final Logger LOG = Logger.getLogger(AutoExpandingPrimesArray.class);
 	private static final boolean DEBUG = false;
 	
-	// variables must be initialized to avoid exceptions in ensureMaxPrime()
-	private int[] array = new int[] {2}; // the array to store the primes
-	private int count = 1; // actual element count
-	private int capacity = 1; // maximal array capacity
+	/** the maximum size of Java arrays on most JVMs */
+	private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+	
+	/** the published primes; the array length is the prime count. Must be initialized to avoid exceptions in ensureLimit(). */
+	private volatile int[] primes = new int[] {2};
+	
+	// expansion state, guarded by "this"
+	/** all primes <= sievedLimit are contained in primes */
+	private long sievedLimit = 2;
+	/** the array being filled by the sieve */
+	private int[] newPrimes = null;
+	private int newCount;
+	private SegmentedSieve30 sieve = null;
+	private PrimeTableFile primeTable = null;
 	
 	private BinarySearch bs = new BinarySearch();
 	
@@ -50,17 +69,25 @@ public class AutoExpandingPrimesArray implements SieveCallback {
 		return the_instance;
 	}
 	
+	/**
+	 * Set a precomputed prime table used by future expansions; primes above its limit are still sieved.
+	 * @param primeTable
+	 * @return PrimeGenerator
+	 */
+	public synchronized AutoExpandingPrimesArray setPrimeTable(PrimeTableFile primeTable) {
+		this.primeTable = primeTable;
+		return this;
+	}
+	
 	/**
 	 * Ensures that the array contains at least the first 'desiredCount' primes.
 	 * @param desiredCount
 	 * @return PrimeGenerator
 	 */
 	public AutoExpandingPrimesArray ensurePrimeCount(int desiredCount) {
-		if (count < desiredCount) {
+		if (primes.length < desiredCount) {
 			// The current primes array is to small -> expansion needed.
-			// Compute (tight) bound such that there are at least count primes in (0, nthPrimeUpperBound]
-			long nthPrimeUpperBound = NthPrimeUpperBounds.combinedUpperBound(desiredCount);
-			fetchPrimes(desiredCount, nthPrimeUpperBound);
+			expand(desiredCount, 0);
 		}
 		return this;
 	}
@@ -71,12 +98,11 @@ public class AutoExpandingPrimesArray implements SieveCallback {
 	 * @return PrimeGenerator
 	 */
 	public AutoExpandingPrimesArray ensureLimit(int x) {
-		if (array[count-1] < x) {
-			// The current primes array is to small -> expansion needed.
-			// Compute upper bound for the number of primes in (0, x]
-			int countUpperBound = (int) PrimeCountUpperBounds.combinedUpperBound(x);
-			fetchPrimes(countUpperBound, x);
-			if (DEBUG) LOG.debug("pMax = " + array[count-1] + ", x = " + x);
+		final int[] primes = this.primes;
+		if (primes[primes.length-1] < x) {
+			// The current primes array may be to small -> expansion needed.
+			expand(0, x);
+			if (DEBUG) LOG.debug("pMax = " + this.primes[this.primes.length-1] + ", x = " + x);
 		}
 		return this;
 	}
@@ -86,7 +112,8 @@ public class AutoExpandingPrimesArray implements SieveCallback {
 	 * @return the index where x would be inserted into the prime array.
 	 */
 	public int getInsertPosition(int x) {
-		return bs.getInsertPosition(array, count, x);
+		final int[] primes = this.primes;
+		return bs.getInsertPosition(primes, primes.length, x);
 	}
 
 	/**
@@ -98,38 +125,60 @@ public class AutoExpandingPrimesArray implements SieveCallback {
 	 * @return n.th prime, where n starts at 0, e.g. p[0] = 2
 	 */
 	public int getPrime(int n) {
-		if (count <= n) {
+		int[] primes = this.primes;
+		if (primes.length <= n) {
 			// The current primes array is too small -> expansion needed.
-			int nextCount = 3*count; // trade-off between speed and memory waste
-			// Compute (tight) bound such that there are at least count primes in (0, nthPrimeUpperBound]
-			long nthPrimeUpperBound = NthPrimeUpperBounds.combinedUpperBound(nextCount);
-			fetchPrimes(nextCount, nthPrimeUpperBound);
+			primes = expand(n+1, 0);
 		}
-		return array[n];
+		return primes[n];
 	}
 	
 	/**
-	 * Run the sieve to expand the primes array. Thread-safe.
+	 * Expand the primes array such that it contains at least desiredCount primes and all primes <= x.
+	 * The array grows at least by a factor of 2, and only numbers above the previous sieve limit are sieved.
+	 * 
 	 * @param desiredCount wanted number of primes
-	 * @param limit maximum value to be checked for being prime.
+	 * @param x wanted maximum value checked for being prime
+	 * @return the published primes array
 	 */
-	private synchronized void fetchPrimes(int desiredCount, long limit) {
+	private synchronized int[] expand(int desiredCount, long x) {
+		final int[] current = primes;
+		final int count = current.length;
 		// Is the array still too small when the current thread gets its go?
-		if (desiredCount > count) {
-			array = new int[desiredCount];
-			capacity = desiredCount;
-			count = 0;
-			SegmentedSieve segmentedSieve = new SegmentedSieve(this);
-			segmentedSieve.sieve(limit);
+		if (count >= desiredCount && sievedLimit >= x) return current;
+		
+		final long targetCount = Math.min(Math.max(desiredCount, 2L*count), MAX_ARRAY_SIZE);
+		// Compute (tight) bound such that there are at least targetCount primes in (0, limit]
+		final long limit = Math.min(Math.max(x, NthPrimeUpperBounds.combinedUpperBound(targetCount)), Integer.MAX_VALUE); // primes are stored as ints
+		final int capacity = (int) Math.min(PrimeCountUpperBounds.combinedUpperBound(limit), MAX_ARRAY_SIZE);
+		
+		newPrimes = Arrays.copyOf(current, capacity);
+		newCount = count;
+		long from = sievedLimit + 1;
+		if (primeTable != null && from <= primeTable.getLimit()) {
+			final long tableTo = Math.min(limit, primeTable.getLimit());
+			primeTable.getPrimes(from, tableTo, this);
+			from = tableTo + 1;
+		}
+		if (from <= limit) {
+			if (sieve == null) sieve = new SegmentedSieve30(this);
+			sieve.sieve(from, limit);
 		}
+		// the prime count upper bound should never be exceeded, but we want to stay correct even if it was
+		sievedLimit = newCount < capacity ? limit : newPrimes[newCount-1];
+		final int[] expanded = newCount < capacity ? Arrays.copyOf(newPrimes, newCount) : newPrimes;
+		newPrimes = null;
+		if (DEBUG) LOG.debug("Expanded primes array from " + count + " to " + expanded.length + " primes, sieved up to " + sievedLimit);
+		primes = expanded; // publish
+		return expanded;
 	}
 
 	/**
-	 * Fallback method: Receives new primes from the sieve and stores them in the array.
+	 * Fallback method: Receives new primes from the sieve during expansions and stores them in the new array.
 	 */
 	@Override
 	public void processPrime(long prime) {
-		if (count == capacity) return; // array is full
-		array[count++] = (int) prime;
+		if (newPrimes == null || newCount == newPrimes.length) return; // not expanding or array is full
+		newPrimes[newCount++] = (int) prime;
 	}
 }
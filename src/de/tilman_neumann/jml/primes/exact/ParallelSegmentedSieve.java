@@ -0,0 +1,337 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.primes.exact;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.apache.log4j.Logger;
+
+import de.tilman_neumann.util.ConfigUtil;
+
+/**
+ * Multi-threaded range sieve: The range [from, to] is split into blocks of some segments
+ * that are sieved independently by the threads of a ForkJoinPool, each task using a SegmentedSieve30 that no other task uses at the same time.
+ * The sieving primes are computed once and shared by all threads.
+ *
+ * In ordered mode, the primes of each block are collected by the worker thread and delivered by the calling thread
+ * in ascending order; only a few blocks are sieved ahead to limit memory consumption.
+ * In unordered mode, the worker threads pass their primes directly to the BulkSieveCallback. Each chunk is ascending,
+ * but chunks of different blocks arrive in any order and concurrently, so the callback must be thread-safe.
+ * This suits counting and other statistics that do not depend on the order of the primes.
+ *
+ * Instances are not thread-safe, i.e. sieve() and count() must not be called concurrently.
+ * A sieve that created its own pool must be closed to stop the pool threads.
+ *
+ * @author Tilman Neumann
+ */
+public class ParallelSegmentedSieve implements AutoCloseable {
+	private static final Logger LOG = Logger.getLogger(ParallelSegmentedSieve.class);
+
+	/** the maximum number of segments per block, limiting the memory needed for the primes of a block */
+	private static final int MAX_SEGMENTS_PER_BLOCK = 4;
+	/** the desired number of blocks per thread, for load balancing */
+	private static final int BLOCKS_PER_THREAD = 8;
+
+	private final SieveCallback callback;
+	private final BulkSieveCallback bulkCallback;
+	private final boolean ordered;
+	private final int numberOfThreads;
+	private final ForkJoinPool pool;
+	/** true if the pool was created by this sieve and is shut down by close() */
+	private final boolean ownsPool;
+
+	/** the sieving primes shared by all threads */
+	private int[] sievingPrimes = new int[0];
+	private long sievingPrimesLimit = 0;
+
+	/**
+	 * The primes of one block.
+	 */
+	private static class Block {
+		final long[] primes;
+		final int count;
+
+		Block(long[] primes, int count) {
+			this.primes = primes;
+			this.count = count;
+		}
+	}
+
+	/**
+	 * The sieve of a single task, collecting the primes of a block or forwarding them to the client.
+	 */
+	private static class BlockSieve implements BulkSieveCallback {
+		private final SegmentedSieve30 sieve = new SegmentedSieve30(this);
+		private final BulkSieveCallback bulkCallback;
+		private long[] primes;
+		private int count;
+
+		BlockSieve(BulkSieveCallback bulkCallback, int[] sievingPrimes, long sievingPrimesLimit) {
+			this.bulkCallback = bulkCallback;
+			sieve.setSievingPrimes(sievingPrimes, sievingPrimesLimit);
+		}
+
+		Block collect(long from, long to) {
+			// enough for most blocks, see [Rosser, Schoenfeld]
+			final double logFrom = Math.log(Math.max(from, 17));
+			primes = new long[(int) ((to - from + 1) / (logFrom - 1.5)) + 64];
+			count = 0;
+			sieve.sieve(from, to);
+			Block block = new Block(primes, count);
+			primes = null;
+			return block;
+		}
+
+		void forward(long from, long to) {
+			primes = null;
+			sieve.sieve(from, to);
+		}
+
+		long count(long from, long to) {
+			return sieve.count(from, to);
+		}
+
+		@Override
+		public void processPrimes(long[] chunk, int chunkCount) {
+			if (primes == null) {
+				bulkCallback.processPrimes(chunk, chunkCount);
+				return;
+			}
+			if (count + chunkCount > primes.length) {
+				primes = Arrays.copyOf(primes, Math.max(primes.length<<1, count + chunkCount));
+			}
+			System.arraycopy(chunk, 0, primes, count, chunkCount);
+			count += chunkCount;
+		}
+	}
+
+	/**
+	 * The block sieves of one sieve() or count() call. A task takes an idle block sieve or creates a new one, and gives it back when it is done.
+	 * Thus there are not more block sieves than tasks running at the same time, and they are released together with this object after the call.
+	 */
+	private static class BlockSieves {
+		private final ConcurrentLinkedQueue<BlockSieve> idleSieves = new ConcurrentLinkedQueue<>();
+		private final BulkSieveCallback bulkCallback;
+		private final int[] sievingPrimes;
+		private final long sievingPrimesLimit;
+
+		BlockSieves(BulkSieveCallback bulkCallback, int[] sievingPrimes, long sievingPrimesLimit) {
+			this.bulkCallback = bulkCallback;
+			this.sievingPrimes = sievingPrimes;
+			this.sievingPrimesLimit = sievingPrimesLimit;
+		}
+
+		private BlockSieve take() {
+			BlockSieve blockSieve = idleSieves.poll();
+			return blockSieve != null ? blockSieve : new BlockSieve(bulkCallback, sievingPrimes, sievingPrimesLimit);
+		}
+
+		Block collect(long from, long to) {
+			BlockSieve blockSieve = take();
+			try {
+				return blockSieve.collect(from, to);
+			} finally {
+				idleSieves.add(blockSieve);
+			}
+		}
+
+		Void forward(long from, long to) {
+			BlockSieve blockSieve = take();
+			try {
+				blockSieve.forward(from, to);
+				return null;
+			} finally {
+				idleSieves.add(blockSieve);
+			}
+		}
+
+		Long count(long from, long to) {
+			BlockSieve blockSieve = take();
+			try {
+				return blockSieve.count(from, to);
+			} finally {
+				idleSieves.add(blockSieve);
+			}
+		}
+	}
+
+	/**
+	 * Constructor for a sieve delivering primes one by one and in ascending order.
+	 * The callback is only called by the thread calling sieve().
+	 * @param callback
+	 * @param numberOfThreads
+	 */
+	public ParallelSegmentedSieve(SieveCallback callback, int numberOfThreads) {
+		this(callback, null, true, new ForkJoinPool(numberOfThreads), true);
+	}
+
+	/**
+	 * Constructor for a sieve delivering primes in chunks.
+	 * @param bulkCallback
+	 * @param ordered if true then the primes are delivered in ascending order by the thread calling sieve();
+	 * otherwise they are delivered concurrently by the worker threads
+	 * @param numberOfThreads
+	 */
+	public ParallelSegmentedSieve(BulkSieveCallback bulkCallback, boolean ordered, int numberOfThreads) {
+		this(null, bulkCallback, ordered, new ForkJoinPool(numberOfThreads), true);
+	}
+
+	/**
+	 * Constructor for a sieve delivering primes in chunks, running its tasks in a pool shared with other work.
+	 * The pool is not shut down by close().
+	 * @param bulkCallback
+	 * @param ordered if true then the primes are delivered in ascending order by the thread calling sieve();
+	 * otherwise they are delivered concurrently by the worker threads
+	 * @param pool
+	 */
+	public ParallelSegmentedSieve(BulkSieveCallback bulkCallback, boolean ordered, ForkJoinPool pool) {
+		this(null, bulkCallback, ordered, pool, false);
+	}
+
+	/**
+	 * Full constructor.
+	 * @param callback
+	 * @param bulkCallback
+	 * @param ordered
+	 * @param pool
+	 * @param ownsPool
+	 */
+	private ParallelSegmentedSieve(SieveCallback callback, BulkSieveCallback bulkCallback, boolean ordered, ForkJoinPool pool, boolean ownsPool) {
+		this.callback = callback;
+		this.bulkCallback = bulkCallback;
+		this.ordered = ordered;
+		this.numberOfThreads = pool.getParallelism();
+		this.pool = pool;
+		this.ownsPool = ownsPool;
+	}
+
+	/**
+	 * Generate all primes p with from &lt;= p &lt;= to and pass them to the callback.
+	 * @param from lower bound (inclusive)
+	 * @param to upper bound (inclusive), at most SegmentedSieve30.MAX_LIMIT
+	 */
+	public void sieve(long from, long to) {
+		from = Math.max(from, 0);
+		if (to < from) return;
+		prepare(to);
+		final long blockSize = blockSize(from, to);
+		final BlockSieves blockSieves = new BlockSieves(bulkCallback, sievingPrimes, sievingPrimesLimit);
+
+		if (!ordered) {
+			ArrayList<ForkJoinTask<Void>> tasks = new ArrayList<>();
+			for (long blockStart = from; blockStart <= to; blockStart += blockSize) {
+				final long s = blockStart;
+				final long e = Math.min(to, blockStart + blockSize - 1);
+				tasks.add(pool.submit(() -> blockSieves.forward(s, e)));
+			}
+			for (ForkJoinTask<Void> task : tasks) task.join();
+			return;
+		}
+
+		// keep some blocks in work while delivering the first one
+		final int maxBlocksInWork = 2*numberOfThreads;
+		ArrayDeque<ForkJoinTask<Block>> tasks = new ArrayDeque<>();
+		long blockStart = from;
+		while (blockStart <= to || !tasks.isEmpty()) {
+			while (tasks.size() < maxBlocksInWork && blockStart <= to) {
+				final long s = blockStart;
+				final long e = Math.min(to, blockStart + blockSize - 1);
+				tasks.add(pool.submit(() -> blockSieves.collect(s, e)));
+				blockStart = e + 1;
+			}
+			Block block = tasks.poll().join();
+			if (block.count == 0) continue;
+			if (bulkCallback != null) {
+				bulkCallback.processPrimes(block.primes, block.count);
+			} else {
+				for (int i=0; i<block.count; i++) callback.processPrime(block.primes[i]);
+			}
+		}
+	}
+
+	/**
+	 * Count the primes p with from &lt;= p &lt;= to. No primes are delivered to the callback.
+	 * @param from lower bound (inclusive)
+	 * @param to upper bound (inclusive), at most SegmentedSieve30.MAX_LIMIT
+	 * @return the number of primes in [from, to]
+	 */
+	public long count(long from, long to) {
+		from = Math.max(from, 0);
+		if (to < from) return 0;
+		prepare(to);
+		final long blockSize = blockSize(from, to);
+		final BlockSieves blockSieves = new BlockSieves(null, sievingPrimes, sievingPrimesLimit);
+
+		ArrayList<ForkJoinTask<Long>> tasks = new ArrayList<>();
+		for (long blockStart = from; blockStart <= to; blockStart += blockSize) {
+			final long s = blockStart;
+			final long e = Math.min(to, blockStart + blockSize - 1);
+			tasks.add(pool.submit(() -> blockSieves.count(s, e)));
+		}
+		long count = 0;
+		for (ForkJoinTask<Long> task : tasks) count += task.join();
+		return count;
+	}
+
+	/**
+	 * Stop the threads of the pool if it was created by this sieve.
+	 */
+	@Override
+	public void close() {
+		if (ownsPool) pool.shutdown();
+	}
+
+	private void prepare(long to) {
+		if (to > SegmentedSieve30.MAX_LIMIT) throw new IllegalArgumentException("Upper bound " + to + " exceeds the maximum supported value " + SegmentedSieve30.MAX_LIMIT);
+		final long sqrtTo = SegmentedSieve30.floorSqrt(to);
+		if (sqrtTo > sievingPrimesLimit) {
+			sievingPrimes = SegmentedSieve30.computeSievingPrimes(sqrtTo);
+			sievingPrimesLimit = sqrtTo;
+		}
+	}
+
+	/**
+	 * @param from
+	 * @param to
+	 * @return the size of blocks, a multiple of the segment size
+	 */
+	private long blockSize(long from, long to) {
+		final long desiredBlockSize = (to - from + 1) / (numberOfThreads * BLOCKS_PER_THREAD);
+		final long segments = Math.max(1, Math.min(MAX_SEGMENTS_PER_BLOCK, (desiredBlockSize + SegmentedSieve30.SEGMENT_SPAN - 1) / SegmentedSieve30.SEGMENT_SPAN));
+		return segments * SegmentedSieve30.SEGMENT_SPAN;
+	}
+
+	/**
+	 * Test performance of counting primes with different numbers of threads.
+	 * @param args ignored
+	 */
+	public static void main(String[] args) {
+		ConfigUtil.initProject();
+		final long from = 1000000000000L;
+		final long to = from + 1000000000L;
+		final int maxThreads = Runtime.getRuntime().availableProcessors();
+		for (int numberOfThreads = 1; numberOfThreads <= maxThreads; numberOfThreads <<= 1) {
+			try (ParallelSegmentedSieve sieve = new ParallelSegmentedSieve(new CountingCallback(), numberOfThreads)) {
+				long start = System.currentTimeMillis();
+				long count = sieve.count(from, to);
+				LOG.info(numberOfThreads + " threads found " + count + " primes in [" + from + ", " + to + "] in " + (System.currentTimeMillis()-start) + "ms");
+			}
+		}
+	}
+}
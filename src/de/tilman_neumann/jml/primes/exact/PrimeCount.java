@@ -0,0 +1,381 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.primes.exact;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.apache.log4j.Logger;
+
+import de.tilman_neumann.jml.primes.bounds.NthPrimeUpperBounds;
+import de.tilman_neumann.jml.primes.bounds.PrimeCountUpperBounds;
+import de.tilman_neumann.util.ConfigUtil;
+
+/**
+ * Exact prime counting function pi(x) and n.th prime p(n), using Meissel's formula
+ *
+ * pi(x) = phi(x, a) + a - 1 - P2(x, a), with a = pi(x^(1/3)) and P2(x, a) = sum_{a < i <= pi(sqrt(x))} (pi(x/p_i) - (i-1)),
+ *
+ * where phi(x, a) counts the numbers <= x having no prime factor among the first a primes.
+ *
+ * phi(x, a) is computed by the recursion phi(x, a) = phi(x, a-1) - phi(x/p_a, a-1), using
+ * <ul>
+ * <li>periodic tables for a &lt;= 6,</li>
+ * <li>phi(x, a) = pi(x) - a + 1 if x &lt; p_(a+1)^2, with pi(x) from a compact table for x &lt;= sqrt(N),</li>
+ * <li>phi(x/p_i, i-1) = 1 if p_i^2 &gt; x,</li>
+ * <li>a cache for small x and a.</li>
+ * </ul>
+ * The top-level terms phi(N/p_i, i-1) are computed in parallel, each thread using its own cache.
+ * The values pi(N/p_i) needed for P2 are obtained in a single pass of the parallel segmented sieve over (sqrt(N), N^(2/3)].
+ *
+ * Instances are thread-safe.
+ *
+ * @author Tilman Neumann
+ */
+public class PrimeCount {
+	private static final Logger LOG = Logger.getLogger(PrimeCount.class);
+	private static final boolean DEBUG = false;
+
+	/** below this bound pi(x) is computed by sieving */
+	private static final long SIEVE_LIMIT = 1000000;
+
+	/** phi(x, a) for a &lt;= TINY_A is computed from periodic tables */
+	private static final int TINY_A = 6;
+	private static final int[] TINY_PRODUCTS = new int[] {1, 2, 6, 30, 210, 2310, 30030};
+	private static final int[] TINY_TOTIENTS = new int[] {1, 1, 2, 8, 48, 480, 5760};
+
+	/** phi(x, a) is cached for x &lt; CACHE_X and a &lt; CACHE_A */
+	private static final int CACHE_X = 1<<16;
+	private static final int CACHE_A = 100;
+
+	/**
+	 * The tables of phi(x, a) for 0 &lt;= x &lt; TINY_PRODUCTS[a], built on first access.
+	 */
+	private static class TinyTables {
+		static final char[][] PHI = new char[TINY_A+1][];
+		static {
+			final int[] primes = new int[] {2, 3, 5, 7, 11, 13};
+			for (int a=0; a<=TINY_A; a++) {
+				final int P = TINY_PRODUCTS[a];
+				char[] phi = new char[P];
+				int count = 0;
+				for (int x=1; x<P; x++) {
+					boolean coprime = true;
+					for (int i=0; i<a; i++) {
+						if (x % primes[i] == 0) {
+							coprime = false;
+							break;
+						}
+					}
+					if (coprime) count++;
+					phi[x] = (char) count;
+				}
+				PHI[a] = phi;
+			}
+		}
+	}
+
+	private final int numberOfThreads;
+
+	/**
+	 * Full constructor.
+	 * @param numberOfThreads the number of threads used to compute pi(x) for big x
+	 */
+	public PrimeCount(int numberOfThreads) {
+		this.numberOfThreads = numberOfThreads;
+	}
+
+	/**
+	 * Compact table of pi(n) for n &lt;= limit: one bit per odd number, plus the prime count before each word.
+	 */
+	private static class PiTable {
+		private final long[] bits;
+		private final int[] counts;
+
+		PiTable(int[] primes, int primeCount, long limit) {
+			final int words = (int) (limit/128 + 1);
+			bits = new long[words];
+			counts = new int[words+1];
+			for (int i=2; i<=primeCount; i++) { // skip 2
+				final int p = primes[i];
+				bits[p>>>7] |= 1L << ((p>>>1) & 63);
+			}
+			for (int w=0; w<words; w++) {
+				counts[w+1] = counts[w] + Long.bitCount(bits[w]);
+			}
+		}
+
+		int pi(long n) {
+			if (n < 2) return 0;
+			final long m = (n-1) | 1; // the biggest odd number <= n
+			final int w = (int) (m>>>7);
+			final int shift = (int) ((m>>>1) & 63);
+			final long mask = shift == 63 ? -1L : (1L << (shift+1)) - 1;
+			return 1 + counts[w] + Long.bitCount(bits[w] & mask);
+		}
+	}
+
+	/**
+	 * The phi(x, a) computation of a single thread, with its own cache.
+	 */
+	private static class Phi {
+		/** primes[i] is the i.th prime, i.e. primes[1] = 2 */
+		private final int[] primes;
+		private final int primeCount;
+		private final PiTable piTable;
+		private final long piLimit;
+		private final char[][] cache = new char[CACHE_A][];
+
+		Phi(int[] primes, int primeCount, PiTable piTable, long piLimit) {
+			this.primes = primes;
+			this.primeCount = primeCount;
+			this.piTable = piTable;
+			this.piLimit = piLimit;
+		}
+
+		long phi(long x, int a) {
+			if (x <= primes[a]) return x >= 1 ? 1 : 0; // only 1 is left
+			if (a <= TINY_A) return phiTiny(x, a);
+			if (x <= piLimit && a < primeCount && x < (long)primes[a+1]*primes[a+1]) {
+				// all numbers in (1, x] not divisible by the first a primes are primes
+				return piTable.pi(x) - a + 1;
+			}
+			final boolean cacheable = x < CACHE_X && a < CACHE_A;
+			if (cacheable && cache[a] != null && cache[a][(int) x] != 0) {
+				return cache[a][(int) x];
+			}
+
+			final long sqrt = SegmentedSieve30.floorSqrt(x);
+			long sum = phiTiny(x, TINY_A);
+			int i = TINY_A + 1;
+			for ( ; i <= a && primes[i] <= sqrt; i++) {
+				sum -= phi(x / primes[i], i-1);
+			}
+			// for p_i > sqrt(x) we have 1 <= x/p_i < p_i, so phi(x/p_i, i-1) = 1
+			sum -= a - i + 1;
+
+			if (cacheable) {
+				if (cache[a] == null) cache[a] = new char[CACHE_X];
+				cache[a][(int) x] = (char) sum;
+			}
+			return sum;
+		}
+	}
+
+	private static long phiTiny(long x, int a) {
+		final int P = TINY_PRODUCTS[a];
+		return (x / P) * TINY_TOTIENTS[a] + TinyTables.PHI[a][(int) (x % P)];
+	}
+
+	/**
+	 * Accumulates P2(x, a) from the primes in (sqrt(x), x/p_(a+1)] streamed in ascending order.
+	 */
+	private static class P2Callback implements BulkSieveCallback {
+		private final long x;
+		private final int[] primes;
+		private final int a;
+		/** the current index i, running from pi(sqrt(x)) down to a+1 */
+		private int i;
+		/** the number of primes found so far, starting with pi(sqrt(x)) */
+		private long count;
+		private long sum = 0;
+
+		P2Callback(long x, int[] primes, int a, int b) {
+			this.x = x;
+			this.primes = primes;
+			this.a = a;
+			this.i = b;
+			this.count = b;
+		}
+
+		@Override
+		public void processPrimes(long[] chunk, int chunkCount) {
+			for (int j=0; j<chunkCount; j++) {
+				final long q = chunk[j];
+				while (i > a && x / primes[i] < q) {
+					sum += count - (i-1);
+					i--;
+				}
+				count++;
+			}
+		}
+
+		long finish() {
+			while (i > a) {
+				sum += count - (i-1);
+				i--;
+			}
+			return sum;
+		}
+	}
+
+	/**
+	 * Compute the number of primes &lt;= x.
+	 * @param x with x &lt; 2^62
+	 * @return pi(x)
+	 */
+	public long pi(long x) {
+		if (x > SegmentedSieve30.MAX_LIMIT) throw new IllegalArgumentException("x = " + x + " exceeds the maximum supported value " + SegmentedSieve30.MAX_LIMIT);
+		if (x < SIEVE_LIMIT) return new SegmentedSieve30(new CountingCallback()).count(0, x);
+
+		final ForkJoinPool pool = new ForkJoinPool(numberOfThreads);
+		try {
+			return pi(x, pool);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Compute the number of primes &lt;= x, running the phi computations and the sieve for P2 in the given pool.
+	 * @param x with SIEVE_LIMIT &lt;= x &lt; 2^62
+	 * @param pool
+	 * @return pi(x)
+	 */
+	private long pi(long x, ForkJoinPool pool) {
+		if (x < SIEVE_LIMIT) return new SegmentedSieve30(new CountingCallback()).count(0, x);
+
+		final long sqrtX = SegmentedSieve30.floorSqrt(x);
+		long y = (long) Math.cbrt(x);
+		while (y*y*y > x) y--;
+		while ((y+1)*(y+1)*(y+1) <= x) y++;
+
+		// primes[i] = i.th prime for 1 <= i <= b = pi(sqrt(x))
+		CollectingCallback collector = new CollectingCallback((int) PrimeCountUpperBounds.combinedUpperBound(sqrtX));
+		new SegmentedSieve(collector).sieve(sqrtX);
+		final int b = collector.count;
+		final int[] primes = new int[b+1];
+		System.arraycopy(collector.array, 0, primes, 1, b);
+		final PiTable piTable = new PiTable(primes, b, sqrtX);
+		final int a = piTable.pi(y);
+
+		// phi(x, a) = phi(x, TINY_A) - sum_{TINY_A < i <= a} phi(x/p_i, i-1); all p_i <= x^(1/3) are <= sqrt(x)
+		final ThreadLocal<Phi> phiEngines = ThreadLocal.withInitial(() -> new Phi(primes, b, piTable, sqrtX));
+		ArrayList<ForkJoinTask<Long>> tasks = new ArrayList<>();
+		for (int i=TINY_A+1; i<=a; i++) {
+			final int index = i;
+			tasks.add(pool.submit(() -> phiEngines.get().phi(x / primes[index], index-1)));
+		}
+
+		// P2(x, a) from a sieve over (sqrt(x), x/p_(a+1)], in the same pool as the phi tasks
+		P2Callback p2Callback = new P2Callback(x, primes, a, b);
+		final long sieveTo = x / primes[a+1];
+		if (numberOfThreads > 1) {
+			new ParallelSegmentedSieve(p2Callback, true, pool).sieve(sqrtX + 1, sieveTo);
+		} else {
+			new SegmentedSieve30(p2Callback).sieve(sqrtX + 1, sieveTo);
+		}
+		final long p2 = p2Callback.finish();
+
+		long phi = phiTiny(x, Math.min(a, TINY_A));
+		for (ForkJoinTask<Long> task : tasks) {
+			phi -= task.join();
+		}
+		if (DEBUG) LOG.debug("x = " + x + ": a = " + a + ", b = " + b + ", phi = " + phi + ", P2 = " + p2);
+		return phi + a - 1 - p2;
+	}
+
+	/**
+	 * Compute the n.th prime, p(1) = 2.
+	 *
+	 * Starting from the upper bound for p(n), the estimate is corrected using pi(x) and the average prime gap
+	 * until it is close to p(n); then a short window is sieved.
+	 *
+	 * @param n
+	 * @return p(n)
+	 */
+	public long nthPrime(long n) {
+		if (n < 1) throw new IllegalArgumentException("n must be positive, but is " + n);
+		long x = NthPrimeUpperBounds.combinedUpperBound(n);
+		long count;
+		// all pi(x) computations share one pool
+		final ForkJoinPool pool = new ForkJoinPool(numberOfThreads);
+		try {
+			count = pi(x, pool);
+			for (int iteration = 0; iteration < 5 && Math.abs(count - n) > 10000; iteration++) {
+				// move by the expected distance, but stay above 1
+				x = Math.max(2, x - (long) ((count - n) * Math.log(x)));
+				count = pi(x, pool);
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		WindowCollector collector = new WindowCollector();
+		SegmentedSieve30 sieve = new SegmentedSieve30(collector);
+		if (count >= n) {
+			// find the (count-n+1).th largest prime <= x
+			long k = count - n + 1;
+			long hi = x;
+			while (true) {
+				final long window = Math.max(1<<16, (long) (2 * k * Math.log(hi)));
+				final long lo = Math.max(0, hi - window + 1);
+				collector.count = 0;
+				sieve.sieve(lo, hi);
+				if (collector.count >= k) return collector.primes[(int) (collector.count - k)];
+				k -= collector.count;
+				hi = lo - 1;
+			}
+		}
+		// find the (n-count).th prime > x
+		long k = n - count;
+		long lo = x + 1;
+		while (true) {
+			final long window = Math.max(1<<16, (long) (2 * k * Math.log(lo)));
+			collector.count = 0;
+			sieve.sieve(lo, lo + window - 1);
+			if (collector.count >= k) return collector.primes[(int) (k - 1)];
+			k -= collector.count;
+			lo += window;
+		}
+	}
+
+	/**
+	 * Collects the primes of a window.
+	 */
+	private static class WindowCollector implements BulkSieveCallback {
+		long[] primes = new long[1024];
+		int count;
+
+		@Override
+		public void processPrimes(long[] chunk, int chunkCount) {
+			if (count + chunkCount > primes.length) {
+				primes = Arrays.copyOf(primes, Math.max(primes.length<<1, count + chunkCount));
+			}
+			System.arraycopy(chunk, 0, primes, count, chunkCount);
+			count += chunkCount;
+		}
+	}
+
+	/**
+	 * Test performance.
+	 * @param args ignored
+	 */
+	public static void main(String[] args) {
+		ConfigUtil.initProject();
+		PrimeCount primeCount = new PrimeCount(ConfigUtil.NUMBER_OF_PROCESSORS);
+		for (long x = 10; x <= 100000000000000L; x *= 10) {
+			long start = System.currentTimeMillis();
+			long pi = primeCount.pi(x);
+			LOG.info("pi(" + x + ") = " + pi + " computed in " + (System.currentTimeMillis()-start) + "ms");
+		}
+		for (long n = 10; n <= 1000000000000L; n *= 100) {
+			long start = System.currentTimeMillis();
+			long p = primeCount.nthPrime(n);
+			LOG.info("p(" + n + ") = " + p + " computed in " + (System.currentTimeMillis()-start) + "ms");
+		}
+	}
+}
@@ -0,0 +1,364 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.primes.exact;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.apache.log4j.Logger;
+
+import de.tilman_neumann.util.ConfigUtil;
+
+/**
+ * A precomputed table of all primes up to some limit, stored in a file that is memory-mapped read-only.
+ * Several JVMs on the same host using the same file share a single copy of it in the page cache.
+ *
+ * File format (big endian):
+ * <ul>
+ * <li>8 bytes magic number "JMLPRIM1"</li>
+ * <li>8 bytes limit; the table contains all primes &lt;= limit</li>
+ * <li>4 bytes block size in bytes, 4 bytes block count</li>
+ * <li>8 bytes total prime count</li>
+ * <li>block count * 8 bytes: the number of primes p &gt;= 7 in all blocks before the given block</li>
+ * <li>limit/30 + 1 bytes mod 30 wheel bitmap: bit j of byte i is set if 30*i + SegmentedSieve30.RESIDUES[j] is prime</li>
+ * </ul>
+ * The bitmap takes 1/30 byte per number. The block index allows pi(x) and getPrime(n) with a bounded amount of bit counting.
+ *
+ * Since a MappedByteBuffer is limited to 2GB, limits up to about 6.4*10^10 are supported.
+ * Instances are immutable and thread-safe.
+ *
+ * @author Tilman Neumann
+ */
+public class PrimeTableFile {
+	private static final Logger LOG = Logger.getLogger(PrimeTableFile.class);
+
+	private static final long MAGIC = 0x4A4D4C5052494D31L; // "JMLPRIM1"
+	private static final int HEADER_SIZE = 32;
+	/** the number of bitmap bytes per index entry */
+	private static final int BLOCK_BYTES = 4096;
+
+	private static final int[] RESIDUES = SegmentedSieve30.RESIDUES;
+	/** BIT_INDEX[r] is the index of residue r in RESIDUES, if r is coprime to 30 */
+	private static final int[] BIT_INDEX = new int[30];
+	/** RESIDUE_MASKS[r] has the bits of all residues &lt;= r set */
+	private static final int[] RESIDUE_MASKS = new int[30];
+	static {
+		for (int j=0; j<8; j++) BIT_INDEX[RESIDUES[j]] = j;
+		for (int r=0; r<30; r++) {
+			int mask = 0;
+			for (int j=0; j<8; j++) {
+				if (RESIDUES[j] <= r) mask |= 1<<j;
+			}
+			RESIDUE_MASKS[r] = mask;
+		}
+	}
+
+	private final MappedByteBuffer buffer;
+	private final long limit;
+	private final int blockCount;
+	private final long primeCount;
+	private final int bitmapOffset;
+
+	/**
+	 * Writes the primes streamed from a sieve as wheel bitmap, counting the primes of each block.
+	 */
+	private static class BitmapWriter implements SieveCallback {
+		private final DataOutputStream out;
+		private final long[] blockCounts;
+		/** the index of the current byte */
+		private long byteIndex = 0;
+		private int currentByte = 0;
+		private long wheelPrimeCount = 0;
+		private IOException exception = null;
+
+		BitmapWriter(DataOutputStream out, int blockCount) {
+			this.out = out;
+			this.blockCounts = new long[blockCount];
+		}
+
+		@Override
+		public void processPrime(long prime) {
+			if (prime < 7 || exception != null) return;
+			try {
+				final long primeByteIndex = prime / 30;
+				while (byteIndex < primeByteIndex) {
+					out.writeByte(currentByte);
+					currentByte = 0;
+					byteIndex++;
+				}
+				currentByte |= 1 << BIT_INDEX[(int) (prime - 30*primeByteIndex)];
+				blockCounts[(int) (byteIndex / BLOCK_BYTES)]++;
+				wheelPrimeCount++;
+			} catch (IOException e) {
+				exception = e;
+			}
+		}
+
+		/**
+		 * Write the remaining bytes up to the given byte count.
+		 * @param byteCount
+		 * @throws IOException
+		 */
+		void finish(long byteCount) throws IOException {
+			if (exception != null) throw exception;
+			while (byteIndex < byteCount) {
+				out.writeByte(currentByte);
+				currentByte = 0;
+				byteIndex++;
+			}
+		}
+	}
+
+	/**
+	 * Compute all primes &lt;= limit and write them to the given file.
+	 * The table is first written to a temporary file in the same directory that is then renamed,
+	 * so that other processes never see a partially written table.
+	 *
+	 * @param file
+	 * @param limit
+	 * @throws IOException
+	 */
+	public static void write(File file, long limit) throws IOException {
+		final long byteCount = limit/30 + 1;
+		final int blockCount = (int) ((byteCount + BLOCK_BYTES - 1) / BLOCK_BYTES);
+		final long fileSize = HEADER_SIZE + 8L*blockCount + byteCount;
+		if (fileSize > Integer.MAX_VALUE) throw new IllegalArgumentException("limit " + limit + " is too big for a memory-mapped prime table");
+
+		File dir = file.getAbsoluteFile().getParentFile();
+		File tmpFile = File.createTempFile(file.getName(), ".tmp", dir);
+		try {
+			BitmapWriter writer;
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1<<16))) {
+				// placeholders for header and index
+				for (long i=0; i<HEADER_SIZE + 8L*blockCount; i++) out.writeByte(0);
+				writer = new BitmapWriter(out, blockCount);
+				new SegmentedSieve30(writer).sieve(7, limit);
+				writer.finish(byteCount);
+			}
+			try (RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw")) {
+				raf.writeLong(MAGIC);
+				raf.writeLong(limit);
+				raf.writeInt(BLOCK_BYTES);
+				raf.writeInt(blockCount);
+				raf.writeLong(writer.wheelPrimeCount + smallPrimeCount(limit));
+				long blockStartCount = 0;
+				for (int b=0; b<blockCount; b++) {
+					raf.writeLong(blockStartCount);
+					blockStartCount += writer.blockCounts[b];
+				}
+			}
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			tmpFile.delete(); // no-op if the file has been moved
+		}
+		LOG.info("Wrote prime table with limit " + limit + " to " + file + " (" + fileSize + " bytes)");
+	}
+
+	/**
+	 * @param x
+	 * @return the number of primes p &lt;= x with p &lt; 7
+	 */
+	private static int smallPrimeCount(long x) {
+		return x >= 5 ? 3 : x >= 3 ? 2 : x >= 2 ? 1 : 0;
+	}
+
+	/**
+	 * Memory-map an existing prime table file read-only.
+	 * @param file
+	 * @return prime table
+	 * @throws IOException if the file can not be read or is not a prime table
+	 */
+	public static PrimeTableFile open(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) throw new IOException(file + " is not a prime table");
+			// the mapping stays valid after the channel has been closed
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new PrimeTableFile(file, buffer);
+		}
+	}
+
+	/**
+	 * Open the given prime table file if it exists and contains all primes &lt;= limit; otherwise (re-)create it.
+	 * Processes racing to create the same file will compute it several times, but always see a complete file.
+	 * @param file
+	 * @param limit
+	 * @return prime table with at least the requested limit
+	 * @throws IOException
+	 */
+	public static PrimeTableFile getOrCreate(File file, long limit) throws IOException {
+		if (file.exists()) {
+			try {
+				PrimeTableFile table = open(file);
+				if (table.getLimit() >= limit) return table;
+			} catch (IOException e) {
+				LOG.warn("Could not open prime table " + file + ": " + e + " -> recreate it");
+			}
+		}
+		write(file, limit);
+		return open(file);
+	}
+
+	private PrimeTableFile(File file, MappedByteBuffer buffer) throws IOException {
+		if (buffer.getLong(0) != MAGIC) throw new IOException(file + " is not a prime table");
+		this.buffer = buffer;
+		this.limit = buffer.getLong(8);
+		final int blockBytes = buffer.getInt(16);
+		this.blockCount = buffer.getInt(20);
+		this.primeCount = buffer.getLong(24);
+		this.bitmapOffset = HEADER_SIZE + 8*blockCount;
+		if (blockBytes != BLOCK_BYTES || bitmapOffset + limit/30 + 1 != buffer.capacity()) {
+			throw new IOException(file + " has an unsupported format or is truncated");
+		}
+	}
+
+	/**
+	 * @return the limit of this table; all primes &lt;= limit are contained
+	 */
+	public long getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @return the number of primes in this table, i.e. pi(limit)
+	 */
+	public long getPrimeCount() {
+		return primeCount;
+	}
+
+	/**
+	 * The number of primes &lt;= x.
+	 * @param x with x &lt;= limit
+	 * @return pi(x)
+	 */
+	public long pi(long x) {
+		if (x > limit) throw new IllegalArgumentException("x = " + x + " exceeds the table limit " + limit);
+		if (x < 7) return smallPrimeCount(x);
+
+		final long byteIndex = x / 30;
+		final int block = (int) (byteIndex / BLOCK_BYTES);
+		long count = blockStartCount(block);
+		int pos = bitmapOffset + block*BLOCK_BYTES;
+		final int end = bitmapOffset + (int) byteIndex;
+		for ( ; pos + 8 <= end; pos += 8) {
+			count += Long.bitCount(buffer.getLong(pos));
+		}
+		for ( ; pos < end; pos++) {
+			count += Integer.bitCount(buffer.get(pos) & 0xFF);
+		}
+		count += Integer.bitCount(buffer.get(end) & RESIDUE_MASKS[(int) (x - 30*byteIndex)]);
+		return 3 + count;
+	}
+
+	/**
+	 * Get the n.th prime, e.g. p[0]=2, like AutoExpandingPrimesArray.
+	 * @param n with n &lt; getPrimeCount()
+	 * @return n.th prime
+	 */
+	public long getPrime(long n) {
+		if (n < 0 || n >= primeCount) throw new IllegalArgumentException("n = " + n + " is out of the table range [0, " + primeCount + ")");
+		if (n < 3) return n==0 ? 2 : n==1 ? 3 : 5;
+		final long m = n - 3; // the index among wheel primes
+
+		// binary search for the last block with blockStartCount(block) <= m
+		int left = 0;
+		int right = blockCount-1;
+		while (left < right) {
+			final int median = (left + right + 1) >>> 1;
+			if (blockStartCount(median) <= m) {
+				left = median;
+			} else {
+				right = median - 1;
+			}
+		}
+		long remaining = m - blockStartCount(left);
+		int pos = bitmapOffset + left*BLOCK_BYTES;
+		while (true) {
+			final int b = buffer.get(pos) & 0xFF;
+			final int c = Integer.bitCount(b);
+			if (remaining < c) {
+				int bits = b;
+				for (int i=0; i<remaining; i++) bits &= bits - 1; // remove lowest set bit
+				return 30L*(pos - bitmapOffset) + RESIDUES[Integer.numberOfTrailingZeros(bits)];
+			}
+			remaining -= c;
+			pos++;
+		}
+	}
+
+	/**
+	 * Pass all primes p with from &lt;= p &lt;= to to the callback, in ascending order.
+	 * @param from
+	 * @param to with to &lt;= limit
+	 * @param callback
+	 */
+	public void getPrimes(long from, long to, SieveCallback callback) {
+		if (to > limit) throw new IllegalArgumentException("to = " + to + " exceeds the table limit " + limit);
+		if (from <= 2 && to >= 2) callback.processPrime(2);
+		if (from <= 3 && to >= 3) callback.processPrime(3);
+		if (from <= 5 && to >= 5) callback.processPrime(5);
+		from = Math.max(from, 7);
+		if (to < from) return;
+
+		final int end = bitmapOffset + (int) (to / 30);
+		for (int pos = bitmapOffset + (int) (from / 30); pos <= end; pos++) {
+			int b = buffer.get(pos) & 0xFF;
+			final long base = 30L*(pos - bitmapOffset);
+			while (b != 0) {
+				final long p = base + RESIDUES[Integer.numberOfTrailingZeros(b)];
+				b &= b - 1;
+				if (p < from) continue;
+				if (p > to) return;
+				callback.processPrime(p);
+			}
+		}
+	}
+
+	private long blockStartCount(int block) {
+		return buffer.getLong(HEADER_SIZE + 8*block);
+	}
+
+	/**
+	 * Create a prime table in the temp directory and compare it with the segmented sieve.
+	 * @param args ignored
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		ConfigUtil.initProject();
+		final long limit = 1000000000L;
+		File file = new File(ConfigUtil.JAVA_TMP_DIR, "primes_" + limit + ".jml");
+		long start = System.currentTimeMillis();
+		PrimeTableFile table = getOrCreate(file, limit);
+		LOG.info("Getting prime table took " + (System.currentTimeMillis()-start) + "ms");
+
+		start = System.currentTimeMillis();
+		CountingCallback callback = new CountingCallback();
+		table.getPrimes(0, limit, callback);
+		LOG.info("Iterating over " + callback.getCount() + " primes took " + (System.currentTimeMillis()-start) + "ms, pi(" + limit + ") = " + table.pi(limit));
+
+		start = System.currentTimeMillis();
+		long sum = 0;
+		for (long n=0; n<table.getPrimeCount(); n+=1000) {
+			sum += table.getPrime(n);
+		}
+		LOG.info("Random access to " + (table.getPrimeCount()/1000) + " primes took " + (System.currentTimeMillis()-start) + "ms (sum = " + sum + ")");
+	}
+}
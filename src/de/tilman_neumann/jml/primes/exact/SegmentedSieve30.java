@@ -0,0 +1,358 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.primes.exact;
+
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+
+import de.tilman_neumann.jml.primes.bounds.PrimeCountUpperBounds;
+import de.tilman_neumann.util.ConfigUtil;
+
+/**
+ * Segmented sieve of Eratosthenes for arbitrary ranges [from, to], using a mod 30 wheel.
+ *
+ * Each byte of the segment stores the 8 numbers coprime to 30 of an interval of 30 numbers, so a segment of 256kB
+ * covers about 7.8 million numbers. The segment buffer, the sieving primes and their next multiples are kept
+ * by the instance and reused; sieving primes are only computed again if a bigger upper bound is requested.
+ *
+ * Primes can be delivered one by one to a SieveCallback, or in chunks to a BulkSieveCallback;
+ * count() only counts the primes without delivering them.
+ *
+ * Instances are not thread-safe.
+ *
+ * @author Tilman Neumann
+ */
+public class SegmentedSieve30 {
+	private static final Logger LOG = Logger.getLogger(SegmentedSieve30.class);
+	private static final boolean DEBUG = false;
+
+	/** the residues mod 30 coprime to 30 */
+	static final int[] RESIDUES = new int[] {1, 7, 11, 13, 17, 19, 23, 29};
+	/** the distances between consecutive residues, RESIDUES[(i+1)&7] - RESIDUES[i] mod 30 */
+	private static final int[] DELTAS = new int[] {6, 4, 2, 4, 2, 4, 6, 2};
+	/** BIT_INDEX[r] is the index of residue r in RESIDUES, or -1 if r is not coprime to 30 */
+	private static final int[] BIT_INDEX = new int[30];
+	/** NEXT_INDEX[r] is the index of the smallest residue >= r; 8 if there is none */
+	private static final int[] NEXT_INDEX = new int[30];
+	static {
+		Arrays.fill(BIT_INDEX, -1);
+		for (int i=0; i<8; i++) BIT_INDEX[RESIDUES[i]] = i;
+		for (int r=0; r<30; r++) {
+			int i = 0;
+			while (i<8 && RESIDUES[i] < r) i++;
+			NEXT_INDEX[r] = i;
+		}
+	}
+
+	private static final int SEGMENT_BYTES = 1<<18;
+	private static final int SEGMENT_WORDS = SEGMENT_BYTES>>3;
+	/** the number of integers covered by a segment */
+	static final int SEGMENT_SPAN = 30*SEGMENT_BYTES;
+	/** the number of primes delivered at once to a BulkSieveCallback */
+	private static final int CHUNK_SIZE = 4096;
+
+	/** The biggest supported upper bound. The sieving primes must be ints. */
+	public static final long MAX_LIMIT = (1L<<62) - 1;
+
+	private final SieveCallback callback;
+	private final BulkSieveCallback bulkCallback;
+	private final long[] chunk;
+	private int chunkCount;
+	/** true if the callback requested to stop the current sieve() call */
+	private boolean stopped;
+
+	/** the segment; set bits mark composites */
+	private final long[] segment = new long[SEGMENT_WORDS];
+
+	/** sieving primes p >= 7 */
+	private int[] sievingPrimes = new int[0];
+	/** all primes p <= sievingPrimesLimit are contained in sievingPrimes */
+	private long sievingPrimesLimit = 0;
+	/** the offset of the next multiple of each sieving prime relative to the current segment start */
+	private long[] nextOffsets = new long[0];
+	/** the wheel index of the cofactor of the next multiple of each sieving prime */
+	private byte[] nextIndices = new byte[0];
+
+	/**
+	 * Constructor for a sieve delivering primes one by one.
+	 * @param callback
+	 */
+	public SegmentedSieve30(SieveCallback callback) {
+		this.callback = callback;
+		this.bulkCallback = null;
+		this.chunk = null;
+	}
+
+	/**
+	 * Constructor for a sieve delivering primes in chunks.
+	 * @param bulkCallback
+	 */
+	public SegmentedSieve30(BulkSieveCallback bulkCallback) {
+		this.callback = null;
+		this.bulkCallback = bulkCallback;
+		this.chunk = new long[CHUNK_SIZE];
+	}
+
+	/**
+	 * Generate all primes p with from &lt;= p &lt;= to in ascending order and pass them to the callback.
+	 * @param from lower bound (inclusive)
+	 * @param to upper bound (inclusive), at most MAX_LIMIT
+	 */
+	public void sieve(long from, long to) {
+		from = Math.max(from, 0);
+		if (to < from) return;
+		checkLimit(to);
+		chunkCount = 0;
+		stopped = false;
+
+		// the small primes not represented in the wheel
+		if (from <= 2 && to >= 2) deliver(2);
+		if (from <= 3 && to >= 3) deliver(3);
+		if (from <= 5 && to >= 5) deliver(5);
+
+		final int primeCount = prepare(from, to);
+		for (long base = from - from%30; base <= to && !stopped; base += SEGMENT_SPAN) {
+			final int words = sieveSegment(base, to, primeCount);
+			collect(base, words, from, to);
+		}
+		if (bulkCallback != null && chunkCount > 0 && !stopped) {
+			bulkCallback.processPrimes(chunk, chunkCount);
+			chunkCount = 0;
+		}
+	}
+
+	/**
+	 * Stop the current sieve() call. To be called by the callback if it does not need more primes;
+	 * then no more primes are delivered.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * Count the primes p with from &lt;= p &lt;= to. No primes are delivered to the callback.
+	 * @param from lower bound (inclusive)
+	 * @param to upper bound (inclusive), at most MAX_LIMIT
+	 * @return the number of primes in [from, to]
+	 */
+	public long count(long from, long to) {
+		from = Math.max(from, 0);
+		if (to < from) return 0;
+		checkLimit(to);
+
+		long count = 0;
+		if (from <= 2 && to >= 2) count++;
+		if (from <= 3 && to >= 3) count++;
+		if (from <= 5 && to >= 5) count++;
+
+		final int primeCount = prepare(from, to);
+		for (long base = from - from%30; base <= to; base += SEGMENT_SPAN) {
+			final int words = sieveSegment(base, to, primeCount);
+			count += countSegment(base, words, from, to);
+		}
+		return count;
+	}
+
+	private static void checkLimit(long to) {
+		if (to > MAX_LIMIT) throw new IllegalArgumentException("Upper bound " + to + " exceeds the maximum supported value " + MAX_LIMIT);
+	}
+
+	/**
+	 * Make sure that all required sieving primes are available and compute their first multiples.
+	 * @param from
+	 * @param to
+	 * @return the number of sieving primes p <= sqrt(to)
+	 */
+	private int prepare(long from, long to) {
+		final long sqrtTo = floorSqrt(to);
+		if (sqrtTo > sievingPrimesLimit) setSievingPrimes(computeSievingPrimes(sqrtTo), sqrtTo);
+
+		// number of sieving primes <= sqrt(to)
+		int primeCount = Arrays.binarySearch(sievingPrimes, (int) Math.min(sqrtTo, Integer.MAX_VALUE));
+		primeCount = primeCount >= 0 ? primeCount + 1 : -primeCount - 1;
+
+		// the first multiples p*k >= max(p^2, base) with k coprime to 30
+		final long base = from - from%30;
+		for (int i=0; i<primeCount; i++) {
+			final long p = sievingPrimes[i];
+			final long start = Math.max(p*p, base);
+			long k = (start + p - 1) / p;
+			final int kMod30 = (int) (k%30);
+			int index = NEXT_INDEX[kMod30];
+			if (index == 8) {
+				k += 31 - kMod30; // residue 1 of the next block
+				index = 0;
+			} else {
+				k += RESIDUES[index] - kMod30;
+			}
+			nextOffsets[i] = p*k - base;
+			nextIndices[i] = (byte) index;
+		}
+		return primeCount;
+	}
+
+	/**
+	 * @param n non-negative
+	 * @return floor(sqrt(n))
+	 */
+	static long floorSqrt(long n) {
+		long sqrt = (long) Math.sqrt(n);
+		while (sqrt*sqrt > n) sqrt--;
+		while ((sqrt+1)*(sqrt+1) <= n) sqrt++;
+		return sqrt;
+	}
+
+	/**
+	 * Compute all primes 7 &lt;= p &lt;= limit.
+	 * @param limit
+	 * @return sieving primes
+	 */
+	static int[] computeSievingPrimes(long limit) {
+		if (limit < 7) return new int[0];
+		CollectingCallback collector = new CollectingCallback((int) PrimeCountUpperBounds.combinedUpperBound(limit));
+		new SegmentedSieve(collector).sieve(limit);
+		// skip 2, 3, 5
+		final int count = Math.max(0, collector.count - 3);
+		int[] primes = new int[count];
+		System.arraycopy(collector.array, 3, primes, 0, count);
+		if (DEBUG) LOG.debug("Computed " + count + " sieving primes up to " + limit);
+		return primes;
+	}
+
+	/**
+	 * Set the sieving primes, allowing several sieves to share them. The array is not modified.
+	 * @param primes all primes 7 &lt;= p &lt;= limit, as computed by computeSievingPrimes(limit)
+	 * @param limit
+	 */
+	void setSievingPrimes(int[] primes, long limit) {
+		sievingPrimes = primes;
+		sievingPrimesLimit = limit;
+		nextOffsets = new long[primes.length];
+		nextIndices = new byte[primes.length];
+	}
+
+	/**
+	 * Mark the composites in the segment starting at base.
+	 * @param base segment start, a multiple of 30
+	 * @param to upper bound
+	 * @param primeCount number of sieving primes to use
+	 * @return the number of segment words in use
+	 */
+	private int sieveSegment(long base, long to, int primeCount) {
+		final long[] segment = this.segment;
+		final long span = Math.min(SEGMENT_SPAN, to - base + 1);
+		final int words = (int) ((span + 239) / 240);
+		final int spanInt = words * 240;
+		Arrays.fill(segment, 0, words, 0L);
+
+		final int[] primes = sievingPrimes;
+		final long[] offsets = nextOffsets;
+		final byte[] indices = nextIndices;
+		for (int i=0; i<primeCount; i++) {
+			long offset = offsets[i];
+			if (offset >= spanInt) {
+				offsets[i] = offset - SEGMENT_SPAN;
+				continue;
+			}
+			final long p = primes[i];
+			int index = indices[i];
+			// off may exceed the int range after the last step if p is big
+			long off = offset;
+			while (off < spanInt) {
+				final int intOff = (int) off;
+				final int byteIndex = intOff / 30;
+				final int bit = ((byteIndex&7)<<3) + BIT_INDEX[intOff - 30*byteIndex];
+				segment[byteIndex>>>3] |= 1L << bit;
+				off += p * DELTAS[index];
+				index = (index+1) & 7;
+			}
+			offsets[i] = off - SEGMENT_SPAN;
+			indices[i] = (byte) index;
+		}
+		if (base == 0) segment[0] |= 1L; // 1 is not prime
+		return words;
+	}
+
+	/**
+	 * Deliver the primes of the current segment that lie in [from, to].
+	 */
+	private void collect(long base, int words, long from, long to) {
+		final long[] segment = this.segment;
+		for (int w=0; w<words; w++) {
+			long primeBits = ~segment[w];
+			final long wordBase = base + 240L*w;
+			while (primeBits != 0) {
+				final int bit = Long.numberOfTrailingZeros(primeBits);
+				primeBits &= primeBits - 1;
+				final long n = wordBase + 30*(bit>>>3) + RESIDUES[bit&7];
+				if (n < from) continue;
+				if (n > to) return;
+				deliver(n);
+				if (stopped) return;
+			}
+		}
+	}
+
+	/**
+	 * Count the primes of the current segment that lie in [from, to].
+	 */
+	private long countSegment(long base, int words, long from, long to) {
+		final long[] segment = this.segment;
+		long count = 0;
+		for (int w=0; w<words; w++) {
+			final long wordBase = base + 240L*w;
+			if (wordBase >= from && wordBase + 239 <= to) {
+				count += Long.bitCount(~segment[w]);
+				continue;
+			}
+			// border word
+			long primeBits = ~segment[w];
+			while (primeBits != 0) {
+				final int bit = Long.numberOfTrailingZeros(primeBits);
+				primeBits &= primeBits - 1;
+				final long n = wordBase + 30*(bit>>>3) + RESIDUES[bit&7];
+				if (n >= from && n <= to) count++;
+			}
+		}
+		return count;
+	}
+
+	private void deliver(long prime) {
+		if (bulkCallback == null) {
+			callback.processPrime(prime);
+			return;
+		}
+		chunk[chunkCount++] = prime;
+		if (chunkCount == CHUNK_SIZE) {
+			bulkCallback.processPrimes(chunk, CHUNK_SIZE);
+			chunkCount = 0;
+		}
+	}
+
+	/**
+	 * Test performance of counting primes in some windows.
+	 * @param args ignored
+	 */
+	public static void main(String[] args) {
+		ConfigUtil.initProject();
+		SegmentedSieve30 sieve = new SegmentedSieve30(new CountingCallback());
+		for (long from = 1000000000L; from <= 1000000000000000L; from *= 1000) {
+			final long to = from + 100000000;
+			long start = System.currentTimeMillis();
+			long count = sieve.count(from, to);
+			LOG.info("There are " + count + " primes in [" + from + ", " + to + "], computed in " + (System.currentTimeMillis()-start) + "ms");
+		}
+	}
+}
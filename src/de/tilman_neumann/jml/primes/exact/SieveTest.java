@@ -13,9 +13,13 @@
  */
 package de.tilman_neumann.jml.primes.exact;
 
+import java.util.Arrays;
+import java.util.Random;
+
 import org.apache.log4j.Logger;
 
 import de.tilman_neumann.jml.primes.bounds.NthPrimeUpperBounds;
+import de.tilman_neumann.jml.primes.bounds.PrimeCountUpperBounds;
 import de.tilman_neumann.util.ConfigUtil;
 
 import static org.junit.Assert.*;
@@ -61,6 +65,89 @@ public class SieveTest {
 		}
 	}
 	
+	/**
+	 * Compare the primes in some ranges found by SegmentedSieve30 with the ones found by SimpleSieve.
+	 * @param limit the upper bound of the ranges
+	 */
+	private static void testRangeCorrectness(int limit) {
+		LOG.info("Test correctness of ranges up to " + limit + "...");
+		CollectingCallback correctCallback = new CollectingCallback((int) PrimeCountUpperBounds.combinedUpperBound(limit));
+		new SimpleSieve(correctCallback).sieve(limit);
+		int[] correctResult = correctCallback.array;
+		int correctCount = correctCallback.count;
+
+		final int[] rangeCount = new int[1];
+		final long[] rangeResult = new long[correctCount];
+		SegmentedSieve30 rangeSieve = new SegmentedSieve30(new BulkSieveCallback() {
+			@Override
+			public void processPrimes(long[] primes, int count) {
+				System.arraycopy(primes, 0, rangeResult, rangeCount[0], count);
+				rangeCount[0] += count;
+			}
+		});
+		Random rng = new Random();
+		for (int i=0; i<1000; i++) {
+			int from = i<10 ? i : rng.nextInt(limit);
+			int to = i<10 ? limit - i : from + rng.nextInt(Math.min(limit - from + 1, i%2==0 ? 10000000 : 1000));
+			rangeCount[0] = 0;
+			rangeSieve.sieve(from, to);
+			int first = Arrays.binarySearch(correctResult, 0, correctCount, from);
+			if (first < 0) first = -first - 1;
+			int last = Arrays.binarySearch(correctResult, 0, correctCount, to);
+			last = last < 0 ? -last - 2 : last;
+			assertEquals(last - first + 1, rangeCount[0]);
+			assertEquals(last - first + 1, rangeSieve.count(from, to));
+			for (int j=0; j<rangeCount[0]; j++) {
+				assertEquals(correctResult[first+j], rangeResult[j]);
+			}
+		}
+
+		LOG.info("Test correctness of parallel sieve up to " + limit + "...");
+		ParallelSegmentedSieve orderedSieve = new ParallelSegmentedSieve(new BulkSieveCallback() {
+			@Override
+			public void processPrimes(long[] primes, int count) {
+				System.arraycopy(primes, 0, rangeResult, rangeCount[0], count);
+				rangeCount[0] += count;
+			}
+		}, true, 3);
+		final long[] unorderedSum = new long[2]; // count, sum
+		ParallelSegmentedSieve unorderedSieve = new ParallelSegmentedSieve(new BulkSieveCallback() {
+			@Override
+			public void processPrimes(long[] primes, int count) {
+				long sum = 0;
+				for (int j=0; j<count; j++) sum += primes[j];
+				synchronized (unorderedSum) {
+					unorderedSum[0] += count;
+					unorderedSum[1] += sum;
+				}
+			}
+		}, false, 3);
+		for (int i=0; i<20; i++) {
+			int from = i<2 ? i : rng.nextInt(limit);
+			int to = i<2 ? limit - i : from + rng.nextInt(limit - from + 1);
+			int first = Arrays.binarySearch(correctResult, 0, correctCount, from);
+			if (first < 0) first = -first - 1;
+			int last = Arrays.binarySearch(correctResult, 0, correctCount, to);
+			last = last < 0 ? -last - 2 : last;
+			long correctSum = 0;
+			for (int j=first; j<=last; j++) correctSum += correctResult[j];
+
+			rangeCount[0] = 0;
+			orderedSieve.sieve(from, to);
+			assertEquals(last - first + 1, rangeCount[0]);
+			for (int j=0; j<rangeCount[0]; j++) {
+				assertEquals(correctResult[first+j], rangeResult[j]);
+			}
+			unorderedSum[0] = unorderedSum[1] = 0;
+			unorderedSieve.sieve(from, to);
+			assertEquals(last - first + 1, unorderedSum[0]);
+			assertEquals(correctSum, unorderedSum[1]);
+			assertEquals(last - first + 1, unorderedSieve.count(from, to));
+		}
+		orderedSieve.close();
+		unorderedSieve.close();
+	}
+
 	private static void testPerformance() {
 		for (long count=100; ; count*=10) {
 			long start;
@@ -95,6 +182,21 @@ public class SieveTest {
 	    	start = System.currentTimeMillis();
 			segmentedSieve.sieve(nthPrimeUpperBound);
 			LOG.info("SegementedSieve took " + (System.currentTimeMillis()-start) + "ms to identify the first " + count + " primes.");
+
+			// Test mod 30 wheel range sieve
+			callback = new CountingCallback();
+			SegmentedSieve30 rangeSieve = new SegmentedSieve30(callback);
+			start = System.currentTimeMillis();
+			rangeSieve.sieve(0, nthPrimeUpperBound);
+			LOG.info("SegmentedSieve30 took " + (System.currentTimeMillis()-start) + "ms to identify the first " + count + " primes.");
+
+			// Test parallel range sieve
+			callback = new CountingCallback();
+			try (ParallelSegmentedSieve parallelSieve = new ParallelSegmentedSieve(callback, Runtime.getRuntime().availableProcessors())) {
+				start = System.currentTimeMillis();
+				parallelSieve.sieve(0, nthPrimeUpperBound);
+			}
+			LOG.info("ParallelSegmentedSieve took " + (System.currentTimeMillis()-start) + "ms to identify the first " + count + " primes.");
 		}
 	}
 	
@@ -105,6 +207,7 @@ public class SieveTest {
 	public static void main(String[] args) {
     	ConfigUtil.initProject();
     	testCorrectness(10000000); // 100m is quite slow but feasible; but array-storing algorithms will fail soon above that
+    	testRangeCorrectness(100000000);
     	testPerformance();
 	}
 }
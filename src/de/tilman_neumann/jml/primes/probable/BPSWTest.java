@@ -42,9 +42,10 @@ public class BPSWTest {
 	//private TDivPrimeTest tdiv = new TDivPrimeTest();
 	private MillerRabinTest millerRabinTest = new MillerRabinTest();
 	private LucasTest lucasTest = new LucasTest();
+	private BPSWTest64 bpsw64 = new BPSWTest64();
 
     public boolean isProbablePrime(long N) {
-    	return isProbablePrime(BigInteger.valueOf(N)); // TODO: faster implementation for long?
+    	return bpsw64.isPrime(N); // deterministic
     }
 
     public boolean isProbablePrime(BigInteger N) {
@@ -55,6 +56,10 @@ public class BPSWTest {
         if (N.bitLength() < 32) {
         	return TDivPrimeTest.getInstance().isPrime(N.intValue());
         }
+        // For N<64 bit, the long implementation is much faster and deterministic
+        if (N.bitLength() < 64) {
+        	return bpsw64.isPrime(N.longValue());
+        }
         
 		// Test residues % 30030. Note that N<30030 have been exclude by trial division above.
 		if (!primeRestsMod30030.contains(N.mod(BIG_30030).intValue())) return false;
@@ -0,0 +1,255 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.primes.probable;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+import org.apache.log4j.Logger;
+
+import de.tilman_neumann.jml.modular.JacobiSymbol;
+import de.tilman_neumann.util.ConfigUtil;
+
+/**
+ * BPSW test for long arguments: A strong probable prime test to base 2 followed by a strong Lucas test with
+ * Selfridge's parameters P=1, D in 5, -7, 9, -11, ..., Q=(1-D)/4, like BPSWTest but without any BigInteger arithmetic.
+ *
+ * All modular multiplications are done in Montgomery form with R=2^64, using Math.multiplyHigh() like PollardRhoBrentMontgomery64.
+ *
+ * Since there are no BPSW pseudoprimes below 2^64 [Feitsma, Galway], the result is a proven one for all long arguments.
+ * This class is stateless and thus thread-safe.
+ *
+ * @author Tilman Neumann
+ */
+public class BPSWTest64 {
+	private static final Logger LOG = Logger.getLogger(BPSWTest64.class);
+
+	/** odd primes used for trial division before the BPSW test */
+	static final int[] SMALL_PRIMES = new int[] {3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37, 41, 43, 47, 53, 59, 61, 67, 71, 73, 79, 83, 89, 97};
+	/** arguments below this bound having no factor in SMALL_PRIMES are prime */
+	static final long SMALL_PRIMES_SQUARE_BOUND = 101L*101L;
+
+	private final JacobiSymbol jacobiEngine = new JacobiSymbol();
+
+	/**
+	 * Deterministic prime test.
+	 * @param N the sign is ignored
+	 * @return true if N is prime, false if it is composite
+	 */
+	public boolean isPrime(long N) {
+		if (N < 0) {
+			if (N == Long.MIN_VALUE) return false; // 2^63
+			N = -N;
+		}
+		if ((N&1)==0) return N==2;
+		if (N < 3) return false; // N=1
+
+		for (int p : SMALL_PRIMES) {
+			if (N % p == 0) return N==p;
+		}
+		if (N < SMALL_PRIMES_SQUARE_BOUND) return true;
+
+		final long minusNInv = -inverse(N);
+		// one = R mod N = 2^64 mod N. Note that -N as unsigned long is 2^64 - N.
+		final long one = Long.remainderUnsigned(-N, N);
+
+		return isStrongProbablePrimeBase2(N, minusNInv, one) && isStrongLucasProbablePrime(N, minusNInv, one);
+	}
+
+	/**
+	 * Strong probable prime test to base 2.
+	 * @param N odd, >= 3
+	 * @param minusNInv -1/N mod 2^64
+	 * @param one R mod N
+	 * @return true if N is a strong probable prime to base 2
+	 */
+	private static boolean isStrongProbablePrimeBase2(long N, long minusNInv, long one) {
+		final long minusOne = N - one;
+		final long NMinus1 = N - 1;
+		final int s = Long.numberOfTrailingZeros(NMinus1);
+		final long d = NMinus1 >>> s;
+
+		// x = 2^d in Montgomery form, left-to-right binary exponentiation
+		final long two = addMod(one, one, N);
+		long x = two;
+		for (int i = 62 - Long.numberOfLeadingZeros(d); i >= 0; i--) {
+			x = montMul(x, x, N, minusNInv);
+			if (((d>>>i) & 1) != 0) x = addMod(x, x, N); // multiplication by 2 is a modular addition
+		}
+		if (x == one || x == minusOne) return true;
+		for (int r=1; r<s; r++) {
+			x = montMul(x, x, N, minusNInv);
+			if (x == minusOne) return true;
+			if (x == one) return false; // non-trivial square root of 1
+		}
+		return false;
+	}
+
+	/**
+	 * Strong Lucas probable prime test, see LucasTest.isStrongProbablePrime(BigInteger).
+	 * @param N odd, not divisible by 3
+	 * @param minusNInv -1/N mod 2^64
+	 * @param one R mod N
+	 * @return true if N is a strong Lucas probable prime
+	 */
+	private boolean isStrongLucasProbablePrime(long N, long minusNInv, long one) {
+		// We will never find a D with Jacobi(D|N) == -1 if N is a perfect square -> do square-test before.
+		long sqrt = (long) Math.sqrt(N);
+		// floor(sqrt(2^63-1)) = 3037000499; larger values would overflow when squared
+		while (sqrt > 3037000499L || sqrt*sqrt > N) sqrt--;
+		while (sqrt < 3037000499L && (sqrt+1)*(sqrt+1) <= N) sqrt++;
+		if (sqrt*sqrt == N) return false;
+
+		// get first D with Jacobi(D|N) == -1
+		int D = 5;
+		while (true) {
+			int jacobi = jacobiEngine.jacobiSymbol((long) D, N);
+			if (jacobi == -1) break;
+			if (jacobi == 0 && Math.abs(D) < N) return false; // D and N have a common factor
+			D = D>0 ? -D-2 : -D+2;
+		}
+		// D in Montgomery form: |D|*R mod N, computed by additions since |D| is small
+		long Dm = 0;
+		final int absD = Math.abs(D);
+		for (int i=0; i<absD; i++) Dm = addMod(Dm, one, N);
+		if (D < 0) Dm = Dm==0 ? 0 : N - Dm;
+
+		// delta(N) = N - Jacobi(D|N) = N+1 = d*2^s, d odd. N < 2^63, so N+1 is positive
+		final long delta = N + 1;
+		final int s = Long.numberOfTrailingZeros(delta);
+		final long d = delta >>> s;
+
+		// run Lucas sequence until we find U_d
+		long U = one;
+		long V = one;
+		for (int i = 62 - Long.numberOfLeadingZeros(d); i >= 0; i--) {
+			// double indices: U_2k = U_k * V_k, V_2k = (V_k^2 + D*U_k^2) / 2
+			final long U2 = montMul(U, V, N, minusNInv);
+			final long UU = montMul(U, U, N, minusNInv);
+			final long V2 = half(addMod(montMul(V, V, N, minusNInv), montMul(Dm, UU, N, minusNInv), N), N);
+			if (((d>>>i) & 1) != 0) {
+				// increment indices: U_(2k+1) = (U_2k + V_2k) / 2, V_(2k+1) = (D*U_2k + V_2k) / 2
+				U = half(addMod(U2, V2, N), N);
+				V = half(addMod(montMul(Dm, U2, N, minusNInv), V2, N), N);
+			} else {
+				U = U2;
+				V = V2;
+			}
+		}
+		// If U_d == 0 (mod N) or V_d == 0 (mod N) then N is a strong Lucas probable prime
+		if (U == 0 || V == 0) return true;
+
+		// test V_(d*2^r) == 0 (mod N) for 0<r<s
+		for (int r=1; r<s; r++) {
+			final long UU = montMul(U, U, N, minusNInv);
+			final long V2 = half(addMod(montMul(V, V, N, minusNInv), montMul(Dm, UU, N, minusNInv), N), N);
+			U = montMul(U, V, N, minusNInv);
+			V = V2;
+			if (V == 0) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Montgomery multiplication for N < 2^63.
+	 * @param a in [0, N)
+	 * @param b in [0, N)
+	 * @param N odd modulus
+	 * @param minusNInv -1/N mod 2^64
+	 * @return a*b/R mod N
+	 */
+	static long montMul(long a, long b, long N, long minusNInv) {
+		final long lo = a * b;
+		final long hi = Math.multiplyHigh(a, b); // a, b are non-negative
+		final long m = lo * minusNInv;
+		// the high word of m*N, with m unsigned and N positive
+		final long mNHi = Math.multiplyHigh(m, N) + ((m>>63) & N);
+		// lo + low word of m*N is 0 mod 2^64, with a carry iff lo != 0. The result is < 2N < 2^64.
+		final long r = hi + mNHi + (lo != 0 ? 1 : 0);
+		return (r+Long.MIN_VALUE >= N+Long.MIN_VALUE) ? r - N : r;
+	}
+
+	/**
+	 * @param a in [0, N)
+	 * @param b in [0, N)
+	 * @param N < 2^63
+	 * @return (a+b) mod N
+	 */
+	static long addMod(long a, long b, long N) {
+		final long s = a + b; // < 2^64 as unsigned
+		return (s+Long.MIN_VALUE >= N+Long.MIN_VALUE) ? s - N : s;
+	}
+
+	/**
+	 * @param a in [0, N)
+	 * @param N odd
+	 * @return a/2 mod N
+	 */
+	private static long half(long a, long N) {
+		return ((a&1)==0) ? a>>>1 : (a+N)>>>1; // a+N < 2^64 as unsigned
+	}
+
+	/**
+	 * @param N odd
+	 * @return 1/N mod 2^64
+	 */
+	static long inverse(long N) {
+		// Newton iteration; each step doubles the number of correct bits
+		long x = N; // correct mod 2^3 because N is odd
+		for (int i=0; i<5; i++) {
+			x *= 2 - N * x;
+		}
+		return x;
+	}
+
+	/**
+	 * Compare results and performance with BPSWTest.
+	 * @param args ignored
+	 */
+	public static void main(String[] args) {
+		ConfigUtil.initProject();
+		SecureRandom rng = new SecureRandom();
+		BPSWTest bpsw = new BPSWTest();
+		BPSWTest64 bpsw64 = new BPSWTest64();
+		final int count = 100000;
+		for (int bits = 20; bits <= 63; bits += 43/4) {
+			long[] testNumbers = new long[count];
+			for (int i=0; i<count; i++) {
+				testNumbers[i] = new BigInteger(bits, rng).longValue() | 1;
+			}
+			long t0 = System.currentTimeMillis();
+			int primeCount = 0;
+			for (long N : testNumbers) {
+				if (bpsw.isProbablePrime(BigInteger.valueOf(N))) primeCount++;
+			}
+			long t1 = System.currentTimeMillis();
+			int primeCount64 = 0;
+			for (long N : testNumbers) {
+				if (bpsw64.isPrime(N)) primeCount64++;
+			}
+			long t2 = System.currentTimeMillis();
+			for (long N : testNumbers) {
+				if (bpsw.isProbablePrime(BigInteger.valueOf(N)) != bpsw64.isPrime(N)) LOG.error("Results differ for N = " + N);
+			}
+			LOG.info(bits + " bit: BPSWTest found " + primeCount + " primes in " + (t1-t0) + "ms, BPSWTest64 found " + primeCount64 + " primes in " + (t2-t1) + "ms");
+		}
+
+		// arguments close to 2^63, where squaring the square root candidate would overflow
+		for (long N = Long.MAX_VALUE; N > Long.MAX_VALUE - 1000; N -= 2) {
+			if (bpsw.isProbablePrime(BigInteger.valueOf(N)) != bpsw64.isPrime(N)) LOG.error("Results differ for N = " + N);
+		}
+		if (!bpsw64.isPrime(9223372036854775783L)) LOG.error("BPSWTest64 failed to identify 9223372036854775783 as prime");
+		if (bpsw64.isPrime(3037000493L*3037000493L)) LOG.error("BPSWTest64 failed to identify 3037000493^2 as composite");
+	}
+}
@@ -0,0 +1,266 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.primes.probable;
+
+import static de.tilman_neumann.jml.base.BigIntConstants.*;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntPredicate;
+
+import org.apache.log4j.Logger;
+
+import de.tilman_neumann.jml.primes.exact.AutoExpandingPrimesArray;
+import de.tilman_neumann.util.ConfigUtil;
+
+/**
+ * Tests many prime candidates at once with the BPSW test, returning a BitSet of the results.
+ *
+ * Candidates are pre-filtered before running BPSW:
+ * <ul>
+ * <li>Arrays of BigIntegers are checked for small prime factors using shared products of the small primes:
+ * The remainder of a candidate modulo each product &lt; 2^31 is computed by int arithmetic on the words of the candidate,
+ * then the primes of the product are checked on that remainder.</li>
+ * <li>Arithmetic progressions start + i*step are sieved by small primes. That needs only one residue computation
+ * of start per prime, then int arithmetic.</li>
+ * </ul>
+ * The surviving candidates are tested in parallel in a ForkJoinPool, each thread using its own BPSWTest.
+ * Each task returns the indices of the probable primes in its chunk, and these are set in a single result BitSet.
+ *
+ * Instances are thread-safe. close() must be called to stop the pool threads when the instance is no longer needed.
+ *
+ * @author Tilman Neumann
+ */
+public class BatchPrimeTest implements AutoCloseable {
+	private static final Logger LOG = Logger.getLogger(BatchPrimeTest.class);
+
+	/** the odd primes &lt; SMALL_FACTOR_BOUND are used to pre-filter arrays of candidates */
+	private static final int SMALL_FACTOR_BOUND = 2048;
+	/** the primes &lt; SIEVE_PRIME_BOUND are used to sieve progressions */
+	private static final int SIEVE_PRIME_BOUND = 4096;
+	/** the minimum number of BigInteger candidates per task */
+	private static final int MIN_CHUNK_SIZE = 16;
+	/** the minimum number of long candidates per task */
+	private static final int MIN_LONG_CHUNK_SIZE = 256;
+	/** the desired number of tasks per thread, for load balancing */
+	private static final int TASKS_PER_THREAD = 8;
+
+	/** products of consecutive odd primes &lt; SMALL_FACTOR_BOUND, each &lt; 2^31 */
+	private final int[] groupProducts;
+	/** the primes of each product */
+	private final int[][] groupPrimes;
+	private final ProgressionSieve progressionSieve;
+	private final int numberOfThreads;
+	private final ForkJoinPool pool;
+	private final ThreadLocal<BPSWTest> bpswTests = ThreadLocal.withInitial(BPSWTest::new);
+
+	/**
+	 * Full constructor.
+	 * @param numberOfThreads the number of threads running BPSW tests
+	 */
+	public BatchPrimeTest(int numberOfThreads) {
+		AutoExpandingPrimesArray primesArray = AutoExpandingPrimesArray.get().ensureLimit(SMALL_FACTOR_BOUND);
+		ArrayList<Integer> products = new ArrayList<>();
+		ArrayList<int[]> groups = new ArrayList<>();
+		int[] group = new int[16];
+		int groupSize = 0;
+		long product = 1;
+		for (int i=1; primesArray.getPrime(i) < SMALL_FACTOR_BOUND; i++) { // skip 2
+			final int p = primesArray.getPrime(i);
+			if (product * p > Integer.MAX_VALUE) {
+				products.add((int) product);
+				groups.add(Arrays.copyOf(group, groupSize));
+				groupSize = 0;
+				product = 1;
+			}
+			group[groupSize++] = p;
+			product *= p;
+		}
+		products.add((int) product);
+		groups.add(Arrays.copyOf(group, groupSize));
+		groupProducts = new int[products.size()];
+		for (int g=0; g<groupProducts.length; g++) groupProducts[g] = products.get(g);
+		groupPrimes = groups.toArray(new int[groups.size()][]);
+		progressionSieve = new ProgressionSieve(SIEVE_PRIME_BOUND);
+		this.numberOfThreads = numberOfThreads;
+		pool = new ForkJoinPool(numberOfThreads);
+	}
+
+	/**
+	 * Test an array of candidates.
+	 * @param candidates the signs are ignored
+	 * @return BitSet with bit i set if candidates[i] is a probable prime
+	 */
+	public BitSet isProbablePrime(BigInteger[] candidates) {
+		return testInParallel(candidates.length, MIN_CHUNK_SIZE, null, i -> {
+			final BigInteger N = candidates[i].abs();
+			// candidates bigger than the small primes having a small factor are composite
+			if (N.bitLength() > 32 && (!N.testBit(0) || hasSmallFactor(N))) return false;
+			return bpswTests.get().isProbablePrime(N);
+		});
+	}
+
+	/**
+	 * @param N non-negative
+	 * @return true if N is divisible by some odd prime &lt; SMALL_FACTOR_BOUND
+	 */
+	private boolean hasSmallFactor(BigInteger N) {
+		final long[] words = ProgressionSieve.words(N);
+		for (int g=0; g<groupProducts.length; g++) {
+			final int r = ProgressionSieve.mod(words, groupProducts[g]);
+			for (int p : groupPrimes[g]) {
+				if (r % p == 0) return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Test an array of long candidates. The results are exact.
+	 * @param candidates the signs are ignored
+	 * @return BitSet with bit i set if candidates[i] is prime
+	 */
+	public BitSet isProbablePrime(long[] candidates) {
+		return testInParallel(candidates.length, MIN_LONG_CHUNK_SIZE, null, i -> bpswTests.get().isProbablePrime(candidates[i]));
+	}
+
+	/**
+	 * Test the arithmetic progression start + i*step, i = 0, 1, ..., count-1.
+	 * @param start non-negative
+	 * @param step positive
+	 * @param count
+	 * @return BitSet with bit i set if start + i*step is a probable prime
+	 */
+	public BitSet testProgression(BigInteger start, int step, int count) {
+		if (start.signum() < 0 || step <= 0) throw new IllegalArgumentException("start must be non-negative and step positive, but start = " + start + ", step = " + step);
+		final long[] composite = new long[(count+63)>>6];
+		final int[] residues = progressionSieve.residues(start);
+		progressionSieve.sieve(residues, start.bitLength() < 32 ? start.longValue() : -1, step, count, composite);
+		return testSurvivors(start, step, count, composite);
+	}
+
+	/**
+	 * Test the elements of a progression that have not been marked as composite.
+	 * @param start
+	 * @param step
+	 * @param count
+	 * @param composite
+	 * @return BitSet with bit i set if start + i*step is a probable prime
+	 */
+	private BitSet testSurvivors(BigInteger start, int step, int count, long[] composite) {
+		final BigInteger bigStep = BigInteger.valueOf(step);
+		final int[] survivors = new int[count];
+		int survivorCount = 0;
+		for (int i=0; i<count; i++) {
+			if ((composite[i>>>6] & (1L << i)) == 0) survivors[survivorCount++] = i;
+		}
+		return testInParallel(survivorCount, MIN_CHUNK_SIZE, survivors, j -> bpswTests.get().isProbablePrime(start.add(bigStep.multiply(BigInteger.valueOf(survivors[j])))));
+	}
+
+	/**
+	 * Run a test on the indices 0, 1, ..., count-1 in parallel tasks, each task testing a chunk of consecutive indices.
+	 * @param count the number of indices
+	 * @param minChunkSize the minimum number of indices per task
+	 * @param resultIndices maps the tested indices to the result bits, or null if the result bits are the tested indices
+	 * @param test the test, called by the pool threads
+	 * @return BitSet with the result bits of the indices that passed the test
+	 */
+	private BitSet testInParallel(int count, int minChunkSize, int[] resultIndices, IntPredicate test) {
+		final int chunkSize = Math.max(minChunkSize, (count + TASKS_PER_THREAD*numberOfThreads - 1) / (TASKS_PER_THREAD*numberOfThreads));
+		ArrayList<ForkJoinTask<int[]>> tasks = new ArrayList<>();
+		for (int chunkStart = 0; chunkStart < count; chunkStart += chunkSize) {
+			final int s = chunkStart;
+			final int e = Math.min(count, chunkStart + chunkSize);
+			tasks.add(pool.submit(() -> {
+				// the indices passing the test
+				int[] hits = new int[e-s];
+				int hitCount = 0;
+				for (int i=s; i<e; i++) {
+					if (test.test(i)) hits[hitCount++] = i;
+				}
+				return Arrays.copyOf(hits, hitCount);
+			}));
+		}
+		BitSet result = new BitSet();
+		for (ForkJoinTask<int[]> task : tasks) {
+			for (int i : task.join()) {
+				result.set(resultIndices != null ? resultIndices[i] : i);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Stop the threads of the pool.
+	 */
+	@Override
+	public void close() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Find the next probable prime by testing windows of odd numbers.
+	 * @param N
+	 * @return first probable prime &gt; N
+	 */
+	public BigInteger nextProbablePrime(BigInteger N) {
+		if (N.compareTo(I_2) < 0) return I_2;
+		// the first odd number > N
+		BigInteger start = N.testBit(0) ? N.add(I_2) : N.add(I_1);
+		// a window of odd numbers containing about one prime on average
+		final int count = Math.max(16, (int) (N.bitLength() * Math.log(2) / 2));
+		final BigInteger windowSize = BigInteger.valueOf(2L*count);
+		while (true) {
+			BitSet result = testProgression(start, 2, count);
+			final int i = result.nextSetBit(0);
+			if (i >= 0) return start.add(BigInteger.valueOf(2L*i));
+			start = start.add(windowSize);
+		}
+	}
+
+	/**
+	 * Compare performance with single BPSW tests.
+	 * @param args ignored
+	 */
+	public static void main(String[] args) {
+		ConfigUtil.initProject();
+		SecureRandom rng = new SecureRandom();
+		BatchPrimeTest batchTest = new BatchPrimeTest(ConfigUtil.NUMBER_OF_PROCESSORS);
+		BPSWTest bpsw = new BPSWTest();
+		for (int bits = 64; bits <= 1024; bits <<= 1) {
+			final int count = 200000 / bits * 64;
+			BigInteger[] candidates = new BigInteger[count];
+			for (int i=0; i<count; i++) {
+				candidates[i] = new BigInteger(bits, rng).setBit(0);
+			}
+			long t0 = System.currentTimeMillis();
+			int primeCount = 0;
+			for (BigInteger N : candidates) {
+				if (bpsw.isProbablePrime(N)) primeCount++;
+			}
+			long t1 = System.currentTimeMillis();
+			BitSet result = batchTest.isProbablePrime(candidates);
+			long t2 = System.currentTimeMillis();
+			BitSet progressionResult = batchTest.testProgression(candidates[0], 2, count);
+			long t3 = System.currentTimeMillis();
+			LOG.info(bits + " bit: BPSWTest found " + primeCount + " primes in " + (t1-t0) + "ms, batch test found " + result.cardinality() + " primes in " + (t2-t1) + "ms; progression test found " + progressionResult.cardinality() + " primes among " + count + " odd numbers in " + (t3-t2) + "ms");
+		}
+		batchTest.close();
+	}
+}
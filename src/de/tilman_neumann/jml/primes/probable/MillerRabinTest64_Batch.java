@@ -0,0 +1,353 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.primes.probable;
+
+import static de.tilman_neumann.jml.primes.probable.BPSWTest64.*;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.BitSet;
+
+import org.apache.log4j.Logger;
+
+import de.tilman_neumann.util.ConfigUtil;
+
+/**
+ * Deterministic Miller-Rabin test for many long arguments at once.
+ *
+ * LANES arguments are processed in lockstep: All per-argument data is stored in arrays indexed by lane,
+ * and every step of the modular exponentiation is a simple loop over the lanes doing independent Montgomery multiplications,
+ * so that the CPU can overlap their latencies.
+ *
+ * The arguments are tested base by base. After each base, the arguments that have been found composite are dropped
+ * and the survivors are compacted, so that the lanes are always filled with arguments that still need testing.
+ * Arguments &lt; 4759123141 are tested to the bases 2, 7, 61 [Jaeschke], larger ones to the 7 bases found by Jim Sinclair.
+ * Both sets of bases give proven results.
+ *
+ * isPrime(long) is the scalar version of the same test.
+ *
+ * @author Tilman Neumann
+ */
+public class MillerRabinTest64_Batch {
+	private static final Logger LOG = Logger.getLogger(MillerRabinTest64_Batch.class);
+
+	/** the number of arguments processed in lockstep */
+	private static final int LANES = 8;
+	/** the number of arguments pre-filtered at once */
+	private static final int BLOCK_SIZE = 1024;
+	/** the window size of the modular exponentiation */
+	private static final int WINDOW_BITS = 3;
+
+	/** the bases 2, 7, 61 are sufficient for N below this bound */
+	private static final long BASES_32_BOUND = 4759123141L;
+	private static final int[] BASES_32 = new int[] {2, 7, 61};
+	private static final int[] BASES_64 = new int[] {2, 325, 9375, 28178, 450775, 9780504, 1795265022};
+
+	// lane registers
+	private final long[] n = new long[LANES];
+	private final long[] minusNInv = new long[LANES];
+	private final long[] one = new long[LANES];
+	private final long[] minusOne = new long[LANES];
+	private final long[] d = new long[LANES];
+	private final int[] s = new int[LANES];
+	private final long[] baseM = new long[LANES];
+	/** powers[k][l] = base^k in Montgomery form for lane l, k = 0, ..., 2^WINDOW_BITS - 1 */
+	private final long[][] powers = new long[1<<WINDOW_BITS][LANES];
+	private final long[] x = new long[LANES];
+	private final boolean[] passed = new boolean[LANES];
+
+	/**
+	 * The arguments that still need testing, with the Montgomery constants that do not depend on the base.
+	 */
+	private static class Candidates {
+		final int[] index;
+		final long[] N;
+		final long[] minusNInv;
+		/** R mod N */
+		final long[] one;
+		/** R^2 mod N */
+		final long[] r2;
+		int count = 0;
+
+		Candidates(int capacity) {
+			index = new int[capacity];
+			N = new long[capacity];
+			minusNInv = new long[capacity];
+			one = new long[capacity];
+			r2 = new long[capacity];
+		}
+
+		void add(int i, long Ni) {
+			index[count] = i;
+			N[count] = Ni;
+			minusNInv[count] = -inverse(Ni);
+			one[count] = Long.remainderUnsigned(-Ni, Ni);
+			r2[count] = rSquare(Ni, minusNInv[count], one[count]);
+			count++;
+		}
+
+		/**
+		 * Move candidate j to position k &lt;= j.
+		 */
+		void move(int j, int k) {
+			index[k] = index[j];
+			N[k] = N[j];
+			minusNInv[k] = minusNInv[j];
+			one[k] = one[j];
+			r2[k] = r2[j];
+		}
+	}
+
+	/** the arguments of the current block that need a Miller-Rabin test, separated by size */
+	private final Candidates small = new Candidates(BLOCK_SIZE);
+	private final Candidates large = new Candidates(BLOCK_SIZE);
+
+	/**
+	 * Deterministic prime test, scalar version.
+	 * @param N the sign is ignored
+	 * @return true if N is prime, false if it is composite
+	 */
+	public boolean isPrime(long N) {
+		if (N < 0) {
+			if (N == Long.MIN_VALUE) return false; // 2^63
+			N = -N;
+		}
+		final int smallResult = smallPrimeTest(N);
+		if (smallResult >= 0) return smallResult == 1;
+
+		final long minusNInv = -inverse(N);
+		final long one = Long.remainderUnsigned(-N, N);
+		final long minusOne = N - one;
+		final long NMinus1 = N - 1;
+		final int s = Long.numberOfTrailingZeros(NMinus1);
+		final long d = NMinus1 >>> s;
+		final long r2 = rSquare(N, minusNInv, one);
+		for (int base : N < BASES_32_BOUND ? BASES_32 : BASES_64) {
+			final long baseM = montMul(base < N ? base : base % N, r2, N, minusNInv);
+			if (baseM == 0) continue; // N divides the base
+			long x = one;
+			for (int i = 63 - Long.numberOfLeadingZeros(d); i >= 0; i--) {
+				x = montMul(x, x, N, minusNInv);
+				if (((d>>>i) & 1) != 0) x = montMul(x, baseM, N, minusNInv);
+			}
+			if (x == one || x == minusOne) continue;
+			boolean passed = false;
+			for (int r=1; r<s; r++) {
+				x = montMul(x, x, N, minusNInv);
+				if (x == minusOne) {
+					passed = true;
+					break;
+				}
+				if (x == one) return false; // non-trivial square root of 1
+			}
+			if (!passed) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Deterministic prime test of many arguments.
+	 * @param N the signs are ignored
+	 * @return BitSet with bit i set if N[i] is prime
+	 */
+	public BitSet isPrime(long[] N) {
+		final BitSet result = new BitSet(N.length);
+		for (int blockStart = 0; blockStart < N.length; blockStart += BLOCK_SIZE) {
+			final int blockEnd = Math.min(N.length, blockStart + BLOCK_SIZE);
+			small.count = 0;
+			large.count = 0;
+			for (int i=blockStart; i<blockEnd; i++) {
+				long Ni = N[i];
+				if (Ni < 0) {
+					if (Ni == Long.MIN_VALUE) continue; // 2^63
+					Ni = -Ni;
+				}
+				final int smallResult = smallPrimeTest(Ni);
+				if (smallResult == 1) {
+					result.set(i);
+				} else if (smallResult < 0) {
+					if (Ni < BASES_32_BOUND) small.add(i, Ni); else large.add(i, Ni);
+				}
+			}
+
+			for (int base : BASES_32) {
+				testBase(small, base);
+			}
+			for (int base : BASES_64) {
+				testBase(large, base);
+			}
+			for (int j=0; j<small.count; j++) result.set(small.index[j]);
+			for (int j=0; j<large.count; j++) result.set(large.index[j]);
+		}
+		return result;
+	}
+
+	/**
+	 * Trial division by small primes.
+	 * @param N non-negative
+	 * @return 1 if N is prime, 0 if it is composite, -1 if undecided
+	 */
+	private static int smallPrimeTest(long N) {
+		if ((N&1)==0) return N==2 ? 1 : 0;
+		if (N < 3) return 0; // N=1
+		for (int p : SMALL_PRIMES) {
+			if (N % p == 0) return N==p ? 1 : 0;
+		}
+		return N < SMALL_PRIMES_SQUARE_BOUND ? 1 : -1;
+	}
+
+	/**
+	 * Run a strong probable prime test to the given base on all candidates,
+	 * and compact the candidates that passed the test at the beginning of the candidate arrays.
+	 *
+	 * @param candidates
+	 * @param base
+	 */
+	private void testBase(Candidates candidates, int base) {
+		final long[] n = this.n, minusNInv = this.minusNInv, one = this.one, minusOne = this.minusOne, d = this.d, baseM = this.baseM, x = this.x;
+		final int[] s = this.s;
+		final boolean[] passed = this.passed;
+		final int count = candidates.count;
+		int passCount = 0;
+		for (int chunkStart = 0; chunkStart < count; chunkStart += LANES) {
+			final int laneCount = Math.min(LANES, count - chunkStart);
+			// set up lanes; unused lanes repeat the first candidate of the chunk, so that all loops run over all lanes
+			long maxD = 0;
+			int maxS = 0;
+			for (int l=0; l<LANES; l++) {
+				final int j = chunkStart + (l < laneCount ? l : 0);
+				final long Nl = candidates.N[j];
+				n[l] = Nl;
+				minusNInv[l] = candidates.minusNInv[j];
+				one[l] = candidates.one[j];
+				minusOne[l] = Nl - one[l];
+				final long NMinus1 = Nl - 1;
+				s[l] = Long.numberOfTrailingZeros(NMinus1);
+				d[l] = NMinus1 >>> s[l];
+				baseM[l] = montMul(base < Nl ? base : base % Nl, candidates.r2[j], Nl, minusNInv[l]);
+				x[l] = one[l];
+				maxD |= d[l];
+				maxS = Math.max(maxS, s[l]);
+			}
+
+			// x = base^d in Montgomery form, using fixed windows. Multiplying by powers[0] = 1 avoids data-dependent branches.
+			for (int l=0; l<LANES; l++) {
+				powers[0][l] = one[l];
+				powers[1][l] = baseM[l];
+			}
+			for (int k=2; k<(1<<WINDOW_BITS); k++) {
+				final long[] power = powers[k], previous = powers[k-1];
+				for (int l=0; l<LANES; l++) {
+					power[l] = montMulBranchFree(previous[l], baseM[l], n[l], minusNInv[l]);
+				}
+			}
+			final int windowCount = (64 - Long.numberOfLeadingZeros(maxD) + WINDOW_BITS - 1) / WINDOW_BITS;
+			for (int shift = (windowCount-1) * WINDOW_BITS; shift >= 0; shift -= WINDOW_BITS) {
+				for (int k=0; k<WINDOW_BITS; k++) {
+					for (int l=0; l<LANES; l++) {
+						x[l] = montMulBranchFree(x[l], x[l], n[l], minusNInv[l]);
+					}
+				}
+				for (int l=0; l<LANES; l++) {
+					final int digit = (int) (d[l]>>>shift) & ((1<<WINDOW_BITS) - 1);
+					x[l] = montMulBranchFree(x[l], powers[digit][l], n[l], minusNInv[l]);
+				}
+			}
+			for (int l=0; l<LANES; l++) {
+				passed[l] = baseM[l] == 0 || x[l] == one[l] || x[l] == minusOne[l];
+			}
+			// squarings; lanes that reached 1 stay at 1 and need no special treatment
+			for (int r=1; r<maxS; r++) {
+				for (int l=0; l<LANES; l++) {
+					if (passed[l] || r >= s[l]) continue;
+					x[l] = montMul(x[l], x[l], n[l], minusNInv[l]);
+					if (x[l] == minusOne[l]) passed[l] = true;
+				}
+			}
+
+			// compact survivors; the write position never exceeds the read position
+			for (int l=0; l<laneCount; l++) {
+				if (passed[l]) candidates.move(chunkStart + l, passCount++);
+			}
+		}
+		candidates.count = passCount;
+	}
+
+	/**
+	 * Montgomery multiplication for N &lt; 2^63 like BPSWTest64.montMul(), but without data-dependent branches.
+	 * @param a in [0, N)
+	 * @param b in [0, N)
+	 * @param N odd modulus
+	 * @param minusNInv -1/N mod 2^64
+	 * @return a*b/R mod N
+	 */
+	private static long montMulBranchFree(long a, long b, long N, long minusNInv) {
+		final long lo = a * b;
+		final long hi = Math.multiplyHigh(a, b);
+		final long m = lo * minusNInv;
+		final long mNHi = Math.multiplyHigh(m, N) + ((m>>63) & N);
+		final long r = hi + mNHi + ((lo | -lo) >>> 63);
+		final long diff = r - N;
+		// the borrow of the unsigned subtraction r - N
+		final long borrow = ((~r & N) | (~(r ^ N) & diff)) >> 63;
+		return diff + (N & borrow);
+	}
+
+	/**
+	 * @param N odd modulus
+	 * @param minusNInv -1/N mod 2^64
+	 * @param one R mod N
+	 * @return R^2 mod N, which is 2^64 in Montgomery form, computed by squaring 2 six times
+	 */
+	private static long rSquare(long N, long minusNInv, long one) {
+		long x = addMod(one, one, N);
+		for (int k=0; k<6; k++) x = montMul(x, x, N, minusNInv);
+		return x;
+	}
+
+	/**
+	 * Compare results and performance with BPSWTest64.
+	 * @param args ignored
+	 */
+	public static void main(String[] args) {
+		ConfigUtil.initProject();
+		SecureRandom rng = new SecureRandom();
+		BPSWTest64 bpsw64 = new BPSWTest64();
+		MillerRabinTest64_Batch mrBatch = new MillerRabinTest64_Batch();
+		final int count = 1000000;
+		for (int bits = 20; bits <= 63; bits += 43/4) {
+			long[] testNumbers = new long[count];
+			for (int i=0; i<count; i++) {
+				testNumbers[i] = new BigInteger(bits, rng).longValue() | 1;
+			}
+			long t0 = System.currentTimeMillis();
+			int primeCount64 = 0;
+			for (long N : testNumbers) {
+				if (bpsw64.isPrime(N)) primeCount64++;
+			}
+			long t1 = System.currentTimeMillis();
+			int scalarCount = 0;
+			for (long N : testNumbers) {
+				if (mrBatch.isPrime(N)) scalarCount++;
+			}
+			long t2 = System.currentTimeMillis();
+			BitSet result = mrBatch.isPrime(testNumbers);
+			long t3 = System.currentTimeMillis();
+			for (int i=0; i<count; i++) {
+				if (bpsw64.isPrime(testNumbers[i]) != result.get(i)) LOG.error("Results differ for N = " + testNumbers[i]);
+			}
+			LOG.info(bits + " bit: BPSWTest64 found " + primeCount64 + " primes in " + (t1-t0) + "ms, scalar Miller-Rabin found " + scalarCount + " primes in " + (t2-t1) + "ms, batch Miller-Rabin found " + result.cardinality() + " primes in " + (t3-t2) + "ms");
+		}
+	}
+}
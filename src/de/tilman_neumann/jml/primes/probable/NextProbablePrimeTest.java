@@ -108,6 +108,49 @@ public class NextProbablePrimeTest {
 		}
 	}
 	
+	/**
+	 * Performance test generating NCOUNT consecutive primes, comparing nextProbablePrime() with the sieved iterator.
+	 */
+	private static void testConsecutivePrimesPerformance() {
+		for (int nBits = 64; nBits <= 1024; nBits<<=1) {
+			LOG.info("Test performance of " + NCOUNT + " consecutive primes with " + nBits + " bits:");
+			final BigInteger start = new BigInteger(nBits, RNG).setBit(nBits-1);
+
+			long startMillis, duration;
+			TreeMap<Long, List<String>> duration_2_algLists = new TreeMap<Long, List<String>>();
+
+			// test BPSW
+			startMillis = System.currentTimeMillis();
+			BigInteger p = start;
+			for (int i=0; i<NCOUNT; i++) {
+				p = bpsw.nextProbablePrime(p);
+			}
+			duration = System.currentTimeMillis() - startMillis;
+			addToMap(duration_2_algLists, duration, "BPSW");
+
+			// test built-in method
+			startMillis = System.currentTimeMillis();
+			p = start;
+			for (int i=0; i<NCOUNT; i++) {
+				p = p.nextProbablePrime();
+			}
+			duration = System.currentTimeMillis() - startMillis;
+			addToMap(duration_2_algLists, duration, "Java");
+
+			// test sieved iterator
+			startMillis = System.currentTimeMillis();
+			SievedPrimeIterator iterator = new SievedPrimeIterator(start.add(I_1));
+			for (int i=0; i<NCOUNT; i++) {
+				p = iterator.next();
+			}
+			duration = System.currentTimeMillis() - startMillis;
+			addToMap(duration_2_algLists, duration, "SievedPrimeIterator");
+
+			// results for nBits
+			logMap(duration_2_algLists);
+		}
+	}
+	
 	private static void addToMap(TreeMap<Long, List<String>> duration_2_algLists, Long duration, String algStr) {
 		List<String> algList = duration_2_algLists.get(duration);
 		if (algList==null) algList = new ArrayList<String>();
@@ -135,6 +178,7 @@ public class NextProbablePrimeTest {
 	public static void main(String[] args) {
 		ConfigUtil.initProject(); // set up logger
 		//testCorrectness();
+		testConsecutivePrimesPerformance();
 		testPerformance();
 	}
 }
@@ -22,9 +22,9 @@ import java.util.HashSet;
  * A probable prime test for arbitrary precision numbers.
  * 
  * For N<32 bit it does trial division. Otherwise it checks the residues of N % 30030, and then 
- * does a Miller-Rabin test with Sinclairs bases for N<64 bit, or a BPSW test for larger N.
+ * does a BPSW test with 64-bit Montgomery arithmetic (BPSWTest64) for N<64 bit, or a BPSW test on BigIntegers for larger N.
  * 
- * Note that both the Sinclair-Miller-Rabin and BPSW test are considered deterministic prime tests for N<=2^64.
+ * Note that the BPSW test is considered a deterministic prime test for N<=2^64.
  * 
  * See http://en.wikipedia.org/wiki/Baillie-PSW_primality_test
  * and http://miller-rabin.appspot.com/.
@@ -32,9 +32,6 @@ import java.util.HashSet;
  * @author Tilman Neumann
  */
 public class PrPTest {
-	/** The 7 Miller-Rabin bases found by Jim Sinclair */
-	private static final BigInteger[] SINCLAIR_BASES = new BigInteger[] {I_2, BigInteger.valueOf(325), BigInteger.valueOf(9375), BigInteger.valueOf(28178), BigInteger.valueOf(450775), BigInteger.valueOf(9780504), BigInteger.valueOf(1795265022)};
-
 	/** 2*3*5*7*11*13 = 30030 */
 	private static final BigInteger BIG_30030 = BigInteger.valueOf(30030);
 
@@ -50,9 +47,10 @@ public class PrPTest {
 	//private TDivPrimeTest tdiv = new TDivPrimeTest();
 	private MillerRabinTest millerRabinTest = new MillerRabinTest();
 	private LucasTest lucasTest = new LucasTest();
+	private BPSWTest64 bpsw64 = new BPSWTest64();
 
     public boolean isProbablePrime(long N) {
-    	return isProbablePrime(BigInteger.valueOf(N)); // TODO: faster implementation for long?
+    	return bpsw64.isPrime(N); // deterministic
     }
 
     public boolean isProbablePrime(BigInteger N) {
@@ -69,11 +67,9 @@ public class PrPTest {
 		if (!primeRestsMod30030.contains(N.mod(BIG_30030).intValue())) return false;
 
         if (Nbits < 64) {
-        	// For N<64 bit, a deterministic Miller-Rabin test is faster than BPSW.
-        	// Note that the algorithm would fail for N = 3, 5, 13, 19, 73, 193, 407521, 299210837, 
-        	// which are the factors of the bases. But all these N < 32 bit are tested by tdiv above,
-        	// so no problem here...
-    		return millerRabinTest.testBases(N, SINCLAIR_BASES);
+        	// For N<64 bit, BPSW with 64-bit Montgomery arithmetic is deterministic and much faster than
+        	// the Miller-Rabin test with Sinclair's bases on BigIntegers.
+    		return bpsw64.isPrime(N.longValue());
         }
 
 		// Do BPSW test: The Lucas test is not carried out if N fails the base 2 Miller-Rabin test.
@@ -0,0 +1,145 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.primes.probable;
+
+import java.math.BigInteger;
+
+import de.tilman_neumann.jml.primes.exact.AutoExpandingPrimesArray;
+
+/**
+ * Sieves arithmetic progressions start + i*step, i = 0, 1, ..., count-1 by small primes.
+ * Once the residues of start modulo the small primes are known, only int arithmetic is needed.
+ *
+ * @author Tilman Neumann
+ */
+class ProgressionSieve {
+	/** the sieving primes, starting with 2 */
+	final int[] primes;
+
+	/**
+	 * Constructor.
+	 * @param primeBound the sieving primes are all primes &lt; primeBound
+	 */
+	ProgressionSieve(int primeBound) {
+		AutoExpandingPrimesArray primesArray = AutoExpandingPrimesArray.get().ensureLimit(primeBound);
+		final int primeCount = primesArray.getInsertPosition(primeBound - 1);
+		primes = new int[primeCount];
+		for (int i=0; i<primeCount; i++) {
+			primes[i] = primesArray.getPrime(i);
+		}
+	}
+
+	/**
+	 * Compute the residues of N modulo the sieving primes, folding the 32-bit words of N.
+	 * @param N non-negative
+	 * @return N mod p for all sieving primes p
+	 */
+	int[] residues(BigInteger N) {
+		final long[] words = words(N);
+		final int[] residues = new int[primes.length];
+		for (int j=0; j<primes.length; j++) {
+			residues[j] = mod(words, primes[j]);
+		}
+		return residues;
+	}
+
+	/**
+	 * @param N non-negative
+	 * @return the 32-bit words of N, most significant first
+	 */
+	static long[] words(BigInteger N) {
+		final byte[] bytes = N.toByteArray();
+		final int wordCount = (bytes.length + 3) >> 2;
+		final long[] words = new long[wordCount];
+		for (int i=0; i<bytes.length; i++) {
+			final int fromEnd = bytes.length - 1 - i;
+			words[wordCount - 1 - (fromEnd>>2)] |= (bytes[i] & 0xFFL) << ((fromEnd & 3) << 3);
+		}
+		return words;
+	}
+
+	/**
+	 * @param words the 32-bit words of N, most significant first
+	 * @param m positive int
+	 * @return N mod m
+	 */
+	static int mod(long[] words, int m) {
+		long r = 0;
+		for (long word : words) {
+			r = ((r << 32) | word) % m;
+		}
+		return (int) r;
+	}
+
+	/**
+	 * Update the residues of start to the residues of start + delta.
+	 * @param residues
+	 * @param delta non-negative
+	 */
+	void advance(int[] residues, long delta) {
+		for (int j=0; j<primes.length; j++) {
+			final int p = primes[j];
+			residues[j] = (int) ((residues[j] + delta % p) % p);
+		}
+	}
+
+	/**
+	 * Mark the elements of the progression that are divisible by some sieving prime, except the sieving primes themselves.
+	 * @param residues the residues of start modulo the sieving primes
+	 * @param start the start of the progression as long, if it is less than 2^31; otherwise -1
+	 * @param step
+	 * @param count
+	 * @param composite bitmap of size &gt;= (count+63)/64; bit i is set if start + i*step is divisible by a sieving prime
+	 */
+	void sieve(int[] residues, long start, int step, int count, long[] composite) {
+		for (int j=0; j<primes.length; j++) {
+			final int p = primes[j];
+			final int r = residues[j];
+			final int stepModP = step % p;
+			int i;
+			int increment;
+			if (stepModP == 0) {
+				// either all or no elements are divisible by p
+				if (r != 0) continue;
+				i = 0;
+				increment = 1;
+			} else {
+				// solve r + i*step == 0 (mod p)
+				i = (int) (((long) (p - r) * modInverse(stepModP, p)) % p);
+				increment = p;
+			}
+			for ( ; i < count; i += increment) {
+				if (start >= 0 && start + (long)i*step == p) continue; // p itself is prime
+				composite[i>>>6] |= 1L << i;
+			}
+		}
+	}
+
+	/**
+	 * @param a with 0 &lt; a &lt; p
+	 * @param p prime
+	 * @return 1/a mod p
+	 */
+	private static int modInverse(int a, int p) {
+		// extended Euclid
+		int r0 = p, r1 = a;
+		int s0 = 0, s1 = 1;
+		while (r1 != 0) {
+			final int q = r0 / r1;
+			int tmp = r0 - q*r1; r0 = r1; r1 = tmp;
+			tmp = s0 - q*s1; s0 = s1; s1 = tmp;
+		}
+		return s0 < 0 ? s0 + p : s0;
+	}
+}
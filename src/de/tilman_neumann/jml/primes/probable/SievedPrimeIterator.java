@@ -0,0 +1,144 @@
+/*
+ * java-math-library is a Java library focused on number theory, but not necessarily limited to it. It is based on the PSIQS 4.0 factoring project.
+ * Copyright (C) 2018 Tilman Neumann (www.tilman-neumann.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program;
+ * if not, see <http://www.gnu.org/licenses/>.
+ */
+package de.tilman_neumann.jml.primes.probable;
+
+import static de.tilman_neumann.jml.base.BigIntConstants.*;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator over the probable primes in [from, to], or all probable primes &gt;= from.
+ *
+ * The odd numbers are processed in windows [N, N+2W). Each window is sieved by the primes &lt; SIEVE_PRIME_BOUND,
+ * using the residues N mod p. These are computed once for the first window and then advanced by int arithmetic.
+ * Only the survivors of the sieve are tested by BPSW, and only when the next prime is requested.
+ *
+ * Instances are not thread-safe.
+ *
+ * @author Tilman Neumann
+ */
+public class SievedPrimeIterator implements Iterator<BigInteger> {
+	/** the primes &lt; SIEVE_PRIME_BOUND are used to sieve the windows */
+	private static final int SIEVE_PRIME_BOUND = 65536;
+	/** the minimum number of odd numbers per window */
+	private static final int MIN_WINDOW_COUNT = 1024;
+	/** the desired average number of primes per window */
+	private static final int PRIMES_PER_WINDOW = 64;
+
+	private static ProgressionSieve progressionSieve = null;
+
+	private final BigInteger to;
+	private final BPSWTest bpsw = new BPSWTest();
+	/** the number of odd numbers per window */
+	private final int windowCount;
+	private final long[] composite;
+	private final int[] residues;
+
+	/** the first odd number of the current window */
+	private BigInteger windowStart;
+	/** the index of the next odd number to look at in the current window */
+	private int windowIndex;
+	/** true if 2 is in the range and has not been returned yet */
+	private boolean pending2;
+	/** the next prime if already found, otherwise null */
+	private BigInteger nextPrime = null;
+	private boolean exhausted = false;
+
+	/**
+	 * Constructor for an iterator over all probable primes &gt;= from.
+	 * @param from
+	 */
+	public SievedPrimeIterator(BigInteger from) {
+		this(from, null);
+	}
+
+	/**
+	 * Full constructor.
+	 * @param from lower bound (inclusive)
+	 * @param to upper bound (inclusive), or null for an unbounded iterator
+	 */
+	public SievedPrimeIterator(BigInteger from, BigInteger to) {
+		if (from.compareTo(I_2) < 0) from = I_2;
+		this.to = to;
+		pending2 = from.equals(I_2);
+		// the first odd number >= max(from, 3)
+		windowStart = from.testBit(0) ? from : from.add(I_1);
+		// choose the window size such that it contains PRIMES_PER_WINDOW primes on average
+		windowCount = Math.max(MIN_WINDOW_COUNT, (int) (PRIMES_PER_WINDOW * windowStart.bitLength() * Math.log(2) / 2));
+		composite = new long[(windowCount+63)>>6];
+		residues = getProgressionSieve().residues(windowStart);
+		sieveWindow();
+	}
+
+	private static synchronized ProgressionSieve getProgressionSieve() {
+		if (progressionSieve == null) progressionSieve = new ProgressionSieve(SIEVE_PRIME_BOUND);
+		return progressionSieve;
+	}
+
+	private void sieveWindow() {
+		Arrays.fill(composite, 0);
+		progressionSieve.sieve(residues, windowStart.bitLength() < 32 ? windowStart.longValue() : -1, 2, windowCount, composite);
+		windowIndex = 0;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (nextPrime == null && !exhausted) nextPrime = findNextPrime();
+		return nextPrime != null;
+	}
+
+	@Override
+	public BigInteger next() {
+		if (!hasNext()) throw new NoSuchElementException();
+		final BigInteger result = nextPrime;
+		nextPrime = null;
+		return result;
+	}
+
+	/**
+	 * @return the next probable prime, or null if there is none &lt;= to
+	 */
+	private BigInteger findNextPrime() {
+		if (pending2) {
+			pending2 = false;
+			if (to == null || to.compareTo(I_2) >= 0) return I_2;
+		}
+		while (true) {
+			for ( ; windowIndex < windowCount; windowIndex++) {
+				if ((composite[windowIndex>>>6] & (1L << windowIndex)) != 0) continue;
+				final BigInteger candidate = windowStart.add(BigInteger.valueOf(2L*windowIndex));
+				if (to != null && candidate.compareTo(to) > 0) {
+					exhausted = true;
+					return null;
+				}
+				if (bpsw.isProbablePrime(candidate)) {
+					windowIndex++;
+					return candidate;
+				}
+			}
+			// next window
+			final long delta = 2L*windowCount;
+			windowStart = windowStart.add(BigInteger.valueOf(delta));
+			if (to != null && windowStart.compareTo(to) > 0) {
+				exhausted = true;
+				return null;
+			}
+			progressionSieve.advance(residues, delta);
+			sieveWindow();
+		}
+	}
+}